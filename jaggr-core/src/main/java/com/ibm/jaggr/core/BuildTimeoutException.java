@@ -0,0 +1,32 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request gives up waiting for a build to complete.  Builds
+ * performed on behalf of other requests are not affected and will continue to
+ * completion on the threads that own them.
+ */
+public class BuildTimeoutException extends IOException {
+	private static final long serialVersionUID = 6270581838463711227L;
+
+	public BuildTimeoutException(String message) {
+		super(message);
+	}
+}
@@ -76,6 +76,15 @@ public interface IAggregator {
 	public static final String CONCURRENTMAP_REQATTRNAME = IAggregator.class
 			.getName() + ".ConcurrentMap"; //$NON-NLS-1$
 
+	/**
+	 * Name of the request attribute that indicates the request is being
+	 * processed to prime the cache rather than on behalf of a user.  Work done
+	 * for priming requests may be given lower priority than work done for
+	 * user requests.
+	 */
+	public static final String PRIMING_REQATTRNAME = IAggregator.class
+			.getName() + ".priming"; //$NON-NLS-1$
+
 	/**
 	 * Returns the name of the servlet implementing this interface. This is same
 	 * as the value of the alias attribute in the &lt;servlet&gt; element of the
@@ -86,6 +86,24 @@ public class InitParams implements Iterable<InitParam>{
 	 */
 	public static final String MAXLAYERCACHECAPACITY_MB_INITPARAM = "maxlayercachecapacity_mb"; //$NON-NLS-1$
 
+	/**
+	 * Name of the servlet init-param that specifies the admission policy used by
+	 * the layer cache when it is full.  Valid values are <code>lru</code> (the default),
+	 * which always caches new layer builds, and <code>tinylfu</code>, which caches
+	 * a new layer build only if it is requested more often than the least recently
+	 * used build that would be evicted to make room for it.
+	 */
+	public static final String LAYERCACHEPOLICY_INITPARAM = "layercachepolicy"; //$NON-NLS-1$
+
+	/**
+	 * Name of the servlet init-param that specifies the maximum amount of module
+	 * build output, in megabytes, to keep in memory after it has been written to
+	 * the cache.  Builds in excess of this amount are read from their cache files.
+	 * If not specified, module build output is not kept in memory once it has
+	 * been written to the cache.
+	 */
+	public static final String MAXMODULECACHECAPACITY_MB_INITPARAM = "maxmodulecachecapacity_mb"; //$NON-NLS-1$
+
 	/**
 	 * Name of the servlet init-param that specifies aggregator aliases within the servlet
 	 */
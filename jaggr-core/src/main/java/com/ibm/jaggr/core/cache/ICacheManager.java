@@ -17,6 +17,7 @@
 package com.ibm.jaggr.core.cache;
 
 import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.util.SlabAllocator;
 
 import java.io.File;
 import java.io.IOException;
@@ -145,6 +146,27 @@ public interface ICacheManager {
 	 */
 	public File getCacheDir();
 
+	/**
+	 * Returns the allocator used to keep persisted build output in off-heap
+	 * storage.  Cache entries that hold off-heap storage must free it when
+	 * the entry is deleted.
+	 *
+	 * @return The allocator, or null if off-heap storage is not enabled
+	 */
+	public SlabAllocator getSlabAllocator();
+
+	/**
+	 * Returns an input stream for reading the specified cache file.  If
+	 * memory mapped cache files are enabled, the stream reads from a memory
+	 * mapped region that is shared with other readers of the same file.
+	 *
+	 * @param filename
+	 *            The name of the cache file, not including path information
+	 * @return The input stream
+	 * @throws IOException
+	 */
+	public InputStream getCacheFileInputStream(String filename) throws IOException;
+
 	/**
 	 * Interface used to provide a file creation callback. Instances of this
 	 * class are specified when calling
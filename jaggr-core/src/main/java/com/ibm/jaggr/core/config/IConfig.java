@@ -145,6 +145,20 @@ public interface IConfig {
 	 * Static constant specifying the name of the {@code has} config property
 	 */
 	public static final String HAS_CONFIGPARAM = "has";  //$NON-NLS-1$
+
+	/**
+	 * Static constant specifying the name of the {@code hasCacheSize} config
+	 * param.  The value is the maximum number of request URLs for which the
+	 * values of function valued default features are cached.  A value of 0
+	 * disables the cache.
+	 */
+	public static final String HASCACHESIZE_CONFIGPARAM = "hasCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * Default value for the {@code hasCacheSize} config param
+	 */
+	public static final int HASCACHESIZE_DEFAULT = 1000;
+
 	/**
 	 * Static constant specifying the name of the {@code textPluginDelegators}
 	 * config param.
@@ -364,7 +378,12 @@ public interface IConfig {
 	 * property is a JavaScript function, then the function is invoked at the time this method is
 	 * called to evalute the value of the feature. The function takes one formal parameter which is
 	 * the request URL, and the returned value will be coerced to a boolean before being assigned as
-	 * the value of the feature.
+	 * the value of the feature.  The values returned by the functions are cached by request URL
+	 * (see {@link #HASCACHESIZE_CONFIGPARAM}), so the functions should depend only on the URL.
+	 * <p>
+	 * If the value of a property is a regular expression, then the value of the feature is true if
+	 * the regular expression matches any part of the request URL.  Regular expressions are
+	 * evaluated in Java, without calling into JavaScript.
 	 *
 	 * @param url
 	 *            the request URL, or null.
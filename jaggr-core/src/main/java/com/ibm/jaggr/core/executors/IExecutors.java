@@ -58,6 +58,15 @@ public interface IExecutors {
 	 */
 	public ScheduledExecutorService getFileDeleteExecutor();
 
+	/**
+	 * Returns an executor used for low priority background work, such as
+	 * optimizing cached content that has already been served. The submitted
+	 * task runs when the executor's thread becomes available.
+	 * 
+	 * @return An executor service
+	 */
+	public ExecutorService getBackgroundExecutor();
+
 	/**
 	 * Shuts down the executor services. Any tasks that have been submitted to
 	 * the delete executor that have not yet been dispatched will be completed
@@ -17,6 +17,7 @@
 package com.ibm.jaggr.core.impl;
 
 import com.ibm.jaggr.core.BadRequestException;
+import com.ibm.jaggr.core.BuildTimeoutException;
 import com.ibm.jaggr.core.DependencyVerificationException;
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.IAggregatorExtension;
@@ -43,9 +44,11 @@ import com.ibm.jaggr.core.impl.cache.CacheManagerImpl;
 import com.ibm.jaggr.core.impl.cache.GzipCacheImpl;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
 import com.ibm.jaggr.core.impl.deps.DependenciesImpl;
+import com.ibm.jaggr.core.impl.executors.PriorityBuildScheduler;
 import com.ibm.jaggr.core.impl.layer.LayerImpl;
 import com.ibm.jaggr.core.impl.module.ModuleImpl;
 import com.ibm.jaggr.core.impl.resource.NotFoundResource;
+import com.ibm.jaggr.core.layer.IETagProvider;
 import com.ibm.jaggr.core.layer.ILayer;
 import com.ibm.jaggr.core.layer.ILayerCache;
 import com.ibm.jaggr.core.layer.ILayerListener;
@@ -63,6 +66,7 @@ import com.ibm.jaggr.core.util.CopyUtil;
 import com.ibm.jaggr.core.util.RequestUtil;
 import com.ibm.jaggr.core.util.SequenceNumberProvider;
 import com.ibm.jaggr.core.util.StringUtil;
+import com.ibm.jaggr.core.util.TypeUtil;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -129,6 +133,31 @@ import javax.servlet.http.HttpServletResponse;
  */
 @SuppressWarnings({ "serial", "deprecation" })
 public abstract class AbstractAggregatorImpl extends HttpServlet implements IAggregator {
+	/**
+	 * Name of the aggregator option that enables priority scheduling of module
+	 * builds.  When enabled, builds for layers with fewer modules run before
+	 * builds for larger layers, builds for priming requests (see
+	 * {@link IAggregator#PRIMING_REQATTRNAME}) run after builds for user
+	 * requests, and builds that other requests are waiting on are boosted.
+	 * Tasks that have been waiting longer gain priority so that no build is
+	 * starved.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_PRIORITIZE_BUILDS = "prioritizeBuilds"; //$NON-NLS-1$
+
+	/**
+	 * Number of milliseconds that builds for priming requests are deferred
+	 * relative to builds for user requests when build prioritization is enabled
+	 */
+	protected static final long PRIMING_BUILD_DELAY_MILLIS = 10000;
+
+	/**
+	 * Number of milliseconds that builds are deferred for each module in the
+	 * layer being built when build prioritization is enabled
+	 */
+	protected static final long LAYER_MODULE_BUILD_DELAY_MILLIS = 20;
+
 	/**
 	 * Default value for resourcefactories init-param
 	 */
@@ -183,6 +212,8 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 
 	private ThreadLocal<HttpServletRequest> currentRequest = new ThreadLocal<HttpServletRequest>();
 
+	private PriorityBuildScheduler buildScheduler = null;
+
 	/* (non-Javadoc)
 	 * @see javax.servlet.GenericServlet#init(javax.servlet.ServletConfig)
 	 */
@@ -483,6 +514,30 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 
 	}
 
+	/**
+	 * Returns true if the value of an If-None-Match request header matches the
+	 * specified entity tag, using the weak comparison function required for
+	 * If-None-Match.
+	 *
+	 * @param ifNoneMatch
+	 *            the value of the If-None-Match header
+	 * @param etag
+	 *            the quoted entity tag of the current response
+	 * @return true if the header matches
+	 */
+	protected boolean isETagMatch(String ifNoneMatch, String etag) {
+		for (String tag : ifNoneMatch.split(",")) { //$NON-NLS-1$
+			tag = tag.trim();
+			if (tag.startsWith("W/")) { //$NON-NLS-1$
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) { //$NON-NLS-1$
+				return true;
+			}
+		}
+		return false;
+	}
+
 	protected void processAggregatorRequest(HttpServletRequest req, HttpServletResponse resp) {
 		final String sourceMethod = "processAggregatorRequest"; //$NON-NLS-1$
 		boolean isTraceLogging = log.isLoggable(Level.FINER);
@@ -529,11 +584,26 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 			ILayer layer = getLayer(req);
 			long modifiedSince = req.getDateHeader("If-Modified-Since"); //$NON-NLS-1$
 			long lastModified = (Math.max(getCacheManager().getCache().getCreated(), layer.getLastModified(req)) / 1000) * 1000;
-			if (modifiedSince >= lastModified && !RequestUtil.isIgnoreCached(req)) {
+			String ifNoneMatch = req.getHeader("If-None-Match"); //$NON-NLS-1$
+			String etag = null;
+			boolean notModified;
+			if (ifNoneMatch != null) {
+				// If-None-Match takes precedence over If-Modified-Since (RFC 7232).  The
+				// entity tag comes from the cached layer build without reading the content.
+				etag = (RequestUtil.isIgnoreCached(req) || !(layer instanceof IETagProvider)) ?
+						null : ((IETagProvider)layer).getETag(req);
+				notModified = etag != null && isETagMatch(ifNoneMatch, etag);
+			} else {
+				notModified = modifiedSince >= lastModified;
+			}
+			if (notModified && !RequestUtil.isIgnoreCached(req)) {
 				if (log.isLoggable(Level.FINER)) {
 					log.finer("Returning Not Modified response for layer in servlet" +  //$NON-NLS-1$
 							getName() + ":" + req.getAttribute(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME).toString()); //$NON-NLS-1$
 				}
+				if (etag != null) {
+					resp.setHeader("ETag", etag); //$NON-NLS-1$
+				}
 				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
 			}
 			else {
@@ -604,6 +674,12 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 			} else {
 				resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
 			}
+		} catch (BuildTimeoutException e) {
+			// Timed out waiting for a build owned by another request.  Release the
+			// thread and let the client retry.
+			logException(req, Level.INFO, sourceMethod, e);
+			resp.addHeader("Cache-control", "no-store"); //$NON-NLS-1$ //$NON-NLS-2$
+			resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
 		} catch (BadRequestException e) {
 			exceptionResponse(req, resp, e, HttpServletResponse.SC_BAD_REQUEST);
 		} catch (NotFoundException e) {
@@ -1672,7 +1748,7 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 	 */
 	@Override
 	public Future<?> buildAsync(final Callable<?> builder, final HttpServletRequest req) {
-		return getExecutors().getBuildExecutor().submit(new Callable<Object>() {
+		Callable<Object> task = new Callable<Object>() {
 			public Object call() throws Exception {
 				AbstractAggregatorImpl.this.currentRequest.set(req);
 				Object result;
@@ -1683,7 +1759,42 @@ public abstract class AbstractAggregatorImpl extends HttpServlet implements IAgg
 				}
 				return result;
 			}
-		});
+		};
+		IOptions options = getOptions();
+		if (options != null && TypeUtil.asBoolean(options.getOption(OPTION_PRIORITIZE_BUILDS))) {
+			return getBuildScheduler().submit(task, getBuildDeadline(req));
+		}
+		return getExecutors().getBuildExecutor().submit(task);
+	}
+
+	/**
+	 * @return the scheduler used to run module builds in priority order
+	 */
+	protected synchronized PriorityBuildScheduler getBuildScheduler() {
+		if (buildScheduler == null) {
+			buildScheduler = new PriorityBuildScheduler(getExecutors().getBuildExecutor());
+		}
+		return buildScheduler;
+	}
+
+	/**
+	 * Returns the deadline used to order the build for the specified request
+	 * when build prioritization is enabled.  Builds with earlier deadlines run
+	 * first.
+	 *
+	 * @param req
+	 *            the request the build is for
+	 * @return the deadline in milliseconds
+	 */
+	protected long getBuildDeadline(HttpServletRequest req) {
+		long deadline = System.currentTimeMillis();
+		if (req != null) {
+			if (TypeUtil.asBoolean(req.getAttribute(PRIMING_REQATTRNAME))) {
+				deadline += PRIMING_BUILD_DELAY_MILLIS;
+			}
+			deadline += TypeUtil.asInt(req.getAttribute(ILayer.MODULECOUNT_REQATTRNAME), 0) * LAYER_MODULE_BUILD_DELAY_MILLIS;
+		}
+		return deadline;
 	}
 
 	/* (non-Javadoc)
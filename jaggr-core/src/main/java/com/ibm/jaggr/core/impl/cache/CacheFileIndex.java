@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.cache;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content addressed index of cache files.  Maps the digest of a cache file's
+ * content to the name of the file, and counts the number of cache entries that
+ * reference each file, so that cache entries with identical content can share
+ * a single cache file.  The index is serialized along with the cache so that
+ * the reference counts survive a restart.  The live index is serialized while
+ * other threads add and release references, so a snapshot of the maps is taken
+ * under the lock and written without holding it.
+ */
+public class CacheFileIndex implements Serializable {
+	private static final long serialVersionUID = -3716406578211637425L;
+
+	/** Map of content digest to file name.  Guarded by this */
+	private final Map<String, String> digests = new HashMap<String, String>();
+
+	/** Map of file name to file info.  Guarded by this */
+	private final Map<String, FileInfo> files = new HashMap<String, FileInfo>();
+
+	/**
+	 * Adds a reference to the file with the specified content digest.  If the
+	 * index already contains a file with the same digest, then the reference
+	 * count for that file is incremented and its name is returned.  Otherwise,
+	 * {@code filename} is added to the index with a reference count of one.
+	 *
+	 * @param digest
+	 *            the digest of the file content
+	 * @param filename
+	 *            the name of the newly created file
+	 * @return the name of the file that the caller should use.  If not the same
+	 *         as {@code filename}, then the caller should delete {@code filename}.
+	 */
+	public synchronized String addReference(String digest, String filename) {
+		String existing = digests.get(digest);
+		if (existing != null) {
+			files.get(existing).refs++;
+			return existing;
+		}
+		digests.put(digest, filename);
+		files.put(filename, new FileInfo(digest));
+		return filename;
+	}
+
+	/**
+	 * Releases a reference to the specified file.
+	 *
+	 * @param filename
+	 *            the file name
+	 * @return true if the file is no longer referenced and may be deleted.
+	 *         Files that are not in the index are not shared, so true is
+	 *         returned for those as well.
+	 */
+	public synchronized boolean release(String filename) {
+		FileInfo info = files.get(filename);
+		if (info == null) {
+			return true;
+		}
+		if (--info.refs > 0) {
+			return false;
+		}
+		files.remove(filename);
+		digests.remove(info.digest);
+		return true;
+	}
+
+	/**
+	 * @param filename
+	 *            the file name
+	 * @return the number of references to the file, or 0 if the file is not
+	 *         in the index
+	 */
+	public synchronized int getRefCount(String filename) {
+		FileInfo info = files.get(filename);
+		return info != null ? info.refs : 0;
+	}
+
+	/**
+	 * @return the number of files in the index
+	 */
+	public synchronized int size() {
+		return files.size();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		Map<String, String> digestsCopy;
+		Map<String, FileInfo> filesCopy;
+		synchronized (this) {
+			digestsCopy = new HashMap<String, String>(digests);
+			filesCopy = new HashMap<String, FileInfo>();
+			for (Map.Entry<String, FileInfo> entry : files.entrySet()) {
+				filesCopy.put(entry.getKey(), entry.getValue().copy());
+			}
+		}
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("digests", digestsCopy); //$NON-NLS-1$
+		fields.put("files", filesCopy); //$NON-NLS-1$
+		out.writeFields();
+	}
+
+	@Override
+	public synchronized String toString() {
+		int refs = 0;
+		for (FileInfo info : files.values()) {
+			refs += info.refs;
+		}
+		return new StringBuffer("CacheFileIndex(") //$NON-NLS-1$
+		.append("files:").append(files.size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("references:").append(refs).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static class FileInfo implements Serializable {
+		private static final long serialVersionUID = 2350931546467352812L;
+
+		private final String digest;
+		private int refs = 1;
+
+		private FileInfo(String digest) {
+			this.digest = digest;
+		}
+
+		private FileInfo copy() {
+			FileInfo result = new FileInfo(digest);
+			result.refs = refs;
+			return result;
+		}
+	}
+}
@@ -38,6 +38,8 @@ public class CacheImpl implements ICache {
 
 	private final long _created;
 
+	private CacheFileIndex _fileIndex;
+
 	public CacheImpl(ILayerCache layerCache, IModuleCache moduleCache, IGzipCache gzipCache, Object control) {
 		_layerCache = layerCache;
 		_moduleCache = moduleCache;
@@ -45,6 +47,7 @@ public class CacheImpl implements ICache {
 		_control = control;
 
 		_created = new Date().getTime();
+		_fileIndex = new CacheFileIndex();
 	}
 
 	/**
@@ -77,6 +80,17 @@ public class CacheImpl implements ICache {
 		return _control;
 	}
 
+	/**
+	 * @return The index of shared cache files
+	 */
+	public synchronized CacheFileIndex getFileIndex() {
+		if (_fileIndex == null) {
+			// Cache was serialized before file sharing was introduced
+			_fileIndex = new CacheFileIndex();
+		}
+		return _fileIndex;
+	}
+
 	/**
 	 * Help out the GC by clearing out the cache maps.
 	 */
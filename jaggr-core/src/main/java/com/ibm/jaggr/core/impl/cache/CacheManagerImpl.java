@@ -30,6 +30,9 @@ import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.options.IOptionsListener;
 import com.ibm.jaggr.core.util.ConsoleService;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.MappedFileCache;
+import com.ibm.jaggr.core.util.SlabAllocator;
+import com.ibm.jaggr.core.util.TypeUtil;
 
 import org.apache.commons.io.input.ReaderInputStream;
 import org.apache.commons.lang3.StringUtils;
@@ -46,14 +49,23 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -65,6 +77,40 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 	private static final Logger log = Logger.getLogger(CacheManagerImpl.class.getName());
 
 	private static final String CACHEDIR_NAME = "cache"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that specifies the size, in megabytes, of the
+	 * off-heap store for persisted layer and module builds.  When non-zero, cache
+	 * entries keep a copy of their build output in direct byte buffers after the
+	 * output has been written to disk, instead of reading the cache file on each
+	 * request.  Builds that don't fit are read from disk as usual.
+	 * <p>
+	 * Valid values: Integer value &gt;= 0
+	 */
+	public static final String OPTION_OFFHEAP_CACHE_SIZE = "offHeapCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that specifies the size, in megabytes, of the
+	 * memory mapped regions for cache files.  When non-zero, cache files are read
+	 * through a read-only mapping that is shared by all requests for the file,
+	 * instead of opening and reading the file for each request.  Least recently
+	 * used mappings are dropped when the limit is exceeded.
+	 * <p>
+	 * Valid values: Integer value &gt;= 0
+	 */
+	public static final String OPTION_MAPPED_CACHE_SIZE = "mappedCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that specifies whether layer and module builds
+	 * with identical content share a single cache file.  When true, the content of
+	 * each new cache file is hashed, and if a cache file with the same content
+	 * already exists, then the new file is discarded and the existing file is
+	 * used instead.  Shared files are reference counted and are deleted when the
+	 * last cache entry that uses them is deleted.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_SHARE_CACHE_FILES = "shareCacheFiles"; //$NON-NLS-1$
 	/**
 	 * Reference the cache with an atomic reference so that we don't need to synchronize
 	 * access to it.  The atomic reference is needed for when we swap the cache out with
@@ -88,6 +134,18 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 
 	private Object cacheSerializerSyncObj = new Object();
 
+	/** Cache file creations that have been submitted but have not completed */
+	private final Set<Future<?>> _pendingCreates =
+			Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+
+	private SlabAllocator _slabAllocator = null;
+
+	private Object slabAllocatorSyncObj = new Object();
+
+	private volatile MappedFileCache _mappedFileCache = null;
+
+	private Object mappedFileCacheSyncObj = new Object();
+
 	/**
 	 * Starts up the cache. Attempts to de-serialize a previously serialized
 	 * cache from disk and starts the periodic serializer task.
@@ -227,6 +285,10 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 		// IAggregator.getCacheManager() may be unable to return this object
 		// if it is still being constructed.
 		newCache.setAggregator(AggregatorProxy.newInstance(_aggregator, this));
+		MappedFileCache mappedFileCache = _mappedFileCache;
+		if (mappedFileCache != null) {
+			mappedFileCache.clear();
+		}
 		clean(_directory);
 		CacheImpl oldCache = _cache.getAndSet(newCache);
 		if (oldCache != null) {
@@ -268,6 +330,70 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 		return _directory;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.cache.ICacheManager#getSlabAllocator()
+	 */
+	@Override
+	public SlabAllocator getSlabAllocator() {
+		IAggregator aggregator = _aggregator;
+		if (aggregator == null) {
+			return null;
+		}
+		long capacity = TypeUtil.asInt(aggregator.getOptions().getOption(OPTION_OFFHEAP_CACHE_SIZE), 0) * 1024L * 1024L;
+		synchronized (slabAllocatorSyncObj) {
+			if (capacity <= 0) {
+				_slabAllocator = null;
+			} else if (_slabAllocator == null || _slabAllocator.getCapacity() != capacity) {
+				// Existing allocations keep a reference to the old allocator and free
+				// their storage to it.
+				_slabAllocator = new SlabAllocator(capacity);
+			}
+			return _slabAllocator;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.cache.ICacheManager#getCacheFileInputStream(java.lang.String)
+	 */
+	@Override
+	public InputStream getCacheFileInputStream(String filename) throws IOException {
+		File file = new File(_directory, filename);
+		MappedFileCache mappedFileCache = getMappedFileCache();
+		InputStream in = null;
+		if (mappedFileCache != null) {
+			in = mappedFileCache.getInputStream(file);
+		}
+		return in != null ? in : new FileInputStream(file);
+	}
+
+	/**
+	 * Returns the cache of memory mapped regions for cache files, creating a new
+	 * one if the size specified by {@link #OPTION_MAPPED_CACHE_SIZE} has changed.
+	 *
+	 * @return the mapped file cache, or null if mapped cache files are not enabled
+	 */
+	protected MappedFileCache getMappedFileCache() {
+		IAggregator aggregator = _aggregator;
+		if (aggregator == null) {
+			return null;
+		}
+		long capacity = TypeUtil.asInt(aggregator.getOptions().getOption(OPTION_MAPPED_CACHE_SIZE), 0) * 1024L * 1024L;
+		synchronized (mappedFileCacheSyncObj) {
+			if (capacity <= 0) {
+				if (_mappedFileCache != null) {
+					_mappedFileCache.clear();
+				}
+				_mappedFileCache = null;
+			} else if (_mappedFileCache == null || _mappedFileCache.getCapacity() != capacity) {
+				if (_mappedFileCache != null) {
+					_mappedFileCache.clear();
+				}
+				_mappedFileCache = new MappedFileCache(capacity);
+			}
+			return _mappedFileCache;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.cache.ICacheManager#getCache()
 	 */
@@ -285,7 +411,22 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 	@Override
 	public void serializeCache() {
 
-		// Queue up the serialization behind any pending cache file creations.
+		// Wait for any pending cache file creations so that the serialized cache
+		// doesn't reference files that haven't been written.  The file create
+		// executor may run more than one task at a time, so queuing up the
+		// serialization behind the pending creations isn't enough.
+		for (Future<?> pending : new ArrayList<Future<?>>(_pendingCreates)) {
+			try {
+				pending.get(5, TimeUnit.MINUTES);	// time-out after 5 minutes
+			} catch (ExecutionException ignore) {
+				// The cache file wasn't created.  Nothing to wait for.
+			} catch (Exception e) {
+				if (log.isLoggable(Level.SEVERE))
+					log.log(Level.SEVERE, e.getMessage(), e);
+				throw new RuntimeException(e);
+			}
+		}
+
 		Future<Void> future = _aggregator.getExecutors().getFileCreateExecutor().submit(new Callable<Void>() {
 			public Void call() {
 				// Synchronize on the cache object to keep the scheduled cache sync thread and
@@ -347,6 +488,30 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 		}
 	}
 
+	/**
+	 * Submits a cache file creation task to the file create executor and
+	 * tracks it until it completes, so that {@link #serializeCache()} can wait
+	 * for it.
+	 *
+	 * @param task
+	 *            the task that creates the cache file
+	 */
+	private void submitCreate(Runnable task) {
+		FutureTask<Void> future = new FutureTask<Void>(task, null) {
+			@Override
+			protected void done() {
+				_pendingCreates.remove(this);
+			}
+		};
+		_pendingCreates.add(future);
+		try {
+			_aggregator.getExecutors().getFileCreateExecutor().execute(future);
+		} catch (RejectedExecutionException e) {
+			_pendingCreates.remove(future);
+			throw e;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.cache.ICacheManager#createCacheFileAsync(java.lang.String, java.io.Reader, com.ibm.jaggr.service.cache.ICacheManager.CreateCompletionCallback)
 	 */
@@ -363,15 +528,35 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 	public void createCacheFileAsync(final String fileNamePrefix, final InputStream is,
 			final CreateCompletionCallback callback) {
 
-		_aggregator.getExecutors().getFileCreateExecutor().submit(new Runnable() {
+		submitCreate(new Runnable() {
 			public void run() {
 				File file = null;
 				try {
 					file = File.createTempFile(fileNamePrefix, ".cache", _directory); //$NON-NLS-1$
+					MessageDigest md = TypeUtil.asBoolean(_aggregator.getOptions().getOption(OPTION_SHARE_CACHE_FILES)) ?
+							newContentDigest() : null;
 					OutputStream os = new FileOutputStream(file);
+					if (md != null) {
+						os = new DigestOutputStream(os, md);
+					}
 					CopyUtil.copy(is, os);
+					String filename = file.getName();
+					CacheImpl cache = _cache.get();
+					if (md != null && cache != null) {
+						// Share the existing cache file if one with the same content exists
+						filename = cache.getFileIndex().addReference(
+								TypeUtil.byteArray2String(md.digest()), filename);
+						if (!filename.equals(file.getName()) && !file.delete()) {
+							if (log.isLoggable(Level.WARNING)) {
+								log.warning(MessageFormat.format(
+										Messages.CacheManagerImpl_8,
+										new Object[]{file.getAbsolutePath()}
+										));
+							}
+						}
+					}
 					if (callback != null) {
-						callback.completed(file.getName(), null);
+						callback.completed(filename, null);
 					}
 				} catch (IOException e) {
 					if (log.isLoggable(Level.WARNING))
@@ -391,7 +576,7 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 	@Override
 	public void externalizeCacheObjectAsync(final String fileNamePrefix, final Object object,
 			final CreateCompletionCallback callback) {
-		_aggregator.getExecutors().getFileCreateExecutor().submit(new Runnable() {
+		submitCreate(new Runnable() {
 			File file = null;
 			public void run() {
 				try {
@@ -421,7 +606,7 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 	@Override
 	public void createNamedCacheFileAsync(final String filename, final InputStream is,
 			final CreateCompletionCallback callback) {
-		_aggregator.getExecutors().getFileCreateExecutor().submit(new Runnable() {
+		submitCreate(new Runnable() {
 			File file = null;
 			public void run() {
 				try {
@@ -454,7 +639,17 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 	public void deleteFileDelayed(final String fname) {
 		_aggregator.getExecutors().getFileDeleteExecutor().schedule(new Runnable() {
 			public void run() {
+				CacheImpl cache = _cache.get();
+				if (cache != null && !cache.getFileIndex().release(fname)) {
+					// File is still shared by other cache entries
+					return;
+				}
 				File file = new File(_directory, fname);
+				// Drop the mapping for the file, if any, before deleting it
+				MappedFileCache mappedFileCache = _mappedFileCache;
+				if (mappedFileCache != null) {
+					mappedFileCache.remove(file);
+				}
 				try {
 					if (!file.delete()) {
 						if (log.isLoggable(Level.WARNING)) {
@@ -474,6 +669,23 @@ public class CacheManagerImpl implements ICacheManager, IShutdownListener, IConf
 
 	}
 
+	/**
+	 * Returns the message digest used to identify cache files with identical
+	 * content, or null if the digest algorithm is not available.
+	 *
+	 * @return the message digest
+	 */
+	protected MessageDigest newContentDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, e.getMessage(), e);
+			}
+			return null;
+		}
+	}
+
 	@Override
 	public synchronized void optionsUpdated(IOptions options, long sequence) {
 		final String sourceMethod = "optionsUpdated"; //$NON-NLS-1$
@@ -33,6 +33,8 @@ import com.ibm.jaggr.core.util.HasNode;
 import com.ibm.jaggr.core.util.PathUtil;
 import com.ibm.jaggr.core.util.TypeUtil;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.EvaluatorException;
@@ -72,6 +74,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener {
 	private static final Logger log = Logger.getLogger(ConfigImpl.class.getName());
@@ -99,6 +102,7 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 	private Set<String> jsPluginDelegators;
 	private Scriptable sharedScope;
 	private Map<String, Object> defaultFeatureMap;
+	private Map<String, Features> defaultFeaturesCache;
 
 	protected List<IServiceRegistration> serviceRegs = new LinkedList<IServiceRegistration>();
 
@@ -250,6 +254,7 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 			textPluginDelegators = loadTextPluginDelegators(rawConfig);
 			jsPluginDelegators = loadJsPluginDelegators(rawConfig);
 			defaultFeatureMap = loadDefaultFeatures(rawConfig);
+			defaultFeaturesCache = newDefaultFeaturesCache(rawConfig);
 		} catch (URISyntaxException e) {
 			throw new IOException(e);
 		}
@@ -399,28 +404,56 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 	 */
 	@Override
 	public Features getDefaultFeatures(String url) {
+		Map<String, Features> cache = defaultFeaturesCache;
+		// The cache doesn't support null keys
+		String key = url != null ? url : ""; //$NON-NLS-1$
+		Features cached = cache != null ? cache.get(key) : null;
+		if (cached != null) {
+			// Features are mutable, so return a copy
+			return new Features(cached);
+		}
 		Features result = new Features();
-		for (Map.Entry<String, Object> entry : defaultFeatureMap.entrySet()) {
-			// value is either a Boolean or Function
-			Object value = entry.getValue();
-			if (value instanceof Function) {
-				Context cx = Context.enter();
-				try {
-					Scriptable threadScope = cx.newObject(sharedScope);
-					threadScope.setPrototype(sharedScope);
-					threadScope.setParentScope(null);
+		Context cx = null;
+		Scriptable threadScope = null;
+		try {
+			for (Map.Entry<String, Object> entry : defaultFeatureMap.entrySet()) {
+				// value is either a Boolean, Pattern or Function
+				Object value = entry.getValue();
+				if (value instanceof Function) {
+					if (cx == null) {
+						cx = Context.enter();
+						threadScope = cx.newObject(sharedScope);
+						threadScope.setPrototype(sharedScope);
+						threadScope.setParentScope(null);
+					}
 					Boolean booleanValue = Context.toBoolean(((Function)value).call(cx, threadScope, null, new Object[]{url}));
 					result.put(entry.getKey(), booleanValue);
-				} finally {
-					Context.exit();
+				} else if (value instanceof Pattern) {
+					result.put(entry.getKey(), url != null && ((Pattern)value).matcher(url).find());
+				} else {
+					result.put(entry.getKey(), (Boolean)value);
 				}
-			} else {
-				result.put(entry.getKey(), (Boolean)value);
 			}
+		} finally {
+			if (cx != null) {
+				Context.exit();
+			}
+		}
+		if (cache != null) {
+			cache.put(key, new Features(result));
 		}
 		return result;
 	}
 
+	/**
+	 * Returns the cache of default feature values.  Used for unit testing.
+	 *
+	 * @return the cache, or null
+	 */
+	protected Map<String, Features> getDefaultFeaturesCache() {
+		return defaultFeaturesCache;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.config.IConfig#getRawConfig()
 	 */
@@ -1349,12 +1382,80 @@ public class ConfigImpl implements IConfig, IShutdownListener, IOptionsListener
 			for (Object key : ((Scriptable)hasProp).getIds()) {
 				String name = toString(key);
 				Object valueObj = ((Scriptable)hasProp).get(name, (Scriptable)hasProp);
-				result.put(name, valueObj instanceof Function ? valueObj : (Boolean)Context.toBoolean(valueObj));
+				Pattern pattern = valueObj instanceof Scriptable ? toPattern((Scriptable)valueObj) : null;
+				if (pattern != null) {
+					result.put(name, pattern);
+				} else {
+					result.put(name, valueObj instanceof Function ? valueObj : (Boolean)Context.toBoolean(valueObj));
+				}
 			}
 		}
 		return Collections.unmodifiableMap(result);
 	}
 
+	/**
+	 * Returns the Java equivalent of the specified JavaScript regular
+	 * expression, or null if the object is not a regular expression or the
+	 * regular expression is not supported by Java.  Regular expression
+	 * objects are callable in Rhino, so unsupported ones are evaluated as
+	 * functions.
+	 *
+	 * @param obj
+	 *            the object to convert
+	 * @return the Java regular expression, or null
+	 */
+	protected Pattern toPattern(Scriptable obj) {
+		if (!"RegExp".equals(obj.getClassName())) { //$NON-NLS-1$
+			return null;
+		}
+		int flags = 0;
+		if (Context.toBoolean(ScriptableObject.getProperty(obj, "ignoreCase"))) { //$NON-NLS-1$
+			flags |= Pattern.CASE_INSENSITIVE;
+		}
+		if (Context.toBoolean(ScriptableObject.getProperty(obj, "multiline"))) { //$NON-NLS-1$
+			flags |= Pattern.MULTILINE;
+		}
+		try {
+			return Pattern.compile(toString(ScriptableObject.getProperty(obj, "source")), flags); //$NON-NLS-1$
+		} catch (PatternSyntaxException e) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, e.getMessage(), e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the cache for the values of the default features, or null if
+	 * none of the default features are specified by functions or caching is
+	 * disabled by the {@link #HASCACHESIZE_CONFIGPARAM} config param.
+	 *
+	 * @param cfg
+	 *            The parsed config JavaScript as a properties map
+	 * @return the cache, or null
+	 */
+	protected Map<String, Features> newDefaultFeaturesCache(Scriptable cfg) {
+		int size = HASCACHESIZE_DEFAULT;
+		Object oSize = cfg.get(HASCACHESIZE_CONFIGPARAM, cfg);
+		if (oSize != Scriptable.NOT_FOUND) {
+			try {
+				size = Integer.parseInt(toString(oSize));
+			} catch (NumberFormatException ignore) {
+				throw new IllegalArgumentException(HASCACHESIZE_CONFIGPARAM+"="+oSize); //$NON-NLS-1$
+			}
+		}
+		boolean hasFunctions = false;
+		for (Object value : defaultFeatureMap.values()) {
+			hasFunctions |= value instanceof Function;
+		}
+		if (size <= 0 || !hasFunctions) {
+			return null;
+		}
+		return new ConcurrentLinkedHashMap.Builder<String, Features>()
+				.maximumWeightedCapacity(size)
+				.build();
+	}
+
 	/**
 	 * Calls the registered config modifiers to give them an opportunity to
 	 * modify the raw config before config properties are evaluated.
@@ -45,7 +45,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -163,13 +162,13 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 		}
 		final ExecutorService executor = Executors.newSingleThreadExecutor();
 		processingDeps = true;
-		final AtomicBoolean processDepsThreadStarted = new AtomicBoolean(false);
+		final CountDownLatch processDepsThreadStarted = new CountDownLatch(1);
 		final ConsoleService cs = new ConsoleService();
 		try {
 			executor.execute(new Runnable() {
 				public void run() {
 					rwl.writeLock().lock();
-					processDepsThreadStarted.set(true);
+					processDepsThreadStarted.countDown();
 					// initialize the console service for the worker thread.
 					ConsoleService workerCs = new ConsoleService(cs);
 					try {
@@ -191,10 +190,9 @@ public class DependenciesImpl implements IDependencies, IConfigListener, IOption
 			// this thread can safely determine when the worker thread has finished by
 			// calling getExpandedDependencies() and waiting for it to return (or
 			// not throw ProcessingDependenciesException when in development mode).
-			int maxWait = 50;	// Max wait = 5 seconds
-			while (processingDeps && !processDepsThreadStarted.get() && maxWait-- > 0) {
-				Thread.sleep(100);
-			}
+			// Wait on the latch rather than polling so that the wait ends as soon
+			// as the lock is obtained.
+			processDepsThreadStarted.await(5, TimeUnit.SECONDS);
 		} catch (RejectedExecutionException e) {
 			if (log.isLoggable(Level.SEVERE)) {
 				log.log(Level.SEVERE, e.getMessage(), e);
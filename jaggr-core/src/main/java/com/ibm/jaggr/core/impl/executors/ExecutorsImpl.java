@@ -18,6 +18,7 @@ package com.ibm.jaggr.core.impl.executors;
 
 import com.ibm.jaggr.core.cache.ICacheManager;
 import com.ibm.jaggr.core.executors.IExecutors;
+import com.ibm.jaggr.core.util.TypeUtil;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -25,9 +26,11 @@ import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,10 +39,53 @@ public class ExecutorsImpl implements IExecutors {
 
 	private static final Logger log = Logger.getLogger(ICacheManager.class.getName());
 
+	/**
+	 * Name of the property that specifies the number of module builder threads.
+	 * The default is the number of available processors, but not less than
+	 * {@link #DEFAULT_MIN_BUILD_THREADS}.
+	 */
+	public static final String BUILD_THREADS_PROPNAME = "com.ibm.jaggr.buildThreads"; //$NON-NLS-1$
+
+	/**
+	 * Name of the property that specifies the number of threads used to create
+	 * cache files.  The default is 1.
+	 */
+	public static final String FILE_CREATE_THREADS_PROPNAME = "com.ibm.jaggr.fileCreateThreads"; //$NON-NLS-1$
+
+	/**
+	 * Name of the property that specifies the number of threads used to delete
+	 * cache files.  The default is 1.
+	 */
+	public static final String FILE_DELETE_THREADS_PROPNAME = "com.ibm.jaggr.fileDeleteThreads"; //$NON-NLS-1$
+
+	/**
+	 * Name of the property that specifies whether the module builder threads
+	 * should use a work-stealing pool instead of a fixed thread pool with a
+	 * shared queue.  Requires a Java 7 or later runtime.  Since threads in a
+	 * work-stealing pool are not replaced when they block, this is best suited
+	 * to CPU-bound builds such as Closure compilation.
+	 */
+	public static final String WORKSTEALING_BUILDS_PROPNAME = "com.ibm.jaggr.workStealingBuilds"; //$NON-NLS-1$
+
+	/**
+	 * Name of the property that specifies whether the cache file create
+	 * executor should use virtual threads.  Requires a Java 21 or later
+	 * runtime.  The number of threads is still bounded by
+	 * {@link #FILE_CREATE_THREADS_PROPNAME} and tasks are started in the order
+	 * they are submitted.  Module builds, which are CPU bound, continue to run
+	 * on the bounded platform thread pool, and the scheduled executors keep
+	 * their fixed pools of platform threads.
+	 */
+	public static final String VIRTUAL_THREADS_PROPNAME = "com.ibm.jaggr.virtualThreads"; //$NON-NLS-1$
+
+	/** The minimum default number of module builder threads */
+	public static final int DEFAULT_MIN_BUILD_THREADS = 10;
+
 	/* Thread group name constants */
 	private static final String SCHEDULED_EXECUTOR_THREADNAME = "Aggregator Scheduled Executor"; //$NON-NLS-1$
 	private static final String CACHE_FILE_CREATOR_THREADNAME = "Aggregator Cache File Creator"; //$NON-NLS-1$
 	private static final String CACHE_FILE_DELETOR_THREADNAME = "Aggregator Cache File Deletor"; //$NON-NLS-1$
+	private static final String BACKGROUND_EXECUTOR_THREADNAME = "Aggregator Background Executor"; //$NON-NLS-1$
 	private static final String MODULE_BUILDER_THREADNAME = "{0} Thread - {1}"; //$NON-NLS-1$
 
 	/** {@link ExecutorService} thread pool used to compile javascript modules */
@@ -58,6 +104,9 @@ public class ExecutorsImpl implements IExecutors {
 
 	private ExecutorService buildExecutor;
 
+	/** Single thread, low priority {@link ExecutorService} used for background work */
+	private ExecutorService backgroundExecutor;
+
 	private transient boolean opened = false;
 
 	public ExecutorsImpl() {
@@ -69,11 +118,21 @@ public class ExecutorsImpl implements IExecutors {
 			ExecutorService buildExecutor,
 			ScheduledThreadPoolExecutor deleteExecutor,
 			ScheduledExecutorService scheduledExecutor) {
+		this(createExecutor, buildExecutor, deleteExecutor, scheduledExecutor, null);
+	}
+
+	public ExecutorsImpl(
+			ExecutorService createExecutor,
+			ExecutorService buildExecutor,
+			ScheduledThreadPoolExecutor deleteExecutor,
+			ScheduledExecutorService scheduledExecutor,
+			ExecutorService backgroundExecutor) {
 
 		this.createExecutor = createExecutor;
 		this.buildExecutor = buildExecutor;
 		this.deleteExecutor = deleteExecutor;
 		this.scheduledExecutor = scheduledExecutor;
+		this.backgroundExecutor = backgroundExecutor;
 
 	}
 	private void open() {
@@ -88,33 +147,54 @@ public class ExecutorsImpl implements IExecutors {
 						}
 					});
 		}
+		boolean useVirtualThreads = TypeUtil.asBoolean(getProperty(VIRTUAL_THREADS_PROPNAME));
 		if (createExecutor == null) {
-			createExecutor =
-					Executors.newSingleThreadExecutor(new ThreadFactory() {
-						public Thread newThread(Runnable r) {
-							return new Thread(r, CACHE_FILE_CREATOR_THREADNAME);
-						}
-					});
+			ThreadFactory factory = null;
+			if (useVirtualThreads) {
+				factory = newVirtualThreadFactory(CACHE_FILE_CREATOR_THREADNAME);
+			}
+			if (factory == null) {
+				factory = new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						return new Thread(r, CACHE_FILE_CREATOR_THREADNAME);
+					}
+				};
+			}
+			// A fixed pool with a shared queue, even for virtual threads, so that
+			// the number of concurrent writes is bounded and tasks start in the
+			// order they are submitted.
+			createExecutor = new InstrumentedExecutorService(CACHE_FILE_CREATOR_THREADNAME,
+					Executors.newFixedThreadPool(getIntProperty(FILE_CREATE_THREADS_PROPNAME, 1), factory));
 		}
 		if (buildExecutor == null) {
-			buildExecutor =
-					Executors.newFixedThreadPool(10, new ThreadFactory() {
-						public Thread newThread(Runnable r) {
-							return new Thread(buildTG, r,
-									MessageFormat.format(MODULE_BUILDER_THREADNAME,
-											new Object[]{
-											buildTG.getName(),
-											buildTG.activeCount()
-									}
-											)
-									);
-						}
-					});
+			int numThreads = getIntProperty(BUILD_THREADS_PROPNAME,
+					Math.max(DEFAULT_MIN_BUILD_THREADS, Runtime.getRuntime().availableProcessors()));
+			ExecutorService executor = null;
+			if (TypeUtil.asBoolean(getProperty(WORKSTEALING_BUILDS_PROPNAME))) {
+				executor = newWorkStealingPool(numThreads);
+			}
+			if (executor == null) {
+				executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+						new LinkedBlockingQueue<Runnable>(),
+						new ThreadFactory() {
+							public Thread newThread(Runnable r) {
+								return new Thread(buildTG, r,
+										MessageFormat.format(MODULE_BUILDER_THREADNAME,
+												new Object[]{
+												buildTG.getName(),
+												buildTG.activeCount()
+										}
+												)
+										);
+							}
+						});
+			}
+			buildExecutor = new InstrumentedExecutorService(MODULE_BUILDER_TGNAME, executor);
 		}
-		/** Single thread {@link ScheduledExecutorService} used to asynchronously delete cache files */
+		/** {@link ScheduledExecutorService} used to asynchronously delete cache files */
 		if (deleteExecutor == null) {
 			deleteExecutor =
-					new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					new ScheduledThreadPoolExecutor(getIntProperty(FILE_DELETE_THREADS_PROPNAME, 1), new ThreadFactory() {
 						public Thread newThread(Runnable r) {
 							Thread t = new Thread(r, CACHE_FILE_DELETOR_THREADNAME);
 							t.setPriority(Thread.MIN_PRIORITY);
@@ -122,9 +202,94 @@ public class ExecutorsImpl implements IExecutors {
 						}
 					});
 		}
+		if (backgroundExecutor == null) {
+			backgroundExecutor = new InstrumentedExecutorService(BACKGROUND_EXECUTOR_THREADNAME,
+					Executors.newSingleThreadExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, BACKGROUND_EXECUTOR_THREADNAME);
+							t.setPriority(Thread.MIN_PRIORITY);
+							return t;
+						}
+					}));
+		}
 		opened = true;
 	}
 
+	/**
+	 * Returns the value of the named configuration property.  This
+	 * implementation returns the Java system property.  Sub-classes running in
+	 * a container with other configuration sources (e.g. OSGi framework
+	 * properties) may override this method.
+	 *
+	 * @param name
+	 *            the property name
+	 * @return the property value, or null
+	 */
+	protected String getProperty(String name) {
+		return System.getProperty(name);
+	}
+
+	/**
+	 * @param name
+	 *            the property name
+	 * @param defaultValue
+	 *            the value to return if the property is not specified or is
+	 *            not a positive integer
+	 * @return the integer value of the named property
+	 */
+	protected int getIntProperty(String name, int defaultValue) {
+		int result = TypeUtil.asInt(getProperty(name), defaultValue);
+		return result > 0 ? result : defaultValue;
+	}
+
+	/**
+	 * Returns a factory for virtual threads with the specified name.  The
+	 * factory is created reflectively so that this class can still be loaded
+	 * by runtimes that don't support virtual threads.
+	 *
+	 * @param name
+	 *            the thread name
+	 * @return the thread factory, or null if not supported by the runtime
+	 */
+	protected ThreadFactory newVirtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null); //$NON-NLS-1$
+			builder = builderClass.getMethod("name", String.class).invoke(builder, name); //$NON-NLS-1$
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder); //$NON-NLS-1$
+		} catch (Exception e) {
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, e.getMessage(), e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a work-stealing pool for module builds.  The pool is created
+	 * reflectively so that this class can still be loaded by Java 6 runtimes.
+	 *
+	 * @param parallelism
+	 *            the target number of active threads
+	 * @return the work-stealing pool, or null if not supported by the runtime
+	 */
+	protected ExecutorService newWorkStealingPool(int parallelism) {
+		try {
+			Class<?> poolClass = Class.forName("java.util.concurrent.ForkJoinPool"); //$NON-NLS-1$
+			Class<?> factoryClass = Class.forName("java.util.concurrent.ForkJoinPool$ForkJoinWorkerThreadFactory"); //$NON-NLS-1$
+			Object factory = poolClass.getField("defaultForkJoinWorkerThreadFactory").get(null); //$NON-NLS-1$
+			// Use async (FIFO) mode since build tasks are never joined
+			return (ExecutorService)poolClass
+					.getConstructor(int.class, factoryClass, Thread.UncaughtExceptionHandler.class, boolean.class)
+					.newInstance(parallelism, factory, null, true);
+		} catch (Exception e) {
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, e.getMessage(), e);
+			}
+			return null;
+		}
+	}
+
 	public synchronized void shutdown() {
 
 		if (!opened) return;
@@ -135,6 +300,7 @@ public class ExecutorsImpl implements IExecutors {
 		executors.add(deleteExecutor);
 		executors.add(createExecutor);
 		executors.add(buildExecutor);
+		executors.add(backgroundExecutor);
 
 		for(ExecutorService executor : executors) {
 			executor.shutdown();
@@ -191,4 +357,34 @@ public class ExecutorsImpl implements IExecutors {
 		return createExecutor;
 	}
 
+	@Override
+	public ExecutorService getBackgroundExecutor() {
+		if (!opened) open();
+		return backgroundExecutor;
+	}
+
+	/**
+	 * Returns the statistics of the instrumented executors, one per line.
+	 * Executors that were provided by the creator of this object are not
+	 * instrumented.
+	 */
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		String linesep = System.getProperty("line.separator"); //$NON-NLS-1$
+		for (ExecutorService executor : new ExecutorService[]{buildExecutor, createExecutor, backgroundExecutor}) {
+			if (executor instanceof InstrumentedExecutorService) {
+				sb.append(executor).append(linesep);
+			}
+		}
+		if (deleteExecutor != null) {
+			sb.append(CACHE_FILE_DELETOR_THREADNAME).append("(") //$NON-NLS-1$
+			.append("threads:").append(deleteExecutor.getPoolSize()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+			.append("queued:").append(deleteExecutor.getQueue().size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+			.append("active:").append(deleteExecutor.getActiveCount()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+			.append("completed:").append(deleteExecutor.getCompletedTaskCount()).append(")").append(linesep); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return sb.toString();
+	}
+
 }
@@ -0,0 +1,204 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.executors;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ExecutorService} that delegates to another executor service and
+ * keeps statistics about the tasks it runs.  The statistics include the number
+ * of tasks waiting to run, the number of tasks running, and the time tasks
+ * spend waiting and running.  Statistics are kept with atomic counters so
+ * that instrumentation doesn't add contention between tasks.
+ */
+public class InstrumentedExecutorService extends AbstractExecutorService {
+
+	private final String name;
+	private final ExecutorService delegate;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong totalRunNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * @param name
+	 *            the name of the executor, used for reporting
+	 * @param delegate
+	 *            the executor that runs the tasks
+	 */
+	public InstrumentedExecutorService(String name, ExecutorService delegate) {
+		this.name = name;
+		this.delegate = delegate;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(final Runnable command) {
+		final long queued = System.nanoTime();
+		submitted.incrementAndGet();
+		try {
+			delegate.execute(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					long wait = start - queued;
+					started.incrementAndGet();
+					totalWaitNanos.addAndGet(wait);
+					long max;
+					while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait));
+					try {
+						command.run();
+					} finally {
+						totalRunNanos.addAndGet(System.nanoTime() - start);
+						completed.incrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			submitted.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the name of the executor
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the executor that runs the tasks
+	 */
+	public ExecutorService getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return the number of tasks waiting to run
+	 */
+	public long getQueueDepth() {
+		return submitted.get() - started.get();
+	}
+
+	/**
+	 * @return the number of tasks that are running
+	 */
+	public long getActiveCount() {
+		return started.get() - completed.get();
+	}
+
+	/**
+	 * @return the number of tasks that have finished running
+	 */
+	public long getCompletedTaskCount() {
+		return completed.get();
+	}
+
+	/**
+	 * @return the average time, in milliseconds, that tasks waited to run
+	 */
+	public double getAverageWaitTime() {
+		long count = started.get();
+		return count == 0 ? 0 : totalWaitNanos.get() / (count * 1000000.0);
+	}
+
+	/**
+	 * @return the longest time, in milliseconds, that a task waited to run
+	 */
+	public double getMaxWaitTime() {
+		return maxWaitNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return the average time, in milliseconds, that tasks took to run
+	 */
+	public double getAverageRunTime() {
+		long count = completed.get();
+		return count == 0 ? 0 : totalRunNanos.get() / (count * 1000000.0);
+	}
+
+	/**
+	 * @return the number of threads in the pool, or -1 if not known
+	 */
+	public int getPoolSize() {
+		return (delegate instanceof ThreadPoolExecutor) ? ((ThreadPoolExecutor)delegate).getPoolSize() : -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#shutdown()
+	 */
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#shutdownNow()
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#isShutdown()
+	 */
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#isTerminated()
+	 */
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer(name).append("(") //$NON-NLS-1$
+		.append("threads:").append(getPoolSize()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("queued:").append(getQueueDepth()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("active:").append(getActiveCount()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("completed:").append(getCompletedTaskCount()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("avgWaitMs:").append(String.format("%.2f", getAverageWaitTime())).append(",") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		.append("maxWaitMs:").append(String.format("%.2f", getMaxWaitTime())).append(",") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		.append("avgRunMs:").append(String.format("%.2f", getAverageRunTime())).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
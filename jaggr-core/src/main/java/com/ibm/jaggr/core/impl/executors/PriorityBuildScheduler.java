@@ -0,0 +1,168 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.executors;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs build tasks on an executor in priority order rather than in the order
+ * they were submitted.  Each task is assigned a deadline when it is submitted,
+ * and tasks with earlier deadlines run first.  Because deadlines are absolute
+ * times, a task that has been waiting a long time will eventually outrank
+ * tasks with higher priority that were submitted after it, so low priority
+ * tasks are not starved.
+ * <p>
+ * Tasks are held in a priority queue owned by this object.  For each submitted
+ * task, a runnable is queued to the underlying executor which, when it runs,
+ * removes and runs the task at the head of the priority queue.  This allows
+ * the scheduler to work with any executor, including executors that are
+ * shared with other aggregators.
+ */
+public class PriorityBuildScheduler {
+
+	/**
+	 * The number of milliseconds by which the deadline of a queued task is
+	 * reduced by {@link #boost(Future)}.
+	 */
+	public static final long DEFAULT_BOOST_MILLIS = 100;
+
+	private final Executor executor;
+
+	/** Guarded by itself */
+	private final PriorityQueue<Task<?>> queue = new PriorityQueue<Task<?>>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * @param executor
+	 *            the executor that runs the tasks
+	 */
+	public PriorityBuildScheduler(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues the specified task to run at the specified priority.
+	 *
+	 * @param callable
+	 *            the task
+	 * @param deadline
+	 *            the time, in milliseconds, by which the task should start.
+	 *            Tasks with earlier deadlines run first.
+	 * @return the future for the task
+	 */
+	public <T> Future<T> submit(Callable<T> callable, long deadline) {
+		Task<T> task = new Task<T>(callable, deadline, sequence.incrementAndGet());
+		synchronized (queue) {
+			queue.add(task);
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					Task<?> next;
+					synchronized (queue) {
+						next = queue.poll();
+					}
+					if (next != null) {
+						next.run();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized (queue) {
+				queue.remove(task);
+			}
+			throw e;
+		}
+		return task;
+	}
+
+	/**
+	 * Increases the priority of the task for the specified future by
+	 * {@link #DEFAULT_BOOST_MILLIS} if the task is still waiting to run.
+	 *
+	 * @param future
+	 *            the future returned by {@link #submit(Callable, long)}.  May
+	 *            be null or a future from some other source, in which case this
+	 *            method has no effect.
+	 * @return true if the task was boosted
+	 */
+	public static boolean boost(Future<?> future) {
+		if (future instanceof Task) {
+			return ((Task<?>)future).boost(DEFAULT_BOOST_MILLIS);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of tasks waiting to run
+	 */
+	public int getQueueDepth() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("PriorityBuildScheduler(") //$NON-NLS-1$
+		.append("queued:").append(getQueueDepth()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+
+		/** Guarded by queue.  Changed only while the task is not in the queue */
+		private long deadline;
+		private final long seq;
+
+		private Task(Callable<T> callable, long deadline, long seq) {
+			super(callable);
+			this.deadline = deadline;
+			this.seq = seq;
+		}
+
+		private boolean boost(long millis) {
+			synchronized (queue) {
+				// Remove and re-add the task so that the queue is re-ordered
+				if (!queue.remove(this)) {
+					return false;
+				}
+				deadline -= millis;
+				queue.add(this);
+			}
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(Task<?> other) {
+			if (deadline != other.deadline) {
+				return deadline < other.deadline ? -1 : 1;
+			}
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+}
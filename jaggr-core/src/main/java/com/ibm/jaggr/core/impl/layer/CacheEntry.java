@@ -18,15 +18,21 @@ package com.ibm.jaggr.core.impl.layer;
 
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.cache.ICacheManager;
+import com.ibm.jaggr.core.util.SlabAllocator;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
 import javax.servlet.http.HttpServletRequest;
@@ -40,13 +46,30 @@ import javax.servlet.http.HttpServletRequest;
  * This class avoids synchronization by declaring the instance variables volatile and being
  * careful about the order in which variables are assigned and read.  See comments in the
  * various methods for details.
+ * <p>
+ * When single-flight layer builds are enabled, the thread that builds the layer
+ * publishes a future for the build (see {@link #claimBuild(SettableFuture)}) which
+ * other threads requesting the same build can wait on with a timeout instead of
+ * blocking on the monitor for this object.
  */
 class CacheEntry implements Serializable {
 	private static final long serialVersionUID = -2129350665073838766L;
 
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<CacheEntry, SettableFuture> buildFutureUpdater =
+			AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, SettableFuture.class, "buildFuture"); //$NON-NLS-1$
+
+	private static final AtomicReferenceFieldUpdater<CacheEntry, ReentrantLock> buildLockUpdater =
+			AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, ReentrantLock.class, "buildLock"); //$NON-NLS-1$
+
 	private transient volatile byte[] bytes = null;
+	private transient volatile SettableFuture<Void> buildFuture = null;
+	private transient volatile ReentrantLock buildLock = null;
+	private transient volatile SlabAllocator.Allocation slab = null;
 	private volatile String filename = null;
 	private volatile int size;
+	private volatile int uncompressedSize;
+	private volatile String etag = null;
 	private volatile boolean delete = false;
 	final int layerId;
 	final String layerKey;
@@ -60,6 +83,8 @@ class CacheEntry implements Serializable {
 		bytes = other.bytes;
 		filename = other.filename;
 		size = other.size;
+		uncompressedSize = other.uncompressedSize;
+		etag = other.etag;
 		delete = other.delete;
 	}
 
@@ -79,16 +104,18 @@ class CacheEntry implements Serializable {
 	 * @throws IOException
 	 */
 	public InputStream getInputStream(HttpServletRequest request) throws IOException {
-		// Check bytes before filename when reading and reverse order when setting
+		// Check bytes before slab before filename when reading and reverse order when setting
 		byte[] bytes = this.bytes;
+		SlabAllocator.Allocation slab = this.slab;
 		String filename = this.filename;
 		InputStream in = null;
 		if (bytes != null) {
 			in = new ByteArrayInputStream(bytes);
+		} else if (slab != null && (in = slab.getInputStream()) != null) {
+			// served from off-heap storage
 		} else if (filename != null){
 			ICacheManager cmgr = ((IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME)).getCacheManager();
-			File file = new File(cmgr.getCacheDir(), filename);
-			in = new FileInputStream(file);
+			in = cmgr.getCacheFileInputStream(filename);
 		}
 		return in;
 	}
@@ -105,7 +132,7 @@ class CacheEntry implements Serializable {
 	public InputStream tryGetInputStream(HttpServletRequest request) throws IOException {
 		InputStream in = null;
 		// Check bytes before filename when reading and reverse order when setting
-		if (bytes != null || filename != null) {
+		if (bytes != null || slab != null || filename != null) {
 			try {
 				in = getInputStream(request);
 			} catch (Exception e) {
@@ -119,10 +146,103 @@ class CacheEntry implements Serializable {
 	}
 
 	/**
+	 * Attempts to claim ownership of the build for this entry.  If no other thread
+	 * has claimed the build, then {@code future} is published as the build future
+	 * for this entry and null is returned.  The caller is then responsible for
+	 * building the entry and completing {@code future} when done, whether or not
+	 * the build succeeded.
+	 * <p>
+	 * If another thread has already claimed the build, then that thread's build
+	 * future is returned and the caller may wait on it.  Completion of the future
+	 * indicates only that the owning thread is done.  Waiters should call
+	 * {@link #tryGetInputStream(HttpServletRequest)} to determine if the build
+	 * produced any output.
+	 *
+	 * @param future
+	 *            the future to publish if the caller becomes the build owner
+	 * @return null if the caller owns the build, else the in-flight build future
+	 */
+	@SuppressWarnings("unchecked")
+	public ListenableFuture<Void> claimBuild(SettableFuture<Void> future) {
+		while (true) {
+			if (buildFutureUpdater.compareAndSet(this, null, future)) {
+				return null;
+			}
+			SettableFuture<Void> existing = buildFutureUpdater.get(this);
+			if (existing != null) {
+				return existing;
+			}
+		}
+	}
+
+	/**
+	 * Completes the build future published by {@link #claimBuild(SettableFuture)}.
+	 * If the build didn't produce any output, then the future is cleared so that
+	 * the next request for this entry can claim the build instead of building the
+	 * layer without caching it.
+	 *
+	 * @param future
+	 *            the build future published by the caller
+	 */
+	public void completeBuild(SettableFuture<Void> future) {
+		if (bytes == null && slab == null && filename == null) {
+			buildFutureUpdater.compareAndSet(this, future, null);
+		}
+		future.set(null);
+	}
+
+	/**
+	 * Returns the lock held by the thread that builds this entry.  A lock is
+	 * used instead of the entry's monitor because the builder blocks while
+	 * waiting for module builds, and blocking while holding a monitor pins
+	 * the carrier thread when the request is handled on a virtual thread.
+	 *
+	 * @return the build lock
+	 */
+	public ReentrantLock getBuildLock() {
+		ReentrantLock lock = buildLock;
+		if (lock == null) {
+			// transient field is null for deserialized entries, so create lazily
+			buildLockUpdater.compareAndSet(this, null, new ReentrantLock());
+			lock = buildLock;
+		}
+		return lock;
+	}
+
+	/**
+	 * Sets the data for this entry and computes the entity tag for the data.
+	 *
 	 * @param bytes
 	 */
 	public void setBytes(byte[] bytes) {
 		this.size = bytes.length;
+		this.etag = DigestUtils.md5Hex(bytes);
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Sets the data for this entry to the specified gzip encoded bytes and
+	 * records the uncompressed size of the data from the gzip trailer.  The
+	 * entity tag is computed by the caller from the uncompressed data as it
+	 * is written, so that the tag doesn't depend on how the data was
+	 * compressed.
+	 *
+	 * @param bytes
+	 *            the gzip encoded data
+	 * @param etag
+	 *            the MD5 hex digest of the uncompressed data
+	 */
+	public void setGzipBytes(byte[] bytes, String etag) {
+		int len = bytes.length;
+		if (len >= 4) {
+			// ISIZE is the last four bytes of the trailer, little endian (RFC 1952)
+			this.uncompressedSize = (bytes[len-4] & 0xff)
+					| (bytes[len-3] & 0xff) << 8
+					| (bytes[len-2] & 0xff) << 16
+					| (bytes[len-1] & 0xff) << 24;
+		}
+		this.size = len;
+		this.etag = etag;
 		this.bytes = bytes;
 	}
 
@@ -136,6 +256,11 @@ class CacheEntry implements Serializable {
 	 */
 	public synchronized void delete(final ICacheManager mgr) {
 		delete = true;
+		SlabAllocator.Allocation slab = this.slab;
+		if (slab != null) {
+			this.slab = null;
+			slab.free();
+		}
 		if (filename != null) {
 			mgr.deleteFileDelayed(filename);
 		}
@@ -162,6 +287,23 @@ class CacheEntry implements Serializable {
 		return size;
 	}
 
+	/**
+	 * @return The hash of the uncompressed data for this cache entry, or null
+	 *         if the entry hasn't been built.  Computed once when the data is
+	 *         set and persisted with the entry.
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return The uncompressed size of the data for this cache entry if the
+	 *         data is gzip encoded, or 0 if not known
+	 */
+	public int getUncompressedSize() {
+		return uncompressedSize;
+	}
+
 	/**
 	 * Asynchronously write the layer build content to disk and set filename to the
 	 * name of the cache files when done.
@@ -177,10 +319,16 @@ class CacheEntry implements Serializable {
 			@Override
 			public void completed(final String fname, Exception e) {
 				if (e == null) {
-					synchronized (this) {
+					// Synchronize on the entry to serialize with delete()
+					synchronized (CacheEntry.this) {
 						if (!delete) {
 							if (e == null) {
-								// Set filename before clearing bytes
+								// Keep a copy in off-heap storage if enabled
+								SlabAllocator allocator = mgr.getSlabAllocator();
+								if (allocator != null && bytes != null) {
+									slab = allocator.allocate(bytes);
+								}
+								// Set slab and filename before clearing bytes
 								filename = fname;
 								// Free up the memory for the content now that we've written out to disk
 								// TODO:  Determine a size threshold where we may want to keep the contents
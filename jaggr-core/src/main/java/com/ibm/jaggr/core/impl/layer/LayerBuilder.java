@@ -35,12 +35,16 @@ import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.transport.IHttpTransport.LayerContributionType;
 import com.ibm.jaggr.core.transport.IHttpTransport.ModuleInfo;
 import com.ibm.jaggr.core.transport.IRequestedModuleNames;
-import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflateSegment;
 import com.ibm.jaggr.core.util.DependencyList;
 import com.ibm.jaggr.core.util.RequestUtil;
+import com.ibm.jaggr.core.util.TypeUtil;
+
+import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -106,6 +110,35 @@ public class LayerBuilder {
 		dependentFeatures = new HashSet<String>();
 	}
 
+	/**
+	 * @return the time, in milliseconds, by which module builds for this layer
+	 *         must complete, or 0 if there is no deadline
+	 */
+	protected long getBuildDeadline() {
+		int timeout = TypeUtil.asInt(options.getOption(LayerImpl.OPTION_LAYER_BUILD_TIMEOUT), 0);
+		return timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : 0;
+	}
+
+	/**
+	 * Cancels the module builds that haven't completed.  Builds that other
+	 * requests are waiting on are not cancelled (see
+	 * {@link com.ibm.jaggr.core.impl.module.ModuleImpl#getBuild(HttpServletRequest)}).
+	 *
+	 * @param futures
+	 *            the module build futures
+	 */
+	protected void cancelBuilds(List<ModuleBuildFuture> futures) {
+		int count = 0;
+		for (ModuleBuildFuture future : futures) {
+			if (!future.isDone() && future.cancel(true)) {
+				count++;
+			}
+		}
+		if (count > 0 && log.isLoggable(Level.FINE)) {
+			log.fine("Cancelled " + count + " module builds"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
 	/**
 	 * Aggregates the readers associated with {@code futures} together with
 	 * contributions from the transport into the response.
@@ -114,6 +147,26 @@ public class LayerBuilder {
 	 * @throws IOException
 	 */
 	String build() throws IOException {
+		StringWriter writer = new StringWriter();
+		build(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * Aggregates the readers associated with {@code futures} together with
+	 * contributions from the transport into the layer, writing the content to
+	 * {@code writer} as it is assembled.  Module build readers are copied
+	 * directly to the writer so that the layer is never accumulated in memory
+	 * as a single string.  The content is not sent to the client as it is
+	 * written, since the layer is ordered only after all of the module builds
+	 * have completed (see {@link SortedReaders}).  The writer is flushed, but
+	 * not closed.
+	 *
+	 * @param writer
+	 *            the writer to receive the layer content
+	 * @throws IOException
+	 */
+	void build(Writer writer) throws IOException {
 
 		if (built) {
 			// Can call build only once per instance
@@ -121,7 +174,6 @@ public class LayerBuilder {
 		}
 		built = true;
 
-		StringBuffer sb = new StringBuffer();
 		Map<String, String> moduleCacheInfo = null;
 		if (request.getAttribute(LayerImpl.LAYERCACHEINFO_PROPNAME) != null) {
 			moduleCacheInfo = new HashMap<String, String>();
@@ -132,11 +184,21 @@ public class LayerBuilder {
 			DependencyList depList = (DependencyList)request.getAttribute(LayerImpl.EXPANDEDDEPS_PROPNAME);
 			if (depList != null) {
 				// Output dependency expansion logging
-				sb.append(dependencyExpansionLogging(depList));
+				writer.append(dependencyExpansionLogging(depList));
 			}
 		}
 
-		SortedReaders sorted = new SortedReaders(collectFutures(moduleList, request), request);
+		List<ModuleBuildFuture> futures = collectFutures(moduleList, request);
+		SortedReaders sorted = null;
+		try {
+			sorted = new SortedReaders(futures, request, getBuildDeadline());
+		} finally {
+			if (sorted == null) {
+				// The layer can't be built (e.g. timed out, interrupted, or a module
+				// build failed), so stop building the modules nobody else needs.
+				cancelBuilds(futures);
+			}
+		}
 
 		/*
 		 * Set layer dependent features attribute.  The build readers add the layer dependent features
@@ -144,62 +206,61 @@ public class LayerBuilder {
 		 */
 		request.setAttribute(ILayer.DEPENDENT_FEATURES, dependentFeatures);
 
-		sb.append(notifyLayerListeners(EventType.BEGIN_LAYER, request, null));
-		addTransportContribution(sb, LayerContributionType.BEGIN_RESPONSE, null);
+		writer.append(notifyLayerListeners(EventType.BEGIN_LAYER, request, null));
+		addTransportContribution(writer, LayerContributionType.BEGIN_RESPONSE, null);
 
 		// Add script files to the layer first first.  Scripts have no transport contribution
 		for (ModuleBuildReader reader : sorted.getScripts().values()) {
-			processReader(reader, sb);
+			processReader(reader, writer);
 		}
 		if (sorted.getCacheEntries().size() > 0 || sorted.getModules().size() > 0) {
-			sb.append(notifyLayerListeners(EventType.BEGIN_AMD, request, null));
+			writer.append(notifyLayerListeners(EventType.BEGIN_AMD, request, null));
 
 			// Now add the loader cache entries.
 			if (sorted.getCacheEntries().size() > 0) {
-				addTransportContribution(sb, LayerContributionType.BEGIN_LAYER_MODULES, moduleList.getRequiredModules());
+				addTransportContribution(writer, LayerContributionType.BEGIN_LAYER_MODULES, moduleList.getRequiredModules());
 				int i = 0;
 				for (Map.Entry<IModule, ModuleBuildReader> entry : sorted.getCacheEntries().entrySet()) {
-					sb.append(notifyLayerListeners(EventType.BEGIN_MODULE, request, entry.getKey()));
+					writer.append(notifyLayerListeners(EventType.BEGIN_MODULE, request, entry.getKey()));
 					ModuleInfo info = new ModuleInfo(entry.getKey().getModuleId(), entry.getValue().isScript());
 					LayerContributionType type = (i++ == 0) ? LayerContributionType.BEFORE_FIRST_LAYER_MODULE : LayerContributionType.BEFORE_SUBSEQUENT_LAYER_MODULE;
-					addTransportContribution(sb, type, info);
-					processReader(entry.getValue(), sb);
-					addTransportContribution(sb, LayerContributionType.AFTER_LAYER_MODULE, info);
+					addTransportContribution(writer, type, info);
+					processReader(entry.getValue(), writer);
+					addTransportContribution(writer, LayerContributionType.AFTER_LAYER_MODULE, info);
 				}
-				addTransportContribution(sb, LayerContributionType.END_LAYER_MODULES, moduleList.getRequiredModules());
+				addTransportContribution(writer, LayerContributionType.END_LAYER_MODULES, moduleList.getRequiredModules());
 			}
 
 			// Now add the loader requested modules
 			if (sorted.getModules().size() > 0) {
-				addTransportContribution(sb, LayerContributionType.BEGIN_MODULES, null);
+				addTransportContribution(writer, LayerContributionType.BEGIN_MODULES, null);
 				int i = 0;
 				for (Map.Entry<IModule, ModuleBuildReader> entry : sorted.getModules().entrySet()) {
-					sb.append(notifyLayerListeners(EventType.BEGIN_MODULE, request, entry.getKey()));
+					writer.append(notifyLayerListeners(EventType.BEGIN_MODULE, request, entry.getKey()));
 					ModuleInfo info = new ModuleInfo(entry.getKey().getModuleId(), entry.getValue().isScript());
 					LayerContributionType type = (i++ == 0) ? LayerContributionType.BEFORE_FIRST_MODULE : LayerContributionType.BEFORE_SUBSEQUENT_MODULE;
-					addTransportContribution(sb, type, info);
-					processReader(entry.getValue(), sb);
-					addTransportContribution(sb, LayerContributionType.AFTER_MODULE, info);
+					addTransportContribution(writer, type, info);
+					processReader(entry.getValue(), writer);
+					addTransportContribution(writer, LayerContributionType.AFTER_MODULE, info);
 				}
-				addTransportContribution(sb, LayerContributionType.END_MODULES, null);
+				addTransportContribution(writer, LayerContributionType.END_MODULES, null);
 			}
 		}
- 		sb.append(notifyLayerListeners(EventType.END_LAYER, request, null));
-		addTransportContribution(sb, LayerContributionType.END_RESPONSE, null);
+ 		writer.append(notifyLayerListeners(EventType.END_LAYER, request, null));
+		addTransportContribution(writer, LayerContributionType.END_RESPONSE, null);
 
 		moduleList.getDependentFeatures().addAll(dependentFeatures);
 
 		// Output any messages to the console if debug mode is enabled
 		if (options.isDebugMode() || options.isDevelopmentMode()) {
 			for (String errorMsg : errorMessages) {
-				sb.append("\r\nconsole.error(\"" + errorMsg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
+				writer.append("\r\nconsole.error(\"" + errorMsg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			for (String msg : nonErrorMessages) {
-				sb.append("\r\nconsole.warn(\"" + msg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
+				writer.append("\r\nconsole.warn(\"" + msg + "\");"); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
-
-		return sb.toString();
+		writer.flush();
 	}
 
 	/**
@@ -217,21 +278,29 @@ public class LayerBuilder {
 	 *
 	 * @param reader
 	 *            The module build reader
-	 * @param sb
-	 *            Output - the output buffer to accept the content from {@code reader}
+	 * @param writer
+	 *            Output - the writer to accept the content from {@code reader}
 	 * @throws IOException
 	 */
-	protected void processReader(ModuleBuildReader reader, StringBuffer sb) throws IOException {
+	protected void processReader(ModuleBuildReader reader, Writer writer) throws IOException {
 		// Add the cache key generator list to the result list
 		List<ICacheKeyGenerator> keyGenList = reader.getCacheKeyGenerators();
 		if (keyGenList != null) {
 			keyGens.addAll(keyGenList);
 		}
 
-		// Add the reader contents to the result
-		StringWriter writer = new StringWriter();
-		CopyUtil.copy(reader, writer);
-		sb.append(writer.toString());
+		// Add the reader contents to the result.  If we're writing to a gzip stream
+		// that supports it, then splice in the pre-compressed content.
+		DeflateSegment segment = reader.getDeflateSegment();
+		try {
+			if (segment != null && writer instanceof SplicingGZIPOutputStream.SegmentWriter) {
+				((SplicingGZIPOutputStream.SegmentWriter)writer).writeSegment(segment, reader);
+			} else {
+				IOUtils.copy(reader, writer);
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
 		if (reader.isError()) {
 			errorMessages.add(reader.getErrorMessage());
 		}
@@ -239,20 +308,21 @@ public class LayerBuilder {
 
 	/**
 	 * Appends the layer contribution specified by {@code type}
-	 * (contributed by the transport) to the string buffer.
+	 * (contributed by the transport) to the writer.
 	 *
-	 * @param sb
-	 *            The string buffer to append to
+	 * @param writer
+	 *            The writer to append to
 	 * @param type
 	 *            The layer contribution type
 	 * @param arg
 	 *            The argument value (see
 	 *            {@link IHttpTransport#contributeLoaderExtensionJavaScript(String)}
+	 * @throws IOException
 	 */
 	protected void addTransportContribution(
-			StringBuffer sb,
+			Writer writer,
 			LayerContributionType type,
-			Object arg) {
+			Object arg) throws IOException {
 
 		String transportContrib = transport.getLayerContribution(
 				request,
@@ -260,7 +330,7 @@ public class LayerBuilder {
 				arg
 				);
 		if (transportContrib != null) {
-			sb.append(transportContrib);
+			writer.append(transportContrib);
 		}
 	}
 
@@ -287,6 +357,7 @@ public class LayerBuilder {
 		List<ModuleBuildFuture> futures = new LinkedList<ModuleBuildFuture>();
 
 		IModuleCache moduleCache = aggr.getCacheManager().getCache().getModules();
+		request.setAttribute(ILayer.MODULECOUNT_REQATTRNAME, moduleList.size());
 
 		// For each source file, add a Future<IModule.ModuleReader> to the list
 		for(ModuleList.ModuleListEntry moduleListEntry : moduleList) {
@@ -93,6 +93,10 @@ class LayerBuildsAccessor {
 	/**
 	 * Replaces the value associated with the key only if the existing value is
 	 * equal to <code>oldValue</code>
+	 * <p>
+	 * Replacing a value with itself updates the weight of the entry in the map.
+	 * If the layer cache's policy declines to admit the re-weighted entry, then
+	 * the entry is removed from the map instead and false is returned.
 	 *
 	 * @param key the cache key
 	 * @param oldValue the expected value
@@ -103,6 +107,13 @@ class LayerBuildsAccessor {
 		boolean replaced = false;
 		cloneLock.readLock().lock();
 		try {
+			if (oldValue == newValue && !admit(keyPrefix + key, newValue)) {
+				if (map.remove(keyPrefix + key, newValue)) {
+					evictionLatch.decrement();
+					newValue.delete(cacheMgr);
+				}
+				return false;
+			}
 			replaced = map.replace(keyPrefix + key, oldValue, newValue);
 			if (replaced && oldValue != newValue) {
 				oldValue.delete(cacheMgr);
@@ -123,6 +134,10 @@ class LayerBuildsAccessor {
 	 * method returns null without adding the value to the cache.
 	 * <p>
 	 * Bumps the count if the value is added to the cache.
+	 * <p>
+	 * The request is recorded with the layer cache's policy.  If the value has
+	 * already been built and the policy declines to admit it, then the value is
+	 * not added to the cache and the method returns null.
 	 *
 	 * @param key
 	 *            The map key without the layer identifier prefix
@@ -141,8 +156,13 @@ class LayerBuildsAccessor {
 		boolean incrementCount = false;
 		cloneLock.readLock().lock();
 		try {
+			LayerCacheImpl layerCache = layerCacheRef.get();
+			if (layerCache != null) {
+				layerCache.recordAccess(key);
+			}
 			while (true) {
-				if (evictionLatch.isLatched()) {
+				if (evictionLatch.isLatched() ||
+						value.getSize() > 0 && !map.containsKey(key) && !admit(key, value)) {
 					value.delete(cacheMgr);
 					return null;
 				}
@@ -183,6 +203,18 @@ class LayerBuildsAccessor {
 		return existingValue;
 	}
 
+	/**
+	 * @param key
+	 *            The map key including the layer identifier prefix
+	 * @param value
+	 *            The value to be added to the map
+	 * @return true if the layer cache's policy admits the value
+	 */
+	private boolean admit(String key, CacheEntry value) {
+		LayerCacheImpl layerCache = layerCacheRef.get();
+		return layerCache == null || layerCache.admit(key, value);
+	}
+
 	/**
 	 * Removes the entry for the key only if currently mapped to the given
 	 * value. If the entry is removed, then the entry count for this layer
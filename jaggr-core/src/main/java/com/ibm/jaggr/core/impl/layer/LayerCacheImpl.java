@@ -72,11 +72,18 @@ import javax.servlet.http.HttpServletRequest;
  * between the evicted entry and the ILayer object.  When a ILayer object
  * no longer has any CacheEntry objects in the layerBuildMap, it is
  * removed from the layerMap.
+ * <p>
+ * When the layerBuildMap is full, a {@link LayerCachePolicy} decides whether
+ * a new layer build is worth evicting the LRU entry for.  The policy is
+ * specified by the {@link InitParams#LAYERCACHEPOLICY_INITPARAM} init-param.
  */
 public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCache, Serializable {
 
 	static final int DEFAULT_MAXLAYERCACHECAPACITY_MB = 500;
 
+	/** Assumed average size of a layer build, used to size the policy's data structures */
+	static final int ESTIMATED_LAYERBUILD_SIZE = 16 * 1024;
+
 	private ConcurrentLinkedHashMap<String, CacheEntry> layerBuildMap;
 
 	private IAggregator aggregator;
@@ -87,6 +94,10 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 
 	private AtomicInteger numEvictions = new AtomicInteger(0);
 
+	private AtomicInteger numRejections = new AtomicInteger(0);
+
+	private volatile LayerCachePolicy policy;
+
 	private ReadWriteLock cloneLock = new ReentrantReadWriteLock();
 
 	// Used by Serialization proxy
@@ -104,11 +115,14 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 		newLayerId = layerCache.newLayerId;
 		maxCapacity = layerCache.maxCapacity;
 		numEvictions = layerCache.numEvictions;
+		numRejections = layerCache.numRejections;
+		policy = layerCache.policy;
 		cloneLock = layerCache.cloneLock;
 	}
 
 	public LayerCacheImpl(IAggregator aggregator) {
 		maxCapacity = getMaxCapacity(aggregator);
+		policy = newPolicy(getPolicyName(aggregator), maxCapacity / ESTIMATED_LAYERBUILD_SIZE);
 		layerBuildMap = new ConcurrentLinkedHashMap.Builder<String, CacheEntry>()
 				.maximumWeightedCapacity(maxCapacity)
 				.listener(newEvictionListener())
@@ -145,7 +159,9 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 			writer.append(entry.getValue().toString()).append(linesep).append(linesep);
 		}
 		writer.append("Number of layer cache entires = ").append(Integer.toString(cacheMap.size())).append(linesep); //$NON-NLS-1$
+		writer.append("Layer cache policy = ").append(String.valueOf(policy)).append(linesep); //$NON-NLS-1$
 		writer.append("Number of layer cache evictions = ").append(Integer.toString(numEvictions.get())).append(linesep); //$NON-NLS-1$
+		writer.append("Number of layer cache admission rejections = ").append(Integer.toString(numRejections.get())).append(linesep); //$NON-NLS-1$
 	}
 
 	@Override
@@ -199,10 +215,61 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 		return numEvictions.get();
 	}
 
+	int getNumRejections() {
+		return numRejections.get();
+	}
+
 	int getMaxCapacity() {
 		return maxCapacity;
 	}
 
+	LayerCachePolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Records a request for the layer build with the specified key
+	 *
+	 * @param key
+	 *            the layer build map key
+	 */
+	void recordAccess(String key) {
+		LayerCachePolicy policy = this.policy;
+		if (policy != null) {
+			policy.recordAccess(key);
+		}
+	}
+
+	/**
+	 * Determines if the specified layer build should be added to the layer build map.
+	 * Builds that fit in the map without evicting other entries are always admitted.
+	 * Otherwise, the policy decides based on the least recently used entry, which is
+	 * the entry that would be evicted.
+	 *
+	 * @param key
+	 *            the layer build map key
+	 * @param entry
+	 *            the layer build
+	 * @return true if the layer build should be added to the map
+	 */
+	boolean admit(String key, CacheEntry entry) {
+		LayerCachePolicy policy = this.policy;
+		ConcurrentLinkedHashMap<String, CacheEntry> map = layerBuildMap;
+		if (policy == null || map.weightedSize() + newWeigher().weightOf(entry) <= map.capacity()) {
+			return true;
+		}
+		boolean admitted = true;
+		for (String victimKey : map.ascendingKeySetWithLimit(1)) {
+			if (!victimKey.equals(key)) {
+				admitted = policy.admit(key, victimKey);
+			}
+		}
+		if (!admitted) {
+			numRejections.incrementAndGet();
+		}
+		return admitted;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.layer.ILayerCache#setAggregator(com.ibm.jaggr.service.IAggregator)
 	 */
@@ -213,6 +280,12 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 		}
 		this.aggregator = aggregator;
 
+		// Create the policy if this cache was de-serialized or if the policy init-param has changed
+		String policyName = getPolicyName(aggregator);
+		if (policy == null || !policy.getName().equals(policyName)) {
+			policy = newPolicy(policyName, getMaxCapacity(aggregator) / ESTIMATED_LAYERBUILD_SIZE);
+		}
+
 		// See if the max cache entries init-param has changed and
 		int newMaxCapacity = getMaxCapacity(aggregator);
 
@@ -293,6 +366,35 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 		};
 	}
 
+	/**
+	 * Returns a new instance of the named policy.  Unrecognized names result in
+	 * the default LRU policy.
+	 *
+	 * @param name
+	 *            the policy name
+	 * @param maximumSize
+	 *            the expected maximum number of entries in the layer build map
+	 * @return the new policy
+	 */
+	protected LayerCachePolicy newPolicy(String name, int maximumSize) {
+		if (LayerCachePolicy.TINYLFU.equals(name)) {
+			return new LayerCachePolicy.TinyLFU(Math.max(1024, maximumSize));
+		}
+		return new LayerCachePolicy();
+	}
+
+	protected String getPolicyName(IAggregator aggregator) {
+		InitParams initParams =  aggregator.getInitParams();
+		String result = LayerCachePolicy.LRU;
+		if (initParams != null) {
+			List<String> values = initParams.getValues(InitParams.LAYERCACHEPOLICY_INITPARAM);
+			if (values.size() > 0) {
+				result = values.get(values.size()-1).trim().toLowerCase();
+			}
+		}
+		return result;
+	}
+
 	protected int getMaxCapacity(IAggregator aggregator) {
 		InitParams initParams =  aggregator.getInitParams();
 		int result = DEFAULT_MAXLAYERCACHECAPACITY_MB * 1024 * 1024;
@@ -326,6 +428,7 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 		private final int newLayerId;
 		private final int maxCapacity;
 		private final int numEvictions;
+		private final int numRejections;
 		private final Class<?> clazz;
 		private final Map<String, ILayer> cacheMap;
 		private final Map<String, CacheEntry> layerBuildMap;
@@ -337,6 +440,7 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 				newLayerId = cache.newLayerId.get();
 				maxCapacity = cache.maxCapacity;
 				numEvictions = cache.numEvictions.get();
+				numRejections = cache.numRejections.get();
 				cacheMap = new HashMap<String, ILayer>();
 				for (Map.Entry<String, ILayer> entry : cache.cacheMap.entrySet()) {
 					cacheMap.put(entry.getKey(), ((LayerImpl)entry.getValue()).cloneForSerialization());
@@ -359,6 +463,7 @@ public class LayerCacheImpl extends GenericCacheImpl<ILayer> implements ILayerCa
 			cache.newLayerId = new AtomicInteger(newLayerId);
 			cache.maxCapacity = maxCapacity;
 			cache.numEvictions = new AtomicInteger(numEvictions);
+			cache.numRejections = new AtomicInteger(numRejections);
 			cache.cloneLock = new ReentrantReadWriteLock();
 			cache.layerBuildMap = new ConcurrentLinkedHashMap.Builder<String, CacheEntry>()
 					.maximumWeightedCapacity(maxCapacity)
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.util.FrequencySketch;
+
+/**
+ * Admission policy for the layer build cache.  The layer build map always
+ * evicts the least recently used entries when it is full.  Before a new build
+ * is added to a full map, the policy is asked whether the build is worth
+ * evicting the least recently used entry for.  Builds that are not admitted
+ * are served to the requester but are not cached.
+ * <p>
+ * This class implements plain LRU by admitting every build.  See
+ * {@link TinyLFU} for a frequency based policy.  Sub-classes of
+ * {@link LayerCacheImpl} may provide other policies by overriding
+ * {@link LayerCacheImpl#newPolicy(String, int)}.
+ */
+public class LayerCachePolicy {
+
+	/** Name of the least recently used policy */
+	public static final String LRU = "lru"; //$NON-NLS-1$
+
+	/** Name of the TinyLFU policy */
+	public static final String TINYLFU = "tinylfu"; //$NON-NLS-1$
+
+	/**
+	 * @return the name of the policy
+	 */
+	public String getName() {
+		return LRU;
+	}
+
+	/**
+	 * Called each time the layer build with the specified key is requested.
+	 *
+	 * @param key
+	 *            the layer build map key
+	 */
+	public void recordAccess(String key) {
+	}
+
+	/**
+	 * Called when adding the candidate build to the layer build map would
+	 * result in the victim entry being evicted.
+	 *
+	 * @param candidateKey
+	 *            the layer build map key of the new build
+	 * @param victimKey
+	 *            the layer build map key of the least recently used entry
+	 * @return true if the candidate should be added to the map
+	 */
+	public boolean admit(String candidateKey, String victimKey) {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * TinyLFU admission policy.  Keeps a {@link FrequencySketch} of recent
+	 * layer build requests and admits a new build only if it has been
+	 * requested more often than the entry that would be evicted for it.
+	 * One-off requests, such as those generated by crawlers with unusual
+	 * feature sets, therefore don't displace frequently requested builds.
+	 */
+	public static class TinyLFU extends LayerCachePolicy {
+
+		private final FrequencySketch sketch;
+
+		/**
+		 * @param maximumSize
+		 *            the expected maximum number of entries in the layer build map
+		 */
+		public TinyLFU(int maximumSize) {
+			sketch = new FrequencySketch(maximumSize);
+		}
+
+		@Override
+		public String getName() {
+			return TINYLFU;
+		}
+
+		@Override
+		public void recordAccess(String key) {
+			sketch.increment(key);
+		}
+
+		@Override
+		public boolean admit(String candidateKey, String victimKey) {
+			return sketch.frequency(candidateKey) > sketch.frequency(victimKey);
+		}
+	}
+}
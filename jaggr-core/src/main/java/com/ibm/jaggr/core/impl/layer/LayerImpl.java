@@ -17,6 +17,7 @@
 package com.ibm.jaggr.core.impl.layer;
 
 import com.ibm.jaggr.core.BadRequestException;
+import com.ibm.jaggr.core.BuildTimeoutException;
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.cache.ICacheManager;
 import com.ibm.jaggr.core.cachekeygenerator.AbstractCacheKeyGenerator;
@@ -26,6 +27,7 @@ import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.cachekeygenerator.ServerExpandLayersCacheKeyGenerator;
 import com.ibm.jaggr.core.deps.ModuleDepInfo;
 import com.ibm.jaggr.core.deps.ModuleDeps;
+import com.ibm.jaggr.core.layer.IETagProvider;
 import com.ibm.jaggr.core.layer.ILayer;
 import com.ibm.jaggr.core.layer.ILayerCache;
 import com.ibm.jaggr.core.module.IModule;
@@ -38,21 +40,33 @@ import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.transport.IRequestedModuleNames;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflateSegment;
 import com.ibm.jaggr.core.util.DependencyList;
 import com.ibm.jaggr.core.util.Features;
 import com.ibm.jaggr.core.util.RequestUtil;
 import com.ibm.jaggr.core.util.TypeUtil;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.mutable.MutableObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringReader;
 import java.io.Writer;
 import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -66,8 +80,12 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -83,7 +101,7 @@ import javax.servlet.http.HttpServletResponse;
  * list of modules, but vary according to build options, compilation level, has filtering,
  * etc.
  */
-public class LayerImpl implements ILayer {
+public class LayerImpl implements ILayer, IETagProvider {
 	private static final long serialVersionUID = 2491460740123061848L;
 	static final String sourceClass = LayerImpl.class.getName();
 	static final Logger log = Logger.getLogger(sourceClass);
@@ -103,6 +121,81 @@ public class LayerImpl implements ILayer {
 
 	static final Pattern nlsPat = Pattern.compile("^.*(^|\\/)nls(\\/|$)"); //$NON-NLS-1$
 
+	/**
+	 * Name of the aggregator option that enables single-flight layer builds.  When
+	 * enabled, the first request for an un-built layer builds it and subsequent
+	 * requests for the same layer build wait on a future published by the building
+	 * request instead of blocking on the cache entry's monitor.  Waiting requests
+	 * give up after the time specified by {@link #OPTION_BUILD_WAIT_TIMEOUT}.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_SINGLEFLIGHT_BUILDS = "singleFlightLayerBuilds"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that specifies the number of seconds that a
+	 * request will wait for a layer build owned by another request when
+	 * single-flight layer builds are enabled.  Requests that time out fail with a
+	 * {@link BuildTimeoutException}.  The build itself continues on the owning thread.
+	 * <p>
+	 * Valid values: Integer value &gt;= 0
+	 */
+	public static final String OPTION_BUILD_WAIT_TIMEOUT = "layerBuildWaitTimeout"; //$NON-NLS-1$
+
+	static final int DEFAULT_BUILD_WAIT_TIMEOUT_SECONDS = 60;
+
+	/**
+	 * Name of the aggregator option that specifies the maximum number of seconds
+	 * that a layer build will wait for its module builds to complete.  When the
+	 * time is exceeded, or the request thread is interrupted, the request fails
+	 * with a {@link BuildTimeoutException} and module builds that no other
+	 * request is waiting on are cancelled.  If not specified or 0, then layer
+	 * builds wait indefinitely.
+	 * <p>
+	 * Valid values: Integer value &gt;= 0
+	 */
+	public static final String OPTION_LAYER_BUILD_TIMEOUT = "layerBuildTimeout"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that enables splicing of pre-compressed module
+	 * builds into gzip encoded layers.  When enabled, module builds are compressed
+	 * once, as standalone deflate segments, and kept in the module cache.  Layer
+	 * builds then compress only the transport and layer listener contributions and
+	 * copy the module segments into the output as-is.  Requires Java 7 or later.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_SPLICE_GZIP_MODULES = "spliceGzipModules"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that enables the compressed-only layer cache.
+	 * When enabled, layer builds are always gzip encoded and only the compressed
+	 * build is cached, regardless of the encoding requested by the client.
+	 * Requests for identity encoding are served by inflating the cached build as
+	 * it's streamed to the client.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_COMPRESSED_LAYER_CACHE = "compressedLayerCache"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that enables tiered compression of gzip
+	 * encoded layers.  When enabled, layers are compressed using the fastest
+	 * compression level on the request path.  The cached build is then
+	 * recompressed at the best compression level on the background executor
+	 * and the recompressed build replaces the original in the layer cache.
+	 * Does not apply to layers built with {@link #OPTION_SPLICE_GZIP_MODULES}.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_TIERED_COMPRESSION = "tieredLayerCompression"; //$NON-NLS-1$
+
+	/** Maximum number of layer builds waiting to be recompressed */
+	static final int MAX_PENDING_RECOMPRESSIONS = 4;
+
+	/** Number of layer builds waiting to be recompressed */
+	static final AtomicInteger pendingRecompressions = new AtomicInteger();
+
 	protected static final List<ICacheKeyGenerator> s_layerCacheKeyGenerators  = Collections.unmodifiableList(Arrays.asList(new ICacheKeyGenerator[]{
 			new AbstractCacheKeyGenerator() {
 				// This is a singleton, so default equals() will do
@@ -198,6 +291,8 @@ public class LayerImpl implements ILayer {
 
 		CacheEntry entry = null;
 		String key = null;
+		SettableFuture<Void> buildFuture = null;
+		CacheEntry buildEntry = null;
 		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
 		List<String> cacheInfoReport = null;
 		if (_isReportCacheInfo) {
@@ -213,6 +308,10 @@ public class LayerImpl implements ILayer {
 			IOptions options = aggr.getOptions();
 			ICacheManager mgr = aggr.getCacheManager();
 			boolean ignoreCached = RequestUtil.isIgnoreCached(request);
+			boolean compressedOnly = TypeUtil.asBoolean(options.getOption(OPTION_COMPRESSED_LAYER_CACHE));
+			boolean tiered = TypeUtil.asBoolean(options.getOption(OPTION_TIERED_COMPRESSION));
+			// Fast compressed bytes to be recompressed in the background
+			byte[] recompressBytes = null;
 			InputStream result;
 			long lastModified = getLastModified(request);
 			CacheEntry newEntry = new CacheEntry(_id, _cacheKey, lastModified);
@@ -240,6 +339,10 @@ public class LayerImpl implements ILayer {
 
 			// Creata a cache key.
 			key = generateCacheKey(request, cacheKeyGenerators);
+			if (compressedOnly && key != null) {
+				// Builds are cached gzip encoded only
+				key = setGzipFlag(key, true);
+			}
 
 			if (!ignoreCached && key != null) {
 				int loopGuard = 5;
@@ -253,7 +356,7 @@ public class LayerImpl implements ILayer {
 					}
 					if (existingEntry != null) {
 						if ((result = existingEntry.tryGetInputStream(request)) != null) {
-							setResponseHeaders(request, response, existingEntry.getSize());
+							result = prepareResponse(result, existingEntry, compressedOnly, request, response);
 							if (log.isLoggable(Level.FINEST)) {
 								log.finest(cacheInfoReport.toString() + "\n" +  //$NON-NLS-1$
 										"key:" + key +  //$NON-NLS-1$
@@ -292,6 +395,45 @@ public class LayerImpl implements ILayer {
 			// putIfAbsent() succeeded and the new entry was added to the cache
 			entry = (existingEntry != null) ? existingEntry : newEntry;
 
+			// In single-flight mode, only the thread that claims the build for the entry
+			// locks it below (uncontended).  Other threads wait on the future
+			// published by the owner.
+			if (!ignoreCached && key != null && TypeUtil.asBoolean(options.getOption(OPTION_SINGLEFLIGHT_BUILDS))) {
+				buildFuture = SettableFuture.create();
+				ListenableFuture<Void> inFlight = entry.claimBuild(buildFuture);
+				if (inFlight == null) {
+					buildEntry = entry;
+				} else {
+					buildFuture = null;
+					// Use a private entry from here on so that the shared entry isn't removed
+					// from the cache if we give up waiting.
+					CacheEntry sharedEntry = entry;
+					entry = new CacheEntry(_id, _cacheKey, lastModified);
+					awaitBuild(inFlight, options);
+					if ((result = sharedEntry.tryGetInputStream(request)) != null) {
+						if (cacheInfoReport != null) {
+							cacheInfoReport.add("hit_3"); //$NON-NLS-1$
+						}
+						result = prepareResponse(result, sharedEntry, compressedOnly, request, response);
+						if (log.isLoggable(Level.FINEST)) {
+							log.finest(cacheInfoReport.toString() + "\n" + //$NON-NLS-1$
+									"key:" + key +  //$NON-NLS-1$
+									"\n" + sharedEntry.toString()); //$NON-NLS-1$
+						}
+						if (_isReportCacheInfo) {
+							request.setAttribute(LAYERBUILDCACHEKEY_PROPNAME, key);
+						}
+						return result;
+					}
+					// The build we waited on didn't produce any output (e.g. it failed).
+					// Build the layer for this request without adding it to the cache.
+					if (cacheInfoReport != null) {
+						cacheInfoReport.add("wait_nocache"); //$NON-NLS-1$
+					}
+					ignoreCached = true;
+				}
+			}
+
 			LayerBuilder layerBuilder = null;
 
 			// List of Future<IModule.ModuleReader> objects that will be used to read the module
@@ -300,20 +442,22 @@ public class LayerImpl implements ILayer {
 
 			ModuleList moduleList = null;
 
-			// Synchronize on the LayerBuild object for the build.  This will prevent multiple
+			// Lock the LayerBuild object for the build.  This will prevent multiple
 			// threads from building the same output.  If more than one thread requests the same
-			// output (same cache key), then the first one to grab the sync object will win and
+			// output (same cache key), then the first one to grab the lock will win and
 			// the rest will wait for the first thread to finish building and then just return
 			// the output from the first thread when they wake.
-			synchronized(entry) {
+			ReentrantLock buildLock = entry.getBuildLock();
+			buildLock.lock();
+			try {
 
 				// Check to see if data is available one more time in case a different thread finished
-				// building the output while we were blocked on the sync object.
+				// building the output while we were blocked on the lock.
 				if (!ignoreCached && key != null && (result = entry.tryGetInputStream(request)) != null) {
 					if (cacheInfoReport != null) {
 						cacheInfoReport.add("hit_2"); //$NON-NLS-1$
 					}
-					setResponseHeaders(request, response, entry.getSize());
+					result = prepareResponse(result, entry, compressedOnly, request, response);
 					if (log.isLoggable(Level.FINEST)) {
 						log.finest(cacheInfoReport.toString() + "\n" + //$NON-NLS-1$
 								"key:" + key +  //$NON-NLS-1$
@@ -325,24 +469,27 @@ public class LayerImpl implements ILayer {
 					return result;
 				}
 
-				boolean isGzip = RequestUtil.isGzipEncoding(request);
+				// In compressed-only mode, the layer is built gzipped even if the client
+				// didn't ask for it.
+				boolean isGzip = compressedOnly || RequestUtil.isGzipEncoding(request);
+				// The encoded (and compressed) layer is buffered in full rather than
+				// streamed to the response.  ILayer requires the Content-Length header
+				// to be set before the stream is returned, the Cache-Control header and
+				// whether the build may be cached depend on whether any module had
+				// errors, and threads waiting on the build lock are served from the
+				// cache entry that this buffer fills.
 				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				// Entity tags for gzipped builds are computed from the uncompressed data
+				// as it's written
+				String etag = null;
+				MessageDigest digest = null;
 
 				// See if we already have a cached response that uses a different gzip
 				// encoding option.  If we do, then just zip (or unzip) the cached
 				// response
 				CacheEntry otherEntry = null;
-				if (key != null) {
-					StringBuffer sb = new StringBuffer();
-					Matcher m = GZIPFLAG_KEY_PATTERN.matcher(key);
-					m.find();
-					m.appendReplacement(sb,
-							new StringBuffer(s_layerCacheKeyGenerators.get(0).toString())
-					.append(":") //$NON-NLS-1$
-					.append("1".equals(m.group(1)) ? "0" : "1") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-					.append(":").toString() //$NON-NLS-1$
-							).appendTail(sb);
-					otherEntry = _layerBuilds.get(sb.toString());
+				if (key != null && !compressedOnly) {
+					otherEntry = _layerBuilds.get(setGzipFlag(key, !isGzip));
 				}
 				if (otherEntry != null) {
 					if (isGzip) {
@@ -352,11 +499,20 @@ public class LayerImpl implements ILayer {
 						// We need gzipped and the cached entry is unzipped
 						// Create the compression stream for the output
 						VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);  // is 10k too big?
-						compress.setLevel(Deflater.BEST_COMPRESSION);
-						Writer writer = new OutputStreamWriter(compress, "UTF-8"); //$NON-NLS-1$
+						compress.setLevel(tiered ? Deflater.BEST_SPEED : Deflater.BEST_COMPRESSION);
 
 						// Copy the data from the input stream to the output, compressing as we go.
-						CopyUtil.copy(otherEntry.getInputStream(request), writer);
+						// The cached entry is already UTF-8 encoded, so no need to decode it.
+						// The unzipped entry has the tag for the uncompressed data, unless it
+						// was deserialized from an older cache, in which case digest the data
+						// as it's copied.
+						etag = otherEntry.getETag();
+						InputStream in = otherEntry.getInputStream(request);
+						if (etag == null) {
+							digest = DigestUtils.getMd5Digest();
+							in = new DigestInputStream(in, digest);
+						}
+						CopyUtil.copy(in, compress);
 					} else {
 						if (cacheInfoReport != null) {
 							cacheInfoReport.add("unzip_zipped"); //$NON-NLS-1$
@@ -364,8 +520,16 @@ public class LayerImpl implements ILayer {
 						// We need unzipped and the cached entry is zipped.  Just unzip it
 						CopyUtil.copy(new GZIPInputStream(otherEntry.getInputStream(request)), bos);
 					}
-					// Set the buildReader to the LayerBuild and release the lock by exiting the sync block
-					entry.setBytes(bos.toByteArray());
+					// Set the buildReader to the LayerBuild and release the lock by exiting the try block
+					if (isGzip) {
+						byte[] bytes = bos.toByteArray();
+						entry.setGzipBytes(bytes, etag != null ? etag : Hex.encodeHexString(digest.digest()));
+						if (tiered) {
+							recompressBytes = bytes;
+						}
+					} else {
+						entry.setBytes(bos.toByteArray());
+					}
 					if (!ignoreCached) {
 						_layerBuilds.replace(key, entry, entry);	// updates entry weight in map
 						if (cacheInfoReport != null) {
@@ -387,27 +551,56 @@ public class LayerImpl implements ILayer {
 					// succession until all the data has been read, blocking on each Future until the
 					// reader becomes available.
 					layerBuilder = new LayerBuilder(request, moduleKeyGens, moduleList);
-					String layer = layerBuilder.build();
 
+					// The layer builder writes the layer content to the encoder (and compressor
+					// if gzip encoding) as it's assembled, so the layer is never held in memory
+					// as a string.
+					Writer writer;
 					if (isGzip) {
+						digest = DigestUtils.getMd5Digest();
+					}
+					if (isGzip && TypeUtil.asBoolean(options.getOption(OPTION_SPLICE_GZIP_MODULES)) && DeflateSegment.isSupported()) {
 						if (cacheInfoReport != null) {
-							cacheInfoReport.add("zip"); //$NON-NLS-1$
+							cacheInfoReport.add("zip_splice"); //$NON-NLS-1$
 						}
-						VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);  // is 10k too big?
-						compress.setLevel(Deflater.BEST_COMPRESSION);
-						Writer writer = new OutputStreamWriter(compress, "UTF-8"); //$NON-NLS-1$
-
-						// Copy the data from the input stream to the output, compressing as we go.
-						CopyUtil.copy(new StringReader(layer), writer);
-						// Set the buildReader to the LayerBuild and release the lock by exiting the sync block
-						entry.setBytes(bos.toByteArray());
+						writer = new SplicingGZIPOutputStream(bos, Deflater.BEST_COMPRESSION).newWriter(digest);
 					} else {
-						entry.setBytes(layer.getBytes());
+						OutputStream out = bos;
+						if (isGzip) {
+							if (cacheInfoReport != null) {
+								cacheInfoReport.add("zip"); //$NON-NLS-1$
+							}
+							VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);  // is 10k too big?
+							compress.setLevel(tiered ? Deflater.BEST_SPEED : Deflater.BEST_COMPRESSION);
+							out = new DigestOutputStream(compress, digest);
+						}
+						writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+					}
+					try {
+						layerBuilder.build(writer);
+					} finally {
+						IOUtils.closeQuietly(writer);
+					}
+					// Set the buildReader to the LayerBuild and release the lock by exiting the try block
+					if (isGzip) {
+						byte[] bytes = bos.toByteArray();
+						entry.setGzipBytes(bytes, Hex.encodeHexString(digest.digest()));
+						if (tiered && !(writer instanceof SplicingGZIPOutputStream.SegmentWriter)) {
+							recompressBytes = bytes;
+						}
+					} else {
+						entry.setBytes(bos.toByteArray());
 					}
 
 					// entry will be persisted below after we determine if cache key
 					// generator needs to be updated
 				}
+			} finally {
+				buildLock.unlock();
+			}
+			if (buildFuture != null) {
+				// Release any threads waiting on the build
+				buildEntry.completeBuild(buildFuture);
 			}
 
 			// if any of the readers included an error response, then don't cache the layer.
@@ -452,6 +645,9 @@ public class LayerImpl implements ILayer {
 							cacheInfoReport.add("update_key"); //$NON-NLS-1$
 						}
 						key = generateCacheKey(request, newKeyGens);
+						if (compressedOnly) {
+							key = setGzipFlag(key, true);
+						}
 					}
 					if (originalKey == null || !originalKey.equals(key)) {
 						/*
@@ -493,8 +689,15 @@ public class LayerImpl implements ILayer {
 					}
 				}
 			}
-			result = entry.getInputStream(request);
-			setResponseHeaders(request, response, entry.getSize());
+			result = prepareResponse(entry.getInputStream(request), entry, compressedOnly, request, response);
+
+			if (recompressBytes != null && !ignoreCached && key != null &&
+					(layerBuilder == null || !layerBuilder.hasErrors())) {
+				boolean submitted = recompress(key, entry, recompressBytes, aggr);
+				if (cacheInfoReport != null) {
+					cacheInfoReport.add(submitted ? "recompress" : "recompress_skip"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
 
 			// return the input stream to the LayerBuild
 			if (log.isLoggable(Level.FINEST)) {
@@ -513,12 +716,184 @@ public class LayerImpl implements ILayer {
 			_layerBuilds.remove(key, entry);
 			throw e;
 		} finally {
+			if (buildFuture != null) {
+				// no-op if already set
+				buildEntry.completeBuild(buildFuture);
+			}
 			if (_layerBuilds.isLayerEvicted()) {
 				_layerBuilds.removeLayerFromCache(this);
 			}
 		}
 	}
 
+	/**
+	 * Waits for a layer build owned by another thread to complete.  Waiting is
+	 * bounded by the {@link #OPTION_BUILD_WAIT_TIMEOUT} option.  Timing out or
+	 * being interrupted while waiting does not affect the build itself.
+	 *
+	 * @param inFlight
+	 *            the build future published by the owning thread
+	 * @param options
+	 *            the aggregator options
+	 * @throws IOException
+	 *             if the wait times out or the thread is interrupted
+	 */
+	protected void awaitBuild(ListenableFuture<Void> inFlight, IOptions options) throws IOException {
+		int timeout = TypeUtil.asInt(options.getOption(OPTION_BUILD_WAIT_TIMEOUT), DEFAULT_BUILD_WAIT_TIMEOUT_SECONDS);
+		try {
+			inFlight.get(timeout, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			throw new BuildTimeoutException(_cacheKey);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(_cacheKey);
+		} catch (ExecutionException e) {
+			// Owners never complete the future exceptionally.  Let the caller
+			// figure out if output is available.
+		}
+	}
+
+
+	/**
+	 * Submits a task to the background executor that recompresses the gzip
+	 * encoded layer build at the best compression level and replaces
+	 * {@code entry} in the layer cache with a new entry for the recompressed
+	 * build.  The new entry is persisted and the cache file for the old entry is
+	 * deleted.  Nothing is done if {@code entry} is no longer in the cache under
+	 * {@code key} when the task completes.
+	 * <p>
+	 * Each pending task holds a full layer build, so the number of pending tasks
+	 * is limited to {@link #MAX_PENDING_RECOMPRESSIONS}.  Layers that are built
+	 * while the limit is reached keep the fast compressed build.
+	 *
+	 * @param key
+	 *            the cache key for the entry
+	 * @param entry
+	 *            the cache entry
+	 * @param bytes
+	 *            the gzip encoded build
+	 * @param aggr
+	 *            the aggregator
+	 * @return true if the task was submitted, false if the limit on pending
+	 *         tasks was reached
+	 */
+	protected boolean recompress(final String key, final CacheEntry entry, final byte[] bytes, final IAggregator aggr) {
+		if (pendingRecompressions.incrementAndGet() > MAX_PENDING_RECOMPRESSIONS) {
+			pendingRecompressions.decrementAndGet();
+			return false;
+		}
+		try {
+			aggr.getExecutors().getBackgroundExecutor().submit(new Runnable() {
+				public void run() {
+					try {
+						ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
+						VariableGZIPOutputStream compress = new VariableGZIPOutputStream(bos, 10240);
+						compress.setLevel(Deflater.BEST_COMPRESSION);
+						CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(bytes)), compress);
+						CacheEntry newEntry = new CacheEntry(entry.layerId, entry.layerKey, entry.lastModified);
+						// The uncompressed data is unchanged, so keep the entity tag
+						newEntry.setGzipBytes(bos.toByteArray(), entry.getETag());
+						// Replacing the entry updates the weight in the map and deletes the old entry
+						if (_layerBuilds.replace(key, entry, newEntry)) {
+							newEntry.persist(aggr.getCacheManager());
+						}
+					} catch (Exception e) {
+						if (log.isLoggable(Level.WARNING)) {
+							log.log(Level.WARNING, e.getMessage(), e);
+						}
+					} finally {
+						pendingRecompressions.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingRecompressions.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the response headers for the layer build in {@code entry} and returns
+	 * the stream that the build should be read from.  In compressed-only mode, the
+	 * build is gzip encoded even if the client didn't request gzip encoding, in
+	 * which case the build is inflated as it's read.
+	 *
+	 * @param in
+	 *            the input stream for the cache entry
+	 * @param entry
+	 *            the cache entry
+	 * @param compressedOnly
+	 *            true if the compressed-only layer cache is enabled
+	 * @param request
+	 *            the request object
+	 * @param response
+	 *            the response object
+	 * @return the input stream for the response
+	 * @throws IOException
+	 */
+	protected InputStream prepareResponse(InputStream in, CacheEntry entry, boolean compressedOnly,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String etag = formatETag(entry, request);
+		if (etag != null) {
+			response.setHeader("ETag", etag); //$NON-NLS-1$
+		}
+		if (compressedOnly && !RequestUtil.isGzipEncoding(request)) {
+			// Leave the content length unset if we don't know it (e.g. entries persisted
+			// before the uncompressed size was recorded)
+			int size = entry.getUncompressedSize();
+			setResponseHeaders(request, response, size > 0 ? size : -1);
+			return new GZIPInputStream(in);
+		}
+		setResponseHeaders(request, response, entry.getSize());
+		return in;
+	}
+
+	/**
+	 * Returns the quoted entity tag for the response produced from the layer
+	 * build in {@code entry}.  The tag of the build is computed from the
+	 * uncompressed layer, so gzip encoded and uncompressed builds of the same
+	 * layer have the same tag.  Uncompressed responses are a different
+	 * representation of the layer than gzip encoded ones, so they get a
+	 * different entity tag.
+	 *
+	 * @param entry
+	 *            the cache entry
+	 * @param request
+	 *            the request object
+	 * @return the entity tag, or null if the entry hasn't been built
+	 */
+	protected String formatETag(CacheEntry entry, HttpServletRequest request) {
+		String etag = entry.getETag();
+		if (etag == null) {
+			return null;
+		}
+		boolean identity = !RequestUtil.isGzipEncoding(request);
+		return "\"" + etag + (identity ? "-identity" : "") + "\""; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	/**
+	 * Returns a copy of the layer cache key with the gzip encoding flag set to
+	 * the specified value.
+	 *
+	 * @param key
+	 *            the layer cache key
+	 * @param gzip
+	 *            the value of the gzip flag
+	 * @return the new key
+	 */
+	static String setGzipFlag(String key, boolean gzip) {
+		StringBuffer sb = new StringBuffer();
+		Matcher m = GZIPFLAG_KEY_PATTERN.matcher(key);
+		m.find();
+		m.appendReplacement(sb,
+				new StringBuffer(s_layerCacheKeyGenerators.get(0).toString())
+		.append(":") //$NON-NLS-1$
+		.append(gzip ? "1" : "0") //$NON-NLS-1$ //$NON-NLS-2$
+		.append(":").toString() //$NON-NLS-1$
+				).appendTail(sb);
+		return sb.toString();
+	}
 
 	/**
 	 * Adds the cache key generators specified in {@code gens} to the map of
@@ -575,6 +950,32 @@ public class LayerImpl implements ILayer {
 		return cacheKey;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.layer.IETagProvider#getETag(javax.servlet.http.HttpServletRequest)
+	 */
+	@Override
+	public String getETag(HttpServletRequest request) throws IOException {
+		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+		IOptions options = aggr.getOptions();
+		Map<String, ICacheKeyGenerator> cacheKeyGenerators = _cacheKeyGenerators;
+		if (cacheKeyGenerators == null || RequestUtil.isIgnoreCached(request)) {
+			return null;
+		}
+		if (options.isDevelopmentMode() && getLastModified(request) > _lastModified) {
+			// Sources have changed.  Cached builds are stale.
+			return null;
+		}
+		boolean compressedOnly = TypeUtil.asBoolean(options.getOption(OPTION_COMPRESSED_LAYER_CACHE));
+		String key = generateCacheKey(request, cacheKeyGenerators);
+		if (compressedOnly) {
+			key = setGzipFlag(key, true);
+		}
+		// The layer build map serves as the key to entity tag index.  Entries
+		// hold the entity tag of their content, so no file I/O is needed.
+		CacheEntry entry = _layerBuilds.get(key);
+		return (entry != null && !entry.isDeleted()) ? formatETag(entry, request) : null;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.layer.ILayer#getLastModified(javax.servlet.http.HttpServletRequest)
 	 */
@@ -990,7 +1391,9 @@ public class LayerImpl implements ILayer {
 
 	protected void setResponseHeaders(HttpServletRequest request, HttpServletResponse response, int size) {
 		response.setContentType("application/x-javascript; charset=utf-8"); //$NON-NLS-1$
-		response.setContentLength(size);
+		if (size >= 0) {
+			response.setContentLength(size);
+		}
 		if (RequestUtil.isGzipEncoding(request)) {
 			response.setHeader("Content-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$
 		}
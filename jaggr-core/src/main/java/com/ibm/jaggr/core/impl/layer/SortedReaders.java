@@ -15,6 +15,7 @@
  */
 package com.ibm.jaggr.core.impl.layer;
 
+import com.ibm.jaggr.core.BuildTimeoutException;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.module.ModuleSpecifier;
 import com.ibm.jaggr.core.modulebuilder.ModuleBuildFuture;
@@ -27,6 +28,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -39,9 +42,26 @@ public class SortedReaders {
 	private final Map<IModule, ModuleBuildReader> modules = new LinkedHashMap<IModule, ModuleBuildReader>();
 	private final Map<IModule, ModuleBuildReader> cacheEntries = new LinkedHashMap<IModule, ModuleBuildReader>();
 	private final boolean noAddModules;
+	private final long deadline;
 
 	public SortedReaders(List<ModuleBuildFuture> futures, HttpServletRequest request) throws IOException {
+		this(futures, request, 0);
+	}
+
+	/**
+	 * @param futures
+	 *            the module build futures
+	 * @param request
+	 *            the request object
+	 * @param deadline
+	 *            the time, in milliseconds, by which all of the futures must
+	 *            complete, or 0 to wait indefinitely.  If the deadline is
+	 *            exceeded, then {@link BuildTimeoutException} is thrown.
+	 * @throws IOException
+	 */
+	public SortedReaders(List<ModuleBuildFuture> futures, HttpServletRequest request, long deadline) throws IOException {
 		noAddModules = TypeUtil.asBoolean(request.getAttribute(IHttpTransport.NOADDMODULES_REQATTRNAME));
+		this.deadline = deadline;
 		for (ModuleBuildFuture future : futures) {
 			sortFuture(future);
 		}
@@ -62,7 +82,9 @@ public class SortedReaders {
 	private void sortFuture(ModuleBuildFuture future) throws IOException {
 		try {
 			ModuleSpecifier spec = future.getModuleSpecifier();
-			ModuleBuildReader reader = future.get();
+			ModuleBuildReader reader = (deadline > 0) ?
+					future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS) :
+						future.get();
 			IModule module = future.getModule();
 			switch (spec) {
 			case SCRIPTS:
@@ -85,6 +107,8 @@ public class SortedReaders {
 			throw new IOException(e);
 		} catch (ExecutionException e) {
 			throw new IOException(e);
+		} catch (TimeoutException e) {
+			throw new BuildTimeoutException(future.getModule().getModuleId());
 		}
 	}
 
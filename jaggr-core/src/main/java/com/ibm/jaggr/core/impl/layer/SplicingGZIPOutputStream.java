@@ -0,0 +1,255 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.util.DeflateSegment;
+
+import com.google.common.base.Charsets;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that can splice pre-compressed {@link DeflateSegment}s
+ * into the compressed output. Data written to the stream is compressed as
+ * usual. Before a segment is spliced in, the stream's deflater is sync flushed
+ * and reset. That way the compressed data that follows the segment does not
+ * refer back to data that comes before it. The CRC32 in the gzip trailer is
+ * computed by combining the CRCs of the compressed runs and the segments.
+ */
+public class SplicingGZIPOutputStream extends OutputStream {
+
+	/** gzip header (same as the one written by {@link java.util.zip.GZIPOutputStream}) */
+	private static final byte[] HEADER = new byte[] {
+		0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private final OutputStream out;
+	private final Deflater def;
+	private final byte[] buf = new byte[10240];
+
+	/** CRC32 and length of the data compressed by {@link #def} since the last reset */
+	private final CRC32 runCrc = new CRC32();
+	private long runLength = 0;
+
+	/** CRC32 and length of the data preceding the current run */
+	private long crc = 0;
+	private long length = 0;
+
+	private boolean finished = false;
+
+	/**
+	 * @param out
+	 *            the output stream
+	 * @param level
+	 *            the compression level for data written to this stream
+	 * @throws IOException
+	 */
+	public SplicingGZIPOutputStream(OutputStream out, int level) throws IOException {
+		this.out = out;
+		def = new Deflater(level, true);
+		out.write(HEADER);
+	}
+
+	/**
+	 * @return a UTF-8 writer for this stream that supports splicing segments
+	 */
+	public SegmentWriter newWriter() {
+		return new SegmentWriter(this, null);
+	}
+
+	/**
+	 * @param digest
+	 *            the digest to update with the uncompressed UTF-8 data written
+	 *            to the writer, including the data for spliced segments, or
+	 *            null
+	 * @return a UTF-8 writer for this stream that supports splicing segments
+	 */
+	public SegmentWriter newWriter(MessageDigest digest) {
+		return new SegmentWriter(this, digest);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte)b}, 0, 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (finished) {
+			throw new IOException("write beyond end of stream"); //$NON-NLS-1$
+		}
+		if (len == 0) {
+			return;
+		}
+		def.setInput(b, off, len);
+		while (!def.needsInput()) {
+			deflate();
+		}
+		runCrc.update(b, off, len);
+		runLength += len;
+	}
+
+	/**
+	 * Splices the compressed data for {@code segment} into the output.
+	 *
+	 * @param segment
+	 *            the segment to add
+	 * @throws IOException
+	 */
+	public void writeSegment(DeflateSegment segment) throws IOException {
+		if (finished) {
+			throw new IOException("write beyond end of stream"); //$NON-NLS-1$
+		}
+		if (runLength > 0) {
+			// Byte align the output and make sure subsequent data doesn't reference
+			// data that came before the segment
+			DeflateSegment.syncFlush(def, buf, out);
+			def.reset();
+			endRun();
+		}
+		out.write(segment.getData());
+		crc = DeflateSegment.crc32Combine(crc, segment.getCrc(), segment.getLength());
+		length += segment.getLength();
+	}
+
+	/**
+	 * Finishes writing compressed data to the output stream without closing
+	 * the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (!finished) {
+			finished = true;
+			def.finish();
+			while (!def.finished()) {
+				deflate();
+			}
+			endRun();
+			writeInt((int)crc);
+			writeInt((int)length);	// length modulo 2^32 per RFC 1952
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			def.end();
+			out.close();
+		}
+	}
+
+	private void deflate() throws IOException {
+		int len = def.deflate(buf, 0, buf.length);
+		if (len > 0) {
+			out.write(buf, 0, len);
+		}
+	}
+
+	private void endRun() {
+		crc = DeflateSegment.crc32Combine(crc, runCrc.getValue(), runLength);
+		length += runLength;
+		runCrc.reset();
+		runLength = 0;
+	}
+
+	private void writeInt(int i) throws IOException {
+		// little endian
+		out.write(i & 0xff);
+		out.write((i >> 8) & 0xff);
+		out.write((i >> 16) & 0xff);
+		out.write((i >> 24) & 0xff);
+	}
+
+	/**
+	 * UTF-8 writer for a {@link SplicingGZIPOutputStream}.
+	 */
+	public static class SegmentWriter extends OutputStreamWriter {
+		private final SplicingGZIPOutputStream stream;
+		private final MessageDigest digest;
+
+		private SegmentWriter(SplicingGZIPOutputStream stream, MessageDigest digest) {
+			super(digest != null ? new DigestOutputStream(stream, digest) : stream, Charsets.UTF_8);
+			this.stream = stream;
+			this.digest = digest;
+		}
+
+		/**
+		 * Flushes any buffered characters and then splices {@code segment} into
+		 * the output. The segment must contain UTF-8 encoded data.
+		 *
+		 * @param segment
+		 *            the segment to add
+		 * @throws IOException
+		 */
+		public void writeSegment(DeflateSegment segment) throws IOException {
+			writeSegment(segment, null);
+		}
+
+		/**
+		 * Flushes any buffered characters and then splices {@code segment} into
+		 * the output. The segment must contain UTF-8 encoded data.  If the
+		 * writer has a digest, then it is updated with the uncompressed data
+		 * read from {@code content}.
+		 *
+		 * @param segment
+		 *            the segment to add
+		 * @param content
+		 *            reader for the uncompressed data of the segment.  Required
+		 *            if the writer has a digest.
+		 * @throws IOException
+		 */
+		public void writeSegment(DeflateSegment segment, Reader content) throws IOException {
+			flush();
+			if (digest != null) {
+				if (content == null) {
+					throw new IllegalArgumentException();
+				}
+				digest.update(IOUtils.toString(content).getBytes(Charsets.UTF_8));
+			}
+			stream.writeSegment(segment);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.module;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Future} for a module build that is in progress for another request.
+ * Waiting for the build is done by the thread that calls {@link #get()} rather
+ * than by a build executor thread, so requests for a module that is already
+ * being built don't tie up the build executor.  When the in-flight build
+ * completes, the continuation is called once, on the first waiting thread, to
+ * obtain the future for the result for this request.  Subsequent calls to
+ * {@code get} return the result of the same future.
+ * <p>
+ * Cancelling this future doesn't affect the in-flight build.  It only
+ * withdraws this request's interest in the build so that the owner may cancel
+ * the build if no other requests are waiting on it.
+ *
+ * @param <T>
+ */
+class ChainedBuildFuture<T> implements Future<T> {
+
+	private final Future<?> inFlight;
+	private final Callable<Future<T>> continuation;
+	private final Runnable release;
+	private final AtomicBoolean released = new AtomicBoolean(false);
+	private volatile boolean cancelled = false;
+	private volatile Future<T> result = null;
+	private ExecutionException error = null;
+
+	/**
+	 * @param inFlight
+	 *            the future for the build that is in progress
+	 * @param continuation
+	 *            called after the in-flight build completes to obtain the
+	 *            future for the result
+	 */
+	ChainedBuildFuture(Future<?> inFlight, Callable<Future<T>> continuation) {
+		this(inFlight, continuation, null);
+	}
+
+	/**
+	 * @param inFlight
+	 *            the future for the build that is in progress
+	 * @param continuation
+	 *            called after the in-flight build completes to obtain the
+	 *            future for the result
+	 * @param release
+	 *            called once, when this request stops waiting on the in-flight
+	 *            build, either because the build completed or because this
+	 *            future was cancelled.  May be null.
+	 */
+	ChainedBuildFuture(Future<?> inFlight, Callable<Future<T>> continuation, Runnable release) {
+		this.inFlight = inFlight;
+		this.continuation = continuation;
+		this.release = release;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		// The in-flight build belongs to another request, so just stop waiting on it
+		if (release()) {
+			cancelled = true;
+			return true;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		try {
+			inFlight.get();
+		} catch (ExecutionException ignore) {
+			// The continuation determines if output is available
+		}
+		return proceed().get();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+	ExecutionException, TimeoutException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			inFlight.get(timeout, unit);
+		} catch (ExecutionException ignore) {
+			// The continuation determines if output is available
+		}
+		// Wait on the result for whatever is left of the timeout
+		long remaining = Math.max(0, deadline - System.nanoTime());
+		return proceed().get(remaining, TimeUnit.NANOSECONDS);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	@Override
+	public boolean isDone() {
+		Future<T> result = this.result;
+		return cancelled || (result != null ? result.isDone() : inFlight.isDone());
+	}
+
+	/**
+	 * Calls the release callback if it hasn't already been called
+	 *
+	 * @return true if this call released the wait
+	 */
+	private boolean release() {
+		if (!released.compareAndSet(false, true)) {
+			return false;
+		}
+		if (release != null) {
+			release.run();
+		}
+		return true;
+	}
+
+	/**
+	 * Calls the continuation the first time this method is called and returns
+	 * the future it returned, or throws the exception it threw, on subsequent
+	 * calls.
+	 *
+	 * @return the future for the result
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private synchronized Future<T> proceed() throws InterruptedException, ExecutionException {
+		if (result == null && error == null) {
+			release();
+			try {
+				result = continuation.call();
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (ExecutionException e) {
+				error = e;
+			} catch (Exception e) {
+				error = new ExecutionException(e);
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+		return result;
+	}
+}
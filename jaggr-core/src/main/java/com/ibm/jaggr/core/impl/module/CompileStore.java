@@ -0,0 +1,523 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.ProcessingDependenciesException;
+import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
+import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
+import com.ibm.jaggr.core.config.IConfig;
+import com.ibm.jaggr.core.deps.IDependencies;
+import com.ibm.jaggr.core.modulebuilder.IModuleBuilder;
+import com.ibm.jaggr.core.modulebuilder.ModuleBuild;
+import com.ibm.jaggr.core.options.IOptions;
+import com.ibm.jaggr.core.resource.IResource;
+import com.ibm.jaggr.core.util.TypeUtil;
+
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A content addressed store of module builds that outlives the module cache.
+ * <p>
+ * Module builds are stored under a content key that is a hash of everything the
+ * build output can depend on, other than the request: the source bytes, the
+ * module id and builder, the aggregator options, the config and the dependency
+ * graph.  Builds that in-line other resources report them with
+ * {@link ModuleBuild#addDependency(URI, long)}.  The URIs and last-modified
+ * times of these resources are stored with the build, and a stored build is not
+ * used if any of them has changed.  Only builds that the builder has marked with
+ * {@link ModuleBuild#setDependenciesTracked()} are stored, since the output of
+ * other builders may depend on resources that the store doesn't know about.
+ * The builds for a content key are stored by the cache key generated
+ * for the request, so builds with different features or compilation levels are
+ * stored separately.  Because the key is derived from content rather than from
+ * last-modified times, a restarted or redeployed server, or a second server
+ * using the same working directory, can load the builds for unchanged modules
+ * instead of building them again.
+ * <p>
+ * The store lives in its own directory so that it is not cleared along with
+ * the cache directory.  Files are written to a temporary file and then renamed,
+ * so readers never see partially written files, even across processes.
+ * When the size of the store exceeds its capacity, the least recently used
+ * files are deleted.  The directory may be deleted at any time to reclaim the
+ * space.
+ */
+class CompileStore {
+	private static final Logger log = Logger.getLogger(CompileStore.class.getName());
+
+	/** Name of the store directory in the aggregator working directory */
+	static final String DIRNAME = "compilestore"; //$NON-NLS-1$
+
+	/** Changing this invalidates all previously stored builds */
+	private static final String FORMAT_VERSION = "2"; //$NON-NLS-1$
+
+	private static final String KEYGENS_SUFFIX = ".keygens"; //$NON-NLS-1$
+	private static final String BUILD_SUFFIX = ".build"; //$NON-NLS-1$
+
+	/** Files are deleted until the store is this fraction of its capacity */
+	private static final double EVICTION_TARGET = 0.9;
+
+	private final File directory;
+
+	/** Maximum size of the store in bytes, or 0 if unbounded */
+	private volatile long capacity;
+
+	/** Approximate size of the store in bytes, or -1 if not yet computed */
+	private long size = -1;
+
+	/** Digest of the dependency graph, recomputed when the graph changes */
+	private volatile DependenciesDigest depsDigest = null;
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private final AtomicInteger evictions = new AtomicInteger();
+
+	/**
+	 * @param directory
+	 *            the store directory.  The directory is created when the first
+	 *            build is stored.
+	 * @param capacity
+	 *            the maximum size of the store in bytes, or 0 if unbounded
+	 */
+	CompileStore(File directory, long capacity) {
+		this.directory = directory;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Sets the maximum size of the store.  The store is trimmed to the new
+	 * capacity the next time a build is stored.
+	 *
+	 * @param capacity
+	 *            the maximum size of the store in bytes, or 0 if unbounded
+	 */
+	void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the content key for the builds of the specified module.
+	 *
+	 * @param aggr
+	 *            the aggregator
+	 * @param mid
+	 *            the module id
+	 * @param resource
+	 *            the module source
+	 * @param builder
+	 *            the module builder
+	 * @return the content key, or null if the store can't be used for the
+	 *         module because the dependency graph is being processed
+	 * @throws IOException
+	 */
+	String getContentKey(IAggregator aggr, String mid, IResource resource, IModuleBuilder builder) throws IOException {
+		String deps;
+		try {
+			deps = getDependenciesDigest(aggr.getDependencies());
+		} catch (ProcessingDependenciesException e) {
+			return null;
+		}
+		MessageDigest md = newDigest();
+		update(md, FORMAT_VERSION);
+		update(md, mid);
+		update(md, builder.getClass().getName());
+		update(md, builder.getClass().getPackage() != null ?
+				builder.getClass().getPackage().getImplementationVersion() : null);
+		IOptions options = aggr.getOptions();
+		update(md, options != null ? new TreeMap<String, String>(options.getOptionsMap()).toString() : null);
+		IConfig config = aggr.getConfig();
+		update(md, config != null ? config.toString() : null);
+		update(md, deps);
+		InputStream in = resource.getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				md.update(buffer, 0, len);
+			}
+		} finally {
+			try { in.close(); } catch (IOException ignore) {}
+		}
+		return TypeUtil.byteArray2String(md.digest());
+	}
+
+	/**
+	 * Returns the stored build for the request.
+	 *
+	 * @param contentKey
+	 *            the content key returned by
+	 *            {@link #getContentKey(IAggregator, String, IResource, IModuleBuilder)}
+	 * @param request
+	 *            the request
+	 * @return the stored build, or null if there isn't one or if any of the
+	 *         resources that the build depends on have changed
+	 */
+	@SuppressWarnings("unchecked")
+	ModuleBuild get(String contentKey, HttpServletRequest request) {
+		ModuleBuild result = null;
+		File keyGensFile = new File(directory, contentKey + KEYGENS_SUFFIX);
+		List<ICacheKeyGenerator> keyGens = (List<ICacheKeyGenerator>)readObject(keyGensFile);
+		if (keyGens != null) {
+			File buildFile = getBuildFile(contentKey, KeyGenUtil.generateKey(request, keyGens));
+			StoredBuild stored = (StoredBuild)readObject(buildFile);
+			if (stored != null && isCurrent(stored, request)) {
+				result = new ModuleBuild(stored.output, keyGens, null);
+				for (String mid : stored.extraModules) {
+					result.addExtraModule(mid);
+				}
+				for (Map.Entry<URI, Long> entry : stored.dependencies.entrySet()) {
+					result.addDependency(entry.getKey(), entry.getValue());
+				}
+				result.setDependenciesTracked();
+				// Record the use for least recently used eviction
+				long now = System.currentTimeMillis();
+				keyGensFile.setLastModified(now);
+				buildFile.setLastModified(now);
+			}
+		}
+		(result != null ? hits : misses).incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Asynchronously stores the build for the request.  Builds with
+	 * provisional cache key generators are not stored.
+	 *
+	 * @param executor
+	 *            the executor to write the files on
+	 * @param contentKey
+	 *            the content key returned by
+	 *            {@link #getContentKey(IAggregator, String, IResource, IModuleBuilder)}
+	 * @param request
+	 *            the request
+	 * @param keyGens
+	 *            the cache key generators for the module
+	 * @param build
+	 *            the build
+	 */
+	void putAsync(ExecutorService executor, final String contentKey, HttpServletRequest request,
+			final List<ICacheKeyGenerator> keyGens, ModuleBuild build) {
+		if (keyGens == null || KeyGenUtil.isProvisional(keyGens) ||
+				!(build.getBuildOutput() instanceof Serializable) ||
+				!build.isDependenciesTracked()) {
+			return;
+		}
+		// Generate the key now since the request may be gone by the time the task runs
+		final File buildFile = getBuildFile(contentKey, KeyGenUtil.generateKey(request, keyGens));
+		final StoredBuild stored = new StoredBuild(build.getBuildOutput(), build.getExtraModules(), build.getDependencies());
+		executor.submit(new Runnable() {
+			public void run() {
+				File keyGensFile = new File(directory, contentKey + KEYGENS_SUFFIX);
+				if (writeObject(buildFile, stored)) {
+					long added = buildFile.length();
+					if (!keyGens.equals(readObject(keyGensFile))) {
+						// Write the key generators last so that the build is there
+						// when other readers find them
+						writeObject(keyGensFile, new ArrayList<ICacheKeyGenerator>(keyGens));
+						added += keyGensFile.length();
+					}
+					addSize(added);
+				}
+			}
+		});
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	int getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("CompileStore(") //$NON-NLS-1$
+		.append("directory:").append(directory).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("capacity:").append(capacity).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("hits:").append(hits.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("misses:").append(misses.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("evictions:").append(evictions.get()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * @param stored
+	 *            the stored build
+	 * @param request
+	 *            the request
+	 * @return true if none of the resources that the build depends on have
+	 *         been modified since the build was stored
+	 */
+	private boolean isCurrent(StoredBuild stored, HttpServletRequest request) {
+		if (stored.dependencies.isEmpty()) {
+			return true;
+		}
+		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+		for (Map.Entry<URI, Long> entry : stored.dependencies.entrySet()) {
+			if (aggr == null || aggr.newResource(entry.getKey()).lastModified() != entry.getValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds to the size of the store and deletes the least recently used files
+	 * if the store has exceeded its capacity.
+	 *
+	 * @param added
+	 *            the number of bytes added to the store
+	 */
+	private synchronized void addSize(long added) {
+		if (size < 0) {
+			size = 0;
+			for (File file : listStoreFiles()) {
+				size += file.length();
+			}
+		} else {
+			size += added;
+		}
+		long capacity = this.capacity;
+		if (capacity > 0 && size > capacity) {
+			evict((long)(capacity * EVICTION_TARGET));
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files until the size of the store is
+	 * no more than {@code target}.  Other servers sharing the store may have
+	 * added files, so the size is recomputed from the directory.
+	 *
+	 * @param target
+	 *            the target size in bytes
+	 */
+	private void evict(long target) {
+		File[] files = listStoreFiles();
+		final Map<File, Long> lastModified = new HashMap<File, Long>();
+		size = 0;
+		for (File file : files) {
+			lastModified.put(file, file.lastModified());
+			size += file.length();
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long l1 = lastModified.get(f1), l2 = lastModified.get(f2);
+				return l1 < l2 ? -1 : (l1 > l2 ? 1 : 0);
+			}
+		});
+		for (File file : files) {
+			if (size <= target) {
+				break;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				size -= length;
+				evictions.incrementAndGet();
+			}
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Compile store trimmed to " + size + " bytes"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	private File[] listStoreFiles() {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String name = file.getName();
+				return name.endsWith(BUILD_SUFFIX) || name.endsWith(KEYGENS_SUFFIX);
+			}
+		});
+		return files != null ? files : new File[0];
+	}
+
+	private File getBuildFile(String contentKey, String cacheKey) {
+		MessageDigest md = newDigest();
+		update(md, contentKey);
+		update(md, cacheKey);
+		return new File(directory, TypeUtil.byteArray2String(md.digest()) + BUILD_SUFFIX);
+	}
+
+	/**
+	 * Returns a digest of the dependency graph.  Builds that expand require
+	 * lists depend on the graph.  The digest is computed from the graph content
+	 * rather than from its last-modified date so that it is the same on all
+	 * servers with the same sources.
+	 *
+	 * @param deps
+	 *            the dependencies, may be null
+	 * @return the digest
+	 * @throws ProcessingDependenciesException
+	 */
+	private String getDependenciesDigest(IDependencies deps) throws ProcessingDependenciesException {
+		if (deps == null) {
+			return null;
+		}
+		long lastModified = deps.getLastModified();
+		DependenciesDigest digest = depsDigest;
+		if (digest == null || digest.deps != deps || digest.lastModified != lastModified) {
+			// Benign race.  Concurrent callers will compute the same digest.
+			List<String> names = new ArrayList<String>();
+			for (String name : deps.getDependencyNames()) {
+				names.add(name);
+			}
+			Collections.sort(names);
+			MessageDigest md = newDigest();
+			for (String name : names) {
+				update(md, name);
+				update(md, String.valueOf(deps.getDelcaredDependencies(name)));
+				update(md, String.valueOf(deps.getRequireDependencies(name)));
+				update(md, String.valueOf(deps.getDependentFeatures(name)));
+			}
+			depsDigest = digest = new DependenciesDigest(deps, lastModified, TypeUtil.byteArray2String(md.digest()));
+		}
+		return digest.value;
+	}
+
+	private Object readObject(File file) {
+		Object result = null;
+		try {
+			ObjectInputStream is = new ObjectInputStream(new FileInputStream(file));
+			try {
+				result = is.readObject();
+			} finally {
+				try { is.close(); } catch (Exception ignore) {}
+			}
+		} catch (FileNotFoundException e) {
+			// not stored
+		} catch (Exception e) {
+			// The file will be replaced when the build is stored
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Unable to read " + file.getPath(), e); //$NON-NLS-1$
+			}
+		}
+		return result;
+	}
+
+	private boolean writeObject(File file, Object object) {
+		File temp = null;
+		try {
+			if (!directory.exists()) {
+				directory.mkdirs();
+			}
+			temp = File.createTempFile("store", ".tmp", directory); //$NON-NLS-1$ //$NON-NLS-2$
+			ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(temp));
+			try {
+				os.writeObject(object);
+			} finally {
+				os.close();
+			}
+			if (!temp.renameTo(file)) {
+				// Some platforms won't rename over an existing file
+				file.delete();
+				if (!temp.renameTo(file)) {
+					throw new IOException("Unable to rename " + temp.getPath()); //$NON-NLS-1$
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			if (temp != null) {
+				temp.delete();
+			}
+			if (log.isLoggable(Level.WARNING)) {
+				log.log(Level.WARNING, e.getMessage(), e);
+			}
+			return false;
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is required on all platforms
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void update(MessageDigest md, String value) {
+		if (value != null) {
+			md.update(value.getBytes(Charsets.UTF_8));
+		}
+		// Separator so that adjacent values can't run together
+		md.update((byte)0);
+	}
+
+	private static class StoredBuild implements Serializable {
+		private static final long serialVersionUID = 2934208472418830185L;
+
+		private final Object output;
+		private final List<String> extraModules;
+		private final Map<URI, Long> dependencies;
+
+		private StoredBuild(Object output, List<String> extraModules, Map<URI, Long> dependencies) {
+			this.output = output;
+			this.extraModules = new ArrayList<String>(extraModules);
+			this.dependencies = new LinkedHashMap<URI, Long>(dependencies);
+		}
+	}
+
+	private static class DependenciesDigest {
+		private final IDependencies deps;
+		private final long lastModified;
+		private final String value;
+
+		private DependenciesDigest(IDependencies deps, long lastModified, String value) {
+			this.deps = deps;
+			this.lastModified = lastModified;
+			this.value = value;
+		}
+	}
+}
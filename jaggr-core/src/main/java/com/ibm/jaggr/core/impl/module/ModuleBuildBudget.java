@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.impl.module.ModuleImpl.CacheEntry;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the amount of heap used by module build output.  Module builds that
+ * hold their output in memory are tracked in an LRU map weighted by the size of
+ * the output.  When the budget is exceeded, the least recently used builds
+ * release their in-memory output and are read from their cache files from then
+ * on, so evicted builds don't need to be rebuilt.
+ */
+class ModuleBuildBudget {
+
+	private final ConcurrentLinkedHashMap<CacheEntry, CacheEntry> map;
+
+	private final long capacity;
+
+	private final AtomicInteger numEvictions = new AtomicInteger(0);
+
+	/**
+	 * @param capacity
+	 *            the maximum number of bytes of build output to keep in memory
+	 */
+	ModuleBuildBudget(long capacity) {
+		this.capacity = capacity;
+		map = new ConcurrentLinkedHashMap.Builder<CacheEntry, CacheEntry>()
+				.maximumWeightedCapacity(capacity)
+				.listener(new EvictionListener<CacheEntry, CacheEntry>() {
+					@Override
+					public void onEviction(CacheEntry key, CacheEntry entry) {
+						numEvictions.incrementAndGet();
+						entry.release();
+					}
+				})
+				.weigher(new Weigher<CacheEntry>() {
+					@Override
+					public int weightOf(CacheEntry entry) {
+						// ConcurrentLinkedHashMap barfs on size == 0
+						return Math.max(1, entry.getHeapSize());
+					}
+				}).build();
+	}
+
+	/**
+	 * Adds the entry to the budget, or updates its weight and makes it the most
+	 * recently used entry if it's already been added.  Entries that don't hold
+	 * any output in memory are removed.
+	 *
+	 * @param entry
+	 *            the module build
+	 */
+	void add(CacheEntry entry) {
+		if (entry.getHeapSize() > 0) {
+			map.put(entry, entry);
+		} else {
+			map.remove(entry);
+		}
+	}
+
+	/**
+	 * Makes the entry the most recently used entry
+	 *
+	 * @param entry
+	 *            the module build
+	 */
+	void touch(CacheEntry entry) {
+		map.get(entry);
+	}
+
+	/**
+	 * @param entry
+	 *            the module build to stop tracking
+	 */
+	void remove(CacheEntry entry) {
+		map.remove(entry);
+	}
+
+	void clear() {
+		map.clear();
+	}
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	long getWeightedSize() {
+		return map.weightedSize();
+	}
+
+	int size() {
+		return map.size();
+	}
+
+	int getNumEvictions() {
+		return numEvictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("ModuleBuildBudget(") //$NON-NLS-1$
+		.append("capacity:").append(capacity).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("size:").append(getWeightedSize()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("builds:").append(size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("evictions:").append(getNumEvictions()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -17,29 +17,211 @@
 package com.ibm.jaggr.core.impl.module;
 
 import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.InitParams;
 import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.impl.cache.GenericCacheImpl;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.module.IModuleCache;
+import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.readers.ModuleBuildReader;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.util.RequestUtil;
+import com.ibm.jaggr.core.util.TypeUtil;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.Writer;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
 /**
  * This class implements the {@link IModuleCache} interface by extending {@link ConcurrentHashMap}
  * and adds methods for cloning and dumping the cache contents.
+ * <p>
+ * If the {@link InitParams#MAXMODULECACHECAPACITY_MB_INITPARAM} init-param is
+ * specified, then module builds keep their output in memory after it has been
+ * written to the cache file, subject to a {@link ModuleBuildBudget} of the
+ * specified size.  Builds that are evicted from the budget are read from their
+ * cache files.
+ * <p>
+ * If the {@link #OPTION_COMPILE_STORE} option is enabled, then module builds
+ * are also kept in a {@link CompileStore} that survives restarts and the
+ * clearing of the cache.
  */
 public class ModuleCacheImpl extends GenericCacheImpl<IModule> implements IModuleCache, Serializable {
 	private static final long serialVersionUID = 6091565036994759152L;
 
+	/**
+	 * Name of the aggregator option that specifies whether module builds are
+	 * kept in a content addressed store in the aggregator working directory.
+	 * When true, modules with the same source, options, config and dependencies
+	 * as a previous build are loaded from the store instead of being built,
+	 * even after the server is restarted or the cache is cleared.  Servers that
+	 * share a working directory share the store.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_COMPILE_STORE = "compileStore"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that specifies the maximum size, in
+	 * megabytes, of the compile store.  When the store grows beyond this size,
+	 * the least recently used builds are deleted.  A value of 0 means that the
+	 * size of the store is not limited.
+	 * <p>
+	 * Valid values: non-negative integer (default 100)
+	 */
+	public static final String OPTION_COMPILE_STORE_SIZE = "compileStoreSize"; //$NON-NLS-1$
+
+	/** Default value of the {@link #OPTION_COMPILE_STORE_SIZE} option */
+	public static final int COMPILE_STORE_SIZE_DEFAULT = 100;
+
+	/**
+	 * Name of the aggregator option that specifies the maximum number of builds
+	 * that are kept in each module's build map.  A module has a build for each
+	 * distinct cache key, so modules whose cache key depends on request
+	 * features can accumulate many builds.  When the limit is reached, the
+	 * least recently used build releases its in-memory output and only its
+	 * cache file name is kept, so that the build is read from the cache file
+	 * the next time it's requested.  The memory used by build output is
+	 * bounded by the heap budget (see {@link ModuleBuildBudget}).
+	 * <p>
+	 * Valid values: positive integer (default 100)
+	 */
+	public static final String OPTION_MAX_MODULE_BUILDS = "maxModuleBuilds"; //$NON-NLS-1$
+
+	/** Default value of the {@link #OPTION_MAX_MODULE_BUILDS} option */
+	public static final int MAX_MODULE_BUILDS_DEFAULT = 100;
+
+	private transient volatile ModuleBuildBudget buildBudget = null;
+
+	private transient volatile CompileStore compileStore = null;
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.cache.GenericCacheImpl#setAggregator(com.ibm.jaggr.core.IAggregator)
+	 */
+	@Override
+	public void setAggregator(IAggregator aggregator) {
+		super.setAggregator(aggregator);
+		long capacity = getMaxCapacity(aggregator);
+		buildBudget = capacity > 0 ? new ModuleBuildBudget(capacity) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.cache.GenericCacheImpl#clear()
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+		ModuleBuildBudget budget = buildBudget;
+		if (budget != null) {
+			budget.clear();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.cache.GenericCacheImpl#dump(java.io.Writer, java.util.regex.Pattern)
+	 */
+	@Override
+	public void dump(Writer writer, Pattern filter) throws IOException {
+		super.dump(writer, filter);
+		ModuleBuildBudget budget = buildBudget;
+		if (budget != null) {
+			String linesep = System.getProperty("line.separator"); //$NON-NLS-1$
+			writer.append(budget.toString()).append(linesep);
+		}
+		CompileStore store = compileStore;
+		if (store != null) {
+			String linesep = System.getProperty("line.separator"); //$NON-NLS-1$
+			writer.append(store.toString()).append(linesep);
+		}
+	}
+
+	/**
+	 * @return the heap budget for module build output, or null if module builds
+	 *         don't keep their output in memory after it has been persisted
+	 */
+	ModuleBuildBudget getBuildBudget() {
+		return buildBudget;
+	}
+
+	/**
+	 * @param options
+	 *            the aggregator options
+	 * @return the maximum number of builds to cache for each module, as
+	 *         specified by the {@link #OPTION_MAX_MODULE_BUILDS} option
+	 */
+	static int getMaxModuleBuilds(IOptions options) {
+		int result = MAX_MODULE_BUILDS_DEFAULT;
+		if (options != null) {
+			result = TypeUtil.asInt(options.getOption(OPTION_MAX_MODULE_BUILDS), MAX_MODULE_BUILDS_DEFAULT);
+		}
+		return result > 0 ? result : MAX_MODULE_BUILDS_DEFAULT;
+	}
+
+	/**
+	 * @param options
+	 *            the aggregator options
+	 * @return the maximum size of the compile store in bytes, as specified by
+	 *         the {@link #OPTION_COMPILE_STORE_SIZE} option, or 0 if unbounded
+	 */
+	static long getCompileStoreCapacity(IOptions options) {
+		int result = COMPILE_STORE_SIZE_DEFAULT;
+		if (options != null) {
+			result = TypeUtil.asInt(options.getOption(OPTION_COMPILE_STORE_SIZE), COMPILE_STORE_SIZE_DEFAULT);
+		}
+		return result >= 0 ? result * 1024L * 1024L : COMPILE_STORE_SIZE_DEFAULT * 1024L * 1024L;
+	}
+
+	/**
+	 * @param aggregator
+	 *            the aggregator
+	 * @return the compile store, created the first time it's requested.  The
+	 *         capacity of the store is updated from the aggregator options.
+	 */
+	CompileStore getCompileStore(IAggregator aggregator) {
+		long capacity = getCompileStoreCapacity(aggregator.getOptions());
+		CompileStore store = compileStore;
+		if (store == null) {
+			synchronized (this) {
+				store = compileStore;
+				if (store == null) {
+					store = compileStore = new CompileStore(
+							new File(aggregator.getWorkingDirectory(), CompileStore.DIRNAME), capacity);
+				}
+			}
+		}
+		if (store.getCapacity() != capacity) {
+			store.setCapacity(capacity);
+		}
+		return store;
+	}
+
+	/**
+	 * Returns the maximum number of bytes of module build output to keep in memory,
+	 * as specified by the {@link InitParams#MAXMODULECACHECAPACITY_MB_INITPARAM}
+	 * init-param.
+	 *
+	 * @param aggregator
+	 *            the aggregator
+	 * @return the capacity in bytes, or 0 if not specified
+	 */
+	protected long getMaxCapacity(IAggregator aggregator) {
+		InitParams initParams =  aggregator.getInitParams();
+		long result = 0;
+		if (initParams != null) {
+			List<String> values = initParams.getValues(InitParams.MAXMODULECACHECAPACITY_MB_INITPARAM);
+			result = TypeUtil.asInt(values.size()  > 0 ? values.get(values.size()-1) : null,  0) * 1024L * 1024L;
+		}
+		return result;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.module.IModuleCache#getBuild(javax.servlet.http.HttpServletRequest, com.ibm.jaggr.service.module.IModule)
 	 */
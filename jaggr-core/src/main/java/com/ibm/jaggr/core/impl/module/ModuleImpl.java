@@ -20,12 +20,15 @@ import com.ibm.jaggr.core.DependencyVerificationException;
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.NotFoundException;
 import com.ibm.jaggr.core.ProcessingDependenciesException;
+import com.ibm.jaggr.core.cache.ICache;
 import com.ibm.jaggr.core.cache.ICacheManager;
 import com.ibm.jaggr.core.cachekeygenerator.AbstractCacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.config.IConfig;
+import com.ibm.jaggr.core.impl.executors.PriorityBuildScheduler;
 import com.ibm.jaggr.core.impl.layer.CompletedFuture;
+import com.ibm.jaggr.core.impl.layer.LayerImpl;
 import com.ibm.jaggr.core.layer.ILayer;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.module.IModuleCache;
@@ -41,14 +44,25 @@ import com.ibm.jaggr.core.readers.ModuleBuildReader;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflateSegment;
+import com.ibm.jaggr.core.util.RequestUtil;
+import com.ibm.jaggr.core.util.SlabAllocator;
 import com.ibm.jaggr.core.util.StringUtil;
 import com.ibm.jaggr.core.util.TypeUtil;
 
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ForwardingFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamException;
@@ -72,8 +86,11 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -111,10 +128,21 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 
 	/**
 	 * A mapping of keyname to cache object pairs where the keyname is a string
-	 * that is computed by the cache key generator
+	 * that is computed by the cache key generator.  The map holds at most
+	 * {@link ModuleCacheImpl#OPTION_MAX_MODULE_BUILDS} entries.  When the
+	 * limit is exceeded, the least recently used entry releases its in-memory
+	 * output and is moved to {@link #_evictedBuilds}.
 	 */
 	private volatile ConcurrentMap<String, CacheEntry> _moduleBuilds = null;
 
+	/**
+	 * Index of the builds that were evicted from {@link #_moduleBuilds}, by
+	 * the same keys.  The entries hold only the cache file name, and are moved
+	 * back to {@link #_moduleBuilds} when they are requested again so that the
+	 * build is read from the cache file instead of being rebuilt.
+	 */
+	private volatile ConcurrentMap<String, CacheEntry> _evictedBuilds = null;
+
 	/**
 	 * Constructor
 	 *
@@ -141,6 +169,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			_cacheKeyGenerators = module._cacheKeyGenerators;
 			_lastModified = module._lastModified;
 			_moduleBuilds = module._moduleBuilds;
+			_evictedBuilds = module._evictedBuilds;
 		}
 	}
 
@@ -221,10 +250,17 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		final boolean ignoreCached = options.isDevelopmentMode() &&
 				TypeUtil.asBoolean(request.getAttribute(IHttpTransport.NOCACHE_REQATTRNAME));
 
-		if (_moduleBuilds == null) {
+		if (!(_moduleBuilds instanceof ConcurrentLinkedHashMap)) {
 			synchronized(this) {
-				if (_moduleBuilds == null) {
-					_moduleBuilds = new ConcurrentHashMap<String, CacheEntry>();
+				if (!(_moduleBuilds instanceof ConcurrentLinkedHashMap)) {
+					// Deserialized modules have an unbounded map
+					ConcurrentMap<String, CacheEntry> evicted = new ConcurrentHashMap<String, CacheEntry>();
+					ConcurrentMap<String, CacheEntry> map = newModuleBuilds(mgr, options, evicted);
+					_evictedBuilds = evicted;
+					if (_moduleBuilds != null) {
+						map.putAll(_moduleBuilds);
+					}
+					_moduleBuilds = map;
 				}
 			}
 
@@ -240,7 +276,9 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		// without holding onto the synchronization lock for too long
 		final List<ICacheKeyGenerator> cacheKeyGenerators;
 		final ConcurrentMap<String, CacheEntry> moduleBuilds;
+		final ConcurrentMap<String, CacheEntry> evictedBuilds;
 		ConcurrentMap<String, CacheEntry> oldModuleBuilds = null;
+		ConcurrentMap<String, CacheEntry> oldEvictedBuilds = null;
 		synchronized (this) {
 			if (_lastModified == 0 || options.isDevelopmentMode()) {
 				// Get the last modified date of the source file.
@@ -252,7 +290,9 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 								+ _lastModified + ", new last modified=" + modified); //$NON-NLS-1$
 					}
 					oldModuleBuilds = _moduleBuilds;
+					oldEvictedBuilds = _evictedBuilds;
 					_moduleBuilds = null;
+					_evictedBuilds = null;
 					_lastModified = modified;
 					_cacheKeyGenerators = Collections.unmodifiableList(builder.getCacheKeyGenerators(aggr));
 					if (_cacheKeyGenerators == null) {
@@ -261,8 +301,12 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 				}
 			}
 			cacheKeyGenerators = _cacheKeyGenerators;
-			moduleBuilds = _moduleBuilds = (_moduleBuilds != null) ? _moduleBuilds
-					: new ConcurrentHashMap<String, CacheEntry>();
+			if (_moduleBuilds == null) {
+				_evictedBuilds = new ConcurrentHashMap<String, CacheEntry>();
+				_moduleBuilds = newModuleBuilds(mgr, options, _evictedBuilds);
+			}
+			moduleBuilds = _moduleBuilds;
+			evictedBuilds = _evictedBuilds;
 		}
 
 		// If we have stale cache files, queue them up for deletion
@@ -273,6 +317,12 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			}
 			oldModuleBuilds.clear(); // help out the GC
 		}
+		if (oldEvictedBuilds != null) {
+			for (CacheEntry entry : oldEvictedBuilds.values()) {
+				entry.delete(mgr); // asynchronous
+			}
+			oldEvictedBuilds.clear();
+		}
 		// Generate a cache key and see if we have a cached buildReader already
 		final String key = KeyGenUtil.generateKey(request, cacheKeyGenerators);
 
@@ -284,6 +334,9 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		CacheEntry existingEntry = null;
 		if (!ignoreCached) {
 			existingEntry = moduleBuilds.get(key);
+			if (existingEntry == null) {
+				existingEntry = restoreEvicted(moduleBuilds, evictedBuilds, key, mgr);
+			}
 			if (existingEntry != null
 					&& (reader = existingEntry.tryGetReader(mgr.getCacheDir(), request)) != null) {
 				if (isLogLevelFiner) {
@@ -292,6 +345,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 				}
 				ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
 						cacheKeyGenerators, null);
+				addDeflateSegment(mbr, existingEntry, request, options, mgr.getCacheDir());
 				processExtraModules(mbr, request, existingEntry);
 				return new CompletedFuture<ModuleBuildReader>(mbr);
 			}
@@ -327,6 +381,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 				}
 				ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
 						cacheKeyGenerators, null);
+				addDeflateSegment(mbr, existingEntry, request, options, mgr.getCacheDir());
 				processExtraModules(mbr, request, existingEntry);
 				return new CompletedFuture<ModuleBuildReader>(mbr);
 			}
@@ -342,9 +397,7 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		final CacheEntry cacheEntry = (existingEntry != null) ? existingEntry
 				: newEntry;
 
-		// Submit the task to the request executor and return a
-		// Future<ModuleReader> to the caller
-		return (Future<ModuleBuildReader>) aggr.buildAsync(new Callable<ModuleBuildReader>() {
+		final Callable<ModuleBuildReader> buildTask = new Callable<ModuleBuildReader>() {
 			public ModuleBuildReader call() throws Exception {
 				List<ICacheKeyGenerator> newCacheKeyGenerators =
 						KeyGenUtil.isProvisional(cacheKeyGenerators) ? null : cacheKeyGenerators;
@@ -374,21 +427,39 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 							}
 							ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
 									_cacheKeyGenerators, null);
+							addDeflateSegment(mbr, cacheEntry, request, options, mgr.getCacheDir());
 							processExtraModules(mbr, request, cacheEntry);
 							return mbr;
 						}
-						// Build the output
-						build = builder.build(
-								getModuleId(),
-								resource,
-								request,
-								newCacheKeyGenerators);
+						// Load the output from the compile store if the module has been
+						// built with the same inputs before, otherwise build the output
+						CompileStore store = ignoreCached ? null : getCompileStore(aggr);
+						String contentKey = (store != null) ?
+								store.getContentKey(aggr, getModuleId(), resource, builder) : null;
+						ModuleBuild storedBuild = (contentKey != null) ? store.get(contentKey, request) : null;
+						if (storedBuild != null) {
+							if (isLogLevelFiner) {
+								log.finer("returning stored module build with content key: " //$NON-NLS-1$
+										+ contentKey);
+							}
+							build = storedBuild;
+						} else {
+							build = builder.build(
+									getModuleId(),
+									resource,
+									request,
+									newCacheKeyGenerators);
+						}
 						if (build.isError()) {
 							// Don't cache error results
 							return new ModuleBuildReader(new StringReader(build
 									.getBuildOutput().toString()), builder.isScript(request), null, build.getErrorMessage());
 						}
 						cacheEntry.setData(build.getBuildOutput(), build.getExtraModules());
+						if (contentKey != null && storedBuild == null) {
+							store.putAsync(aggr.getExecutors().getFileCreateExecutor(), contentKey, request,
+									KeyGenUtil.combine(newCacheKeyGenerators, build.getCacheKeyGenerators()), build);
+						}
 
 						// If the cache key generator has changed, then update the
 						if (newCacheKeyGenerators == null || !newCacheKeyGenerators.equals(build.getCacheKeyGenerators())) {
@@ -412,9 +483,11 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 										log.finer("Updating cache key for module build.  Old key = " //$NON-NLS-1$
 												+ key + ", new key = " + newkey); //$NON-NLS-1$
 									}
+									// Remove before adding so that the map doesn't exceed
+									// its capacity and evict another build
+									moduleBuilds.remove(key, cacheEntry);
 									oldEntry = moduleBuilds.putIfAbsent(newkey,
 											cacheEntry);
-									moduleBuilds.remove(key, cacheEntry);
 								}
 								// Only write out the cache file if the put was
 								// successful
@@ -472,11 +545,114 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 						cacheEntry.getReader(mgr.getCacheDir(), request),
 						builder.isScript(request),
 						newCacheKeyGenerators, null);
+				addDeflateSegment(mbr, cacheEntry, request, options, mgr.getCacheDir());
 				processExtraModules(mbr, request, cacheEntry);
 				// return a build reader object
 				return mbr;
 			}
-		}, request);
+		};
+
+		if (ignoreCached) {
+			return (Future<ModuleBuildReader>) aggr.buildAsync(buildTask, request);
+		}
+
+		// Only one build per cache entry is submitted to the build executor.  Other
+		// requests for the same entry chain onto the in-flight build and wait for it
+		// on their own threads instead of blocking a build executor thread on the
+		// cache entry's monitor.
+		final SettableFuture<Void> buildFuture = SettableFuture.create();
+		ListenableFuture<Void> inFlight = cacheEntry.claimBuild(buildFuture);
+		if (inFlight != null) {
+			if (isLogLevelFiner) {
+				log.finer("waiting on in-flight module build with cache key: " //$NON-NLS-1$
+						+ key);
+			}
+			// Builds needed by more requests run sooner
+			PriorityBuildScheduler.boost(cacheEntry.getScheduledBuild());
+			cacheEntry.addWaiter();
+			return new ChainedBuildFuture<ModuleBuildReader>(inFlight, new Callable<Future<ModuleBuildReader>>() {
+				public Future<ModuleBuildReader> call() throws Exception {
+					Reader reader = cacheEntry.tryGetReader(mgr.getCacheDir(), request);
+					if (reader != null) {
+						ModuleBuildReader mbr = new ModuleBuildReader(reader, builder.isScript(request),
+								_cacheKeyGenerators, null);
+						addDeflateSegment(mbr, cacheEntry, request, options, mgr.getCacheDir());
+						processExtraModules(mbr, request, cacheEntry);
+						return new CompletedFuture<ModuleBuildReader>(mbr);
+					}
+					// The build didn't produce cached output (e.g. it was an error
+					// response, or it was cancelled), so build the module for this request.
+					return (Future<ModuleBuildReader>) aggr.buildAsync(buildTask, request);
+				}
+			}, new Runnable() {
+				public void run() {
+					cacheEntry.removeWaiter();
+				}
+			});
+		}
+
+		// Submit the task to the request executor and return a
+		// Future<ModuleReader> to the caller
+		try {
+			Future<ModuleBuildReader> future = (Future<ModuleBuildReader>) aggr.buildAsync(new Callable<ModuleBuildReader>() {
+				public ModuleBuildReader call() throws Exception {
+					try {
+						return buildTask.call();
+					} finally {
+						cacheEntry.completeBuild(buildFuture);
+					}
+				}
+			}, request);
+			cacheEntry.setScheduledBuild(future, buildFuture);
+			return new ForwardingFuture.SimpleForwardingFuture<ModuleBuildReader>(future) {
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					// Don't cancel builds that other requests are waiting on
+					if (cacheEntry.hasWaiters() || !super.cancel(mayInterruptIfRunning)) {
+						return false;
+					}
+					// The build task may not have run, so release the claim here.
+					// Requests that chain onto the build after this point will find
+					// no output and build the module themselves.
+					cacheEntry.completeBuild(buildFuture);
+					return true;
+				}
+			};
+		} catch (RuntimeException e) {
+			cacheEntry.completeBuild(buildFuture);
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets the deflate segment for the build output in {@code reader} if the layer
+	 * builder will be splicing pre-compressed module builds into a gzip encoded
+	 * response.  Failure to create the segment is not an error since the layer
+	 * builder can always read the content from the reader.
+	 *
+	 * @param reader
+	 *            the {@link ModuleBuildReader} for the build output
+	 * @param cacheEntry
+	 *            the cache entry object for the current module
+	 * @param request
+	 *            the http request
+	 * @param options
+	 *            the aggregator options
+	 * @param cacheDir
+	 *            the location of the cache directory
+	 */
+	protected void addDeflateSegment(ModuleBuildReader reader, CacheEntry cacheEntry, HttpServletRequest request, IOptions options, File cacheDir) {
+		if (TypeUtil.asBoolean(options.getOption(LayerImpl.OPTION_SPLICE_GZIP_MODULES)) &&
+				RequestUtil.isGzipEncoding(request) && DeflateSegment.isSupported()) {
+			try {
+				IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+				reader.setDeflateSegment(cacheEntry.getDeflateSegment(cacheDir, getBuildBudget(aggr.getCacheManager())));
+			} catch (IOException e) {
+				if (log.isLoggable(Level.WARNING)) {
+					log.log(Level.WARNING, e.getMessage(), e);
+				}
+			}
+		}
 	}
 
 	/**
@@ -595,10 +771,12 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 	 */
 	@Override
 	public void clearCached(ICacheManager mgr) {
-		Map<String, CacheEntry> moduleBuilds;
+		Map<String, CacheEntry> moduleBuilds, evictedBuilds;
 		synchronized (this) {
 			moduleBuilds = _moduleBuilds;
+			evictedBuilds = _evictedBuilds;
 			_moduleBuilds = null;
+			_evictedBuilds = null;
 		}
 		if (moduleBuilds != null) {
 			for (Map.Entry<String, CacheEntry> entry : moduleBuilds.entrySet()) {
@@ -606,6 +784,102 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			}
 			moduleBuilds.clear();
 		}
+		if (evictedBuilds != null) {
+			for (CacheEntry entry : evictedBuilds.values()) {
+				entry.delete(mgr);
+			}
+			evictedBuilds.clear();
+		}
+	}
+
+	/**
+	 * Returns a new map for the module builds that is limited to the number
+	 * of entries specified by {@link ModuleCacheImpl#OPTION_MAX_MODULE_BUILDS}.
+	 * Entries that are evicted from the map release their in-memory output and
+	 * are added to {@code evictedBuilds}.  Their cache files are kept.
+	 *
+	 * @param mgr
+	 *            the cache manager
+	 * @param options
+	 *            the aggregator options
+	 * @param evictedBuilds
+	 *            the index of evicted builds
+	 * @return the new map
+	 */
+	static ConcurrentMap<String, CacheEntry> newModuleBuilds(final ICacheManager mgr, IOptions options,
+			final ConcurrentMap<String, CacheEntry> evictedBuilds) {
+		return new ConcurrentLinkedHashMap.Builder<String, CacheEntry>()
+				.maximumWeightedCapacity(ModuleCacheImpl.getMaxModuleBuilds(options))
+				.listener(new EvictionListener<String, CacheEntry>() {
+					@Override
+					public void onEviction(String key, CacheEntry entry) {
+						if (entry.evict()) {
+							CacheEntry old = evictedBuilds.put(key, entry);
+							if (old != null && old != entry) {
+								old.delete(mgr);
+							}
+						}
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * Moves the entry for the specified key from the index of evicted builds
+	 * back to the module builds map.
+	 *
+	 * @param moduleBuilds
+	 *            the module builds map
+	 * @param evictedBuilds
+	 *            the index of evicted builds
+	 * @param key
+	 *            the cache key
+	 * @param mgr
+	 *            the cache manager
+	 * @return the entry in the module builds map for the key, or null
+	 */
+	static CacheEntry restoreEvicted(ConcurrentMap<String, CacheEntry> moduleBuilds,
+			ConcurrentMap<String, CacheEntry> evictedBuilds, String key, ICacheManager mgr) {
+		CacheEntry entry = (evictedBuilds != null) ? evictedBuilds.remove(key) : null;
+		if (entry == null) {
+			return null;
+		}
+		entry.restore();
+		CacheEntry existing = moduleBuilds.putIfAbsent(key, entry);
+		if (existing != null) {
+			// Another request has already started a new build for the key
+			entry.delete(mgr);
+			return existing;
+		}
+		return entry;
+	}
+
+	/**
+	 * @param mgr
+	 *            the cache manager
+	 * @return the heap budget for module build output, or null if module builds
+	 *         don't keep their output in memory after it has been persisted
+	 */
+	static ModuleBuildBudget getBuildBudget(ICacheManager mgr) {
+		ICache cache = mgr.getCache();
+		IModuleCache moduleCache = cache != null ? cache.getModules() : null;
+		return (moduleCache instanceof ModuleCacheImpl) ? ((ModuleCacheImpl)moduleCache).getBuildBudget() : null;
+	}
+
+	/**
+	 * @param aggr
+	 *            the aggregator
+	 * @return the compile store for module builds, or null if the
+	 *         {@link ModuleCacheImpl#OPTION_COMPILE_STORE} option is not enabled
+	 */
+	static CompileStore getCompileStore(IAggregator aggr) {
+		IOptions options = aggr.getOptions();
+		if (options == null || !TypeUtil.asBoolean(options.getOption(ModuleCacheImpl.OPTION_COMPILE_STORE))) {
+			return null;
+		}
+		ICache cache = aggr.getCacheManager().getCache();
+		IModuleCache moduleCache = cache != null ? cache.getModules() : null;
+		return (moduleCache instanceof ModuleCacheImpl) ? ((ModuleCacheImpl)moduleCache).getCompileStore(aggr) : null;
 	}
 
 	/**
@@ -648,6 +922,12 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 				_lastModified = module._lastModified;
 				_moduleBuilds = (module._moduleBuilds != null) ?
 						new ConcurrentHashMap<String, CacheEntry>(module._moduleBuilds) : null;
+				if (_moduleBuilds != null && module._evictedBuilds != null) {
+					// Evicted builds are evicted again when the module is next used
+					for (Map.Entry<String, CacheEntry> entry : module._evictedBuilds.entrySet()) {
+						_moduleBuilds.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
 			}
 		}
 
@@ -683,10 +963,25 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 	 * contention on synchronized locks that would need to be held during file
 	 * I/O if the live cache objects were serialized.
 	 */
-	static final private class CacheEntry implements Cloneable, Serializable {
+	static final class CacheEntry implements Cloneable, Serializable {
 		private static final long serialVersionUID = -3260824057647663760L;
 
+		@SuppressWarnings("rawtypes")
+		private static final AtomicReferenceFieldUpdater<CacheEntry, SettableFuture> buildFutureUpdater =
+				AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, SettableFuture.class, "buildFuture"); //$NON-NLS-1$
+
+		private static final AtomicIntegerFieldUpdater<CacheEntry> waitersUpdater =
+				AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "waiters"); //$NON-NLS-1$
+
+		private volatile transient SettableFuture<Void> buildFuture = null;
+		private volatile transient Future<?> scheduledBuild = null;
+		private volatile transient int waiters = 0;
 		private volatile transient Object content = null;
+		private volatile transient DeflateSegment deflateSegment = null;
+		private volatile transient SlabAllocator.Allocation slab = null;
+		private volatile transient ModuleBuildBudget budget = null;
+		private volatile transient boolean deleted = false;
+		private volatile transient boolean evicted = false;
 		private volatile String filename = null;
 		private volatile boolean isString = false;
 		private volatile List<String> extraModules = Collections.emptyList();
@@ -709,27 +1004,15 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		 */
 		public Reader getReader(File cacheDir, HttpServletRequest request) throws IOException {
 			Reader reader = null;
-			// Make local copies of volatile instance variables so that we can
-			// check and then use the values without locking. Note that it's important
-			// to get the value of this.content before this.filepath because
-			// this.filepath is set before this.content is cleared in persist().
-			Object content = this.content;
-			String filename = this.filename;
 			if (isString) {
-				if (content == null) {
-					if (filename == null) {
-						throw new IllegalStateException();
-					}
-					// Read the file and return a StringReader instead of just
-					// returning a reader to the file so that we can take advantage of
-					// parallel processing to read the files on the module builder threads.
-					Reader fileReader = new FileReader(new File(cacheDir, filename));
-					StringWriter writer = new StringWriter();
-					CopyUtil.copy(fileReader, writer);
-					content = writer.toString();
-				}
-				return new StringReader((String)content);
+				return new StringReader(getString(cacheDir));
 			} else {
+				// Make local copies of volatile instance variables so that we can
+				// check and then use the values without locking. Note that it's important
+				// to get the value of this.content before this.filepath because
+				// this.filepath is set before this.content is cleared in persist().
+				Object content = this.content;
+				String filename = this.filename;
 				if (content == null) {
 					if (filename == null) {
 						throw new IllegalStateException();
@@ -753,6 +1036,222 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 			return reader;
 		}
 
+		/**
+		 * @param cacheDir
+		 *            the location of the cache directory
+		 * @return The build output for string builds
+		 * @throws IOException
+		 */
+		private String getString(File cacheDir) throws IOException {
+			// Make local copies of volatile instance variables so that we can
+			// check and then use the values without locking. Note that it's important
+			// to get the value of this.content before this.filepath because
+			// this.filepath is set before this.content is cleared in persist().
+			Object content = this.content;
+			SlabAllocator.Allocation slab = this.slab;
+			String filename = this.filename;
+			InputStream in;
+			if (content == null && slab != null && (in = slab.getInputStream()) != null) {
+				// Read the build from off-heap storage
+				StringWriter writer = new StringWriter();
+				CopyUtil.copy(in, writer);
+				content = writer.toString();
+			}
+			if (content == null) {
+				if (filename == null) {
+					throw new IllegalStateException();
+				}
+				// Read the file and return a StringReader instead of just
+				// returning a reader to the file so that we can take advantage of
+				// parallel processing to read the files on the module builder threads.
+				Reader fileReader = new FileReader(new File(cacheDir, filename));
+				StringWriter writer = new StringWriter();
+				CopyUtil.copy(fileReader, writer);
+				content = writer.toString();
+			}
+			return (String)content;
+		}
+
+		/**
+		 * Returns the build output compressed as a standalone deflate segment,
+		 * creating the segment the first time it's requested.  The segment is
+		 * kept in memory only, until it's released by the heap budget.  If
+		 * there is no budget, the segment is not kept, since nothing would
+		 * ever release it.  Builds that are rendered per request are not
+		 * pre-compressed.
+		 *
+		 * @param cacheDir
+		 *            the location of the cache directory
+		 * @param budget
+		 *            the heap budget to track the segment against, or null
+		 * @return the deflate segment, or null if the build is not a string
+		 * @throws IOException
+		 */
+		public DeflateSegment getDeflateSegment(File cacheDir, ModuleBuildBudget budget) throws IOException {
+			DeflateSegment result = deflateSegment;
+			if (result == null && isString) {
+				result = DeflateSegment.create(
+						getString(cacheDir).getBytes("UTF-8"), Deflater.BEST_COMPRESSION); //$NON-NLS-1$
+				if (budget != null) {
+					// Benign race.  Concurrent callers will create equivalent segments.
+					deflateSegment = result;
+					this.budget = budget;
+					budget.add(this);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * @return The approximate number of bytes of heap used by the build
+		 *         output held in memory by this entry
+		 */
+		int getHeapSize() {
+			Object content = this.content;
+			DeflateSegment deflateSegment = this.deflateSegment;
+			int result = 0;
+			if (content instanceof String) {
+				result += ((String)content).length() * 2;
+			}
+			if (deflateSegment != null) {
+				result += deflateSegment.getData().length;
+			}
+			return result;
+		}
+
+		/**
+		 * Releases the build output held in memory by this entry.  The build
+		 * output is kept if it hasn't yet been written to the cache file.
+		 */
+		void release() {
+			deflateSegment = null;
+			// Check filename since content is cleared only after the cache file
+			// has been written.
+			if (filename != null) {
+				content = null;
+			}
+		}
+
+		/**
+		 * Releases the resources held by an entry that has been evicted from
+		 * the module builds map.  The cache file is kept so that the build can
+		 * be restored from it.  If the cache file hasn't been written yet, then
+		 * the output is released when it is.
+		 *
+		 * @return false if the entry has been deleted
+		 */
+		synchronized boolean evict() {
+			if (deleted) {
+				return false;
+			}
+			evicted = true;
+			ModuleBuildBudget budget = this.budget;
+			if (budget != null) {
+				this.budget = null;
+				budget.remove(this);
+			}
+			SlabAllocator.Allocation slab = this.slab;
+			if (slab != null) {
+				this.slab = null;
+				slab.free();
+			}
+			release();
+			return true;
+		}
+
+		/**
+		 * Called when an evicted entry is moved back to the module builds map
+		 */
+		synchronized void restore() {
+			evicted = false;
+		}
+
+		/**
+		 * Attempts to claim ownership of the build for this entry.  If no other
+		 * request is building the entry, then {@code future} is published as the
+		 * build future for the entry and null is returned.  The caller must then
+		 * call {@link #completeBuild(SettableFuture)} when the build is done,
+		 * whether or not it succeeded.  Otherwise, the in-flight build future is
+		 * returned.
+		 *
+		 * @param future
+		 *            the future to publish if the caller becomes the build owner
+		 * @return null if the caller owns the build, else the in-flight build future
+		 */
+		@SuppressWarnings("unchecked")
+		ListenableFuture<Void> claimBuild(SettableFuture<Void> future) {
+			while (true) {
+				if (buildFutureUpdater.compareAndSet(this, null, future)) {
+					return null;
+				}
+				SettableFuture<Void> existing = buildFutureUpdater.get(this);
+				if (existing != null) {
+					return existing;
+				}
+			}
+		}
+
+		/**
+		 * Releases ownership of the build claimed with {@code future} and
+		 * releases any requests waiting on it.  Ownership is released first so
+		 * that the entry can be built again if the build didn't produce any
+		 * output.
+		 *
+		 * @param future
+		 *            the future passed to {@link #claimBuild(SettableFuture)}
+		 */
+		void completeBuild(SettableFuture<Void> future) {
+			scheduledBuild = null;
+			buildFutureUpdater.compareAndSet(this, future, null);
+			future.set(null);
+		}
+
+		/**
+		 * Records the executor future for the build claimed with
+		 * {@code buildFuture} so that requests waiting on the build can boost
+		 * its priority.
+		 *
+		 * @param scheduled
+		 *            the future returned by the build executor
+		 * @param buildFuture
+		 *            the future passed to {@link #claimBuild(SettableFuture)}
+		 */
+		void setScheduledBuild(Future<?> scheduled, SettableFuture<Void> buildFuture) {
+			scheduledBuild = scheduled;
+			if (buildFuture.isDone()) {
+				// Build finished before we got here
+				scheduledBuild = null;
+			}
+		}
+
+		/**
+		 * @return the executor future for the in-flight build, or null
+		 */
+		Future<?> getScheduledBuild() {
+			return scheduledBuild;
+		}
+
+		/**
+		 * Records that a request is waiting on the in-flight build
+		 */
+		void addWaiter() {
+			waitersUpdater.incrementAndGet(this);
+		}
+
+		/**
+		 * Records that a request is no longer waiting on the in-flight build
+		 */
+		void removeWaiter() {
+			waitersUpdater.decrementAndGet(this);
+		}
+
+		/**
+		 * @return true if any requests are waiting on the in-flight build
+		 */
+		boolean hasWaiters() {
+			return waiters > 0;
+		}
+
 		/**
 		 * @param content
 		 *            The built output
@@ -786,9 +1285,13 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		 */
 		Reader tryGetReader(File cacheDir, HttpServletRequest request) {
 			Reader reader = null;
-			if (content != null || filename != null) {
+			if (content != null || slab != null || filename != null) {
 				try {
 					reader = getReader(cacheDir, request);
+					ModuleBuildBudget budget = this.budget;
+					if (budget != null) {
+						budget.touch(this);
+					}
 				} catch (IOException e) {
 					// If we get a FileNotFoundException, continue on and
 					// replace the cached entry
@@ -821,25 +1324,49 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		 *            build is attached to
 		 */
 		public void persist(final ICacheManager mgr, final ModuleImpl module) {
+			if (deleted) return;
 			String mid = new ModuleIdentifier(module.getModuleId()).getModuleName();
 			int idx = mid.lastIndexOf("/"); //$NON-NLS-1$
 			String name = "_" + ((idx != -1) ? mid.substring(idx + 1) : mid) + "."; //$NON-NLS-1$ //$NON-NLS-2$
 			if (isString) {
+				// Track the in-memory output against the module cache's heap budget
+				budget = getBuildBudget(mgr);
+				if (budget != null) {
+					budget.add(this);
+				}
 				mgr.createCacheFileAsync(name,
 						new StringReader(content.toString()),
 						new ICacheManager.CreateCompletionCallback() {
 					@Override
 					public void completed(String fname, Exception e) {
 						if (e == null) {
-							// Must set filename before clearing content
-							// since we don't synchronize.
-							filename = fname;
-							// Free up the memory for the content now that
-							// we've written out to disk
-							// TODO: Determine a size threshold where we may
-							// want to keep the contents
-							// of small files in memory to reduce disk i/o.
-							content = null;
+							// Synchronize on the entry to serialize with delete()
+							synchronized (CacheEntry.this) {
+								if (deleted) {
+									mgr.deleteFileDelayed(fname);
+									return;
+								}
+								// Keep a copy in off-heap storage if enabled
+								SlabAllocator allocator = mgr.getSlabAllocator();
+								Object current = content;
+								if (allocator != null && current != null && !evicted) {
+									slab = allocator.allocate(current.toString().getBytes(Charsets.UTF_8));
+								}
+								// Must set slab and filename before clearing content
+								// since readers don't synchronize.
+								filename = fname;
+								ModuleBuildBudget budget = CacheEntry.this.budget;
+								if (budget != null) {
+									// Keep the content in memory until it's evicted from
+									// the budget.  Re-add it in case it was evicted before
+									// the file was written.
+									budget.add(CacheEntry.this);
+								} else {
+									// Free up the memory for the content now that
+									// we've written out to disk
+									content = null;
+								}
+							}
 						}
 					}
 				});
@@ -870,7 +1397,18 @@ public class ModuleImpl extends ModuleIdentifier implements IModule {
 		 *            The {@link ICacheManager} object from which to get the
 		 *            {@link ScheduledExecutorService} to submit the delete task
 		 */
-		public void delete(ICacheManager mgr) {
+		public synchronized void delete(ICacheManager mgr) {
+			deleted = true;
+			ModuleBuildBudget budget = this.budget;
+			if (budget != null) {
+				this.budget = null;
+				budget.remove(this);
+			}
+			SlabAllocator.Allocation slab = this.slab;
+			if (slab != null) {
+				this.slab = null;
+				slab.free();
+			}
 			if (filename != null) {
 				mgr.deleteFileDelayed(filename);
 			}
@@ -0,0 +1,863 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java implementation of the PostCSS minifier plugin (minify.js) that is used
+ * in place of PostCSS when no other PostCSS plugins are configured.
+ * <p>
+ * The output is the same as the output of PostCSS with the minifier plugin,
+ * including PostCSS's handling of malformed CSS in safe mode.  To achieve this,
+ * the CSS is tokenized and parsed the same way that PostCSS does it, into a
+ * lightweight tree that holds only what the minifier writes to the output.
+ * The tree is then serialized the same way PostCSS serializes the minified
+ * tree.
+ * <p>
+ * If the CSS is something that PostCSS fails on with a script error,
+ * {@link #minify()} throws an {@link IllegalStateException} and the caller
+ * should use PostCSS so that the error is reported.
+ * <p>
+ * Instances of this class are not thread-safe.
+ */
+class CSSMinifier {
+
+	/* Token types */
+	private static final int SPACE = 0, WORD = 1, STRING = 2, COMMENT = 3, AT_WORD = 4, BRACKETS = 5,
+			OPEN_CURLY = 6, CLOSE_CURLY = 7, COLON = 8, SEMICOLON = 9, OPEN_PAREN = 10, CLOSE_PAREN = 11;
+
+	private static class Token {
+		final int type;
+		final String text;
+		Token(int type, String text) {
+			this.type = type;
+			this.text = text;
+		}
+	}
+
+	private static abstract class Node {
+		Container parent;
+		String before = ""; //$NON-NLS-1$
+	}
+
+	private static abstract class Container extends Node {
+		List<Node> nodes = new ArrayList<Node>();
+		Boolean semicolon;
+	}
+
+	private static class Root extends Container {
+	}
+
+	private static class Rule extends Container {
+		String selector;
+	}
+
+	private static class AtRule extends Container {
+		String name;
+		String params = ""; //$NON-NLS-1$
+		String rawParams;
+		String rawParamsValue;
+	}
+
+	private static class Decl extends Node {
+		String prop;
+		String value;
+		String rawValue;
+		String rawValueValue;
+		boolean important;
+		String rawImportant;
+	}
+
+	private static class Comment extends Node {
+		String raw;
+		String text;
+	}
+
+	private final String commentIgnores;
+	private String css;
+
+	/* Parser state */
+	private List<Token> tokens;
+	private int pos;
+	private Root root;
+	private Container current;
+	private String spaces;
+	private boolean semicolon;
+
+	/**
+	 * @param css
+	 *            the CSS to minify
+	 * @param commentIgnores
+	 *            the value that the minify.js plugin is initialized with. The
+	 *            plugin is initialized with a string rather than an array, so
+	 *            it retains comments with text that starts with any of the
+	 *            characters in the string.  This class does the same.
+	 */
+	CSSMinifier(String css, String commentIgnores) {
+		this.css = css;
+		this.commentIgnores = commentIgnores;
+	}
+
+	/**
+	 * Minifies the CSS
+	 *
+	 * @return the minified CSS
+	 * @throws IllegalStateException
+	 *             if the CSS can't be processed the way PostCSS processes it
+	 */
+	String minify() {
+		tokenize();
+		parse();
+		transform(root);
+		removeComments(root);
+		StringBuilder sb = new StringBuilder(css.length());
+		stringifyContent(sb, root, Boolean.TRUE.equals(root.semicolon));
+		return sb.toString();
+	}
+
+	/*
+	 * Tokenizer
+	 */
+
+	private void tokenize() {
+		tokens = new ArrayList<Token>();
+		int length = css.length();
+		int p = 0, next;
+		while (p < length) {
+			char c = css.charAt(p);
+			switch (c) {
+			case '\n': case ' ': case '\t': case '\r': case '\f':
+				next = p;
+				do {
+					next++;
+				} while (next < css.length() && isSpace(css.charAt(next)));
+				tokens.add(new Token(SPACE, css.substring(p, next)));
+				p = next - 1;
+				break;
+
+			case '{':
+				tokens.add(new Token(OPEN_CURLY, "{")); //$NON-NLS-1$
+				break;
+
+			case '}':
+				tokens.add(new Token(CLOSE_CURLY, "}")); //$NON-NLS-1$
+				break;
+
+			case ':':
+				tokens.add(new Token(COLON, ":")); //$NON-NLS-1$
+				break;
+
+			case ';':
+				tokens.add(new Token(SEMICOLON, ";")); //$NON-NLS-1$
+				break;
+
+			case '(':
+				next = css.indexOf(')', p + 1);
+				if (next == -1 || isBadBracket(p, next)) {
+					tokens.add(new Token(OPEN_PAREN, "(")); //$NON-NLS-1$
+				} else {
+					tokens.add(new Token(BRACKETS, css.substring(p, next + 1)));
+					p = next;
+				}
+				break;
+
+			case ')':
+				tokens.add(new Token(CLOSE_PAREN, ")")); //$NON-NLS-1$
+				break;
+
+			case '\'':
+			case '"':
+				next = p;
+				boolean escaped;
+				do {
+					escaped = false;
+					next = css.indexOf(c, next + 1);
+					if (next == -1) {
+						// Unclosed quote.  PostCSS closes it in safe mode
+						css += c;
+						next = css.length() - 1;
+					}
+					int escapePos = next;
+					while (css.charAt(escapePos - 1) == '\\') {
+						escapePos--;
+						escaped = !escaped;
+					}
+				} while (escaped);
+				tokens.add(new Token(STRING, css.substring(p, next + 1)));
+				p = next;
+				break;
+
+			case '@':
+				next = indexOfAtEnd(p + 1);
+				next = next == -1 ? css.length() - 1 : next - 1;
+				tokens.add(new Token(AT_WORD, css.substring(p, next + 1)));
+				p = next;
+				break;
+
+			case '\\':
+				next = p;
+				boolean escape = true;
+				while (next + 1 < css.length() && css.charAt(next + 1) == '\\') {
+					next++;
+					escape = !escape;
+				}
+				if (escape && next + 1 < css.length()) {
+					char n = css.charAt(next + 1);
+					if (n != '/' && n != ' ' && n != '\n' && n != '\t' && n != '\r' && n != '\f') {
+						next++;
+					}
+				}
+				tokens.add(new Token(WORD, css.substring(p, next + 1)));
+				p = next;
+				break;
+
+			default:
+				if (c == '/' && p + 1 < css.length() && css.charAt(p + 1) == '*') {
+					next = css.indexOf("*/", p + 2) + 1; //$NON-NLS-1$
+					if (next == 0) {
+						// Unclosed comment
+						css += "*/"; //$NON-NLS-1$
+						next = css.length() - 1;
+					}
+					tokens.add(new Token(COMMENT, css.substring(p, next + 1)));
+					p = next;
+				} else {
+					next = indexOfWordEnd(p + 1);
+					next = next == -1 ? css.length() - 1 : next - 1;
+					tokens.add(new Token(WORD, css.substring(p, next + 1)));
+					p = next;
+				}
+				break;
+			}
+			p++;
+		}
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+	}
+
+	/*
+	 * Returns true if the bracketed text contains, after the open paren, a
+	 * character that the tokenizer needs to see.  Equivalent to the PostCSS
+	 * regular expression /.[\\\/\("'\n]/
+	 */
+	private boolean isBadBracket(int start, int end) {
+		for (int i = start + 1; i <= end; i++) {
+			char c = css.charAt(i);
+			if (c == '\\' || c == '/' || c == '(' || c == '"' || c == '\'' || c == '\n') {
+				char prev = css.charAt(i - 1);
+				if (prev != '\n' && prev != '\r' && prev != '\u2028' && prev != '\u2029') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private int indexOfAtEnd(int from) {
+		for (int i = from; i < css.length(); i++) {
+			switch (css.charAt(i)) {
+			case ' ': case '\n': case '\t': case '\r': case '{': case '(': case ')':
+			case '\'': case '"': case '\\': case '/':
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOfWordEnd(int from) {
+		for (int i = from; i < css.length(); i++) {
+			switch (css.charAt(i)) {
+			case ' ': case '\n': case '\t': case '\r': case '(': case ')': case '{': case '}':
+			case ':': case ';': case '@': case '!': case '\'': case '"': case '\\':
+				return i;
+			case '/':
+				if (i + 1 < css.length() && css.charAt(i + 1) == '*') {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Parser (PostCSS safe mode)
+	 */
+
+	private void parse() {
+		pos = 0;
+		root = new Root();
+		current = root;
+		spaces = ""; //$NON-NLS-1$
+		semicolon = false;
+		while (pos < tokens.size()) {
+			Token token = tokens.get(pos);
+			switch (token.type) {
+			case WORD:
+			case COLON:
+				word();
+				break;
+			case CLOSE_CURLY:
+				end();
+				break;
+			case COMMENT:
+				comment(token);
+				break;
+			case AT_WORD:
+				atrule(token);
+				break;
+			case OPEN_CURLY:
+				emptyRule();
+				break;
+			default:
+				spaces += token.text;
+				break;
+			}
+			pos++;
+		}
+		endFile();
+	}
+
+	private void comment(Token token) {
+		Comment node = new Comment();
+		init(node);
+		node.raw = token.text;
+		node.text = trimWhitespace(token.text.substring(2, token.text.length() - 2));
+	}
+
+	private void emptyRule() {
+		Rule node = new Rule();
+		init(node);
+		node.selector = ""; //$NON-NLS-1$
+		current = node;
+	}
+
+	private void word() {
+		boolean end = false, colon = false;
+		int brackets = 0;
+		int start = pos;
+		pos++;
+		while (true) {
+			if (pos >= tokens.size()) {
+				pos--;
+				end = true;
+				break;
+			}
+			int type = tokens.get(pos).type;
+			if (type == OPEN_PAREN) {
+				brackets++;
+			} else if (type == CLOSE_PAREN) {
+				brackets--;
+			} else if (brackets == 0) {
+				if (type == SEMICOLON) {
+					if (colon) {
+						decl(slice(start, pos + 1));
+						return;
+					} else {
+						break;
+					}
+				} else if (type == OPEN_CURLY) {
+					rule(slice(start, pos + 1));
+					return;
+				} else if (type == CLOSE_CURLY) {
+					pos--;
+					end = true;
+					break;
+				} else if (type == AT_WORD) {
+					pos--;
+					break;
+				} else if (type == COLON) {
+					colon = true;
+				}
+			}
+			pos++;
+		}
+
+		if (end && colon) {
+			while (pos > start) {
+				int type = tokens.get(pos).type;
+				if (type != SPACE && type != COMMENT) break;
+				pos--;
+			}
+			decl(slice(start, pos + 1));
+			return;
+		}
+
+		// Unknown word.  Safe mode treats it as white space
+		spaces += join(slice(start, pos + 1));
+	}
+
+	private void rule(List<Token> tokens) {
+		tokens.remove(tokens.size() - 1);
+		Rule node = new Rule();
+		init(node);
+		spacesFromEnd(tokens);
+		// The selector is never changed, so PostCSS writes it out as parsed,
+		// including any comments.
+		node.selector = join(tokens);
+		current = node;
+	}
+
+	private void decl(List<Token> tokens) {
+		Decl node = new Decl();
+		init(node);
+
+		if (tokens.get(tokens.size() - 1).type == SEMICOLON) {
+			semicolon = true;
+			tokens.remove(tokens.size() - 1);
+		}
+		while (first(tokens).type != WORD) {
+			node.before += tokens.remove(0).text;
+		}
+		node.prop = tokens.remove(0).text;
+		while (!tokens.isEmpty()) {
+			Token token = tokens.remove(0);
+			if (token.type == COLON) {
+				break;
+			} else if (token.type != SPACE && token.type != COMMENT) {
+				// Unknown word.  The property name is replaced by it
+				node.prop = token.text;
+			}
+		}
+		if (node.prop.length() > 0 && (node.prop.charAt(0) == '_' || node.prop.charAt(0) == '*')) {
+			// PostCSS moves IE hacks to the raw before, which the minifier discards
+			node.prop = node.prop.substring(1);
+		}
+		spacesFromStart(tokens);
+		checkMissedSemicolon(tokens);
+
+		for (int i = tokens.size() - 1; i > 0; i--) {
+			Token token = tokens.get(i);
+			if ("!important".equals(token.text)) { //$NON-NLS-1$
+				node.important = true;
+				String string = join(tokens.subList(i, tokens.size()));
+				tokens.subList(i, tokens.size()).clear();
+				string = spacesFromEnd(tokens) + string;
+				if (!" !important".equals(string)) { //$NON-NLS-1$
+					node.rawImportant = string;
+				}
+				break;
+			} else if (token.type != SPACE && token.type != COMMENT) {
+				break;
+			}
+		}
+		node.value = value(tokens);
+		if (hasComments(tokens)) {
+			node.rawValueValue = node.value;
+			node.rawValue = join(tokens);
+		}
+	}
+
+	private void atrule(Token token) {
+		AtRule node = new AtRule();
+		node.name = token.text.substring(1);
+		init(node);
+
+		boolean last = false, open = false;
+		List<Token> params = new ArrayList<Token>();
+		while (true) {
+			pos++;
+			if (pos >= tokens.size()) {
+				last = true;
+				break;
+			}
+			token = tokens.get(pos);
+			if (token.type == SEMICOLON) {
+				semicolon = true;
+				break;
+			} else if (token.type == OPEN_CURLY) {
+				open = true;
+				break;
+			} else {
+				params.add(token);
+			}
+		}
+
+		String between = spacesFromEnd(params);
+		if (!params.isEmpty()) {
+			spacesFromStart(params);
+			node.params = value(params);
+			if (hasComments(params)) {
+				node.rawParamsValue = node.params;
+				node.rawParams = join(params);
+			}
+			if (last) {
+				spaces = between;
+			}
+		}
+		if (open) {
+			current = node;
+		} else {
+			node.nodes = null;
+		}
+	}
+
+	private void end() {
+		if (!current.nodes.isEmpty()) {
+			current.semicolon = semicolon;
+		}
+		semicolon = false;
+		spaces = ""; //$NON-NLS-1$
+		if (current.parent != null) {
+			current = current.parent;
+		}
+	}
+
+	private void endFile() {
+		if (!current.nodes.isEmpty()) {
+			current.semicolon = semicolon;
+		}
+	}
+
+	/*
+	 * Splits off declarations that are missing a terminating semicolon.
+	 * Ports the PostCSS method, including its handling of parentheses.
+	 */
+	private void checkMissedSemicolon(List<Token> tokens) {
+		Token prev = null;
+		int colon = -1;
+		int brackets = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			Token token = tokens.get(i);
+			if (token.type == OPEN_PAREN) {
+				brackets++;
+			} else if (token.type == CLOSE_PAREN) {
+				// PostCSS doesn't decrement here
+			} else if (brackets == 0 && token.type == COLON) {
+				if (prev == null) {
+					throw new IllegalStateException();
+				}
+				if (prev.type == WORD && "progid".equals(prev.text)) { //$NON-NLS-1$
+					continue;
+				} else {
+					colon = i;
+					break;
+				}
+			}
+			prev = token;
+		}
+		if (colon == -1) {
+			return;
+		}
+		int split;
+		for (split = colon - 1; split >= 0; split--) {
+			if (tokens.get(split).type == WORD) break;
+		}
+		for (split -= 1; split >= 0; split--) {
+			if (tokens.get(split).type != SPACE) {
+				split += 1;
+				break;
+			}
+		}
+		if (split < 0) {
+			// Negative start index for Array.splice
+			split = Math.max(0, tokens.size() + split);
+		}
+		List<Token> other = new ArrayList<Token>(tokens.subList(split, tokens.size()));
+		tokens.subList(split, tokens.size()).clear();
+		decl(other);
+	}
+
+	private void init(Node node) {
+		node.parent = current;
+		current.nodes.add(node);
+		node.before = spaces;
+		spaces = ""; //$NON-NLS-1$
+		if (!(node instanceof Comment)) {
+			semicolon = false;
+		}
+	}
+
+	private List<Token> slice(int start, int end) {
+		return new ArrayList<Token>(tokens.subList(start, end));
+	}
+
+	private static Token first(List<Token> tokens) {
+		if (tokens.isEmpty()) {
+			throw new IllegalStateException();
+		}
+		return tokens.get(0);
+	}
+
+	private static String spacesFromEnd(List<Token> tokens) {
+		String result = ""; //$NON-NLS-1$
+		while (!tokens.isEmpty()) {
+			Token token = tokens.get(tokens.size() - 1);
+			if (token.type != SPACE && token.type != COMMENT) break;
+			result += token.text;
+			tokens.remove(tokens.size() - 1);
+		}
+		return result;
+	}
+
+	private static void spacesFromStart(List<Token> tokens) {
+		while (!tokens.isEmpty()) {
+			int type = tokens.get(0).type;
+			if (type != SPACE && type != COMMENT) break;
+			tokens.remove(0);
+		}
+	}
+
+	private static String join(List<Token> tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (Token token : tokens) {
+			sb.append(token.text);
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Returns the text of the tokens, without comments
+	 */
+	private static String value(List<Token> tokens) {
+		StringBuilder sb = new StringBuilder();
+		for (Token token : tokens) {
+			if (token.type != COMMENT) {
+				sb.append(token.text);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean hasComments(List<Token> tokens) {
+		for (Token token : tokens) {
+			if (token.type == COMMENT) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Minifier (minify.js)
+	 */
+
+	private void transform(Container container) {
+		if (container.nodes == null) {
+			return;
+		}
+		for (Node node : container.nodes) {
+			if (node instanceof Comment) {
+				continue;
+			}
+			node.before = ""; //$NON-NLS-1$
+			if (node instanceof Decl) {
+				Decl decl = (Decl)node;
+				decl.value = trim(decl.value);
+			} else {
+				if (node instanceof AtRule) {
+					AtRule atRule = (AtRule)node;
+					atRule.params = trim(atRule.params);
+				}
+				((Container)node).semicolon = Boolean.FALSE;
+				transform((Container)node);
+			}
+		}
+	}
+
+	private void removeComments(Container container) {
+		if (container.nodes == null) {
+			return;
+		}
+		for (int i = 0; i < container.nodes.size(); i++) {
+			Node node = container.nodes.get(i);
+			if (node instanceof Comment) {
+				if (!isIgnored((Comment)node)) {
+					if (container == root && i == 0 && container.nodes.size() > 1) {
+						// PostCSS moves the white space before the first node
+						container.nodes.get(1).before = node.before;
+					}
+					container.nodes.remove(i--);
+				} else {
+					node.before = (container == root && i == 0) ? "" : "\r\n"; //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			} else if (node instanceof Container) {
+				removeComments((Container)node);
+			}
+		}
+	}
+
+	private boolean isIgnored(Comment comment) {
+		return commentIgnores != null && comment.text.length() > 0 &&
+				commentIgnores.indexOf(comment.text.charAt(0)) != -1;
+	}
+
+	/*
+	 * Removes extra spaces from val, respecting quoted strings.  Matches the
+	 * trim function in minify.js.
+	 */
+	static String trim(String val) {
+		val = trimWhitespace(val);
+		List<String> toks = new ArrayList<String>();
+		String s = val;
+		char quoteChar = 0;
+		while (s.length() > 0) {
+			boolean finish = true;
+			for (int i = 0; i < s.length(); i++) {
+				char ch = s.charAt(i);
+				if (ch == '\\') {
+					i++;
+					continue;
+				}
+				if (ch == quoteChar || quoteChar == 0 && (ch == '"' || ch == '\'')) {
+					String quote = quoteChar == 0 ? "" : String.valueOf(quoteChar); //$NON-NLS-1$
+					toks.add(quote + s.substring(0, i) + quote);
+					s = s.substring(i + 1);
+					quoteChar = quoteChar != 0 ? 0 : ch;
+					finish = false;
+					break;
+				}
+			}
+			if (finish) {
+				toks.add(s);
+				break;
+			}
+		}
+		StringBuilder sb = new StringBuilder(val.length());
+		for (String tok : toks) {
+			if (tok.length() > 0 && (tok.charAt(0) == '"' || tok.charAt(0) == '\'')) {
+				sb.append(tok);
+			} else {
+				sb.append(removeSpacesBefore(removeSpacesAfter(tok)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Equivalent to tok.replace(/([(),:])\s+/g, '$1')
+	 */
+	private static String removeSpacesAfter(String tok) {
+		StringBuilder sb = new StringBuilder(tok.length());
+		for (int i = 0; i < tok.length(); i++) {
+			char c = tok.charAt(i);
+			sb.append(c);
+			if (c == '(' || c == ')' || c == ',' || c == ':') {
+				while (i + 1 < tok.length() && isWhitespace(tok.charAt(i + 1))) {
+					i++;
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Equivalent to tok.replace(/\s+([),:])/g, '$1')
+	 */
+	private static String removeSpacesBefore(String tok) {
+		StringBuilder sb = new StringBuilder(tok.length());
+		for (int i = 0; i < tok.length(); i++) {
+			char c = tok.charAt(i);
+			if (isWhitespace(c)) {
+				int end = i;
+				while (end < tok.length() && isWhitespace(tok.charAt(end))) {
+					end++;
+				}
+				if (end < tok.length()) {
+					char next = tok.charAt(end);
+					if (next != ')' && next != ',' && next != ':') {
+						sb.append(tok, i, end);
+					}
+				} else {
+					sb.append(tok, i, end);
+				}
+				i = end - 1;
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Removes leading and trailing white space, as defined by JavaScript
+	 */
+	private static String trimWhitespace(String s) {
+		int start = 0, end = s.length();
+		while (start < end && isWhitespace(s.charAt(start))) {
+			start++;
+		}
+		while (end > start && isWhitespace(s.charAt(end - 1))) {
+			end--;
+		}
+		return s.substring(start, end);
+	}
+
+	/*
+	 * Returns true if the character matches \s in a JavaScript regular expression
+	 */
+	private static boolean isWhitespace(char c) {
+		switch (c) {
+		case ' ': case '\t': case '\n': case '\u000B': case '\f': case '\r':
+		case '\u00A0': case '\u2028': case '\u2029': case '\uFEFF':
+			return true;
+		}
+		return Character.getType(c) == Character.SPACE_SEPARATOR;
+	}
+
+	/*
+	 * Serializer
+	 */
+
+	private void stringifyContent(StringBuilder sb, Container container, boolean semicolon) {
+		int last = container.nodes.size() - 1;
+		while (last > 0) {
+			if (!(container.nodes.get(last) instanceof Comment)) break;
+			last--;
+		}
+		for (int i = 0; i < container.nodes.size(); i++) {
+			stringify(sb, container.nodes.get(i), last != i || semicolon);
+		}
+	}
+
+	private void stringify(StringBuilder sb, Node node, boolean semicolon) {
+		sb.append(node.before);
+		if (node instanceof Decl) {
+			Decl decl = (Decl)node;
+			sb.append(decl.prop).append(':');
+			sb.append(decl.rawValue != null && decl.rawValueValue.equals(decl.value) ? decl.rawValue : decl.value);
+			if (decl.important) {
+				sb.append(decl.rawImportant != null ? decl.rawImportant : " !important"); //$NON-NLS-1$
+			}
+			if (semicolon) {
+				sb.append(';');
+			}
+		} else if (node instanceof Rule) {
+			sb.append(((Rule)node).selector).append('{');
+			stringifyContent(sb, (Rule)node, false);
+			sb.append('}');
+		} else if (node instanceof AtRule) {
+			AtRule atRule = (AtRule)node;
+			sb.append('@').append(atRule.name).append(' ');
+			if (atRule.params.length() > 0) {
+				sb.append(atRule.rawParams != null && atRule.rawParamsValue.equals(atRule.params) ? atRule.rawParams : atRule.params);
+			}
+			if (atRule.nodes != null) {
+				sb.append('{');
+				stringifyContent(sb, atRule, false);
+				sb.append('}');
+			} else if (semicolon) {
+				sb.append(';');
+			}
+		} else {
+			sb.append(((Comment)node).raw);
+		}
+	}
+}
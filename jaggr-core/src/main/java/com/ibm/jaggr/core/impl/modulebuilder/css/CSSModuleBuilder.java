@@ -26,7 +26,9 @@ import com.ibm.jaggr.core.cachekeygenerator.AbstractCacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.config.IConfigListener;
+import com.ibm.jaggr.core.impl.modulebuilder.css.InlinedResourceCache.Dependency;
 import com.ibm.jaggr.core.impl.modulebuilder.text.TextModuleBuilder;
+import com.ibm.jaggr.core.modulebuilder.ModuleBuild;
 import com.ibm.jaggr.core.options.IOptions;
 import com.ibm.jaggr.core.readers.CommentStrippingReader;
 import com.ibm.jaggr.core.resource.IResource;
@@ -65,11 +67,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -161,6 +164,21 @@ import javax.servlet.http.HttpServletRequest;
  * inlinedImageExcludeList.</dd>
  * </dl>
  * </blockquote>
+ * <h2>Caching of in-lined resources</h2>
+ * <p>
+ * The processed text of imported CSS and the data URIs of in-lined images can
+ * be cached and shared by all the CSS modules that reference them.  Cache
+ * entries are validated against the last-modified times of the resources they
+ * were produced from, including nested imports and images, and the cache is
+ * cleared when the config is reloaded.  The cache is controlled by the
+ * following property specified in the server-side AMD config:
+ * <blockquote>
+ * <dl>
+ * <dt>{@link #INLINECACHESIZE_CONFIGPARAM}</dt>
+ * <dd>The maximum size of the cache, in kilobytes of text. The default is 0,
+ * which disables the cache.</dd>
+ * </dl>
+ * </blockquote>
  * <h2>Running configured PostCSS plugins</h2>
  * <p>Plugins are configured in the Server-side AMD JavaScript config using an array
  * of two element arrays as in the following example:
@@ -177,6 +195,37 @@ import javax.servlet.http.HttpServletRequest;
  *    }
  * ],
  * </pre></code>
+ * <p>
+ * PostCSS runs in thread scopes taken from a {@link ThreadScopePool}.  The pool
+ * is sized by the following properties specified in the server-side AMD config:
+ * <blockquote>
+ * <dl>
+ * <dt>{@link #SCOPEPOOLSIZE_CONFIGPARAM}</dt>
+ * <dd>The maximum number of thread scopes. The default is
+ * {@link #DEFAULT_MAX_SCOPE_POOL_SIZE}.</dd>
+ * <dt>{@link #INITIALSCOPEPOOLSIZE_CONFIGPARAM}</dt>
+ * <dd>The number of thread scopes created, in parallel, when the config is
+ * loaded. The pool does not shrink below this size. The default is
+ * {@link #DEFAULT_SCOPE_POOL_SIZE}.</dd>
+ * <dt>{@link #SCOPEIDLETIMEOUT_CONFIGPARAM}</dt>
+ * <dd>The number of seconds that a thread scope above the initial pool size may
+ * be idle before it is discarded. The default is
+ * {@link #DEFAULT_SCOPE_IDLE_TIMEOUT_SECONDS}.</dd>
+ * </dl>
+ * </blockquote>
+ * <p>
+ * When no PostCSS plugins are configured, minification is done by
+ * {@link CSSMinifier}, a Java implementation of the minifier plugin that
+ * produces the same output without running PostCSS, and thread scopes are
+ * created only if PostCSS is needed to report an error.  This is controlled by
+ * the following property specified in the server-side AMD config:
+ * <blockquote>
+ * <dl>
+ * <dt>{@link #JAVAMINIFIER_CONFIGPARAM}</dt>
+ * <dd>If false, then the CSS is always minified by PostCSS. The default value
+ * is true.</dd>
+ * </dl>
+ * </blockquote>
  */
 public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionInitializer, IShutdownListener, IConfigListener {
 
@@ -192,12 +241,18 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	static public final String INCLUDEAMDPATHS_CONFIGPARAM = "cssEnableAMDIncludePaths";  //$NON-NLS-1$
 	static public final String POSTCSSPLUGINS_CONFIGPARAM = "postcssPlugins"; //$NON-NLS-1$
 	static public final String SCOPEPOOLSIZE_CONFIGPARAM = "cssScopePoolSize"; //$NON-NLS-1$
+	static public final String INITIALSCOPEPOOLSIZE_CONFIGPARAM = "cssInitialScopePoolSize"; //$NON-NLS-1$
+	static public final String SCOPEIDLETIMEOUT_CONFIGPARAM = "cssScopeIdleTimeout"; //$NON-NLS-1$
+	static public final String JAVAMINIFIER_CONFIGPARAM = "cssJavaMinifier"; //$NON-NLS-1$
+	static public final String INLINECACHESIZE_CONFIGPARAM = "cssInlineCacheSize"; //$NON-NLS-1$
 	static public final String POSTCSS_CONFIGPARAM = "postcss"; //$NON-NLS-1$
 
 	// Custom server-side AMD config param default values
 	static public final boolean INLINEIMPORTS_DEFAULT_VALUE = true;
 	static public final boolean INCLUDEAMDPATHS_DEFAULT_VALUE = false;
+	static public final boolean JAVAMINIFIER_DEFAULT_VALUE = true;
 	static public final int SIZETHRESHOLD_DEFAULT_VALUE = 0;
+	static public final int INLINECACHESIZE_DEFAULT_VALUE = 0;
 
 	static public final String INLINEIMPORTS_REQPARAM_NAME = "inlineImports"; //$NON-NLS-1$
 	static public final String INLINEIMAGES_REQPARAM_NAME = "inlineImages"; //$NON-NLS-1$
@@ -221,6 +276,8 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	        "safe", Boolean.TRUE //$NON-NLS-1$
 	);
 	static public final int DEFAULT_SCOPE_POOL_SIZE = 10;
+	static public final int DEFAULT_MAX_SCOPE_POOL_SIZE = 50;
+	static public final int DEFAULT_SCOPE_IDLE_TIMEOUT_SECONDS = 300;
 	static public final int SCOPE_POOL_TIMEOUT_SECONDS = 60;
 
 	static final protected Pattern urlPattern = Pattern.compile("url\\((\\s*(('[^']*')|(\"[^\"]*\")|([^)]*))\\s*)\\)?"); //$NON-NLS-1$
@@ -326,8 +383,15 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	private Map<String, String> inlineableImageTypeMap = new HashMap<String, String>();
 	private Collection<Pattern> inlinedImageIncludeList = Collections.emptyList();
 	public Collection<Pattern> inlinedImageExcludeList = Collections.emptyList();
+	private InlinedResourceCache inlineCache = null;
 	private IAggregator aggregator;
 
+	/* Collects the resources that the import being in-lined by the current thread depends on */
+	private static final ThreadLocal<List<Dependency>> importDependencies = new ThreadLocal<List<Dependency>>();
+
+	/* Set if the build being processed by the current thread depends on resources that aren't collected */
+	private static final ThreadLocal<Boolean> untrackedDependencies = new ThreadLocal<Boolean>();
+
 	// Rhino variables for PostCSS
 	private Script postcssJsScript;
 	private Script minifyJsScript;
@@ -335,11 +399,67 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	private Script minifierInitScript;
 	private List<PluginInfo> pluginInfoList;
 	private Scriptable postcssOptions;
-	private BlockingQueue<Scriptable> threadScopes;
+	private volatile ThreadScopePool threadScopes;
+	private ScheduledFuture<?> scopeTrimmer;
+	private boolean useJavaMinifier = false;
 
 	private ReadWriteLock configUpdatingRWL = new ReentrantReadWriteLock();
 
 	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.modulebuilder.text.TextModuleBuilder#build(java.lang.String, com.ibm.jaggr.core.resource.IResource, javax.servlet.http.HttpServletRequest, java.util.List)
+	 */
+	@Override
+	public ModuleBuild build(String mid, IResource resource, HttpServletRequest request, List<ICacheKeyGenerator> keyGens) throws Exception {
+		// Collect the resources that are in-lined into the module so that they
+		// can be reported as dependencies of the build
+		List<Dependency> dependencies = new ArrayList<Dependency>();
+		List<Dependency> saved = importDependencies.get();
+		Boolean savedUntracked = untrackedDependencies.get();
+		importDependencies.set(dependencies);
+		untrackedDependencies.set(Boolean.FALSE);
+		ModuleBuild build;
+		boolean untracked;
+		try {
+			build = super.build(mid, resource, request, keyGens);
+			untracked = untrackedDependencies.get();
+		} finally {
+			importDependencies.set(saved);
+			untrackedDependencies.set(savedUntracked);
+		}
+		for (Dependency dependency : dependencies) {
+			if (!dependency.getURI().equals(resource.getURI())) {
+				build.addDependency(dependency.getURI(), dependency.getLastModified());
+			}
+		}
+		if (!untracked && isDependencyTracking()) {
+			build.setDependenciesTracked();
+		}
+		return build;
+	}
+
+	/**
+	 * Returns true if the output of this builder depends only on the module
+	 * source and the in-lined resources that are reported as dependencies of
+	 * the build.  Subclasses that read other resources must not return true.
+	 *
+	 * @return true if the builds can be marked with
+	 *         {@link ModuleBuild#setDependenciesTracked()}
+	 */
+	protected boolean isDependencyTracking() {
+		return getClass() == CSSModuleBuilder.class;
+	}
+
+	/**
+	 * Called by subclasses when the output of the build being processed by the
+	 * current thread depends on resources that are not in-lined by this class
+	 * (e.g. imports that are resolved by a CSS compiler).
+	 */
+	protected void setUntrackedDependencies() {
+		if (untrackedDependencies.get() != null) {
+			untrackedDependencies.set(Boolean.TRUE);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.service.modulebuilder.impl.text.TextModuleBuilder#getContentReader(java.lang.String, com.ibm.jaggr.service.resource.IResource, javax.servlet.http.HttpServletRequest, com.ibm.jaggr.service.module.ICacheKeyGenerator)
 	 */
@@ -359,12 +479,26 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		configUpdatingRWL.readLock().lock();	// If a config update is in progress, wait
 		try {
 			String css = readToString(new CommentStrippingReader(resource.getReader()));
+			Map<URI, Long> imports = null;
 			// in-line @imports
 			if (inlineImports) {
-				css = inlineImports(request, css, resource, BLANK);
+				List<Dependency> dependencies = new ArrayList<Dependency>();
+				dependencies.add(new Dependency(resource));
+				List<Dependency> saved = importDependencies.get();
+				importDependencies.set(dependencies);
+				try {
+					css = inlineImports(request, css, resource, BLANK);
+				} finally {
+					importDependencies.set(saved);
+				}
+				imports = new LinkedHashMap<URI, Long>();
+				for (Dependency dependency : dependencies) {
+					imports.put(dependency.getURI(), dependency.getLastModified());
+				}
+				addImportDependencies(dependencies);
 			}
 			// PostCSS
-			css = postcss(css, resource);
+			css = postcss(css, resource, imports);
 
 			// Inline images
 			css = inlineImageUrls(request, css, resource);
@@ -490,18 +624,29 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 			}
 
 			String importCss = null;
-			importCss = readToString(
-					new CommentStrippingReader(
-							new InputStreamReader(
-									uri.toURL().openStream(),
-									"UTF-8" //$NON-NLS-1$
-									)
-							)
-					);
-			importCss = inlineImageUrls(req, importCss, importRes);
-
-			if (inlineImports) {
-				importCss = inlineImports(req, importCss, importRes, importNameMatch);
+			InlinedResourceCache cache = inlineCache;
+			String cacheKey = "import:" + uri + "|" + importNameMatch + "|" + includePreamble + "|" + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					TypeUtil.asBoolean(req.getParameter(INLINEIMAGES_REQPARAM_NAME), true);
+			InlinedResourceCache.Entry entry = cache != null ? cache.get(cacheKey) : null;
+			if (entry != null) {
+				importCss = entry.getValue();
+				addImportDependencies(entry.getDependencies());
+			} else if (cache == null && importDependencies.get() == null) {
+				importCss = processImport(req, importRes, importNameMatch);
+			} else {
+				List<Dependency> dependencies = new ArrayList<Dependency>();
+				dependencies.add(new Dependency(importRes));
+				List<Dependency> saved = importDependencies.get();
+				importDependencies.set(dependencies);
+				try {
+					importCss = processImport(req, importRes, importNameMatch);
+				} finally {
+					importDependencies.set(saved);
+				}
+				if (cache != null) {
+					cache.put(cacheKey, importCss, dependencies);
+				}
+				addImportDependencies(dependencies);
 			}
 			m.appendReplacement(buf, BLANK);
 			buf.append(importCss);
@@ -567,6 +712,50 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		return css;
 	}
 
+	/**
+	 * Reads an imported CSS file, in-lining its image URLs and nested
+	 * &#064;imports.
+	 *
+	 * @param req
+	 *            The request associated with the call.
+	 * @param importRes
+	 *            The resource for the imported CSS file
+	 * @param path
+	 *            The path, as specified in the &#064;import statement
+	 * @return The processed CSS
+	 * @throws IOException
+	 */
+	private String processImport(HttpServletRequest req, IResource importRes, String path) throws IOException {
+		String importCss = readToString(
+				new CommentStrippingReader(
+						new InputStreamReader(
+								importRes.getURI().toURL().openStream(),
+								"UTF-8" //$NON-NLS-1$
+								)
+						)
+				);
+		importCss = inlineImageUrls(req, importCss, importRes);
+
+		if (inlineImports) {
+			importCss = inlineImports(req, importCss, importRes, path);
+		}
+		return importCss;
+	}
+
+	/**
+	 * Adds the specified dependencies to the dependencies of the import that is
+	 * being in-lined by the current thread, if any.
+	 *
+	 * @param dependencies
+	 *            the dependencies to add
+	 */
+	private void addImportDependencies(List<Dependency> dependencies) {
+		List<Dependency> current = importDependencies.get();
+		if (current != null) {
+			current.addAll(dependencies);
+		}
+	}
+
 	/**
 	 * Replace <code>url(&lt;<i>relative-path</i>&gt;)</code> references in the
 	 * input CSS with
@@ -611,11 +800,13 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				continue;
 			}
 
+			IResource imageRes = null;
 			URI imageUri = null;
 			// Catch IllegalArgumentExceptions when trying to resolve the match URL in case
 			// parsing of the URL failed and gave us a malformed URL.
 			try {
-				imageUri = res.resolve(urlMatch).getURI();
+				imageRes = res.resolve(urlMatch);
+				imageUri = imageRes.getURI();
 			} catch (IllegalArgumentException ignore) {
 				m.appendReplacement(buf, BLANK);
 				buf.append(fullMatch);
@@ -657,14 +848,33 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				type = "content/unknown"; //$NON-NLS-1$
 			}
 			if (include || inlineableImageTypes.contains(type) || inlineableImageTypeMap.containsKey(extension)) {
+				InlinedResourceCache cache = inlineCache;
+				String cacheKey = "image:" + imageUri; //$NON-NLS-1$
+				InlinedResourceCache.Entry entry = cache != null ? cache.get(cacheKey) : null;
+				String base64 = null;
 				InputStream in = null;
 				try {
-					// In-line the image.
-					URLConnection connection = imageUri.toURL().openConnection();
-
-					if (include || connection.getContentLength() <= imageSizeThreshold) {
-						in = connection.getInputStream();
-						String base64 = getBase64(connection);
+					if (entry == null) {
+						Dependency dependency = (cache != null || importDependencies.get() != null) ? new Dependency(imageRes) : null;
+						// In-line the image.
+						URLConnection connection = imageUri.toURL().openConnection();
+
+						if (include || connection.getContentLength() <= imageSizeThreshold) {
+							in = connection.getInputStream();
+							base64 = getBase64(connection);
+						}
+						if (cache != null) {
+							// Images that are too large are cached with a null value
+							entry = cache.put(cacheKey, base64, Collections.singletonList(dependency));
+						} else if (dependency != null) {
+							addImportDependencies(Collections.singletonList(dependency));
+						}
+					}
+					if (entry != null) {
+						base64 = entry.getValue();
+						addImportDependencies(entry.getDependencies());
+					}
+					if (base64 != null) {
 						m.appendReplacement(buf, BLANK);
 						buf.append("url('data:" + type + //$NON-NLS-1$
 								";base64," + base64 + "')"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -697,6 +907,27 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		return buf.toString();
 	}
 
+	/**
+	 * Called by {@link #getContentReader(String, IResource, HttpServletRequest, List)}
+	 * to process the CSS after &#064;imports have been in-lined.  The default
+	 * implementation calls {@link #postcss(String, IResource)}.  Subclasses that
+	 * cache the output of their own processing can override this method to make
+	 * use of the resources that were in-lined into the CSS.
+	 *
+	 * @param css
+	 * @param res
+	 * @param imports
+	 *            The URIs and last-modified times of the module resource and
+	 *            the resources that were in-lined into it by
+	 *            {@link #inlineImports(HttpServletRequest, String, IResource, String)},
+	 *            or null if &#064;imports are not in-lined
+	 * @return The processed CSS.
+	 * @throws IOException
+	 */
+	protected String postcss(String css, IResource res, Map<URI, Long> imports) throws IOException {
+		return postcss(css, res);
+	}
+
 	/**
 	 * Runs given CSS through PostCSS processor for minification and any other processing
 	 * by configured plugins
@@ -707,17 +938,27 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	 * @throws IOException
 	 */
 	protected String postcss(String css, IResource res) throws IOException {
-		if (threadScopes == null) {
+		// The pool is replaced when the config is reloaded, so borrow from and
+		// release to the same pool
+		ThreadScopePool pool = threadScopes;
+		if (pool == null) {
 			return css;
 		}
+		if (useJavaMinifier) {
+			try {
+				return new CSSMinifier(css, PREAMBLE).minify();
+			} catch (IllegalStateException e) {
+				// PostCSS fails on this CSS.  Run it so that the error is reported.
+				if (log.isLoggable(Level.FINE)) {
+					log.logp(Level.FINE, sourceClass, "postcss", "Java minifier failed for " + res.getURI() + ", using PostCSS"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				}
+			}
+		}
 		Context cx = Context.enter();
 		Scriptable threadScope = null;
 		String result = null;
 		try {
-			threadScope = threadScopes.poll(SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-			if (threadScope == null) {
-				throw new TimeoutException("Timeout waiting for thread scope"); //$NON-NLS-1$
-			}
+			threadScope = pool.borrow(cx, SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 			Scriptable scope = cx.newObject(threadScope);
 			scope.setParentScope(threadScope);
 			Scriptable postcssInstance = (Scriptable)threadScope.get(POSTCSS_INSTANCE, scope);
@@ -735,8 +976,8 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		}
 		finally {
 			if (threadScope != null) {
-				// put the thread scope back in the queue now that we're done with it
-				threadScopes.add(threadScope);
+				// put the thread scope back in the pool now that we're done with it
+				pool.release(threadScope);
 			}
 			Context.exit();
 		}
@@ -765,13 +1006,28 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 		Context cx = Context.enter();
 		try {
 			Scriptable configScript = (Scriptable)config.getRawConfig();
-			Scriptable configScope = (Scriptable)config.getConfigScope();
+			final Scriptable configScope = (Scriptable)config.getConfigScope();
 
-			int scopePoolSize = DEFAULT_SCOPE_POOL_SIZE;
-			// Read the scope pool size if specified
+			// Read the scope pool sizes if specified
+			int maxScopePoolSize = DEFAULT_MAX_SCOPE_POOL_SIZE;
 			Object scopePoolSizeConfig = configScript.get(SCOPEPOOLSIZE_CONFIGPARAM, configScript);
 			if (scopePoolSizeConfig != Scriptable.NOT_FOUND) {
-				scopePoolSize = ((Number)scopePoolSizeConfig).intValue();
+				maxScopePoolSize = ((Number)scopePoolSizeConfig).intValue();
+			}
+			int initialScopePoolSize = DEFAULT_SCOPE_POOL_SIZE;
+			Object initialScopePoolSizeConfig = configScript.get(INITIALSCOPEPOOLSIZE_CONFIGPARAM, configScript);
+			if (initialScopePoolSizeConfig != Scriptable.NOT_FOUND) {
+				initialScopePoolSize = ((Number)initialScopePoolSizeConfig).intValue();
+			}
+			int scopeIdleTimeout = DEFAULT_SCOPE_IDLE_TIMEOUT_SECONDS;
+			Object scopeIdleTimeoutConfig = configScript.get(SCOPEIDLETIMEOUT_CONFIGPARAM, configScript);
+			if (scopeIdleTimeoutConfig != Scriptable.NOT_FOUND) {
+				scopeIdleTimeout = ((Number)scopeIdleTimeoutConfig).intValue();
+			}
+			boolean javaMinifier = JAVAMINIFIER_DEFAULT_VALUE;
+			Object javaMinifierConfig = configScript.get(JAVAMINIFIER_CONFIGPARAM, configScript);
+			if (javaMinifierConfig != Scriptable.NOT_FOUND) {
+				javaMinifier = TypeUtil.asBoolean(javaMinifierConfig, JAVAMINIFIER_DEFAULT_VALUE);
 			}
 
 			// Create a new scope to evaluate the minifier initialization code because configScope is sealed.
@@ -850,16 +1106,28 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				}
 			}
 
-			// Create the thread scope pool
-			threadScopes = new ArrayBlockingQueue<Scriptable>(scopePoolSize);
-			for (int i = 0; i < scopePoolSize; i++) {
-				threadScopes.add(createThreadScope(cx, configScope));
+			// If the minifier is the only plugin, then use the Java minifier and
+			// don't create thread scopes until they are needed.
+			useJavaMinifier = javaMinifier && pluginInfoList.size() == 1;
+			if (useJavaMinifier && !isThreadScopeRequired()) {
+				initialScopePoolSize = 0;
 			}
 
-			// Seal the scopes to prevent changes
-			for (Scriptable threadScope : threadScopes) {
-				((ScriptableObject)threadScope).sealObject();
+			// Create the thread scope pool
+			if (threadScopes != null && log.isLoggable(Level.FINE)) {
+				log.logp(Level.FINE, sourceClass, sourceMethod, "Replacing " + threadScopes); //$NON-NLS-1$
 			}
+			threadScopes = new ThreadScopePool(new ThreadScopePool.ScopeFactory() {
+				@Override
+				public Scriptable create(Context cx) {
+					Scriptable threadScope = createThreadScope(cx, configScope);
+					// Seal the scope to prevent changes
+					((ScriptableObject)threadScope).sealObject();
+					return threadScope;
+				}
+			}, initialScopePoolSize, maxScopePoolSize, scopeIdleTimeout * 1000L);
+			threadScopes.fill();
+			scheduleScopeTrimmer(scopeIdleTimeout);
 
 
 		} catch (Exception e) {
@@ -927,13 +1195,67 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	}
 
 	/**
-	 * Returns the thread scope queue
+	 * Schedules a task to discard idle scopes from the thread scope pool,
+	 * replacing the task for the previous pool, if any.
 	 *
-	 * @return the thread scope queue
+	 * @param idleTimeout
+	 *            the idle timeout, in seconds
 	 */
-	protected BlockingQueue<Scriptable> getThreadScopes() {
+	private void scheduleScopeTrimmer(int idleTimeout) {
+		if (scopeTrimmer != null) {
+			scopeTrimmer.cancel(false);
+			scopeTrimmer = null;
+		}
+		ScheduledExecutorService executor = (aggregator != null && aggregator.getExecutors() != null) ?
+				aggregator.getExecutors().getScheduledExecutor() : null;
+		if (executor != null) {
+			final ThreadScopePool pool = threadScopes;
+			long period = Math.max(1, idleTimeout / 2);
+			scopeTrimmer = executor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					pool.trim();
+				}
+			}, period, period, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Returns the thread scope pool
+	 *
+	 * @return the thread scope pool
+	 */
+	protected ThreadScopePool getThreadScopes() {
 		return threadScopes;
 	}
+
+	/**
+	 * Returns true if CSS is minified by {@link CSSMinifier} instead of PostCSS
+	 *
+	 * @return true if the Java minifier is used
+	 */
+	protected boolean isUseJavaMinifier() {
+		return useJavaMinifier;
+	}
+
+	/**
+	 * Returns true if the builder uses thread scopes for processing other
+	 * than PostCSS, in which case the initial thread scopes are created even
+	 * when PostCSS is not needed for minification.
+	 *
+	 * @return true if thread scopes are always required
+	 */
+	protected boolean isThreadScopeRequired() {
+		return false;
+	}
+
+	/**
+	 * Returns the cache of in-lined imports and images
+	 *
+	 * @return the cache, or null if caching is disabled
+	 */
+	InlinedResourceCache getInlineCache() {
+		return inlineCache;
+	}
 	/**
 	 * Returns a base64 encoded string representation of the contents of the
 	 * resource associated with the {@link URLConnection}.
@@ -1003,6 +1325,10 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 	@Override
 	public void shutdown(IAggregator aggregator) {
 		aggregator = null;
+		if (scopeTrimmer != null) {
+			scopeTrimmer.cancel(false);
+			scopeTrimmer = null;
+		}
 		for (IServiceRegistration reg : registrations) {
 			reg.unregister();
 		}
@@ -1086,6 +1412,15 @@ public class CSSModuleBuilder extends TextModuleBuilder implements  IExtensionIn
 				}
 			}
 			inlinedImageExcludeList = list;
+
+			/** Size of the in-lined resource cache.  Cached values depend on the config, so always start empty */
+			obj = conf.getProperty(INLINECACHESIZE_CONFIGPARAM, null);
+			long inlineCacheSize = TypeUtil.asInt(obj, INLINECACHESIZE_DEFAULT_VALUE) * 1024L;
+			if (inlineCache != null && log.isLoggable(Level.FINE)) {
+				log.logp(Level.FINE, sourceClass, "configLoaded", "Replacing " + inlineCache); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			inlineCache = inlineCacheSize > 0 ? new InlinedResourceCache(inlineCacheSize) : null;
+
 			initPostcss(conf);
 		} finally {
 			configUpdatingRWL.writeLock().unlock();
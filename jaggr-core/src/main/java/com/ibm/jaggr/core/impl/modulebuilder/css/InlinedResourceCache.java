@@ -0,0 +1,202 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import com.ibm.jaggr.core.resource.IResource;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory bounded cache of in-lined &#064;import text and image data URIs that
+ * is shared by all the CSS modules built by a {@link CSSModuleBuilder}.
+ * <p>
+ * Each entry records the resources that its value was produced from (the
+ * imported CSS, nested imports and in-lined images) along with their
+ * last-modified times.  An entry is used only if none of the resources have
+ * been modified since the entry was created.  The cache is weighted by the
+ * length of the cached text.
+ */
+class InlinedResourceCache {
+
+	private final ConcurrentLinkedHashMap<String, Entry> map;
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * @param capacity
+	 *            the maximum number of characters of text to keep
+	 */
+	InlinedResourceCache(long capacity) {
+		map = new ConcurrentLinkedHashMap.Builder<String, Entry>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<Entry>() {
+					@Override
+					public int weightOf(Entry value) {
+						// ConcurrentLinkedHashMap barfs on size == 0
+						return Math.max(1, value.value != null ? value.value.length() : 0);
+					}
+				}).build();
+	}
+
+	long getCapacity() {
+		return map.capacity();
+	}
+
+	/**
+	 * Returns the entry for the specified key if none of the resources that
+	 * the entry depends on have been modified.
+	 *
+	 * @param key
+	 *            the cache key
+	 * @return the entry, or null
+	 */
+	Entry get(String key) {
+		Entry entry = map.get(key);
+		if (entry != null && entry.isCurrent()) {
+			hits.incrementAndGet();
+			return entry;
+		}
+		if (entry != null) {
+			map.remove(key, entry);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Adds an entry to the cache
+	 *
+	 * @param key
+	 *            the cache key
+	 * @param value
+	 *            the cached text.  May be null.
+	 * @param dependencies
+	 *            the resources that the value was produced from
+	 * @return the new entry
+	 */
+	Entry put(String key, String value, Collection<Dependency> dependencies) {
+		Entry entry = new Entry(value, dependencies);
+		map.put(key, entry);
+		return entry;
+	}
+
+	int size() {
+		return map.size();
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	void clear() {
+		map.clear();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("InlinedResourceCache(") //$NON-NLS-1$
+		.append("capacity:").append(map.capacity()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("size:").append(map.weightedSize()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("entries:").append(map.size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("hits:").append(hits.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("misses:").append(misses.get()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * A resource and its last-modified time
+	 */
+	static class Dependency {
+		private final IResource resource;
+		private final long lastModified;
+
+		/**
+		 * Records the current last-modified time of the resource.  Create the
+		 * dependency before reading the resource so that changes made while
+		 * it is being read are detected.
+		 *
+		 * @param resource
+		 *            the resource
+		 */
+		Dependency(IResource resource) {
+			this.resource = resource;
+			this.lastModified = resource.lastModified();
+		}
+
+		URI getURI() {
+			return resource.getURI();
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+
+		boolean isCurrent() {
+			return resource.lastModified() == lastModified;
+		}
+
+		@Override
+		public String toString() {
+			return resource.getURI() + ":" + lastModified; //$NON-NLS-1$
+		}
+	}
+
+	static class Entry {
+		private final String value;
+		private final List<Dependency> dependencies;
+
+		private Entry(String value, Collection<Dependency> dependencies) {
+			this.value = value;
+			this.dependencies = Collections.unmodifiableList(new ArrayList<Dependency>(dependencies));
+		}
+
+		/**
+		 * @return the cached text.  May be null.
+		 */
+		String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return the resources that the value was produced from
+		 */
+		List<Dependency> getDependencies() {
+			return dependencies;
+		}
+
+		private boolean isCurrent() {
+			for (Dependency dependency : dependencies) {
+				if (!dependency.isCurrent()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A pool of Rhino thread scopes that grows on demand up to a maximum size and
+ * shrinks back to its initial size when scopes are idle.
+ * <p>
+ * The initial scopes are created in parallel by {@link #fill()}.  Additional
+ * scopes are created by the thread that needs one, when no idle scope is
+ * available and the pool is not at its maximum size.  Scopes that have been
+ * idle for longer than the idle timeout are discarded by {@link #trim()}, which
+ * is also called whenever a scope is returned to the pool.
+ * <p>
+ * The pool keeps statistics about waits for scopes and the number of scopes in
+ * use, which are reported by {@link #toString()}.
+ */
+public class ThreadScopePool {
+
+	private static final String SCOPE_CREATOR_THREADNAME = "Aggregator Thread Scope Creator"; //$NON-NLS-1$
+
+	/**
+	 * Creates the thread scopes for the pool.
+	 */
+	public interface ScopeFactory {
+		/**
+		 * @param cx
+		 *            the Rhino context for the current thread
+		 * @return the new thread scope
+		 */
+		public Scriptable create(Context cx);
+	}
+
+	private static class IdleScope {
+		private final Scriptable scope;
+		private final long idleSince;
+		private IdleScope(Scriptable scope, long idleSince) {
+			this.scope = scope;
+			this.idleSince = idleSince;
+		}
+	}
+
+	private final ScopeFactory factory;
+	private final int initialSize;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+
+	/** Most recently returned scopes first.  Guarded by this */
+	private final LinkedList<IdleScope> idle = new LinkedList<IdleScope>();
+
+	/* Statistics.  Guarded by this */
+	private int size = 0;
+	private int inUse = 0;
+	private int peakInUse = 0;
+	private long borrows = 0;
+	private long waits = 0;
+	private long timeouts = 0;
+	private long created = 0;
+	private long discarded = 0;
+	private long totalWaitNanos = 0;
+	private long maxWaitNanos = 0;
+
+	/**
+	 * @param factory
+	 *            the scope factory
+	 * @param initialSize
+	 *            the number of scopes created by {@link #fill()}.  The pool
+	 *            does not shrink below this size.
+	 * @param maxSize
+	 *            the maximum number of scopes
+	 * @param idleTimeoutMillis
+	 *            the number of milliseconds a scope may be idle before it
+	 *            is discarded
+	 */
+	public ThreadScopePool(ScopeFactory factory, int initialSize, int maxSize, long idleTimeoutMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException(Integer.toString(maxSize));
+		}
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.initialSize = Math.max(0, Math.min(initialSize, maxSize));
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * Creates the initial scopes for the pool, using one thread per available
+	 * processor, and waits for them to be created.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 *             if a scope could not be created
+	 */
+	public void fill() throws InterruptedException, ExecutionException {
+		int count;
+		synchronized (this) {
+			count = initialSize - size;
+			size += count;
+		}
+		if (count <= 0) {
+			return;
+		}
+		int numThreads = Math.min(count, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, SCOPE_CREATOR_THREADNAME);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<Scriptable>> futures = new ArrayList<Future<Scriptable>>(count);
+		int filled = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				futures.add(executor.submit(new Callable<Scriptable>() {
+					public Scriptable call() throws Exception {
+						Context cx = Context.enter();
+						try {
+							return factory.create(cx);
+						} finally {
+							Context.exit();
+						}
+					}
+				}));
+			}
+			for (Future<Scriptable> future : futures) {
+				Scriptable scope = future.get();
+				synchronized (this) {
+					created++;
+					idle.addFirst(new IdleScope(scope, System.currentTimeMillis()));
+					filled++;
+					notifyAll();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			synchronized (this) {
+				size -= count - filled;
+			}
+		}
+	}
+
+	/**
+	 * Returns an idle scope from the pool, creating a new one if there are no
+	 * idle scopes and the pool is not at its maximum size.  Otherwise, waits
+	 * for a scope to be returned.  The caller must return the scope by
+	 * calling {@link #release(Scriptable)}.
+	 *
+	 * @param cx
+	 *            the Rhino context for the current thread
+	 * @param timeout
+	 *            the maximum time to wait for a scope
+	 * @param unit
+	 *            the unit of {@code timeout}
+	 * @return the scope
+	 * @throws InterruptedException
+	 * @throws TimeoutException
+	 *             if no scope became available in the time allowed
+	 */
+	public Scriptable borrow(Context cx, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		Scriptable result = null;
+		long start = System.nanoTime();
+		synchronized (this) {
+			borrows++;
+			if (idle.isEmpty() && size >= maxSize) {
+				waits++;
+				long deadline = start + unit.toNanos(timeout);
+				do {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						timeouts++;
+						recordWait(start);
+						throw new TimeoutException("Timeout waiting for thread scope"); //$NON-NLS-1$
+					}
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} while (idle.isEmpty() && size >= maxSize);
+				recordWait(start);
+			}
+			if (!idle.isEmpty()) {
+				result = idle.removeFirst().scope;
+			} else {
+				// Reserve a slot for the scope we're about to create
+				size++;
+			}
+			inUse++;
+			peakInUse = Math.max(peakInUse, inUse);
+		}
+		if (result == null) {
+			try {
+				result = factory.create(cx);
+			} finally {
+				synchronized (this) {
+					if (result != null) {
+						created++;
+					} else {
+						size--;
+						inUse--;
+						notifyAll();
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a scope obtained from {@link #borrow(Context, long, TimeUnit)}
+	 * to the pool.
+	 *
+	 * @param scope
+	 *            the scope
+	 */
+	public synchronized void release(Scriptable scope) {
+		inUse--;
+		idle.addFirst(new IdleScope(scope, System.currentTimeMillis()));
+		trim();
+		notifyAll();
+	}
+
+	/**
+	 * Discards scopes that have been idle for longer than the idle timeout,
+	 * as long as the pool stays at or above its initial size.
+	 */
+	public synchronized void trim() {
+		long now = System.currentTimeMillis();
+		while (size > initialSize && !idle.isEmpty() &&
+				now - idle.getLast().idleSince > idleTimeoutMillis) {
+			idle.removeLast();
+			size--;
+			discarded++;
+		}
+	}
+
+	/**
+	 * @return the number of scopes in the pool, including scopes in use
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of scopes in use
+	 */
+	public synchronized int getInUse() {
+		return inUse;
+	}
+
+	/**
+	 * @return the most scopes that have been in use at the same time
+	 */
+	public synchronized int getPeakInUse() {
+		return peakInUse;
+	}
+
+	/**
+	 * @return the number of times a caller had to wait for a scope
+	 */
+	public synchronized long getWaitCount() {
+		return waits;
+	}
+
+	/**
+	 * @return the number of times a caller timed out waiting for a scope
+	 */
+	public synchronized long getTimeoutCount() {
+		return timeouts;
+	}
+
+	/**
+	 * @return the number of scopes that have been discarded because they
+	 *         were idle
+	 */
+	public synchronized long getDiscardedCount() {
+		return discarded;
+	}
+
+	/**
+	 * @return the maximum size of the pool
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	private void recordWait(long start) {
+		long waited = System.nanoTime() - start;
+		totalWaitNanos += waited;
+		maxWaitNanos = Math.max(maxWaitNanos, waited);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return new StringBuffer("ThreadScopePool(") //$NON-NLS-1$
+		.append("size:").append(size).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("initialSize:").append(initialSize).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("maxSize:").append(maxSize).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("inUse:").append(inUse).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("peakInUse:").append(peakInUse).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("borrows:").append(borrows).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("waits:").append(waits).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("timeouts:").append(timeouts).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("avgWaitMs:").append(waits > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / waits) : 0).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("maxWaitMs:").append(TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("created:").append(created).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("discarded:").append(discarded).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import com.google.javascript.jscomp.CompilerPass;
+import com.google.javascript.rhino.Node;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Compiler pass that aborts the compilation if the compiling thread has been
+ * interrupted, as happens when the build is cancelled because the requests
+ * that needed it have gone away.  Registered at several points in the
+ * compilation so that a cancelled build stops between the more expensive
+ * phases rather than running to completion.
+ */
+public class InterruptCheckCompilerPass implements CompilerPass {
+
+	/* (non-Javadoc)
+	 * @see com.google.javascript.jscomp.CompilerPass#process(com.google.javascript.rhino.Node, com.google.javascript.rhino.Node)
+	 */
+	@Override
+	public void process(Node externs, Node root) {
+		// Leave the interrupt status set for the caller
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException();
+		}
+	}
+}
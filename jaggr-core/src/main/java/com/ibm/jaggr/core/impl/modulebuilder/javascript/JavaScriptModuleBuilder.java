@@ -29,6 +29,7 @@ import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.ServerExpandLayersCacheKeyGenerator;
 import com.ibm.jaggr.core.deps.ModuleDepInfo;
 import com.ibm.jaggr.core.deps.ModuleDeps;
+import com.ibm.jaggr.core.layer.ILayer;
 import com.ibm.jaggr.core.layer.ILayerListener;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.modulebuilder.IModuleBuilder;
@@ -47,15 +48,18 @@ import com.ibm.jaggr.core.util.HasNode;
 import com.ibm.jaggr.core.util.JSSource;
 import com.ibm.jaggr.core.util.RequestUtil;
 import com.ibm.jaggr.core.util.StringUtil;
+import com.ibm.jaggr.core.util.TypeUtil;
 
 import com.google.common.collect.HashMultimap;
 import com.google.javascript.jscomp.CheckLevel;
 import com.google.javascript.jscomp.CompilationLevel;
 import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
 import com.google.javascript.jscomp.CompilerOptions;
 import com.google.javascript.jscomp.CustomPassExecutionTime;
 import com.google.javascript.jscomp.DiagnosticGroups;
 import com.google.javascript.jscomp.JSError;
+import com.google.javascript.jscomp.JSModule;
 import com.google.javascript.jscomp.JSSourceFile;
 import com.google.javascript.jscomp.Result;
 
@@ -122,6 +126,52 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 	 */
 	static final String EXPDEPS_VARNAME = "_$$JAGGR_DEPS$$_"; //$NON-NLS-1$
 
+	/**
+	 * Name of the aggregator option that specifies the size, in kilobytes of
+	 * source code, of the cache of parsed JavaScript ASTs.  When enabled, the
+	 * source for a module is parsed once and builds of the module for different
+	 * feature sets compile a copy of the cached AST.  Note that the heap used
+	 * by an AST is many times the size of the source.  If not specified or 0,
+	 * then the source is parsed for every build.
+	 * <p>
+	 * Valid values: Integer value &gt;= 0
+	 */
+	public static final String OPTION_PARSE_CACHE_SIZE = "jsParseCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that specifies the maximum number of
+	 * modules in a layer that are compiled together in a single compilation.
+	 * When enabled, builds of modules in the same layer that are running at
+	 * the same time are compiled together, avoiding the fixed overhead of
+	 * compiling each module separately, and the output is split back into the
+	 * individual module builds.  Only builds that use simple or whitespace
+	 * optimizations and that don't need to update the cache key generators or
+	 * expand require lists are batched.  If not specified, or less than 2,
+	 * then each module is compiled separately.
+	 * <p>
+	 * Valid values: Integer value &gt;= 0
+	 */
+	public static final String OPTION_BATCH_COMPILE_SIZE = "jsBatchCompileSize"; //$NON-NLS-1$
+
+	/**
+	 * Name of the aggregator option that enables the streaming minifier for
+	 * unoptimized and whitespace-only builds.  When enabled, modules are
+	 * processed by a token level minifier instead of the Closure compiler if
+	 * the build doesn't require a parsed AST (i.e. require list expansion is
+	 * not requested and the module doesn't need has-filtering).  The streaming
+	 * minifier doesn't validate the source, so syntax errors are reported by
+	 * the browser rather than by the aggregator.
+	 * <p>
+	 * Valid values: <code>true/false</code>
+	 */
+	public static final String OPTION_STREAMING_MINIFIER = "jsStreamingMinifier"; //$NON-NLS-1$
+
+	/**
+	 * Name of the request attribute containing the {@link LayerCompilationBatch}
+	 * used to compile modules in the layer together.
+	 */
+	static final String COMPILATION_BATCH_REQATTR = JavaScriptModuleBuilder.class.getName() + ".compilationBatch"; //$NON-NLS-1$
+
 	static final String DEPSOURCE_REQEXPEXCLUDES = "require expansion excludes"; //$NON-NLS-1$
 	static final String DEPSOURCE_LAYER = "layer"; //$NON-NLS-1$
 
@@ -141,6 +191,8 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 
 	private List<IServiceRegistration> registrations = new LinkedList<IServiceRegistration>();
 
+	private ParsedSourceCache parseCache = null;
+
 	public static CompilationLevel getCompilationLevel(HttpServletRequest request) {
 		CompilationLevel level = CompilationLevel.SIMPLE_OPTIMIZATIONS;
 		IAggregator aggregator = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
@@ -278,6 +330,9 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 			reg.unregister();
 		}
 		registrations.clear();
+		synchronized (this) {
+			parseCache = null;
+		}
 	}
 
 	@Override
@@ -308,8 +363,37 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 
 		List<JSSourceFile> sources = this.getJSSource(mid, resource, request, keyGens);
 
+		// For unoptimized and whitespace-only builds that don't need the AST, process the
+		// source with the streaming minifier instead of the compiler if enabled.
+		StreamingMinifier minifier = null;
+		String streamedOutput = null;
+		if ((level == null || level == CompilationLevel.WHITESPACE_ONLY) &&
+				sources.size() == 1 &&
+				!RequestUtil.isExplodeRequires(request) &&
+				// verifying the define dependencies needs the AST
+				!(keyGens == null && aggr.getOptions().isDevelopmentMode() && aggr.getOptions().isVerifyDeps()) &&
+				TypeUtil.asBoolean(aggr.getOptions().getOption(OPTION_STREAMING_MINIFIER))) {
+			JSSourceFile sf = sources.get(0);
+			minifier = new StreamingMinifier(
+					sf.getCode(),
+					level != null,	// strip whitespace
+					RequestUtil.isExportModuleName(request) ? sf.getName() : null);
+			try {
+				streamedOutput = minifier.process();
+			} catch (IllegalStateException e) {
+				// Let the compiler report the error
+				if (log.isLoggable(Level.FINE)) {
+					log.fine(mid + ": " + e.getMessage()); //$NON-NLS-1$
+				}
+			}
+			if (minifier.hasHasCalls() && isHasFiltering && (level != null || keyGens == null)) {
+				// Has-filtering, or discovering the has-conditionals, needs the AST
+				streamedOutput = null;
+			}
+		}
+
 		JSSource source = null;
-		if (level == null) {
+		if (level == null && streamedOutput == null) {
 			// If optimization level is none, then we need to modify the source code
 			// when expanding require lists and exporting module names because the
 			// parsed AST produced by closure does not preserve whitespace and comments.
@@ -400,12 +484,53 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 					CheckLevel.OFF);
 		}
 
+		// Stop between compilation phases if the build has been cancelled
+		InterruptCheckCompilerPass icp = new InterruptCheckCompilerPass();
+		compiler_options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATIONS, icp);
+		compiler_options.customPasses.put(CustomPassExecutionTime.BEFORE_OPTIMIZATION_LOOP, icp);
+
 		// we do our own threading, so disable compiler threads.
 		compiler.disableThreads();
 
-		// compile the module
-		Result result = compiler.compile(externs, sources, compiler_options);
-		if (result.success) {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedException(mid);
+		}
+		// compile the module together with other modules in the layer if enabled
+		String batchOutput = null;
+		LayerCompilationBatch batch = streamedOutput == null ?
+				getCompilationBatch(request, level, keyGens, isExpandRequires) : null;
+		if (batch != null) {
+			List<CompilerInput> batchInputs = getParsedInputs(mid, resource, sources, aggr.getOptions());
+			if (batchInputs == null) {
+				batchInputs = new ArrayList<CompilerInput>(sources.size());
+				for (JSSourceFile sf : sources) {
+					batchInputs.add(new CompilerInput(sf));
+				}
+			}
+			batchOutput = batch.compile(mid, batchInputs, compiler_options);
+		}
+		// otherwise, compile the module by itself, using cached ASTs for the source if available
+		Result result = null;
+		if (streamedOutput != null) {
+			if (createNewKeyGen) {
+				hasExpandableRequires.setValue(minifier.hasExpandableRequires());
+			}
+		} else if (batchOutput == null) {
+			List<CompilerInput> inputs = getParsedInputs(mid, resource, sources, aggr.getOptions());
+			if (inputs != null) {
+				JSModule module = new JSModule(mid);
+				for (CompilerInput input : inputs) {
+					module.add(input);
+				}
+				result = compiler.compile(externs.toArray(new JSSourceFile[externs.size()]), new JSModule[]{module}, compiler_options);
+			} else {
+				result = compiler.compile(externs, sources, compiler_options);
+			}
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedException(mid);
+		}
+		if (streamedOutput != null || batchOutput != null || result.success) {
 			if (aggr.getOptions().isDevelopmentMode() && aggr.getOptions().isVerifyDeps()) {
 				// Validate dependencies for this module by comparing the
 				// discovered has conditionals against the dependent features
@@ -436,8 +561,12 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 					}
 				}
 			}
-			if (level == null) {
+			if (streamedOutput != null) {
+				output = level == null ? streamedOutput + "\r\n" : streamedOutput; //$NON-NLS-1$
+			} else if (level == null) {
 				output = source.toString()+ "\r\n"; //$NON-NLS-1$
+			} else if (batchOutput != null) {
+				output = batchOutput;
 			} else {
 				// Get the compiler output and set the data in the ModuleBuild
 				output = compiler.toSource();
@@ -467,13 +596,101 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 				throw new Exception(sb.toString());
 			}
 		}
-		return new ModuleBuild(
+		ModuleBuild build = new ModuleBuild(
 				expandedDepsList == null || expandedDepsList.size() == 0 ?
 						output : new JavaScriptBuildRenderer(mid, output, expandedDepsList, isReqExpLogging),
 						createNewKeyGen ?
 								getCacheKeyGenerators(discoveredHasConditionals, hasExpandableRequires.getValue()) :
 									keyGens,
 									null);
+		// The output depends only on the module source, the config and the
+		// dependency graph, but subclasses may override getJSSource to read
+		// other resources
+		if (getClass() == JavaScriptModuleBuilder.class) {
+			build.setDependenciesTracked();
+		}
+		return build;
+	}
+
+	/**
+	 * Returns compiler inputs that provide copies of the cached ASTs for the
+	 * specified sources, parsing the sources if needed.
+	 *
+	 * @param mid
+	 *            the module id
+	 * @param resource
+	 *            the module resource
+	 * @param sources
+	 *            the module sources
+	 * @param options
+	 *            the aggregator options
+	 * @return the compiler inputs, or null if the parse cache is disabled or
+	 *         the sources could not be parsed
+	 * @throws IOException
+	 */
+	protected List<CompilerInput> getParsedInputs(String mid, IResource resource, List<JSSourceFile> sources, IOptions options) throws IOException {
+		ParsedSourceCache cache;
+		long capacity = TypeUtil.asInt(options.getOption(OPTION_PARSE_CACHE_SIZE), 0) * 1024L;
+		synchronized (this) {
+			if (capacity <= 0) {
+				parseCache = null;
+				return null;
+			}
+			if (parseCache == null) {
+				parseCache = new ParsedSourceCache(capacity);
+			} else if (parseCache.getCapacity() != capacity) {
+				parseCache.setCapacity(capacity);
+			}
+			cache = parseCache;
+		}
+		String keyBase = mid + "|" + resource.getURI() + "|" + resource.lastModified(); //$NON-NLS-1$ //$NON-NLS-2$
+		List<CompilerInput> result = new ArrayList<CompilerInput>(sources.size());
+		int i = 0;
+		for (JSSourceFile sf : sources) {
+			CompilerInput input = cache.getInput(keyBase + "|" + i++, sf); //$NON-NLS-1$
+			if (input == null) {
+				return null;
+			}
+			result.add(input);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the batch that the module should be compiled in, creating it if
+	 * necessary, or null if the module should be compiled by itself.  Modules
+	 * are batched only if their builds don't depend on per-module results from
+	 * the compiler passes (the discovered has-conditions used to create cache
+	 * key generators, or expanded require lists), and if the compilation level
+	 * doesn't optimize across modules.
+	 *
+	 * @param request
+	 *            the request object
+	 * @param level
+	 *            the compilation level
+	 * @param keyGens
+	 *            the cache key generators for the module build
+	 * @param isExpandRequires
+	 *            true if require lists are being expanded
+	 * @return the compilation batch, or null
+	 */
+	private LayerCompilationBatch getCompilationBatch(HttpServletRequest request, CompilationLevel level, List<ICacheKeyGenerator> keyGens, boolean isExpandRequires) {
+		IAggregator aggr = (IAggregator)request.getAttribute(IAggregator.AGGREGATOR_REQATTRNAME);
+		int maxSize = TypeUtil.asInt(aggr.getOptions().getOption(OPTION_BATCH_COMPILE_SIZE), 0);
+		if (maxSize < 2 || level == null || level == CompilationLevel.ADVANCED_OPTIMIZATIONS ||
+				keyGens == null || isExpandRequires ||
+				TypeUtil.asInt(request.getAttribute(ILayer.MODULECOUNT_REQATTRNAME), 0) < 2) {
+			return null;
+		}
+		// Module builds for the request run on different threads
+		synchronized (this) {
+			LayerCompilationBatch batch = (LayerCompilationBatch)request.getAttribute(COMPILATION_BATCH_REQATTR);
+			if (batch == null) {
+				batch = new LayerCompilationBatch(maxSize);
+				request.setAttribute(COMPILATION_BATCH_REQATTR, batch);
+			}
+			return batch;
+		}
 	}
 
 	/**
@@ -823,4 +1040,4 @@ public class JavaScriptModuleBuilder implements IModuleBuilder, IExtensionInitia
 			return getClass().hashCode() * 31 + featureKeyGen.hashCode() + (hasExpandableRequires ? 1 : 0);
 		}
 	}
-}
+}
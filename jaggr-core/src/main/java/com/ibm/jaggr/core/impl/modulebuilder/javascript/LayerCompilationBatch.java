@@ -0,0 +1,226 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSModule;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.jscomp.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles the modules of a layer that are being built at the same time
+ * together in a single compilation, avoiding the fixed overhead of compiling
+ * each module separately.  Each module is added to the compilation as a
+ * separate {@link JSModule} so that the output can be split back into the
+ * individual module builds.
+ * <p>
+ * The first build to call {@link #compile(String, List, CompilerOptions)}
+ * becomes the leader for the batch.  It waits until no new modules have been
+ * added for {@link #GATHER_MILLIS} milliseconds, or the batch is full, and then
+ * compiles the batch on behalf of all the modules in it.  Builds that call
+ * {@link #compile(String, List, CompilerOptions)} while the leader is
+ * compiling start a new batch.
+ * <p>
+ * All the modules in a batch must be compiled with equivalent compiler options.
+ * This is the case when the batch is used for the builds of a single request.
+ * If the batch compilation fails for any reason, then
+ * {@link #compile(String, List, CompilerOptions)} returns null and the caller
+ * compiles the module by itself so that errors are reported against the
+ * module that caused them.
+ */
+class LayerCompilationBatch {
+	private static final Logger log = Logger.getLogger(LayerCompilationBatch.class.getName());
+
+	/**
+	 * The number of milliseconds the leader waits for more modules to be
+	 * added to the batch
+	 */
+	static final long GATHER_MILLIS = 20;
+
+	private static final JSSourceFile[] externs = new JSSourceFile[0];
+
+	private final int maxSize;
+
+	/** Guarded by this */
+	private List<Job> pending = new ArrayList<Job>();
+
+	/** Guarded by this */
+	private boolean gathering = false;
+
+	private final AtomicInteger batches = new AtomicInteger();
+	private final AtomicInteger batchedModules = new AtomicInteger();
+
+	/**
+	 * @param maxSize
+	 *            the maximum number of modules to compile together
+	 */
+	LayerCompilationBatch(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Adds the module to the batch and waits for the batch to be compiled.
+	 *
+	 * @param mid
+	 *            the module id
+	 * @param inputs
+	 *            the compiler inputs for the module.  The inputs are used
+	 *            only by the batch compilation.
+	 * @param options
+	 *            the compiler options
+	 * @return the compiled output for the module, or null if the module
+	 *         should be compiled by itself
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	String compile(String mid, List<CompilerInput> inputs, CompilerOptions options) throws InterruptedException, ExecutionException {
+		Job job = new Job(mid, inputs, options);
+		boolean leader;
+		synchronized (this) {
+			pending.add(job);
+			leader = !gathering;
+			if (leader) {
+				gathering = true;
+			} else {
+				notifyAll();
+			}
+		}
+		if (leader) {
+			compile(gather());
+		}
+		return job.output.get();
+	}
+
+	/**
+	 * Called by the leader to wait for the batch to fill up.
+	 *
+	 * @return the jobs in the batch
+	 */
+	private List<Job> gather() {
+		List<Job> jobs;
+		synchronized (this) {
+			try {
+				int size;
+				do {
+					size = pending.size();
+					if (size >= maxSize) {
+						break;
+					}
+					wait(GATHER_MILLIS);
+				} while (pending.size() > size);
+			} catch (InterruptedException e) {
+				// Compile what we have and let the caller see the interrupt
+				Thread.currentThread().interrupt();
+			} finally {
+				jobs = pending;
+				pending = new ArrayList<Job>();
+				gathering = false;
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Compiles the jobs together and completes the output future for each job.
+	 * The future for a job is set to null if the job was not compiled.
+	 *
+	 * @param jobs
+	 *            the jobs to compile
+	 */
+	private void compile(List<Job> jobs) {
+		try {
+			if (jobs.size() < 2 || Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			Compiler compiler = new Compiler();
+			compiler.disableThreads();
+			JSModule[] modules = new JSModule[jobs.size()];
+			int i = 0;
+			for (Job job : jobs) {
+				JSModule module = new JSModule(job.mid);
+				for (CompilerInput input : job.inputs) {
+					module.add(input);
+				}
+				if (i > 0) {
+					// Closure requires a single root module
+					module.addDependency(modules[0]);
+				}
+				modules[i++] = module;
+			}
+			Result result = compiler.compile(externs, modules, jobs.get(0).options);
+			if (result.success) {
+				i = 0;
+				for (Job job : jobs) {
+					job.output.set(compiler.toSource(modules[i++]));
+				}
+				batches.incrementAndGet();
+				batchedModules.addAndGet(jobs.size());
+			} else if (log.isLoggable(Level.FINE)) {
+				log.fine("Batch compilation of " + jobs.size() + " modules failed.  Compiling modules individually."); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} catch (RuntimeException e) {
+			// Includes cancellation of the leader's build
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Batch compilation of " + jobs.size() + " modules failed.  Compiling modules individually.", e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} finally {
+			for (Job job : jobs) {
+				// no-op if the output has been set
+				job.output.set(null);
+			}
+		}
+	}
+
+	int getBatchCount() {
+		return batches.get();
+	}
+
+	int getBatchedModuleCount() {
+		return batchedModules.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("LayerCompilationBatch(") //$NON-NLS-1$
+		.append("maxSize:").append(maxSize).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("batches:").append(batches.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("modules:").append(batchedModules.get()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static class Job {
+		private final String mid;
+		private final List<CompilerInput> inputs;
+		private final CompilerOptions options;
+		private final SettableFuture<String> output = SettableFuture.create();
+
+		private Job(String mid, List<CompilerInput> inputs, CompilerOptions options) {
+			this.mid = mid;
+			this.inputs = inputs;
+			this.options = options;
+		}
+	}
+}
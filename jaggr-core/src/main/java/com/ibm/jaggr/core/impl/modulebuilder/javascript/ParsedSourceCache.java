@@ -0,0 +1,230 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import com.ibm.jaggr.core.util.CompilerUtil;
+
+import com.google.javascript.jscomp.AbstractCompiler;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.InputId;
+import com.google.javascript.jscomp.JsAst;
+import com.google.javascript.jscomp.SourceAst;
+import com.google.javascript.jscomp.SourceFile;
+import com.google.javascript.rhino.Node;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory bounded cache of parsed JavaScript ASTs.  Builds of the same module
+ * for different feature sets differ only in the results of has-filtering, so
+ * the source is parsed once and each build compiles a copy of the cached AST.
+ * <p>
+ * Entries are keyed by module id, resource URI and last-modified time, and
+ * hold the source code that was parsed.  A cached AST is used only if the code
+ * is unchanged, so sub-classes of {@link JavaScriptModuleBuilder} that provide
+ * request-specific source are handled correctly.  The cache is weighted by the
+ * length of the source code.
+ */
+class ParsedSourceCache {
+
+	private final ConcurrentLinkedHashMap<String, ParsedSource> map;
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * @param capacity
+	 *            the maximum number of characters of parsed source to keep
+	 */
+	ParsedSourceCache(long capacity) {
+		map = new ConcurrentLinkedHashMap.Builder<String, ParsedSource>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<ParsedSource>() {
+					@Override
+					public int weightOf(ParsedSource value) {
+						// ConcurrentLinkedHashMap barfs on size == 0
+						return Math.max(1, value.code.length());
+					}
+				}).build();
+	}
+
+	/**
+	 * @param capacity
+	 *            the new capacity.  Entries are evicted if needed.
+	 */
+	void setCapacity(long capacity) {
+		map.setCapacity(capacity);
+	}
+
+	long getCapacity() {
+		return map.capacity();
+	}
+
+	/**
+	 * Returns a compiler input for the specified source file that provides a
+	 * copy of the cached AST for the source, parsing the source and adding it
+	 * to the cache if necessary.
+	 *
+	 * @param key
+	 *            the cache key
+	 * @param sourceFile
+	 *            the source file
+	 * @return the compiler input, or null if the source could not be parsed.
+	 *         The caller should compile the source file in the usual way so
+	 *         that the errors are reported.
+	 * @throws IOException
+	 */
+	CompilerInput getInput(String key, SourceFile sourceFile) throws IOException {
+		String code = sourceFile.getCode();
+		ParsedSource parsed = map.get(key);
+		if (parsed != null && parsed.code.equals(code)) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			parsed = parse(sourceFile, code);
+			if (parsed == null) {
+				map.remove(key);
+				return null;
+			}
+			map.put(key, parsed);
+		}
+		return new CompilerInput(new ClonedAst(parsed, sourceFile));
+	}
+
+	/**
+	 * Parses the source file
+	 *
+	 * @param sourceFile
+	 *            the source file
+	 * @param code
+	 *            the source code
+	 * @return the parsed source, or null if there were parse errors
+	 */
+	protected ParsedSource parse(SourceFile sourceFile, String code) {
+		Compiler compiler = new Compiler();
+		compiler.initOptions(CompilerUtil.getDefaultOptions());
+		JsAst ast = new JsAst(sourceFile);
+		Node root = ast.getAstRoot(compiler);
+		if (root == null || compiler.getErrorCount() > 0) {
+			return null;
+		}
+		return new ParsedSource(code, root, ast.getInputId());
+	}
+
+	int size() {
+		return map.size();
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	void clear() {
+		map.clear();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("ParsedSourceCache(") //$NON-NLS-1$
+		.append("capacity:").append(map.capacity()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("size:").append(map.weightedSize()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("entries:").append(map.size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("hits:").append(hits.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("misses:").append(misses.get()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	static class ParsedSource {
+		private final String code;
+		private final Node root;
+		private final InputId inputId;
+
+		private ParsedSource(String code, Node root, InputId inputId) {
+			this.code = code;
+			this.root = root;
+			this.inputId = inputId;
+		}
+	}
+
+	/**
+	 * {@link SourceAst} that provides a deep copy of a cached AST.  The cached
+	 * AST is never modified, so any number of builds may copy it concurrently.
+	 */
+	private static class ClonedAst implements SourceAst {
+		private static final long serialVersionUID = -6185893725426416463L;
+
+		private final ParsedSource parsed;
+		private SourceFile sourceFile;
+		private Node root = null;
+
+		private ClonedAst(ParsedSource parsed, SourceFile sourceFile) {
+			this.parsed = parsed;
+			this.sourceFile = sourceFile;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.google.javascript.jscomp.SourceAst#getAstRoot(com.google.javascript.jscomp.AbstractCompiler)
+		 */
+		@Override
+		public Node getAstRoot(AbstractCompiler compiler) {
+			if (root == null) {
+				root = parsed.root.cloneTree();
+			}
+			return root;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.google.javascript.jscomp.SourceAst#clearAst()
+		 */
+		@Override
+		public void clearAst() {
+			root = null;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.google.javascript.jscomp.SourceAst#getInputId()
+		 */
+		@Override
+		public InputId getInputId() {
+			return parsed.inputId;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.google.javascript.jscomp.SourceAst#getSourceFile()
+		 */
+		@Override
+		public SourceFile getSourceFile() {
+			return sourceFile;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.google.javascript.jscomp.SourceAst#setSourceFile(com.google.javascript.jscomp.SourceFile)
+		 */
+		@Override
+		public void setSourceFile(SourceFile file) {
+			clearAst();
+			sourceFile = file;
+		}
+	}
+}
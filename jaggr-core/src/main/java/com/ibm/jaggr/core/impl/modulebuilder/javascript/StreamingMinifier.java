@@ -0,0 +1,354 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Single pass, token level processor for JavaScript source that is used in
+ * place of the Closure compiler for unoptimized and whitespace-only builds.
+ * The source is tokenized without building an AST.  Comments and whitespace
+ * are removed if requested, and anonymous define calls are named by inserting
+ * the module name following the open paren of the call, in the same way as
+ * {@link ExportModuleNameCompilerPass}.
+ * <p>
+ * When removing whitespace, a line break is retained wherever automatic
+ * semicolon insertion might depend on it, so the output is not always as
+ * compact as the compiler's.  The processor doesn't validate the source.  If
+ * the source can't be tokenized (e.g. unterminated strings or comments),
+ * {@link #process()} throws an {@link IllegalStateException} and the caller
+ * should use the compiler so that the errors are reported.
+ * <p>
+ * Instances of this class are not thread-safe.
+ */
+class StreamingMinifier {
+
+	private static final int NONE = 0, WORD = 1, NUMBER = 2, STRING = 3, REGEX = 4, PUNCT = 5;
+
+	/** Multi-character punctuators, longest first */
+	private static final String[] punctuators = new String[] {
+		">>>=", //$NON-NLS-1$
+		"===", "!==", "<<=", ">>=", ">>>", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		"&&", "||", "==", "!=", "<=", ">=", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "++", "--", "<<", ">>" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$ //$NON-NLS-15$ //$NON-NLS-16$
+	};
+
+	/** Keywords that may be followed by a regular expression literal */
+	private static final Set<String> regexKeywords = new HashSet<String>(Arrays.asList(new String[]{
+			"return", "typeof", "instanceof", "in", "new", "delete", "void", "throw", "case", "do", "else" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$
+	}));
+
+	private final String code;
+	private final boolean stripWhitespace;
+	private final String exportName;
+	private final StringBuilder out;
+
+	private int pos = 0;
+
+	/* The last two tokens */
+	private int prevType = NONE;
+	private String prevText = null;
+	private String prev2Text = null;
+
+	/* Output position following the open paren of a define call, or -1 */
+	private int defineArgsPos = -1;
+
+	private boolean hasHasCalls = false;
+	private boolean hasExpandableRequires = false;
+
+	/**
+	 * @param code
+	 *            the source code
+	 * @param stripWhitespace
+	 *            true if comments and whitespace should be removed
+	 * @param exportName
+	 *            the module name to insert into anonymous define calls, or
+	 *            null
+	 */
+	StreamingMinifier(String code, boolean stripWhitespace, String exportName) {
+		this.code = code;
+		this.stripWhitespace = stripWhitespace;
+		this.exportName = exportName;
+		out = new StringBuilder(code.length() + (exportName != null ? exportName.length() + 3 : 0));
+	}
+
+	/**
+	 * Processes the source code.  May be called only once.
+	 *
+	 * @return the processed source code
+	 * @throws IllegalStateException
+	 *             if the source could not be tokenized
+	 */
+	String process() {
+		int len = code.length();
+		boolean whitespace = false, lineBreak = false;
+		while (pos < len) {
+			int start = pos;
+			char c = code.charAt(pos);
+			char next = pos + 1 < len ? code.charAt(pos + 1) : 0;
+			if (isWhitespace(c)) {
+				pos++;
+				whitespace = true;
+				lineBreak |= isLineTerminator(c);
+			} else if (c == '/' && next == '/') {
+				while (pos < len && !isLineTerminator(code.charAt(pos))) {
+					pos++;
+				}
+				whitespace = true;
+			} else if (c == '/' && next == '*') {
+				int end = code.indexOf("*/", pos + 2); //$NON-NLS-1$
+				if (end == -1) {
+					throw new IllegalStateException("Unterminated comment"); //$NON-NLS-1$
+				}
+				pos = end + 2;
+				whitespace = true;
+				for (int i = start; i < pos && !lineBreak; i++) {
+					lineBreak = isLineTerminator(code.charAt(i));
+				}
+			} else {
+				int type;
+				if (c == '"' || c == '\'') {
+					scanString(c);
+					type = STRING;
+				} else if (c == '`') {
+					throw new IllegalStateException("Template literal"); //$NON-NLS-1$
+				} else if (c == '/' && isRegexAllowed()) {
+					scanRegex();
+					type = REGEX;
+				} else if (isDigit(c) || c == '.' && isDigit(next)) {
+					scanNumber();
+					type = NUMBER;
+				} else if (isIdentifierPart(c)) {
+					while (pos < len && isIdentifierPart(code.charAt(pos))) {
+						pos++;
+					}
+					type = WORD;
+				} else {
+					scanPunctuator();
+					type = PUNCT;
+				}
+				String text = code.substring(start, pos);
+				if (stripWhitespace) {
+					writeSeparator(type, text, whitespace, lineBreak);
+				}
+				addToken(type, text);
+				whitespace = lineBreak = false;
+				continue;
+			}
+			if (!stripWhitespace) {
+				out.append(code, start, pos);
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return true if the source contains references to a function named
+	 *         {@code has}
+	 */
+	boolean hasHasCalls() {
+		return hasHasCalls;
+	}
+
+	/**
+	 * @return true if the source may contain require calls or config deps
+	 *         that could be expanded.  Errs on the side of returning true.
+	 */
+	boolean hasExpandableRequires() {
+		return hasExpandableRequires;
+	}
+
+	/**
+	 * Writes the token to the output, naming the enclosing define call if
+	 * needed, and updates the state used to identify define, require and has
+	 * calls.
+	 *
+	 * @param type
+	 *            the token type
+	 * @param text
+	 *            the token text
+	 */
+	private void addToken(int type, String text) {
+		if (defineArgsPos != -1) {
+			// First token following the open paren of a define call
+			if (type != STRING && !")".equals(text)) { //$NON-NLS-1$
+				out.insert(defineArgsPos, "\"" + exportName + "\","); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			defineArgsPos = -1;
+		}
+		out.append(text);
+		boolean isName = prevType == WORD && !".".equals(prev2Text); //$NON-NLS-1$
+		if (type == WORD) {
+			if ("has".equals(text) && !".".equals(prevText)) { //$NON-NLS-1$ //$NON-NLS-2$
+				hasHasCalls = true;
+			} else if ("deps".equals(text)) { //$NON-NLS-1$
+				hasExpandableRequires = true;
+			}
+		} else if (type == STRING) {
+			if (text.length() == 6 && "deps".equals(text.substring(1, 5))) { //$NON-NLS-1$
+				hasExpandableRequires = true;
+			}
+		} else if ("(".equals(text)) { //$NON-NLS-1$
+			// Not a function named define or a constructor call
+			if (isName && exportName != null && "define".equals(prevText) && //$NON-NLS-1$
+					!"function".equals(prev2Text) && !"new".equals(prev2Text)) { //$NON-NLS-1$ //$NON-NLS-2$
+				defineArgsPos = out.length();
+			}
+		} else if ("[".equals(text)) { //$NON-NLS-1$
+			if ("(".equals(prevText) && "require".equals(prev2Text)) { //$NON-NLS-1$ //$NON-NLS-2$
+				hasExpandableRequires = true;
+			}
+		}
+		prev2Text = prevText;
+		prevText = text;
+		prevType = type;
+	}
+
+	/**
+	 * Writes the whitespace, if any, that is needed between the previous token
+	 * and the specified token.
+	 *
+	 * @param type
+	 *            the token type
+	 * @param text
+	 *            the token text
+	 * @param whitespace
+	 *            true if the tokens are separated by whitespace or comments in
+	 *            the source
+	 * @param lineBreak
+	 *            true if the tokens are separated by a line break in the
+	 *            source
+	 */
+	private void writeSeparator(int type, String text, boolean whitespace, boolean lineBreak) {
+		if (prevType == NONE || !whitespace) {
+			return;
+		}
+		if (lineBreak && !(prevType == PUNCT && !isClosing(prevText))) {
+			// A statement may end here, so keep the line break for semicolon insertion
+			out.append('\n');
+		} else if ((prevType == WORD || prevType == NUMBER || prevType == REGEX) && (type == WORD || type == NUMBER) ||
+				prevType == NUMBER && text.charAt(0) == '.' ||
+				prevType == PUNCT && (prevText.endsWith("+") && text.startsWith("+") || //$NON-NLS-1$ //$NON-NLS-2$
+						prevText.endsWith("-") && text.startsWith("-") || //$NON-NLS-1$ //$NON-NLS-2$
+						prevText.endsWith("/") && type == REGEX)) { //$NON-NLS-1$
+			out.append(' ');
+		}
+	}
+
+	/**
+	 * @return true if a slash at the current position starts a regular
+	 *         expression rather than a division operator
+	 */
+	private boolean isRegexAllowed() {
+		switch (prevType) {
+		case NONE:
+			return true;
+		case PUNCT:
+			return !isClosing(prevText) || "}".equals(prevText); //$NON-NLS-1$
+		case WORD:
+			return regexKeywords.contains(prevText);
+		default:
+			return false;
+		}
+	}
+
+	private boolean isClosing(String punct) {
+		return ")".equals(punct) || "]".equals(punct) || "}".equals(punct) || "++".equals(punct) || "--".equals(punct); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	private void scanString(char quote) {
+		int len = code.length();
+		for (pos++; pos < len; pos++) {
+			char c = code.charAt(pos);
+			if (c == '\\') {
+				// skip the escaped character, including CRLF line continuations
+				if (pos + 2 < len && code.charAt(pos + 1) == '\r' && code.charAt(pos + 2) == '\n') {
+					pos++;
+				}
+				pos++;
+			} else if (c == quote) {
+				pos++;
+				return;
+			} else if (isLineTerminator(c)) {
+				break;
+			}
+		}
+		throw new IllegalStateException("Unterminated string literal"); //$NON-NLS-1$
+	}
+
+	private void scanRegex() {
+		int len = code.length();
+		boolean inClass = false;
+		for (pos++; pos < len; pos++) {
+			char c = code.charAt(pos);
+			if (c == '\\') {
+				pos++;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == ']') {
+				inClass = false;
+			} else if (c == '/' && !inClass) {
+				// skip the flags
+				for (pos++; pos < len && isIdentifierPart(code.charAt(pos)); pos++);
+				return;
+			} else if (isLineTerminator(c)) {
+				break;
+			}
+		}
+		throw new IllegalStateException("Unterminated regular expression"); //$NON-NLS-1$
+	}
+
+	private void scanNumber() {
+		int len = code.length();
+		boolean isHex = code.startsWith("0x", pos) || code.startsWith("0X", pos); //$NON-NLS-1$ //$NON-NLS-2$
+		for (pos++; pos < len; pos++) {
+			char c = code.charAt(pos);
+			char prev = code.charAt(pos - 1);
+			if (!isIdentifierPart(c) && c != '.' &&
+					!((c == '+' || c == '-') && (prev == 'e' || prev == 'E') && !isHex)) {
+				break;
+			}
+		}
+	}
+
+	private void scanPunctuator() {
+		for (String punct : punctuators) {
+			if (code.startsWith(punct, pos)) {
+				pos += punct.length();
+				return;
+			}
+		}
+		pos++;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return c == '\\' || Character.isJavaIdentifierPart(c) && !Character.isIdentifierIgnorable(c);
+	}
+
+	private static boolean isWhitespace(char c) {
+		return Character.isWhitespace(c) || Character.isSpaceChar(c) || c == '\uFEFF';
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+	}
+}
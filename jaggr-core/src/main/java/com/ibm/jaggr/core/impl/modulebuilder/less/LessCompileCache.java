@@ -0,0 +1,233 @@
+/*
+ * (C) Copyright 2014, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.less;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of compiled LESS that tracks the &#064;import graph of the LESS
+ * modules.
+ * <p>
+ * Each entry holds the compiled CSS for a module along with a digest of the
+ * LESS it was compiled from and the resources that were in-lined into the
+ * module.  The compiled CSS is used only if the digest of the current input
+ * matches.  When a compile finds that an imported resource has been modified,
+ * the entries for the other modules that import the resource are discarded,
+ * so that only the modules whose import closure changed are recompiled.
+ * <p>
+ * The cache is weighted by the length of the compiled CSS.  When the least
+ * recently used entries are evicted, the modules are also removed from the
+ * import graph.
+ */
+class LessCompileCache {
+
+	private final ConcurrentLinkedHashMap<URI, Entry> entries;
+
+	/** Maps each imported resource to the modules that import it */
+	private final ConcurrentMap<URI, Set<URI>> dependents = new ConcurrentHashMap<URI, Set<URI>>();
+
+	/** The most recently seen last-modified time of each imported resource */
+	private final ConcurrentMap<URI, Long> lastModified = new ConcurrentHashMap<URI, Long>();
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private final AtomicInteger invalidations = new AtomicInteger();
+
+	/**
+	 * @param capacity
+	 *            the maximum number of characters of compiled CSS to keep
+	 */
+	LessCompileCache(long capacity) {
+		entries = new ConcurrentLinkedHashMap.Builder<URI, Entry>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<Entry>() {
+					@Override
+					public int weightOf(Entry value) {
+						// ConcurrentLinkedHashMap barfs on size == 0
+						return Math.max(1, value.output.length());
+					}
+				})
+				.listener(new EvictionListener<URI, Entry>() {
+					@Override
+					public void onEviction(URI module, Entry entry) {
+						removeDependent(module, entry);
+					}
+				}).build();
+	}
+
+	long getCapacity() {
+		return entries.capacity();
+	}
+
+	/**
+	 * Returns the compiled CSS for the specified module if it was compiled
+	 * from the same input.
+	 *
+	 * @param module
+	 *            the URI of the module
+	 * @param digest
+	 *            the digest of the LESS input
+	 * @return the compiled CSS, or null
+	 */
+	String get(URI module, String digest) {
+		Entry entry = entries.get(module);
+		if (entry != null && entry.digest.equals(digest)) {
+			hits.incrementAndGet();
+			return entry.output;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Adds the compiled CSS for a module and updates the import graph.  If any
+	 * of the imported resources have been modified since they were last seen,
+	 * then the entries for the other modules that import them are discarded.
+	 *
+	 * @param module
+	 *            the URI of the module
+	 * @param digest
+	 *            the digest of the LESS input
+	 * @param imports
+	 *            the URIs and last-modified times of the module resource and
+	 *            the resources that were in-lined into it
+	 * @param output
+	 *            the compiled CSS
+	 * @return the modules whose entries were discarded
+	 */
+	Set<URI> put(URI module, String digest, Map<URI, Long> imports, String output) {
+		Entry old = entries.put(module, new Entry(digest, output, imports.keySet()));
+		if (old != null) {
+			for (URI uri : old.imports) {
+				Set<URI> set = dependents.get(uri);
+				if (set != null && !imports.containsKey(uri)) {
+					set.remove(module);
+				}
+			}
+		}
+		Set<URI> invalidated = new HashSet<URI>();
+		for (Map.Entry<URI, Long> entry : imports.entrySet()) {
+			URI uri = entry.getKey();
+			Set<URI> set = dependents.get(uri);
+			if (set == null) {
+				set = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+				Set<URI> existing = dependents.putIfAbsent(uri, set);
+				if (existing != null) {
+					set = existing;
+				}
+			}
+			set.add(module);
+			Long previous = lastModified.put(uri, entry.getValue());
+			if (previous != null && !previous.equals(entry.getValue())) {
+				for (URI dependent : set) {
+					if (!dependent.equals(module) && entries.remove(dependent) != null) {
+						invalidated.add(dependent);
+					}
+				}
+			}
+		}
+		invalidations.addAndGet(invalidated.size());
+		return invalidated;
+	}
+
+	/**
+	 * Removes an evicted module from the import graph, along with the imported
+	 * resources that no longer have any dependents.  The graph is only used to
+	 * discard entries early (entries with stale imports don't match the digest
+	 * of the current input anyway), so a race with a concurrent put of the same
+	 * module costs at most a missed invalidation.
+	 *
+	 * @param module
+	 *            the URI of the module
+	 * @param entry
+	 *            the evicted entry
+	 */
+	private void removeDependent(URI module, Entry entry) {
+		if (entries.containsKey(module)) {
+			return;
+		}
+		for (URI uri : entry.imports) {
+			Set<URI> set = dependents.get(uri);
+			if (set != null) {
+				set.remove(module);
+				if (set.isEmpty() && dependents.remove(uri, set)) {
+					lastModified.remove(uri);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param uri
+	 *            the URI of an imported resource
+	 * @return the modules that import the resource
+	 */
+	Set<URI> getDependents(URI uri) {
+		Set<URI> set = dependents.get(uri);
+		return set != null ? Collections.unmodifiableSet(set) : Collections.<URI>emptySet();
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	int getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("LessCompileCache(") //$NON-NLS-1$
+		.append("capacity:").append(entries.capacity()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("entries:").append(entries.size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("imports:").append(dependents.size()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("hits:").append(hits.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("misses:").append(misses.get()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("invalidations:").append(invalidations.get()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static class Entry {
+		private final String digest;
+		private final String output;
+		private final Set<URI> imports;
+
+		private Entry(String digest, String output, Set<URI> imports) {
+			this.digest = digest;
+			this.output = output;
+			this.imports = new HashSet<URI>(imports);
+		}
+	}
+}
@@ -18,8 +18,11 @@ package com.ibm.jaggr.core.impl.modulebuilder.less;
 
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.NotFoundException;
+import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder;
+import com.ibm.jaggr.core.impl.modulebuilder.css.ThreadScopePool;
 import com.ibm.jaggr.core.resource.IResource;
+import com.ibm.jaggr.core.util.TypeUtil;
 
 import org.apache.commons.io.IOUtils;
 import org.mozilla.javascript.Context;
@@ -30,6 +33,11 @@ import org.mozilla.javascript.Scriptable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -38,11 +46,29 @@ import java.util.regex.Pattern;
 
 /**
  * This class compiles LESS resources that are loaded by the AMD aggregator.
+ * <p>
+ * Compiled LESS may be cached along with the &#064;import graph of each
+ * module.  A module is recompiled only if the LESS produced by in-lining its
+ * imports has changed, and a change to a shared import discards the compiled
+ * LESS of the modules that import it.  The cache is cleared when the config is
+ * reloaded and is controlled by the following property specified in the
+ * server-side AMD config:
+ * <blockquote>
+ * <dl>
+ * <dt>{@link #LESSCOMPILECACHESIZE_CONFIGPARAM}</dt>
+ * <dd>The maximum size of the cache, in kilobytes of compiled CSS. The default
+ * is 0, which disables the cache.</dd>
+ * </dl>
+ * </blockquote>
  */
 public class LessModuleBuilder extends CSSModuleBuilder {
 	static final String sourceClass = LessModuleBuilder.class.getName();
 	static final Logger log = Logger.getLogger(sourceClass);
 
+	static public final String LESSCOMPILECACHESIZE_CONFIGPARAM = "lessCompileCacheSize"; //$NON-NLS-1$
+
+	static public final int LESSCOMPILECACHESIZE_DEFAULT_VALUE = 0;
+
 	private static final String LESS_JS_RES = "less-rhino-1.7.0.js"; //$NON-NLS-1$
 
 	private static final String LESS_COMPILER_VAR = "lessCompiler"; //$NON-NLS-1$
@@ -63,6 +89,9 @@ public class LessModuleBuilder extends CSSModuleBuilder {
 	Script lessJsScript = null;
 	Script compilerScript = null;
 
+	// Not initialized here since configLoaded may be called by the super class constructor
+	private volatile LessCompileCache compileCache;
+
 	public LessModuleBuilder() {
 		super();
 		init();
@@ -100,6 +129,21 @@ public class LessModuleBuilder extends CSSModuleBuilder {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder#configLoaded(com.ibm.jaggr.core.config.IConfig, long)
+	 */
+	@Override
+	public void configLoaded(IConfig conf, long sequence) {
+		super.configLoaded(conf, sequence);
+		/** Size of the compile cache.  Compiled LESS depends on the config, so always start empty */
+		Object obj = conf.getProperty(LESSCOMPILECACHESIZE_CONFIGPARAM, null);
+		long compileCacheSize = TypeUtil.asInt(obj, LESSCOMPILECACHESIZE_DEFAULT_VALUE) * 1024L;
+		if (compileCache != null && log.isLoggable(Level.FINE)) {
+			log.logp(Level.FINE, sourceClass, "configLoaded", "Replacing " + compileCache); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		compileCache = compileCacheSize > 0 ? new LessCompileCache(compileCacheSize) : null;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder#createThreadScope(org.mozilla.javascript.Context, org.mozilla.javascript.Scriptable)
 	 */
@@ -120,6 +164,23 @@ public class LessModuleBuilder extends CSSModuleBuilder {
 		return threadScope;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder#isDependencyTracking()
+	 */
+	@Override
+	protected boolean isDependencyTracking() {
+		return getClass() == LessModuleBuilder.class;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder#isThreadScopeRequired()
+	 */
+	@Override
+	protected boolean isThreadScopeRequired() {
+		// LESS is compiled in the thread scopes
+		return true;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder#postcss(java.lang.String, com.ibm.jaggr.core.resource.IResource)
 	 */
@@ -141,19 +202,75 @@ public class LessModuleBuilder extends CSSModuleBuilder {
 		return css;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder#postcss(java.lang.String, com.ibm.jaggr.core.resource.IResource, java.util.Map)
+	 */
+	@Override
+	protected String postcss(String css, IResource resource, Map<URI, Long> imports) throws IOException {
+		final String sourceMethod = "postcss"; //$NON-NLS-1$
+		final boolean isTraceLogging = log.isLoggable(Level.FINER);
+		if (isTraceLogging) {
+			log.entering(sourceClass, sourceMethod, new Object[]{css, resource, imports});
+		}
+		URI uri = resource.getURI();
+		LessCompileCache cache = compileCache;
+		if (cache == null || imports == null || !uri.getPath().endsWith(".less") || css.contains("@import")) { //$NON-NLS-1$ //$NON-NLS-2$
+			// LESS resolves any imports that weren't in-lined itself, so we can't tell when they change
+			if (uri.getPath().endsWith(".less") && css.contains("@import")) { //$NON-NLS-1$ //$NON-NLS-2$
+				setUntrackedDependencies();
+			}
+			css = postcss(css, resource);
+		} else {
+			String digest = digest(css);
+			String compiled = cache.get(uri, digest);
+			if (compiled == null) {
+				compiled = processLess(uri.toString(), css);
+				Set<URI> invalidated = cache.put(uri, digest, imports, compiled);
+				if (!invalidated.isEmpty() && log.isLoggable(Level.FINE)) {
+					log.logp(Level.FINE, sourceClass, sourceMethod, "Imports of " + uri + " changed.  Discarded compiled LESS for " + invalidated); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			css = super.postcss(compiled, resource);
+		}
+		if (isTraceLogging) {
+			log.exiting(sourceMethod, sourceMethod, css);
+		}
+		return css;
+	}
+
+	/**
+	 * Returns the cache of compiled LESS.  Used for unit testing.
+	 *
+	 * @return the compile cache, or null if caching is disabled
+	 */
+	LessCompileCache getCompileCache() {
+		return compileCache;
+	}
+
+	private static String digest(String css) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is required on all platforms
+			throw new RuntimeException(e);
+		}
+		return TypeUtil.byteArray2String(md.digest(css.getBytes("UTF-8"))); //$NON-NLS-1$
+	}
+
 	protected String processLess(String filename, String css) throws IOException {
 		final String sourceMethod = "processLess"; //$NON-NLS-1$
 		final boolean isTraceLogging = log.isLoggable(Level.FINER);
 		if (isTraceLogging) {
 			log.entering(sourceClass, sourceMethod, new Object[]{filename, css});
 		}
+		// The pool is replaced when the config is reloaded, so borrow from and
+		// release to the same pool
+		ThreadScopePool pool = getThreadScopes();
 		Context cx = Context.enter();
 		Scriptable threadScope = null;
 		try {
-			threadScope = getThreadScopes().poll(SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-			if (threadScope == null) {
-				throw new TimeoutException("Timeout waiting for thread scope"); //$NON-NLS-1$
-			}
+			threadScope = pool.borrow(cx, SCOPE_POOL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 			Scriptable scope = cx.newObject(threadScope);
 			scope.setParentScope(threadScope);
 			Scriptable options = cx.newObject(threadScope);
@@ -171,7 +288,7 @@ public class LessModuleBuilder extends CSSModuleBuilder {
 			throw new RuntimeException(e);
 		} finally {
 			if (threadScope != null) {
-				getThreadScopes().add(threadScope);
+				pool.release(threadScope);
 			}
 			Context.exit();
 		}
@@ -91,7 +91,13 @@ public class TextModuleBuilder implements IModuleBuilder {
 				);
 		sb.append(writer.toString());
 		sb.append(noTextAdorn ? "'" : "');"); //$NON-NLS-1$ //$NON-NLS-2$
-		return new ModuleBuild(sb.toString(), keyGens, null);
+		ModuleBuild build = new ModuleBuild(sb.toString(), keyGens, null);
+		// The output depends only on the module source, but subclasses may
+		// override getContentReader to read other resources
+		if (getClass() == TextModuleBuilder.class) {
+			build.setDependenciesTracked();
+		}
+		return build;
 	}
 
 	protected Reader getContentReader(String mid,	IResource resource,	HttpServletRequest request,	List<ICacheKeyGenerator> keyGens)	throws IOException {
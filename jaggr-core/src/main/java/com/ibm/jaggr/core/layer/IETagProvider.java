@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.layer;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Optional interface implemented by {@link ILayer} objects that can provide
+ * entity tags for their layer builds.  The aggregator uses the entity tag to
+ * respond to requests that specify the If-None-Match header.  Layers that
+ * don't implement this interface are validated using only the last modified
+ * time.
+ */
+public interface IETagProvider {
+
+	/**
+	 * Returns the strong entity tag of the layer build that would be returned
+	 * by {@link ILayer#getInputStream(HttpServletRequest, HttpServletResponse)}
+	 * for the request, or null if the layer build is not in the cache.  The
+	 * entity tag is obtained from the cached layer build without reading or
+	 * building the layer content, so this method may be used to respond to
+	 * conditional requests.
+	 *
+	 * @param request
+	 *            The http request object
+	 * @return the quoted entity tag, or null
+	 * @throws IOException
+	 */
+	public String getETag(HttpServletRequest request)
+			throws IOException;
+}
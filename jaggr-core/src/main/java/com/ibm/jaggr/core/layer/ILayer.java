@@ -63,6 +63,13 @@ public interface ILayer extends Serializable {
 	 */
 	public static final String BUILDFUTURESQUEUE_REQATTRNAME = ILayer.class.getName() + ".buildQueue"; //$NON-NLS-1$
 
+	/**
+	 * Name of request attribute specifying the number of modules in the layer
+	 * being built.  Used to prioritize module builds for smaller layers, which
+	 * complete sooner, ahead of builds for larger layers.
+	 */
+	public static final String MODULECOUNT_REQATTRNAME = ILayer.class.getName() + ".moduleCount"; //$NON-NLS-1$
+
 	/**
 	 * Object of type {@link Set}&lt;{@link String}&gt; specifying the set of dependent features.
 	 * Note that the set is not thread save, and should not be modified by asynchronous threads
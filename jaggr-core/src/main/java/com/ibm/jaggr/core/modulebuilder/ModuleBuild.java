@@ -21,9 +21,12 @@ import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.resource.IResource;
 
+import java.net.URI;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -37,6 +40,8 @@ public final class ModuleBuild {
 	private List<String> extraModules;
 	private List<ICacheKeyGenerator> keyGenerators;
 	private String error;
+	private Map<URI, Long> dependencies;
+	private boolean dependenciesTracked = false;
 
 	/**
 	 * Convenience constructor utilizing a null cache key generator and no
@@ -135,4 +140,52 @@ public final class ModuleBuild {
 		return extraModules == null ? Collections.<String>emptyList() : Collections.unmodifiableList(extraModules);
 	}
 
+	/**
+	 * Adds a resource, other than the module source, that the build output
+	 * depends on (e.g. a resource that was in-lined into the module).
+	 * <p>
+	 * Builds that are kept across server restarts are discarded if any of
+	 * their dependencies has been modified.
+	 *
+	 * @param uri
+	 *            the URI of the resource
+	 * @param lastModified
+	 *            the last-modified time of the resource when it was read
+	 */
+	public void addDependency(URI uri, long lastModified) {
+		if (dependencies == null) {
+			dependencies = new LinkedHashMap<URI, Long>();
+		}
+		dependencies.put(uri, lastModified);
+	}
+
+	/**
+	 * Returns the resources, other than the module source, that the build
+	 * output depends on, along with their last-modified times.
+	 *
+	 * @return the map of resource URIs to last-modified times
+	 */
+	public Map<URI, Long> getDependencies() {
+		return dependencies == null ? Collections.<URI, Long>emptyMap() : Collections.unmodifiableMap(dependencies);
+	}
+
+	/**
+	 * Indicates that the build output depends only on the module source, the
+	 * request attributes used by the cache key generators and the resources
+	 * reported with {@link #addDependency(URI, long)}.  Only builds that are
+	 * marked this way are kept across server restarts.
+	 */
+	public void setDependenciesTracked() {
+		dependenciesTracked = true;
+	}
+
+	/**
+	 * @return true if all of the resources that the build output depends on
+	 *         have been reported
+	 * @see #setDependenciesTracked()
+	 */
+	public boolean isDependenciesTracked() {
+		return dependenciesTracked;
+	}
+
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.cachekeygenerator.KeyGenUtil;
 import com.ibm.jaggr.core.module.IModule;
 import com.ibm.jaggr.core.modulebuilder.ModuleBuildFuture;
+import com.ibm.jaggr.core.util.DeflateSegment;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -42,6 +43,7 @@ public class ModuleBuildReader extends Reader {
 	private List<ICacheKeyGenerator> keyGenerators;
 	private final boolean isScript;
 	private final String error;
+	private DeflateSegment deflateSegment = null;
 
 	/**
 	 * Constructor for a Build object specifying a reader, key generator
@@ -132,6 +134,29 @@ public class ModuleBuildReader extends Reader {
 		reader.close();
 	}
 
+	/**
+	 * Returns the pre-compressed form of the content of this reader, or null
+	 * if not available. Layer builders that are writing gzip encoded output
+	 * may splice the segment into the output instead of reading and
+	 * compressing the content of this reader.
+	 *
+	 * @return the deflate segment for the reader content, or null
+	 */
+	public DeflateSegment getDeflateSegment() {
+		return deflateSegment;
+	}
+
+	/**
+	 * Sets the pre-compressed form of the content of this reader. The
+	 * segment must contain the UTF-8 encoded reader content.
+	 *
+	 * @param deflateSegment
+	 *            the deflate segment for the reader content
+	 */
+	public void setDeflateSegment(DeflateSegment deflateSegment) {
+		this.deflateSegment = deflateSegment;
+	}
+
 	/**
 	 * Adds the specified future to the list of extra builds.
 	 * <p>
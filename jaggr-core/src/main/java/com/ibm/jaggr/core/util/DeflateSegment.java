@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A standalone segment of raw deflate data, together with the CRC32 and length
+ * of the uncompressed data. The compressed data ends with a sync flush, so it
+ * is byte aligned and does not contain a final block. It doesn't refer back to
+ * any data that comes before it. Segments can therefore be spliced into a
+ * deflate stream after the stream has been sync flushed and reset. The CRC of
+ * the combined data is computed with {@link #crc32Combine(long, long, long)}.
+ * <p>
+ * Sync flushing requires the flush mode variant of
+ * {@link Deflater#deflate(byte[], int, int)} that was added in Java 7. It is
+ * invoked reflectively so that this class loads on Java 6.
+ * {@link #isSupported()} returns false when the method is not available.
+ */
+public class DeflateSegment {
+
+	/** Value of {@code Deflater.SYNC_FLUSH} */
+	private static final int SYNC_FLUSH = 2;
+
+	private static final Method deflateWithFlush;
+
+	static {
+		Method method = null;
+		try {
+			method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class); //$NON-NLS-1$
+		} catch (NoSuchMethodException e) {
+			// Pre Java 7.  Sync flush not supported.
+		}
+		deflateWithFlush = method;
+	}
+
+	private final byte[] data;
+	private final long crc;
+	private final long length;
+
+	private DeflateSegment(byte[] data, long crc, long length) {
+		this.data = data;
+		this.crc = crc;
+		this.length = length;
+	}
+
+	/**
+	 * @return true if deflate segments can be created on this platform
+	 */
+	public static boolean isSupported() {
+		return deflateWithFlush != null;
+	}
+
+	/**
+	 * Compresses {@code bytes} into a new deflate segment.
+	 *
+	 * @param bytes
+	 *            the uncompressed data
+	 * @param level
+	 *            the compression level
+	 * @return the new segment
+	 * @throws IOException
+	 */
+	public static DeflateSegment create(byte[] bytes, int level) throws IOException {
+		Deflater def = new Deflater(level, true);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 4 + 64);
+			byte[] buf = new byte[4096];
+			def.setInput(bytes);
+			while (!def.needsInput()) {
+				int len = def.deflate(buf, 0, buf.length);
+				bos.write(buf, 0, len);
+			}
+			syncFlush(def, buf, bos);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			return new DeflateSegment(bos.toByteArray(), crc.getValue(), bytes.length);
+		} finally {
+			def.end();
+		}
+	}
+
+	/**
+	 * Flushes all pending output from {@code def} to {@code out} using a sync
+	 * flush, leaving the output byte aligned.
+	 *
+	 * @param def
+	 *            the deflater
+	 * @param buf
+	 *            the output buffer to use
+	 * @param out
+	 *            the output stream
+	 * @throws IOException
+	 * @throws UnsupportedOperationException
+	 *             if {@link #isSupported()} returns false
+	 */
+	public static void syncFlush(Deflater def, byte[] buf, OutputStream out) throws IOException {
+		if (deflateWithFlush == null) {
+			throw new UnsupportedOperationException();
+		}
+		int len;
+		do {
+			try {
+				len = (Integer)deflateWithFlush.invoke(def, buf, 0, buf.length, SYNC_FLUSH);
+			} catch (IllegalAccessException e) {
+				throw new IOException(e.getMessage(), e);
+			} catch (InvocationTargetException e) {
+				throw new IOException(e.getMessage(), e.getCause());
+			}
+			out.write(buf, 0, len);
+			// A full output buffer means that there may be more output pending
+		} while (len == buf.length);
+	}
+
+	/**
+	 * @return the compressed data. Callers must not modify the returned array.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the CRC32 of the uncompressed data
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return the length of the uncompressed data
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the CRC32 of the concatenation of two blocks of data, given the
+	 * CRC32 of each block and the length of the second block. This is a port of
+	 * zlib's {@code crc32_combine}.
+	 *
+	 * @param crc1
+	 *            the CRC32 of the first block
+	 * @param crc2
+	 *            the CRC32 of the second block
+	 * @param len2
+	 *            the length of the second block
+	 * @return the CRC32 of the combined data
+	 */
+	public static long crc32Combine(long crc1, long crc2, long len2) {
+		if (len2 <= 0) {
+			return crc1;
+		}
+		long[] even = new long[32];	// even-power-of-two zeros operator
+		long[] odd = new long[32];	// odd-power-of-two zeros operator
+
+		// put operator for one zero bit in odd
+		odd[0] = 0xedb88320L;	// CRC-32 polynomial
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		// put operator for two zero bits in even
+		gf2MatrixSquare(even, odd);
+		// put operator for four zero bits in odd
+		gf2MatrixSquare(odd, even);
+
+		// apply len2 zeros to crc1 (first square will put the operator for one
+		// zero byte, eight zero bits, in even)
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			len2 >>= 1;
+			if (len2 == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if ((len2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			len2 >>= 1;
+		} while (len2 != 0);
+
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] mat, long vec) {
+		long sum = 0;
+		for (int i = 0; vec != 0; i++, vec >>>= 1) {
+			if ((vec & 1) != 0) {
+				sum ^= mat[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] mat) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(mat, mat[n]);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.util;
+
+/**
+ * Count-min sketch that estimates how often keys have been seen.  Each key
+ * maps to one four bit counter in each of four rows, and the estimate is the
+ * minimum of the key's counters, so estimates can be too high because of hash
+ * collisions but are never too low.
+ * <p>
+ * Counters saturate at 15.  To keep the estimates biased toward recent
+ * activity, all of the counters are halved after a sample period proportional
+ * to the size of the sketch.
+ */
+public class FrequencySketch {
+
+	static final int MAX_COUNT = 15;
+
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	/** Each long holds sixteen four bit counters.  Row i uses counters 4i through 4i+3 */
+	private final long[] table;
+
+	private final int tableMask;
+
+	private final int sampleSize;
+
+	/** Number of increments since the last reset.  Guarded by this */
+	private int size = 0;
+
+	/**
+	 * @param maximumSize
+	 *            the expected maximum number of distinct keys being tracked
+	 */
+	public FrequencySketch(int maximumSize) {
+		int length = Integer.highestOneBit(Math.max(16, Math.min(maximumSize, 1 << 30)) - 1) << 1;
+		table = new long[length];
+		tableMask = length - 1;
+		sampleSize = 10 * length;
+	}
+
+	/**
+	 * Records an occurrence of the specified key
+	 *
+	 * @param key
+	 *            the key
+	 */
+	public synchronized void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int shift = offsetOf(hash, i);
+			if (((table[index] >>> shift) & 0xfL) < MAX_COUNT) {
+				table[index] += 1L << shift;
+				added = true;
+			}
+		}
+		if (added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Returns the estimated number of occurrences of the specified key
+	 *
+	 * @param key
+	 *            the key
+	 * @return the estimated frequency, between 0 and 15
+	 */
+	public synchronized int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int result = MAX_COUNT;
+		for (int i = 0; i < 4; i++) {
+			int count = (int)((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL);
+			result = Math.min(result, count);
+		}
+		return result;
+	}
+
+	/**
+	 * Halves all of the counters
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size /= 2;
+	}
+
+	private int indexOf(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return (int)h & tableMask;
+	}
+
+	private int offsetOf(int hash, int row) {
+		// Bit offset of the counter for this row within the selected long
+		return ((row << 2) + ((hash >>> (row << 3)) & 3)) << 2;
+	}
+
+	private int spread(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
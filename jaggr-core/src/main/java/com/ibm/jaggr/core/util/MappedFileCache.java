@@ -0,0 +1,209 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.util;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bounded cache of read-only memory mapped regions for cache files.  Each file
+ * is mapped once and the mapping is shared by all of the input streams opened
+ * for the file, so reading a file doesn't require opening it or copying its
+ * contents through the file system read path.  Least recently used mappings
+ * are dropped when the total size of the mapped files exceeds the capacity.
+ * <p>
+ * A mapping is released by the JVM when it is no longer referenced by the
+ * cache or by any input stream, so callers should {@link #remove(File)} the
+ * mapping for a file before deleting the file.
+ */
+public class MappedFileCache {
+
+	private static final int KB = 1024;
+
+	private final ConcurrentLinkedHashMap<String, MappedByteBuffer> map;
+
+	private final long capacity;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of bytes of mapped files
+	 */
+	public MappedFileCache(long capacity) {
+		this.capacity = capacity;
+		map = new ConcurrentLinkedHashMap.Builder<String, MappedByteBuffer>()
+				.maximumWeightedCapacity(Math.max(1, capacity / KB))
+				.weigher(new Weigher<MappedByteBuffer>() {
+					@Override
+					public int weightOf(MappedByteBuffer buffer) {
+						return Math.max(1, (buffer.capacity() + KB - 1) / KB);
+					}
+				}).build();
+	}
+
+	/**
+	 * @return the maximum number of bytes of mapped files
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of mapped files
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns an input stream for reading the specified file from its mapped
+	 * region, mapping the file if it isn't already mapped.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the input stream, or null if the file is too large to be mapped
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(File file) throws IOException {
+		String key = file.getAbsolutePath();
+		MappedByteBuffer buffer = map.get(key);
+		if (buffer == null) {
+			long length = file.length();
+			if (length > capacity || length > Integer.MAX_VALUE) {
+				return null;
+			}
+			// Benign race.  Concurrent callers may map the same file.
+			RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			try {
+				FileChannel channel = raf.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				raf.close();
+			}
+			MappedByteBuffer existing = map.putIfAbsent(key, buffer);
+			if (existing != null) {
+				buffer = existing;
+			}
+		}
+		return new ByteBufferInputStream(buffer.duplicate());
+	}
+
+	/**
+	 * Drops the mapping for the specified file
+	 *
+	 * @param file
+	 *            the file
+	 */
+	public void remove(File file) {
+		map.remove(file.getAbsolutePath());
+	}
+
+	/**
+	 * Drops all mappings
+	 */
+	public void clear() {
+		map.clear();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("MappedFileCache(") //$NON-NLS-1$
+		.append("capacity:").append(capacity).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("files:").append(size()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Input stream that reads from a private view of a shared buffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read()
+		 */
+		@Override
+		public int read() throws IOException {
+			ByteBuffer buffer = checkOpen();
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = checkOpen();
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#skip(long)
+		 */
+		@Override
+		public long skip(long n) throws IOException {
+			ByteBuffer buffer = checkOpen();
+			int skipped = (int)Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#available()
+		 */
+		@Override
+		public int available() {
+			ByteBuffer buffer = this.buffer;
+			return buffer == null ? 0 : buffer.remaining();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#close()
+		 */
+		@Override
+		public void close() {
+			// Drop the reference so the mapping can be released
+			buffer = null;
+		}
+
+		private ByteBuffer checkOpen() throws IOException {
+			ByteBuffer buffer = this.buffer;
+			if (buffer == null) {
+				throw new IOException("stream closed"); //$NON-NLS-1$
+			}
+			return buffer;
+		}
+	}
+}
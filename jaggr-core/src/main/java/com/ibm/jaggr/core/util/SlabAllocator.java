@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates off-heap storage for cached build output. Storage is carved from
+ * large direct {@link ByteBuffer} slabs that are divided into fixed size
+ * chunks. Slabs are allocated on demand, up to the capacity of the allocator,
+ * and are never released. Chunks that are freed go back on a free list and
+ * are reused by later allocations.
+ * <p>
+ * An {@link Allocation} holds the chunks for one piece of data. The chunks are
+ * returned to the free list when the allocation has been freed and all of the
+ * input streams obtained from it have been closed.
+ */
+public class SlabAllocator {
+
+	public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+	private final int slabSize;
+	private final int chunkSize;
+	private final int maxSlabs;
+
+	private final Queue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/** Number of slabs allocated.  Guarded by this */
+	private int slabCount = 0;
+
+	/** Number of bytes in chunks that are currently in use */
+	private final AtomicLong used = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            the maximum number of bytes of off-heap storage
+	 */
+	public SlabAllocator(long capacity) {
+		this(capacity, (int)Math.min(capacity, DEFAULT_SLAB_SIZE), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param capacity
+	 *            the maximum number of bytes of off-heap storage
+	 * @param slabSize
+	 *            the size of each slab
+	 * @param chunkSize
+	 *            the size of each chunk.  Must not be greater than {@code slabSize}
+	 */
+	public SlabAllocator(long capacity, int slabSize, int chunkSize) {
+		if (chunkSize <= 0 || slabSize < chunkSize) {
+			throw new IllegalArgumentException();
+		}
+		this.chunkSize = chunkSize;
+		this.slabSize = slabSize - slabSize % chunkSize;
+		this.maxSlabs = (int)Math.min(Integer.MAX_VALUE, capacity / this.slabSize);
+	}
+
+	/**
+	 * @return the maximum number of bytes of off-heap storage
+	 */
+	public long getCapacity() {
+		return (long)maxSlabs * slabSize;
+	}
+
+	/**
+	 * @return the number of bytes in chunks that are currently in use
+	 */
+	public long getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * Copies {@code data} to off-heap storage.
+	 *
+	 * @param data
+	 *            the data to copy
+	 * @return the new allocation, or null if there isn't enough free space
+	 */
+	public Allocation allocate(byte[] data) {
+		int numChunks = (data.length + chunkSize - 1) / chunkSize;
+		ByteBuffer[] chunks = new ByteBuffer[numChunks];
+		for (int i = 0; i < numChunks; i++) {
+			ByteBuffer chunk = takeChunk();
+			if (chunk == null) {
+				// Out of space.  Return the chunks we got.
+				for (int j = 0; j < i; j++) {
+					returnChunk(chunks[j]);
+				}
+				return null;
+			}
+			int offset = i * chunkSize;
+			chunk.clear();
+			chunk.put(data, offset, Math.min(chunkSize, data.length - offset));
+			chunks[i] = chunk;
+		}
+		return new Allocation(chunks, data.length);
+	}
+
+	private ByteBuffer takeChunk() {
+		ByteBuffer chunk = freeChunks.poll();
+		if (chunk == null) {
+			synchronized (this) {
+				chunk = freeChunks.poll();
+				if (chunk == null && slabCount < maxSlabs) {
+					ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+					slabCount++;
+					for (int pos = chunkSize; pos < slabSize; pos += chunkSize) {
+						slab.limit(pos + chunkSize).position(pos);
+						freeChunks.add(slab.slice());
+					}
+					slab.limit(chunkSize).position(0);
+					chunk = slab.slice();
+				}
+			}
+		}
+		if (chunk != null) {
+			used.addAndGet(chunkSize);
+		}
+		return chunk;
+	}
+
+	private void returnChunk(ByteBuffer chunk) {
+		used.addAndGet(-chunkSize);
+		freeChunks.add(chunk);
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuffer("SlabAllocator(") //$NON-NLS-1$
+		.append("capacity:").append(getCapacity()).append(",") //$NON-NLS-1$ //$NON-NLS-2$
+		.append("used:").append(getUsed()).append(")").toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Off-heap storage for one piece of data.
+	 */
+	public class Allocation {
+		private final ByteBuffer[] chunks;
+		private final int length;
+		private final AtomicBoolean freed = new AtomicBoolean(false);
+
+		/** One reference for the owner plus one for each open input stream */
+		private final AtomicInteger refs = new AtomicInteger(1);
+
+		private Allocation(ByteBuffer[] chunks, int length) {
+			this.chunks = chunks;
+			this.length = length;
+		}
+
+		/**
+		 * @return the length of the data
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns an input stream for reading the data.  The stream must be
+		 * closed for the storage to be reclaimed after the allocation is freed.
+		 *
+		 * @return the input stream, or null if the allocation has been freed
+		 */
+		public InputStream getInputStream() {
+			while (true) {
+				int count = refs.get();
+				if (count == 0) {
+					return null;
+				}
+				if (refs.compareAndSet(count, count + 1)) {
+					return new AllocationInputStream();
+				}
+			}
+		}
+
+		/**
+		 * Frees the allocation.  The storage is reclaimed when all of the
+		 * input streams for the allocation have been closed.
+		 */
+		public void free() {
+			if (freed.compareAndSet(false, true)) {
+				release();
+			}
+		}
+
+		private void release() {
+			if (refs.decrementAndGet() == 0) {
+				for (ByteBuffer chunk : chunks) {
+					returnChunk(chunk);
+				}
+			}
+		}
+
+		private class AllocationInputStream extends InputStream {
+			private int index = -1;
+			private ByteBuffer current = null;
+			private boolean closed = false;
+
+			/* (non-Javadoc)
+			 * @see java.io.InputStream#read()
+			 */
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			/* (non-Javadoc)
+			 * @see java.io.InputStream#read(byte[], int, int)
+			 */
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (closed) {
+					throw new IOException("stream closed"); //$NON-NLS-1$
+				}
+				if (len == 0) {
+					return 0;
+				}
+				while (current == null || !current.hasRemaining()) {
+					if (++index >= chunks.length) {
+						return -1;
+					}
+					// Use a duplicate so that concurrent readers don't share position
+					current = chunks[index].duplicate();
+					current.clear();
+					current.limit(Math.min(chunkSize, length - index * chunkSize));
+				}
+				int n = Math.min(len, current.remaining());
+				current.get(b, off, n);
+				return n;
+			}
+
+			/* (non-Javadoc)
+			 * @see java.io.InputStream#available()
+			 */
+			@Override
+			public int available() {
+				int pos = index < 0 ? 0 : index * chunkSize + (current != null ? current.position() : 0);
+				return closed ? 0 : length - pos;
+			}
+
+			/* (non-Javadoc)
+			 * @see java.io.InputStream#close()
+			 */
+			@Override
+			public void close() {
+				if (!closed) {
+					closed = true;
+					release();
+				}
+			}
+		}
+	}
+}
@@ -27,6 +27,7 @@ import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -100,4 +101,34 @@ public class CacheManagerImplTest {
 			}
 		});
 	}
+
+	@Test
+	public void testShareCacheFiles() throws Exception {
+		final String[] filenames = new String[3];
+		final ICacheManager cacheMgr = mockAggregator.getCacheManager();
+		mockAggregator.getOptions().setOption(CacheManagerImpl.OPTION_SHARE_CACHE_FILES, "true");
+		String[] contents = new String[]{"Hello World!", "Hello World!", "Goodbye World!"};
+		for (int i = 0; i < contents.length; i++) {
+			final int idx = i;
+			cacheMgr.createCacheFileAsync("test.", new ByteArrayInputStream(contents[i].getBytes("UTF-8")), new CreateCompletionCallback() {
+				@Override public void completed(String filename, Exception e) {
+					Assert.assertNull(e);
+					filenames[idx] = filename;
+				}
+			});
+		}
+		// Files with identical content are shared
+		Assert.assertEquals(filenames[0], filenames[1]);
+		Assert.assertFalse(filenames[0].equals(filenames[2]));
+		Assert.assertTrue(new File(cacheMgr.getCacheDir(), filenames[0]).exists());
+		Assert.assertTrue(new File(cacheMgr.getCacheDir(), filenames[2]).exists());
+
+		// Shared file is deleted only when the last reference is released
+		cacheMgr.deleteFileDelayed(filenames[0]);
+		Assert.assertTrue(new File(cacheMgr.getCacheDir(), filenames[0]).exists());
+		cacheMgr.deleteFileDelayed(filenames[1]);
+		Assert.assertFalse(new File(cacheMgr.getCacheDir(), filenames[0]).exists());
+		cacheMgr.deleteFileDelayed(filenames[2]);
+		Assert.assertFalse(new File(cacheMgr.getCacheDir(), filenames[2]).exists());
+	}
 }
@@ -823,6 +823,39 @@ public class ConfigTest {
 
 		features = cfg.getDefaultFeatures("http://server.com/");
 		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
+
+		// Function values are cached by URL
+		Assert.assertEquals(2, cfg.getDefaultFeaturesCache().size());
+		features.put("foo", true);
+		features = cfg.getDefaultFeatures("http://server.com/");
+		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
+		Assert.assertEquals(2, cfg.getDefaultFeaturesCache().size());
+		features = cfg.getDefaultFeatures(null);
+		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
+		Assert.assertEquals(3, cfg.getDefaultFeaturesCache().size());
+
+		config = "{has:{foo:function(url){return true;}, bar:false}, hasCacheSize:1}";
+		cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		cfg.getDefaultFeatures("http://server.com/?a");
+		features = cfg.getDefaultFeatures("http://server.com/?b");
+		Assert.assertTrue(features.isFeature("foo"));
+		Assert.assertTrue(features.contains("bar") && !features.isFeature("bar"));
+		Assert.assertEquals(1, cfg.getDefaultFeaturesCache().size());
+
+		config = "{has:{foo:function(url){return true;}}, hasCacheSize:0}";
+		cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		Assert.assertTrue(cfg.getDefaultFeatures(null).isFeature("foo"));
+		Assert.assertNull(cfg.getDefaultFeaturesCache());
+
+		// Regular expressions are evaluated in Java
+		config = "{has:{foo:/[?&]foo=/i, bar:/^https:/}}";
+		cfg = new ConfigImpl(mockAggregator, tmpDir, config);
+		Assert.assertNull(cfg.getDefaultFeaturesCache());
+		features = cfg.getDefaultFeatures("http://server.com/?FOO=1");
+		Assert.assertTrue(features.isFeature("foo"));
+		Assert.assertTrue(features.contains("bar") && !features.isFeature("bar"));
+		features = cfg.getDefaultFeatures(null);
+		Assert.assertTrue(features.contains("foo") && !features.isFeature("foo"));
 	}
 
 	@Test
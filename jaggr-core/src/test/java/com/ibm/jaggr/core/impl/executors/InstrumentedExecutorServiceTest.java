@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class InstrumentedExecutorServiceTest {
+
+	@Test
+	public void testStats() throws Exception {
+		InstrumentedExecutorService executor = new InstrumentedExecutorService("test", //$NON-NLS-1$
+				Executors.newSingleThreadExecutor());
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			Future<?> first = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			started.await();
+			Future<?> second = executor.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+			// The second task waits behind the first
+			Assert.assertEquals(1, executor.getActiveCount());
+			Assert.assertEquals(1, executor.getQueueDepth());
+			Assert.assertEquals(0, executor.getCompletedTaskCount());
+			Assert.assertEquals(1, executor.getPoolSize());
+
+			Thread.sleep(20);
+			release.countDown();
+			first.get();
+			second.get();
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+			Assert.assertEquals(0, executor.getActiveCount());
+			Assert.assertEquals(0, executor.getQueueDepth());
+			Assert.assertEquals(2, executor.getCompletedTaskCount());
+			Assert.assertTrue(executor.getMaxWaitTime() >= 20);
+			Assert.assertTrue(executor.getAverageWaitTime() >= 10);
+			Assert.assertTrue(executor.getAverageRunTime() >= 10);
+			Assert.assertTrue(executor.toString().startsWith("test(")); //$NON-NLS-1$
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PriorityBuildSchedulerTest {
+
+	@Test
+	public void testPriorityOrder() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PriorityBuildScheduler scheduler = new PriorityBuildScheduler(executor);
+			final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+			// Block the executor thread so that the remaining tasks queue up
+			final CountDownLatch release = new CountDownLatch(1);
+			Future<String> blocker = scheduler.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					release.await();
+					return "blocker"; //$NON-NLS-1$
+				}
+			}, 0);
+			while (scheduler.getQueueDepth() > 0) {
+				Thread.sleep(10);
+			}
+
+			Future<String> priming = scheduler.submit(newTask("priming", order), 10000); //$NON-NLS-1$
+			Future<String> large = scheduler.submit(newTask("large", order), 2000); //$NON-NLS-1$
+			Future<String> small = scheduler.submit(newTask("small", order), 100); //$NON-NLS-1$
+			Future<String> shared = scheduler.submit(newTask("shared", order), 2050); //$NON-NLS-1$
+			Assert.assertEquals(4, scheduler.getQueueDepth());
+
+			// Boosting moves the shared build ahead of the large layer build
+			Assert.assertTrue(PriorityBuildScheduler.boost(shared));
+			Assert.assertFalse(PriorityBuildScheduler.boost(null));
+			Assert.assertFalse(PriorityBuildScheduler.boost(blocker));
+
+			release.countDown();
+			Assert.assertEquals("blocker", blocker.get()); //$NON-NLS-1$
+			Assert.assertEquals("priming", priming.get()); //$NON-NLS-1$
+			Assert.assertEquals("large", large.get()); //$NON-NLS-1$
+			Assert.assertEquals("small", small.get()); //$NON-NLS-1$
+			Assert.assertEquals("shared", shared.get()); //$NON-NLS-1$
+			Assert.assertEquals(Arrays.asList("small", "shared", "large", "priming"), order); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			Assert.assertEquals(0, scheduler.getQueueDepth());
+
+			// Tasks that have already run can't be boosted
+			Assert.assertFalse(PriorityBuildScheduler.boost(shared));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Callable<String> newTask(final String name, final List<String> order) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				order.add(name);
+				return name;
+			}
+		};
+	}
+}
@@ -205,6 +205,12 @@ public class LayerBuilderTest {
 		System.out.println(output);
 		Assert.assertEquals("[script1script2(\"<m1>foo<m1>\",\"<m2>bar<m2>\")]", output);
 
+		// Same layer written directly to a writer
+		builder = new TestLayerBuilder(mockRequest, keyGens, moduleList, content);
+		StringWriter writer = new StringWriter();
+		builder.build(writer);
+		Assert.assertEquals(output, writer.toString());
+
 		// Test developmentMode and showFilenames
 		IOptions options = mockAggregator.getOptions();
 		options.setOption("developmentMode", "true");
@@ -473,7 +479,7 @@ public class LayerBuilderTest {
 				return result;
 			}
 			@Override
-			protected void processReader(ModuleBuildReader reader, StringBuffer sb) throws IOException {
+			protected void processReader(ModuleBuildReader reader, Writer sb) throws IOException {
 				super.processReader(reader, sb);
 				@SuppressWarnings("unchecked")
 				Set<String> dependentFeatures = (Set<String>)mockRequest.getAttribute(ILayer.DEPENDENT_FEATURES);
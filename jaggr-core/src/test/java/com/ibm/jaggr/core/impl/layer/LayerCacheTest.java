@@ -57,6 +57,8 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -287,6 +289,76 @@ public class LayerCacheTest {
 		Assert.assertEquals(50 * 1024 * 1024, layerCache.getMaxCapacity());
 	}
 
+	@Test
+	public void testTinyLFUPolicy() throws Exception {
+		List<InitParams.InitParam> initParams = new LinkedList<InitParams.InitParam>();
+		initParams.add(new InitParams.InitParam(InitParams.MAXLAYERCACHECAPACITY_MB_INITPARAM, "1"));
+		createMockObjects(initParams);
+		LayerCacheImpl layerCache = new LayerCacheImpl(mockAggregator);
+		layerCache.setAggregator(mockAggregator);
+		Assert.assertEquals(LayerCachePolicy.LRU, layerCache.getPolicy().getName());
+		// With the LRU policy, a one-off build evicts the LRU entry
+		LayerBuildsAccessor accessor = populatePolicyTestCache(layerCache);
+		Assert.assertNull(accessor.putIfAbsent("cold", newPolicyTestEntry(), false));
+		Assert.assertNull(layerCache.getLayerBuildMap().get("1-hot1"));
+		Assert.assertEquals(0, layerCache.getNumRejections());
+
+		initParams.add(new InitParams.InitParam(InitParams.LAYERCACHEPOLICY_INITPARAM, "tinylfu"));
+		layerCache = new LayerCacheImpl(mockAggregator);
+		layerCache.setAggregator(mockAggregator);
+		Assert.assertEquals(LayerCachePolicy.TINYLFU, layerCache.getPolicy().getName());
+		accessor = populatePolicyTestCache(layerCache);
+		// A one-off build is not admitted
+		CacheEntry entry = newPolicyTestEntry();
+		Assert.assertNull(accessor.putIfAbsent("cold", entry, false));
+		Assert.assertTrue(entry.isDeleted());
+		Assert.assertEquals(2, layerCache.getLayerBuildMap().size());
+		Assert.assertNotNull(layerCache.getLayerBuildMap().get("1-hot1"));
+		Assert.assertEquals(1, layerCache.getNumRejections());
+		// Once it's requested more often than the LRU entry, it's admitted
+		for (int i = 0; i < 2; i++) {
+			Assert.assertNull(accessor.putIfAbsent("cold", newPolicyTestEntry(), false));
+		}
+		Assert.assertEquals(3, layerCache.getNumRejections());
+		entry = newPolicyTestEntry();
+		Assert.assertNull(accessor.putIfAbsent("cold", entry, false));
+		Assert.assertFalse(entry.isDeleted());
+		Assert.assertEquals(3, layerCache.getNumRejections());
+		Assert.assertSame(entry, layerCache.getLayerBuildMap().get("1-cold"));
+		Assert.assertNull(layerCache.getLayerBuildMap().get("1-hot1"));
+		Assert.assertNotNull(layerCache.getLayerBuildMap().get("1-hot2"));
+
+		Writer writer = new StringWriter();
+		layerCache.dump(writer, null);
+		Assert.assertTrue(writer.toString().contains("Layer cache policy = tinylfu"));
+		Assert.assertTrue(writer.toString().contains("Number of layer cache admission rejections = 3"));
+	}
+
+	/*
+	 * Adds two 400KB entries to the 1MB cache and requests each of them three times
+	 */
+	@SuppressWarnings("unchecked")
+	private LayerBuildsAccessor populatePolicyTestCache(LayerCacheImpl layerCache) {
+		LayerBuildsAccessor accessor = new LayerBuildsAccessor(1,
+				(ConcurrentMap<String, CacheEntry>)layerCache.getLayerBuildMap(),
+				mockAggregator.getCacheManager(), new ReentrantReadWriteLock(), null, layerCache);
+		for (String key : new String[]{"hot1", "hot2"}) {
+			CacheEntry entry = newPolicyTestEntry();
+			Assert.assertNull(accessor.putIfAbsent(key, entry, false));
+			for (int i = 0; i < 2; i++) {
+				Assert.assertSame(entry, accessor.putIfAbsent(key, newPolicyTestEntry(), false));
+			}
+		}
+		Assert.assertEquals(2, layerCache.getLayerBuildMap().size());
+		return accessor;
+	}
+
+	private CacheEntry newPolicyTestEntry() {
+		CacheEntry entry = new CacheEntry(1, "layer", 0);
+		entry.setBytes(new byte[400 * 1024]);
+		return entry;
+	}
+
 	private void createMockObjects(List<InitParams.InitParam> initParams) throws Exception {
 		final Map<String, String[]> testDepMap = TestUtils.createTestDepMap();
 		IAggregator easyMockAggregator = TestUtils.createMockAggregator(configRef, tmpdir, initParams, Proxy.class, null);
@@ -23,7 +23,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.ibm.jaggr.core.BuildTimeoutException;
 import com.ibm.jaggr.core.IAggregator;
 import com.ibm.jaggr.core.IPlatformServices;
 import com.ibm.jaggr.core.IServiceReference;
@@ -32,6 +34,7 @@ import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.config.IConfigScopeModifier;
 import com.ibm.jaggr.core.deps.IDependencies;
 import com.ibm.jaggr.core.impl.AggregatorLayerListener;
+import com.ibm.jaggr.core.impl.cache.CacheManagerImpl;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
 import com.ibm.jaggr.core.impl.module.NotFoundModule;
 import com.ibm.jaggr.core.impl.transport.AbstractHttpTransport;
@@ -45,9 +48,12 @@ import com.ibm.jaggr.core.test.TestUtils;
 import com.ibm.jaggr.core.test.TestUtils.Ref;
 import com.ibm.jaggr.core.transport.IHttpTransport;
 import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflateSegment;
 import com.ibm.jaggr.core.util.Features;
+import com.ibm.jaggr.core.util.SlabAllocator;
 
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.SettableFuture;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -55,6 +61,7 @@ import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -83,6 +90,7 @@ import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -521,6 +529,50 @@ public class LayerTest extends EasyMock {
 		assertEquals("Last modifieds don't match", testLastMod, configRef.get().lastModified());
 	}
 
+	/**
+	 * Test method for {@link com.ibm.jaggr.core.impl.layer.LayerImpl#getETag(HttpServletRequest)}.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetETag() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}, packages:[{name:'foo', location:'foo'}]}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/b", "p1/a"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		// No entity tag until the layer has been built
+		assertNull(layer.getETag(mockRequest));
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		in.close();
+		String etag = layer.getETag(mockRequest);
+		assertNotNull(etag);
+		assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+		assertEquals(etag, layer.getETag(mockRequest));
+
+		// The gzip encoded build is a different representation
+		requestHeaders.put("Accept-Encoding", "gzip");
+		assertNull(layer.getETag(mockRequest));
+		in = layer.getInputStream(mockRequest, mockResponse);
+		in.close();
+		String gzipEtag = layer.getETag(mockRequest);
+		assertNotNull(gzipEtag);
+		assertFalse(etag.equals(gzipEtag));
+		// Both tags are computed from the uncompressed layer
+		assertEquals(etag, gzipEtag.substring(0, gzipEtag.length()-1) + "-identity\"");
+		requestHeaders.remove("Accept-Encoding");
+		assertEquals(etag, layer.getETag(mockRequest));
+
+		// No entity tag once the build has been removed from the cache
+		mockAggregator.getCacheManager().clearCache();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		assertNull(layer.getETag(mockRequest));
+	}
+
 
 	/**
 	 * Test method for {@link com.ibm.jaggr.core.impl.layer.LayerImpl#toString()}.
@@ -797,6 +849,347 @@ public class LayerTest extends EasyMock {
 		assertEquals("cache file size error", zipped.length + unzipped.length, TestUtils.getDirListSize(cacheDir, layerFilter));
 	}
 
+	@Test
+	public void spliceGzipTests() throws Exception {
+		Assume.assumeTrue(DeflateSegment.isSupported());
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1", "p1/hello.txt"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] unzipped = bos.toByteArray();
+		assertEquals("[update_lastmod1, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		String etag = layer.getETag(mockRequest);
+
+		// Build the gzipped layer from scratch with pre-compressed module builds
+		mockAggregator.getOptions().setOption(LayerImpl.OPTION_SPLICE_GZIP_MODULES, "true");
+		mockAggregator.getCacheManager().clearCache();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		requestHeaders.put("Accept-Encoding", "gzip");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] zipped = bos.toByteArray();
+		assertEquals("[zip_splice, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertEquals(zipped.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(zipped)), bos);
+		assertArrayEquals(unzipped, bos.toByteArray());
+		// The entity tag is computed from the uncompressed layer, so it doesn't
+		// depend on how the layer was compressed
+		assertEquals(etag.replace("-identity", ""), layer.getETag(mockRequest));
+
+		// Module builds come from the module cache this time
+		mockAggregator.getCacheManager().getCache().getLayers().clear();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals("[zip_splice, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertArrayEquals(zipped, bos.toByteArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void compressedLayerCacheTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1", "p1/hello.txt"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		// Get the unzipped layer without the option for comparison
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] unzipped = bos.toByteArray();
+		assertEquals("[update_lastmod1, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+
+		mockAggregator.getOptions().setOption(LayerImpl.OPTION_COMPRESSED_LAYER_CACHE, "true");
+		mockAggregator.getCacheManager().clearCache();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		requestHeaders.put("Accept-Encoding", "gzip");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] zipped = bos.toByteArray();
+		assertEquals("[zip, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertEquals(zipped.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(zipped)), bos);
+		assertArrayEquals(unzipped, bos.toByteArray());
+
+		// Identity request is served from the compressed build
+		requestHeaders.remove("Accept-Encoding");
+		responseAttributes.clear();
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		assertArrayEquals(unzipped, bos.toByteArray());
+		assertEquals(unzipped.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+
+		// Only the compressed build is cached
+		assertEquals(1, cacheMap.size());
+		assertEquals(zipped.length, cacheMap.weightedSize());
+
+		// Identity request for a new layer builds it compressed
+		mockAggregator.getCacheManager().clearCache();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals("[zip, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertArrayEquals(unzipped, bos.toByteArray());
+		requestHeaders.put("Accept-Encoding", "gzip");
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		assertArrayEquals(zipped, bos.toByteArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void tieredCompressionTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		List<String> layerCacheInfo = new LinkedList<String>();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1", "p1/hello.txt"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		requestHeaders.put("Accept-Encoding", "gzip");
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		// Get the best compressed layer without the option for comparison
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] best = bos.toByteArray();
+		assertEquals("[update_lastmod1, zip, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		String etag = layer.getETag(mockRequest);
+		assertNotNull(etag);
+
+		mockAggregator.getOptions().setOption(LayerImpl.OPTION_TIERED_COMPRESSION, "true");
+		mockAggregator.getCacheManager().clearCache();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] fast = bos.toByteArray();
+		// background executor is synchronous in the unit tests
+		assertEquals("[zip, update_keygen, update_key, update_add, recompress]",layerCacheInfo.toString());
+		assertEquals(fast.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(fast)), bos);
+		byte[] unzipped = bos.toByteArray();
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(best)), bos);
+		assertArrayEquals(bos.toByteArray(), unzipped);
+
+		// The recompressed build replaced the fast build in the cache
+		assertEquals(1, cacheMap.size());
+		CacheEntry entry = cacheMap.values().iterator().next();
+		assertEquals(best.length, entry.getSize());
+		assertEquals(unzipped.length, entry.getUncompressedSize());
+		assertEquals(best.length, cacheMap.weightedSize());
+		assertNotNull(entry.getFilename());
+		assertTrue(new File(mockAggregator.getCacheManager().getCacheDir(), entry.getFilename()).exists());
+		// Recompression doesn't change the entity tag
+		assertEquals(etag, layer.getETag(mockRequest));
+
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		assertArrayEquals(best, bos.toByteArray());
+		assertEquals(best.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+
+		// Recompression is skipped when too many builds are waiting to be recompressed
+		mockAggregator.getCacheManager().clearCache();
+		cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+		layer = newLayerImpl(modules.toString(), mockAggregator);
+		LayerImpl.pendingRecompressions.set(LayerImpl.MAX_PENDING_RECOMPRESSIONS);
+		try {
+			in = layer.getInputStream(mockRequest, mockResponse);
+			bos = new ByteArrayOutputStream();
+			CopyUtil.copy(in, bos);
+		} finally {
+			LayerImpl.pendingRecompressions.set(0);
+		}
+		assertEquals("[zip, update_keygen, update_key, update_add, recompress_skip]",layerCacheInfo.toString());
+		assertArrayEquals(fast, bos.toByteArray());
+		assertEquals(etag, layer.getETag(mockRequest));
+		assertEquals(fast.length, cacheMap.values().iterator().next().getSize());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void offHeapCacheTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		mockAggregator.getOptions().setOption(CacheManagerImpl.OPTION_OFFHEAP_CACHE_SIZE, "1");
+		List<String> layerCacheInfo = new LinkedList<String>();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+		SlabAllocator allocator = mockAggregator.getCacheManager().getSlabAllocator();
+		assertEquals(1024 * 1024, allocator.getCapacity());
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] built = bos.toByteArray();
+		assertEquals("[update_lastmod1, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		// Module builds are kept off-heap too
+		int layerChunks = (built.length + SlabAllocator.DEFAULT_CHUNK_SIZE - 1) / SlabAllocator.DEFAULT_CHUNK_SIZE;
+		long used = allocator.getUsed();
+		assertTrue(used > layerChunks * SlabAllocator.DEFAULT_CHUNK_SIZE);
+
+		// Remove the cache file and make sure the layer is served from off-heap storage
+		assertEquals(1, cacheMap.size());
+		CacheEntry entry = cacheMap.values().iterator().next();
+		assertNotNull(entry.getFilename());
+		assertTrue(new File(mockAggregator.getCacheManager().getCacheDir(), entry.getFilename()).delete());
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		assertArrayEquals(built, bos.toByteArray());
+		assertEquals(built.length, Integer.parseInt(responseAttributes.get("Content-Length")));
+
+		// Evicted entries return their storage
+		cacheMap.setCapacity(0);
+		assertEquals(0, cacheMap.size());
+		assertEquals(used - layerChunks * SlabAllocator.DEFAULT_CHUNK_SIZE, allocator.getUsed());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void singleFlightTests() throws Exception {
+		replay(mockAggregator, mockRequest, mockResponse, mockDependencies);
+		requestAttributes.put(IAggregator.AGGREGATOR_REQATTRNAME, mockAggregator);
+		String configJson = "{paths:{p1:'p1',p2:'p2'}}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+		mockAggregator.getOptions().setOption(LayerImpl.OPTION_SINGLEFLIGHT_BUILDS, "true");
+		List<String> layerCacheInfo = new LinkedList<String>();
+		ConcurrentLinkedHashMap<String, CacheEntry> cacheMap = (ConcurrentLinkedHashMap<String, CacheEntry>)((LayerCacheImpl)mockAggregator.getCacheManager().getCache().getLayers()).getLayerBuildMap();
+
+		MockRequestedModuleNames modules = new MockRequestedModuleNames();
+		modules.setModules(Arrays.asList(new String[]{"p1/a", "p1/p1"}));
+		requestAttributes.put(IHttpTransport.REQUESTEDMODULENAMES_REQATTRNAME, modules);
+		requestAttributes.put(LayerImpl.LAYERCACHEINFO_PROPNAME, layerCacheInfo);
+		final LayerImpl layer = newLayerImpl(modules.toString(), mockAggregator);
+
+		InputStream in = layer.getInputStream(mockRequest, mockResponse);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		byte[] built = bos.toByteArray();
+		assertEquals("[update_lastmod1, update_keygen, update_key, update_add]",layerCacheInfo.toString());
+		assertEquals(1, cacheMap.size());
+		String mapKey = cacheMap.keySet().iterator().next();
+
+		// Simulate a build in progress on another thread and make sure we time out waiting for it
+		mockAggregator.getOptions().setOption(LayerImpl.OPTION_BUILD_WAIT_TIMEOUT, "0");
+		CacheEntry pending = new CacheEntry(0, "", 0);
+		SettableFuture<Void> future = SettableFuture.create();
+		assertNull(pending.claimBuild(future));
+		assertEquals(future, pending.claimBuild(SettableFuture.<Void>create()));
+		cacheMap.put(mapKey, pending);
+		try {
+			layer.getInputStream(mockRequest, mockResponse);
+			fail("Expected exception");
+		} catch (BuildTimeoutException e) {
+		}
+		assertEquals("[hit_1]",layerCacheInfo.toString());
+		assertTrue(pending == cacheMap.get(mapKey));
+
+		// Now wait for the build to complete and make sure we get the result from the cache
+		mockAggregator.getOptions().setOption(LayerImpl.OPTION_BUILD_WAIT_TIMEOUT, "30");
+		final Ref<byte[]> waitResult = new Ref<byte[]>(null);
+		final Ref<Throwable> waitError = new Ref<Throwable>(null);
+		Thread waiter = new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					CopyUtil.copy(layer.getInputStream(mockRequest, mockResponse), out);
+					waitResult.set(out.toByteArray());
+				} catch (Throwable t) {
+					waitError.set(t);
+				}
+			}
+		});
+		waiter.start();
+		while (waiter.getState() != Thread.State.TIMED_WAITING && waiter.isAlive()) {
+			Thread.sleep(10);
+		}
+		pending.setBytes(built);
+		future.set(null);
+		waiter.join();
+		assertNull(waitError.get());
+		assertArrayEquals(built, waitResult.get());
+		assertEquals("[hit_1, hit_3]",layerCacheInfo.toString());
+
+		// If the build we waited on didn't produce a result, then the layer is built without
+		// being added to the cache.
+		pending = new CacheEntry(0, "", 0);
+		future = SettableFuture.create();
+		pending.claimBuild(future);
+		future.set(null);
+		cacheMap.put(mapKey, pending);
+		in = layer.getInputStream(mockRequest, mockResponse);
+		bos = new ByteArrayOutputStream();
+		CopyUtil.copy(in, bos);
+		assertArrayEquals(built, bos.toByteArray());
+		assertEquals("[hit_1, wait_nocache]", layerCacheInfo.subList(0, 2).toString());
+		assertTrue(pending == cacheMap.get(mapKey));
+
+		// A build that completes without output releases the entry so that the next
+		// request can claim the build
+		pending = new CacheEntry(0, "", 0);
+		future = SettableFuture.create();
+		assertNull(pending.claimBuild(future));
+		pending.completeBuild(future);
+		assertTrue(future.isDone());
+		assertNull(pending.claimBuild(SettableFuture.<Void>create()));
+
+		// but a build that produced output keeps its completed future
+		pending = new CacheEntry(0, "", 0);
+		future = SettableFuture.create();
+		assertNull(pending.claimBuild(future));
+		pending.setBytes(built);
+		pending.completeBuild(future);
+		assertEquals(future, pending.claimBuild(SettableFuture.<Void>create()));
+	}
+
 	@Test
 	public void testCacheKeyGenerator() throws Exception {
 		LayerImpl impl = new LayerImpl("", 0) {
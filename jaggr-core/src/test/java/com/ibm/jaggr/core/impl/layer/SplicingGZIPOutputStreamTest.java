@@ -0,0 +1,115 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.layer;
+
+import com.ibm.jaggr.core.util.CopyUtil;
+import com.ibm.jaggr.core.util.DeflateSegment;
+
+import com.google.common.base.Charsets;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+public class SplicingGZIPOutputStreamTest {
+
+	@Before
+	public void setUp() {
+		Assume.assumeTrue(DeflateSegment.isSupported());
+	}
+
+	@Test
+	public void testCrc32Combine() {
+		byte[] a = "define('a',[],function(){return 'a';});".getBytes(Charsets.UTF_8);
+		byte[] b = "define('b',['a'],function(a){return a+'b';});".getBytes(Charsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(a);
+		long crcA = crc.getValue();
+		crc.reset();
+		crc.update(b);
+		long crcB = crc.getValue();
+		crc.reset();
+		crc.update(a);
+		crc.update(b);
+		Assert.assertEquals(crc.getValue(), DeflateSegment.crc32Combine(crcA, crcB, b.length));
+		Assert.assertEquals(crcA, DeflateSegment.crc32Combine(crcA, 0, 0));
+	}
+
+	@Test
+	public void testSplicing() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < 500; i++) {
+			sb.append("define('m").append(i).append("',[],function(){return \"\u00e9t\u00e9 ").append(i).append("\";});\r\n");
+		}
+		String moduleContent = sb.toString();
+		DeflateSegment segment = DeflateSegment.create(moduleContent.getBytes(Charsets.UTF_8), Deflater.BEST_COMPRESSION);
+		Assert.assertEquals(moduleContent.getBytes(Charsets.UTF_8).length, segment.getLength());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		SplicingGZIPOutputStream.SegmentWriter writer = new SplicingGZIPOutputStream(bos, Deflater.BEST_COMPRESSION).newWriter();
+		// segment at the start, between contributions, back-to-back and at the end
+		writer.writeSegment(segment);
+		writer.write("require.combo.add(");
+		writer.writeSegment(segment);
+		writer.writeSegment(segment);
+		writer.write(");require.combo.add(");
+		writer.writeSegment(segment);
+		writer.close();
+
+		String expected = moduleContent + "require.combo.add(" + moduleContent + moduleContent + ");require.combo.add(" + moduleContent;
+		StringWriter result = new StringWriter();
+		// GZIPInputStream validates the CRC and length in the trailer
+		CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray())), result);
+		Assert.assertEquals(expected, result.toString());
+
+		// no segments
+		bos = new ByteArrayOutputStream();
+		writer = new SplicingGZIPOutputStream(bos, Deflater.BEST_COMPRESSION).newWriter();
+		writer.write(moduleContent);
+		writer.close();
+		result = new StringWriter();
+		CopyUtil.copy(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray())), result);
+		Assert.assertEquals(moduleContent, result.toString());
+	}
+
+	@Test
+	public void testDigest() throws Exception {
+		String moduleContent = "define('m',[],function(){return \"\u00e9t\u00e9\";});";
+		DeflateSegment segment = DeflateSegment.create(moduleContent.getBytes(Charsets.UTF_8), Deflater.BEST_COMPRESSION);
+		MessageDigest digest = DigestUtils.getMd5Digest();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		SplicingGZIPOutputStream.SegmentWriter writer = new SplicingGZIPOutputStream(bos, Deflater.BEST_COMPRESSION).newWriter(digest);
+		writer.write("require.combo.add(");
+		writer.writeSegment(segment, new StringReader(moduleContent));
+		writer.write(");");
+		writer.close();
+
+		// The digest is computed from the uncompressed data, including the spliced segments
+		String expected = "require.combo.add(" + moduleContent + ");";
+		Assert.assertArrayEquals(DigestUtils.md5(expected.getBytes(Charsets.UTF_8)), digest.digest());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.impl.module.ModuleImpl.CacheEntry;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ChainedBuildFutureTest {
+
+	@Test
+	public void testClaimBuild() throws Exception {
+		CacheEntry entry = new CacheEntry();
+		SettableFuture<Void> owner = SettableFuture.create();
+		Assert.assertNull(entry.claimBuild(owner));
+
+		// Other requesters get the in-flight future
+		ListenableFuture<Void> inFlight = entry.claimBuild(SettableFuture.<Void>create());
+		Assert.assertSame(owner, inFlight);
+		Assert.assertFalse(inFlight.isDone());
+
+		// Completing the build releases waiters and ownership
+		entry.completeBuild(owner);
+		Assert.assertTrue(inFlight.isDone());
+		Assert.assertNull(entry.claimBuild(SettableFuture.<Void>create()));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		final SettableFuture<Void> inFlight = SettableFuture.create();
+		final int[] calls = new int[]{0};
+		ChainedBuildFuture<String> future = new ChainedBuildFuture<String>(inFlight, new Callable<Future<String>>() {
+			@Override public Future<String> call() throws Exception {
+				calls[0]++;
+				return Futures.immediateFuture("result");
+			}
+		});
+		Assert.assertFalse(future.isDone());
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+		}
+		Assert.assertEquals(0, calls[0]);
+
+		inFlight.set(null);
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals("result", future.get());
+		Assert.assertEquals(1, calls[0]);
+
+		// The continuation is called only once
+		Assert.assertEquals("result", future.get());
+		Assert.assertEquals("result", future.get(10, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(1, calls[0]);
+
+		// Exceptions from the continuation are wrapped
+		future = new ChainedBuildFuture<String>(inFlight, new Callable<Future<String>>() {
+			@Override public Future<String> call() throws Exception {
+				calls[0]++;
+				throw new IOException();
+			}
+		});
+		for (int i = 0; i < 2; i++) {
+			try {
+				future.get();
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IOException);
+			}
+		}
+		Assert.assertEquals(2, calls[0]);
+	}
+
+	@Test
+	public void testGetWithTimeout() throws Exception {
+		final SettableFuture<Void> inFlight = SettableFuture.create();
+		final SettableFuture<String> rebuild = SettableFuture.create();
+		ChainedBuildFuture<String> future = new ChainedBuildFuture<String>(inFlight, new Callable<Future<String>>() {
+			@Override public Future<String> call() throws Exception {
+				return rebuild;
+			}
+		});
+		inFlight.set(null);
+
+		// The timeout also applies to waiting on the future returned by the continuation
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+		}
+		Assert.assertFalse(future.isDone());
+		rebuild.set("result");
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals("result", future.get(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final CacheEntry entry = new CacheEntry();
+		SettableFuture<Void> owner = SettableFuture.create();
+		Assert.assertNull(entry.claimBuild(owner));
+		Runnable release = new Runnable() {
+			@Override public void run() {
+				entry.removeWaiter();
+			}
+		};
+		Callable<Future<String>> continuation = new Callable<Future<String>>() {
+			@Override public Future<String> call() throws Exception {
+				return Futures.immediateFuture("result");
+			}
+		};
+		entry.addWaiter();
+		ChainedBuildFuture<String> future1 = new ChainedBuildFuture<String>(entry.claimBuild(SettableFuture.<Void>create()), continuation, release);
+		entry.addWaiter();
+		ChainedBuildFuture<String> future2 = new ChainedBuildFuture<String>(entry.claimBuild(SettableFuture.<Void>create()), continuation, release);
+		Assert.assertTrue(entry.hasWaiters());
+
+		// Cancelling a waiter withdraws its interest in the build without affecting the build
+		Assert.assertTrue(future1.cancel(true));
+		Assert.assertTrue(future1.isCancelled());
+		Assert.assertTrue(future1.isDone());
+		Assert.assertFalse(future1.cancel(true));
+		Assert.assertFalse(owner.isDone());
+		Assert.assertTrue(entry.hasWaiters());
+		try {
+			future1.get();
+			Assert.fail();
+		} catch (CancellationException e) {
+		}
+
+		// Completing the wait releases the remaining waiter
+		entry.completeBuild(owner);
+		Assert.assertEquals("result", future2.get());
+		Assert.assertFalse(entry.hasWaiters());
+		Assert.assertFalse(future2.cancel(true));
+		Assert.assertFalse(future2.isCancelled());
+	}
+}
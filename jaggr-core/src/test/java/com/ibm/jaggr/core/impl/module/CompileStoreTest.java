@@ -0,0 +1,226 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.cachekeygenerator.AbstractCacheKeyGenerator;
+import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
+import com.ibm.jaggr.core.impl.resource.FileResource;
+import com.ibm.jaggr.core.modulebuilder.IModuleBuilder;
+import com.ibm.jaggr.core.modulebuilder.ModuleBuild;
+import com.ibm.jaggr.core.resource.IResource;
+import com.ibm.jaggr.core.test.TestUtils;
+
+import com.google.common.io.Files;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+public class CompileStoreTest {
+
+	File tmpdir;
+	File source;
+	IAggregator mockAggregator;
+	IModuleBuilder mockBuilder = EasyMock.createNiceMock(IModuleBuilder.class);
+	Map<String, Object> requestAttributes = new HashMap<String, Object>();
+	HttpServletRequest mockRequest;
+
+	@Before
+	public void setup() throws Exception {
+		tmpdir = Files.createTempDir();
+		source = new File(tmpdir, "test.js"); //$NON-NLS-1$
+		writeSource("define([], function() { return 1; });"); //$NON-NLS-1$
+		mockAggregator = TestUtils.createMockAggregator(null, tmpdir);
+		mockRequest = TestUtils.createMockRequest(mockAggregator, requestAttributes);
+		EasyMock.replay(mockAggregator, mockRequest, mockBuilder);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestUtils.deleteRecursively(tmpdir);
+	}
+
+	@Test
+	public void testGetContentKey() throws Exception {
+		IResource resource = new FileResource(source.toURI());
+		CompileStore store = new CompileStore(new File(tmpdir, CompileStore.DIRNAME), 0);
+		String key = store.getContentKey(mockAggregator, "test", resource, mockBuilder); //$NON-NLS-1$
+
+		// The key depends on content, not on the store instance or the last-modified date
+		source.setLastModified(source.lastModified() + 10000);
+		Assert.assertEquals(key, new CompileStore(new File(tmpdir, CompileStore.DIRNAME), 0)
+				.getContentKey(mockAggregator, "test", resource, mockBuilder)); //$NON-NLS-1$
+
+		Assert.assertFalse(key.equals(store.getContentKey(mockAggregator, "other", resource, mockBuilder))); //$NON-NLS-1$
+		mockAggregator.getOptions().setOption("foo", "bar"); //$NON-NLS-1$ //$NON-NLS-2$
+		String optionsKey = store.getContentKey(mockAggregator, "test", resource, mockBuilder); //$NON-NLS-1$
+		Assert.assertFalse(key.equals(optionsKey));
+		writeSource("define([], function() { return 2; });"); //$NON-NLS-1$
+		Assert.assertFalse(optionsKey.equals(store.getContentKey(mockAggregator, "test", resource, mockBuilder))); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testPutAndGet() throws Exception {
+		IResource resource = new FileResource(source.toURI());
+		CompileStore store = new CompileStore(new File(tmpdir, CompileStore.DIRNAME), 0);
+		String key = store.getContentKey(mockAggregator, "test", resource, mockBuilder); //$NON-NLS-1$
+		List<ICacheKeyGenerator> keyGens = Arrays.asList(new ICacheKeyGenerator[]{new TestKeyGen()});
+
+		requestAttributes.put(TestKeyGen.ATTRNAME, "A"); //$NON-NLS-1$
+		Assert.assertNull(store.get(key, mockRequest));
+		ModuleBuild build = new ModuleBuild("output A", keyGens, null); //$NON-NLS-1$
+		build.addExtraModule("extra"); //$NON-NLS-1$
+		build.setDependenciesTracked();
+		// The file create executor is synchronous in the test aggregator
+		store.putAsync(mockAggregator.getExecutors().getFileCreateExecutor(), key, mockRequest, keyGens, build);
+		requestAttributes.put(TestKeyGen.ATTRNAME, "B"); //$NON-NLS-1$
+		build = new ModuleBuild("output B", keyGens, null); //$NON-NLS-1$
+		build.setDependenciesTracked();
+		store.putAsync(mockAggregator.getExecutors().getFileCreateExecutor(), key, mockRequest, keyGens, build);
+
+		// A new store instance, as after a restart, finds the builds
+		store = new CompileStore(new File(tmpdir, CompileStore.DIRNAME), 0);
+		build = store.get(key, mockRequest);
+		Assert.assertEquals("output B", build.getBuildOutput()); //$NON-NLS-1$
+		Assert.assertTrue(build.getExtraModules().isEmpty());
+		requestAttributes.put(TestKeyGen.ATTRNAME, "A"); //$NON-NLS-1$
+		build = store.get(key, mockRequest);
+		Assert.assertEquals("output A", build.getBuildOutput()); //$NON-NLS-1$
+		Assert.assertEquals(Arrays.asList(new String[]{"extra"}), build.getExtraModules()); //$NON-NLS-1$
+		Assert.assertEquals(1, build.getCacheKeyGenerators().size());
+		Assert.assertTrue(build.isDependenciesTracked());
+		requestAttributes.put(TestKeyGen.ATTRNAME, "C"); //$NON-NLS-1$
+		Assert.assertNull(store.get(key, mockRequest));
+		Assert.assertEquals(2, store.getHits());
+		Assert.assertEquals(1, store.getMisses());
+
+		// Changed source misses
+		writeSource("define([], function() { return 2; });"); //$NON-NLS-1$
+		requestAttributes.put(TestKeyGen.ATTRNAME, "A"); //$NON-NLS-1$
+		Assert.assertNull(store.get(store.getContentKey(mockAggregator, "test", resource, mockBuilder), mockRequest)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testDependencies() throws Exception {
+		IResource resource = new FileResource(source.toURI());
+		File imported = new File(tmpdir, "imported.css"); //$NON-NLS-1$
+		writeFile(imported, ".foo{}"); //$NON-NLS-1$
+		CompileStore store = new CompileStore(new File(tmpdir, CompileStore.DIRNAME), 0);
+		String key = store.getContentKey(mockAggregator, "test", resource, mockBuilder); //$NON-NLS-1$
+		List<ICacheKeyGenerator> keyGens = Arrays.asList(new ICacheKeyGenerator[]{new TestKeyGen()});
+		requestAttributes.put(TestKeyGen.ATTRNAME, "A"); //$NON-NLS-1$
+
+		ModuleBuild build = new ModuleBuild("output", keyGens, null); //$NON-NLS-1$
+		build.addDependency(imported.toURI(), imported.lastModified());
+		build.setDependenciesTracked();
+		store.putAsync(mockAggregator.getExecutors().getFileCreateExecutor(), key, mockRequest, keyGens, build);
+		build = store.get(key, mockRequest);
+		Assert.assertEquals("output", build.getBuildOutput()); //$NON-NLS-1$
+		Assert.assertEquals(Collections.singleton(imported.toURI()), build.getDependencies().keySet());
+
+		// A modified dependency misses even though the module source is unchanged
+		imported.setLastModified(imported.lastModified() + 10000);
+		Assert.assertEquals(key, store.getContentKey(mockAggregator, "test", resource, mockBuilder)); //$NON-NLS-1$
+		Assert.assertNull(store.get(key, mockRequest));
+
+		// Builds that the builder hasn't marked as tracking all of their
+		// dependencies aren't stored
+		requestAttributes.put(TestKeyGen.ATTRNAME, "B"); //$NON-NLS-1$
+		build = new ModuleBuild("untracked", keyGens, null); //$NON-NLS-1$
+		store.putAsync(mockAggregator.getExecutors().getFileCreateExecutor(), key, mockRequest, keyGens, build);
+		Assert.assertNull(store.get(key, mockRequest));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		IResource resource = new FileResource(source.toURI());
+		CompileStore store = new CompileStore(new File(tmpdir, CompileStore.DIRNAME), 0);
+		String key = store.getContentKey(mockAggregator, "test", resource, mockBuilder); //$NON-NLS-1$
+		List<ICacheKeyGenerator> keyGens = Arrays.asList(new ICacheKeyGenerator[]{new TestKeyGen()});
+		char[] chars = new char[1000];
+		Arrays.fill(chars, 'x');
+		String output = new String(chars);
+		requestAttributes.put(TestKeyGen.ATTRNAME, "A"); //$NON-NLS-1$
+		ModuleBuild build = new ModuleBuild(output, keyGens, null);
+		build.setDependenciesTracked();
+		store.putAsync(mockAggregator.getExecutors().getFileCreateExecutor(), key, mockRequest, keyGens, build);
+		long entrySize = 0;
+		for (File file : new File(tmpdir, CompileStore.DIRNAME).listFiles()) {
+			entrySize += file.length();
+		}
+		// Make the first build the least recently used
+		for (File file : new File(tmpdir, CompileStore.DIRNAME).listFiles()) {
+			file.setLastModified(file.lastModified() - 10000);
+		}
+		store.setCapacity(entrySize + 1500);
+		requestAttributes.put(TestKeyGen.ATTRNAME, "B"); //$NON-NLS-1$
+		build = new ModuleBuild(output + "B", keyGens, null); //$NON-NLS-1$
+		build.setDependenciesTracked();
+		store.putAsync(mockAggregator.getExecutors().getFileCreateExecutor(), key, mockRequest, keyGens, build);
+
+		// The least recently used files are deleted
+		Assert.assertTrue(store.getEvictions() > 0);
+		long size = 0;
+		for (File file : new File(tmpdir, CompileStore.DIRNAME).listFiles()) {
+			size += file.length();
+		}
+		Assert.assertTrue(size <= store.getCapacity());
+		requestAttributes.put(TestKeyGen.ATTRNAME, "A"); //$NON-NLS-1$
+		Assert.assertNull(store.get(key, mockRequest));
+	}
+
+	private void writeSource(String code) throws Exception {
+		writeFile(source, code);
+	}
+
+	private void writeFile(File file, String code) throws Exception {
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(code);
+		} finally {
+			writer.close();
+		}
+	}
+
+	static class TestKeyGen extends AbstractCacheKeyGenerator {
+		private static final long serialVersionUID = 8431985432906126631L;
+		static final String ATTRNAME = "testKey"; //$NON-NLS-1$
+
+		@Override
+		public String generateKey(HttpServletRequest request) {
+			return (String)request.getAttribute(ATTRNAME);
+		}
+
+		@Override
+		public String toString() {
+			return "testKeyGen"; //$NON-NLS-1$
+		}
+	}
+}
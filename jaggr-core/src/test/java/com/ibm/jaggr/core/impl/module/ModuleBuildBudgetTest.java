@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.module;
+
+import com.ibm.jaggr.core.impl.module.ModuleImpl.CacheEntry;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class ModuleBuildBudgetTest {
+
+	private CacheEntry newEntry(int length) {
+		CacheEntry entry = new CacheEntry();
+		entry.setData(StringUtils.repeat('x', length), Collections.<String>emptyList());
+		return entry;
+	}
+
+	@Test
+	public void testBudget() throws Exception {
+		ModuleBuildBudget budget = new ModuleBuildBudget(1000);
+		CacheEntry entry1 = newEntry(200);
+		CacheEntry entry2 = newEntry(200);
+		budget.add(entry1);
+		budget.add(entry2);
+		Assert.assertEquals(2, budget.size());
+		Assert.assertEquals(800, budget.getWeightedSize());
+
+		// Adding the deflate segment updates the weight
+		Assert.assertNotNull(entry1.getDeflateSegment(null, budget));
+		int size1 = entry1.getHeapSize();
+		Assert.assertTrue(size1 > 400);
+		Assert.assertEquals(size1 + 400, budget.getWeightedSize());
+		Assert.assertEquals(0, budget.getNumEvictions());
+
+		// Exceeding the budget evicts the LRU entry.  Output that hasn't been
+		// written to a cache file is kept.
+		budget.touch(entry1);
+		budget.add(newEntry(200));
+		Assert.assertEquals(1, budget.getNumEvictions());
+		Assert.assertEquals(2, budget.size());
+		Assert.assertEquals(400, entry2.getHeapSize());
+		Assert.assertEquals(size1, entry1.getHeapSize());
+
+		// The deflate segment is released on eviction
+		budget.add(newEntry(200));
+		Assert.assertEquals(2, budget.getNumEvictions());
+		Assert.assertEquals(400, entry1.getHeapSize());
+
+		budget.clear();
+		Assert.assertEquals(0, budget.size());
+	}
+
+	@Test
+	public void testNoBudget() throws Exception {
+		// Without a budget the deflate segment is not kept
+		CacheEntry entry = newEntry(200);
+		Assert.assertNotNull(entry.getDeflateSegment(null, null));
+		Assert.assertEquals(400, entry.getHeapSize());
+	}
+}
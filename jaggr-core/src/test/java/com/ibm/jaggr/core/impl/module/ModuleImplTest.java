@@ -54,6 +54,7 @@ import java.io.Reader;
 import java.io.StringWriter;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -224,6 +225,52 @@ public class ModuleImplTest {
 		assertTrue(Pattern.compile("require\\(\\[.*?,\\\"p1/foo/d\\\".*?\\],").matcher(compiled).find());
 	}
 
+	/*
+	 * Tests that the number of builds cached for a module is limited by the
+	 * maxModuleBuilds option and that the least recently used build is evicted.
+	 */
+	@Test
+	public void testMaxModuleBuilds() throws Exception {
+		mockAggregator.getOptions().setOption(ModuleCacheImpl.OPTION_MAX_MODULE_BUILDS, "2");
+		String configJson = "{paths:{p1:'p1',p2:'p2'}, aliases:[[/\\/aliased\\//, function(s){if (has('foo')) return '/foo/'; else if (has('bar')) return '/bar/'; has('non'); return '/non/'}]]}";
+		configRef.set(new ConfigImpl(mockAggregator, tmpdir.toURI(), configJson));
+
+		Features features = new Features();
+		features.put("foo", true);
+		requestAttributes.put(IHttpTransport.FEATUREMAP_REQATTRNAME, features);
+
+		ModuleImpl module = (ModuleImpl)mockAggregator.newModule("p1/p1", mockAggregator.getConfig().locateModuleResource("p1/p1"));
+		module.getBuild(mockRequest).get();
+		features.put("foo", false);
+		features.put("bar", true);
+		module.getBuild(mockRequest).get();
+		Assert.assertEquals(2, module.getKeys().size());
+		String barKey = "expn:0;sexp:0;js:S:1:0:1;has{bar,!foo}";
+		String barFile = module.getCachedFileName(barKey);
+		Assert.assertNotNull(barFile);
+
+		// Touch the first build so that the second one is least recently used
+		features.put("foo", true);
+		features.remove("bar");
+		module.getBuild(mockRequest).get();
+		features.put("foo", false);
+		features.put("bar", false);
+		module.getBuild(mockRequest).get();
+		Collection<String> keys = module.getKeys();
+		Assert.assertEquals(2, keys.size());
+		Assert.assertTrue(keys.contains("expn:0;sexp:0;js:S:1:0:1;has{foo}"));
+		Assert.assertFalse(keys.contains(barKey));
+		// The evicted build's cache file is kept
+		Assert.assertTrue(new File(mockAggregator.getCacheManager().getCacheDir(), barFile).exists());
+
+		// The evicted build is read from its cache file instead of being rebuilt
+		features.put("foo", false);
+		features.put("bar", true);
+		module.getBuild(mockRequest).get();
+		Assert.assertTrue(module.getKeys().contains(barKey));
+		Assert.assertEquals(barFile, module.getCachedFileName(barKey));
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testBuildRendererDependentFeatures() throws Exception {
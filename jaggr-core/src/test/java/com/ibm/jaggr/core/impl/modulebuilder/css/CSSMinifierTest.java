@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import com.ibm.jaggr.core.IAggregator;
+import com.ibm.jaggr.core.config.IConfig;
+import com.ibm.jaggr.core.impl.config.ConfigImpl;
+import com.ibm.jaggr.core.resource.StringResource;
+import com.ibm.jaggr.core.test.TestUtils;
+import com.ibm.jaggr.core.test.TestUtils.Ref;
+
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+
+public class CSSMinifierTest {
+	static File tmpdir;
+
+	/**
+	 * Input CSS that is run through both PostCSS (safe mode) with the
+	 * minify.js plugin and {@link CSSMinifier}
+	 */
+	static final String[] postcssInputs = new String[] {
+		"div { color: black; }",
+		"/* comments */\r\n.foo\t  {  \tcolor:black; \r\nfont-weight : bold;\r\n/* inline comment */ }\r\n/* trailing comment */\n\t.bar { font-size:small } \r\n",
+		"a  >  b ,\n c  { color : red !important ; margin : 0 auto ; }",
+		"a { color : red!important }",
+		"a { color : red ! important; b : c !IMPORTANT }",
+		"a { color : red /* c */ ; x : y /* d */ z }",
+		"a /* s */ b , c /* t */ { d : e }",
+		"@media /* q */ screen { a { b : c ; } }",
+		"@media screen and ( max-width : 100px ) { a { b : c } }",
+		"@import url( foo.css ) ;",
+		"@import \"foo\"",
+		"@charset \"utf-8\";a{b:c}",
+		"@font-face { font-family : x }",
+		"@page :first { margin : 1in }",
+		"a { background : url( \"x y.png\" ) no-repeat ; font-family : \"Times  New\" , serif }",
+		"a{b:url( 'q' ) , url( r.png )}",
+		".foo:after{content:\"\\a\";white-space:pre}",
+		"a { content : \"a ; b } c\" ; d : e }",
+		"a { width : calc( 100% - ( 2 * 10px ) ) }",
+		"a { filter : progid:DXImageTransform.Microsoft.gradient( startColorstr='#80000000' , endColorstr='#80000000' ) }",
+		"a { *zoom : 1 ; _height : 2px }",
+		"zoom: 1; a{b:c}",
+		"a{}",
+		"{b:c}",
+		"} a{b:c}",
+		"a{b:c",
+		"a{b:c;",
+		"a{ b:c d:e }",
+		"a{b:c:d}",
+		"a{b:c;;}",
+		"a { b : 'unclosed }",
+		"a { b : c } /* unclosed",
+		"\n/* x */\na{b:c}",
+		"/* x */ a{b:c} /*[JAGGR inlined import]: foo */ d{e:f}",
+		"/*[JAGGR inlined import]: foo */\r\na{b:c}\r\n/*[JAGGR inlined import]: bar */\r\nd{e:f}",
+		"a{b:c /* e */}",
+		"a { b : c ; /* [JAGGR inlined import]: inner */ }",
+		"@media print { /*[JAGGR inlined import]: x */ a { b : c } }",
+		"a\\:b { c : d }",
+		"a[href=\"x y\"] , b[title='z'] { c : d }",
+		"@keyframes spin { from { transform : rotate( 0deg ) } to { transform : rotate( 360deg ) } }",
+		"a { b : c\u00a0 }",
+		"a { : b }",
+		"a { b c : d }",
+		"@ { }",
+		"a{b:c}}}",
+		"a { color : red ; } ; b { c : d }",
+		"@import url(a.css) screen , print ; @import 'b.css'",
+		"a::after , a::before { content : '' }",
+		"a{ b : c }\r\n\r\n@media ( min-width : 10px ) and ( max-width : 20px ) {\r\n\t.x , .y { z : 0 }\r\n}\r\n",
+	};
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		tmpdir = new File(System.getProperty("java.io.tmpdir"), "CSSMinifierTest"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		TestUtils.deleteRecursively(tmpdir);
+	}
+
+	/**
+	 * Returns a CSS module builder that minifies with PostCSS in Rhino
+	 */
+	private CSSModuleBuilder createPostcssBuilder() throws Exception {
+		Ref<IConfig> configRef = new Ref<IConfig>(null);
+		IAggregator mockAggregator = TestUtils.createMockAggregator(configRef, tmpdir);
+		EasyMock.replay(mockAggregator);
+		IConfig cfg = new ConfigImpl(mockAggregator, tmpdir.toURI(), "{cssJavaMinifier: false, cssInitialScopePoolSize: 1}"); //$NON-NLS-1$
+		configRef.set(cfg);
+		CSSModuleBuilder builder = new CSSModuleBuilder(mockAggregator);
+		builder.configLoaded(cfg, 1);
+		Assert.assertFalse(builder.isUseJavaMinifier());
+		return builder;
+	}
+
+	@Test
+	public void testPostcssParity() throws Exception {
+		CSSModuleBuilder builder = createPostcssBuilder();
+		URI resuri = tmpdir.toURI();
+		for (String input : postcssInputs) {
+			Assert.assertEquals(input,
+					builder.postcss(input, new StringResource(input, resuri)),
+					new CSSMinifier(input, CSSModuleBuilder.PREAMBLE).minify());
+		}
+	}
+
+	@Test
+	public void testPostcssErrors() throws Exception {
+		// CSS that PostCSS fails on with a script error
+		CSSModuleBuilder builder = createPostcssBuilder();
+		URI resuri = tmpdir.toURI();
+		String[] inputs = new String[] {"a{::}", "a{b::c}"}; //$NON-NLS-1$ //$NON-NLS-2$
+		for (String input : inputs) {
+			try {
+				builder.postcss(input, new StringResource(input, resuri));
+				Assert.fail(input);
+			} catch (Exception expected) {
+			}
+			try {
+				new CSSMinifier(input, CSSModuleBuilder.PREAMBLE).minify();
+				Assert.fail(input);
+			} catch (IllegalStateException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testTrim() {
+		Assert.assertEquals("url(\" a  b \")", CSSMinifier.trim(" url(  \" a  b \"  ) ")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("a,b:c (d)", CSSMinifier.trim("a , b : c ( d )")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("'it\\'s  x'", CSSMinifier.trim("'it\\'s  x'")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("a  b", CSSMinifier.trim("\u00a0a  b\t")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
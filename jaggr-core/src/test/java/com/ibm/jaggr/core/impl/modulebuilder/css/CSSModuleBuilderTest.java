@@ -209,6 +209,7 @@ public class CSSModuleBuilderTest extends EasyMock {
 		configRef.set(cfg);
 		builder.configLoaded(cfg, 2);
 		Assert.assertEquals(1, builder.getThreadScopes().size());
+		Assert.assertFalse(builder.isUseJavaMinifier());
 
 		String css, output;
 		URI resuri = testdir.toURI();
@@ -217,6 +218,36 @@ public class CSSModuleBuilderTest extends EasyMock {
 		Assert.assertEquals("div{color:red}", output);
 	}
 
+	@Test
+	public void testJavaMinifier() throws Exception {
+		// The Java minifier is used when no plugins are configured, and no thread scopes are created
+		Assert.assertTrue(builder.isUseJavaMinifier());
+		Assert.assertEquals(0, builder.getThreadScopes().size());
+
+		String css, output;
+		URI resuri = testdir.toURI();
+		css = "@media screen { .foo > a { color : red !important; margin : 0 auto ; } }";
+		output = buildCss(new StringResource(css, resuri));
+		Assert.assertEquals("@media screen{.foo > a{color:red !important;margin:0 auto}}", output);
+		Assert.assertEquals(0, builder.getThreadScopes().size());
+
+		// CSS that the Java minifier can't process is passed to PostCSS
+		try {
+			buildCss(new StringResource("a{b::c}", resuri));
+			Assert.fail();
+		} catch (RuntimeException expected) {
+		}
+		Assert.assertEquals(1, builder.getThreadScopes().size());
+
+		// PostCSS produces the same output
+		IConfig cfg = new ConfigImpl(mockAggregator, tmpdir.toURI(), "{cssJavaMinifier: false, cssInitialScopePoolSize: 1}");
+		configRef.set(cfg);
+		builder.configLoaded(cfg, seq++);
+		Assert.assertFalse(builder.isUseJavaMinifier());
+		Assert.assertEquals(1, builder.getThreadScopes().size());
+		Assert.assertEquals(output, buildCss(new StringResource(css, resuri)));
+	}
+
 	@Test
 	public void testImport() throws Exception {
 		String css, output;
@@ -636,6 +667,52 @@ public class CSSModuleBuilderTest extends EasyMock {
 		Assert.assertEquals(".imported{color:black}", output);
 	}
 
+	@Test
+	public void testInlineCache() throws Exception {
+		String css, output;
+		URI resuri = testdir.toURI();
+
+		File imported = new File(testdir, "cached.css");
+		CopyUtil.copy(".cached {\r\n\tcolor : black;\r\n}", new FileWriter(imported));
+		File images = new File(testdir, "images");
+		images.mkdir();
+		File image = new File(images, "cachedImage.png");
+		CopyUtil.copy(new ByteArrayInputStream(Base64.decodeBase64(base64PngData.getBytes())), new FileOutputStream(image));
+
+		// The cache is disabled by default
+		Assert.assertNull(builder.getInlineCache());
+
+		IConfig config = new ConfigImpl(mockAggregator, tmpdir.toURI(), "{inlineCSSImports:true, inlinedImageSizeThreshold:1000, cssInlineCacheSize:10}");
+		builder.configLoaded(config, seq++);
+		InlinedResourceCache cache = builder.getInlineCache();
+		Assert.assertEquals(10240, cache.getCapacity());
+
+		css = "@import \"cached.css\";.foo{background-image:url(images/cachedImage.png)}";
+		output = buildCss(new StringResource(css, resuri));
+		Assert.assertEquals(".cached{color:black}.foo{background-image:url('data:image/png;base64," + base64PngData + "')}", output);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(0, cache.getHits());
+
+		output = buildCss(new StringResource(css, resuri));
+		Assert.assertEquals(".cached{color:black}.foo{background-image:url('data:image/png;base64," + base64PngData + "')}", output);
+		Assert.assertEquals(2, cache.getHits());
+
+		// Imports that reference a modified image are rebuilt
+		CopyUtil.copy(".cached {\r\n\tbackground-image:url(images/cachedImage.png);\r\n}", new FileWriter(imported));
+		imported.setLastModified(imported.lastModified() + 2000);
+		output = buildCss(new StringResource("@import \"cached.css\";", resuri));
+		Assert.assertEquals(".cached{background-image:url('data:image/png;base64," + base64PngData + "')}", output);
+		CopyUtil.copy("hello world!", new FileWriter(image));
+		image.setLastModified(image.lastModified() + 2000);
+		output = buildCss(new StringResource("@import \"cached.css\";", resuri));
+		Assert.assertEquals(".cached{background-image:url('data:image/png;base64,aGVsbG8gd29ybGQh')}", output);
+
+		// Reloading the config clears the cache
+		builder.configLoaded(config, seq++);
+		Assert.assertNotSame(cache, builder.getInlineCache());
+		Assert.assertEquals(0, builder.getInlineCache().size());
+	}
+
 	private String buildCss(IResource css) throws Exception {
 		Reader reader = builder.getContentReader("test", css, mockRequest, keyGens);
 		StringWriter writer = new StringWriter();
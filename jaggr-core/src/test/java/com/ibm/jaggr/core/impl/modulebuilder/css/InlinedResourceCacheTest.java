@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import com.ibm.jaggr.core.impl.modulebuilder.css.InlinedResourceCache.Dependency;
+import com.ibm.jaggr.core.resource.StringResource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class InlinedResourceCacheTest {
+
+	static class TestResource extends StringResource {
+		long lastModified = 1;
+		TestResource(String name) throws Exception {
+			super("", new URI("file:/" + name)); //$NON-NLS-1$
+		}
+		@Override
+		public long lastModified() {
+			return lastModified;
+		}
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		InlinedResourceCache cache = new InlinedResourceCache(1000);
+		TestResource imported = new TestResource("imported.css"); //$NON-NLS-1$
+		TestResource image = new TestResource("image.png"); //$NON-NLS-1$
+		cache.put("key", ".foo{}", Arrays.asList(new Dependency(imported), new Dependency(image))); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(".foo{}", cache.get("key").getValue()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(2, cache.get("key").getDependencies().size()); //$NON-NLS-1$
+		Assert.assertEquals(2, cache.getHits());
+
+		// A change to any of the dependencies invalidates the entry
+		image.lastModified = 2;
+		Assert.assertNull(cache.get("key")); //$NON-NLS-1$
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(0, cache.size());
+
+		// Null values are cached
+		cache.put("key", null, Collections.singletonList(new Dependency(image))); //$NON-NLS-1$
+		Assert.assertNull(cache.get("key").getValue()); //$NON-NLS-1$
+		Assert.assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		InlinedResourceCache cache = new InlinedResourceCache(10);
+		TestResource res = new TestResource("imported.css"); //$NON-NLS-1$
+		cache.put("a", "123456", Collections.singletonList(new Dependency(res))); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.put("b", "123456", Collections.singletonList(new Dependency(res))); //$NON-NLS-1$ //$NON-NLS-2$
+		// The least recently used entry is evicted
+		Assert.assertEquals(1, cache.size());
+		Assert.assertNull(cache.get("a")); //$NON-NLS-1$
+		Assert.assertNotNull(cache.get("b")); //$NON-NLS-1$
+	}
+}
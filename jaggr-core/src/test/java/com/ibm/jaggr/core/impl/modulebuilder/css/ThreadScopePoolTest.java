@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.modulebuilder.css;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ThreadScopePoolTest {
+
+	final AtomicInteger createCount = new AtomicInteger();
+	final Set<String> creatorThreads = Collections.synchronizedSet(new HashSet<String>());
+
+	final ThreadScopePool.ScopeFactory factory = new ThreadScopePool.ScopeFactory() {
+		public Scriptable create(Context cx) {
+			createCount.incrementAndGet();
+			creatorThreads.add(Thread.currentThread().getName());
+			return cx.initStandardObjects();
+		}
+	};
+
+	@Test
+	public void testGrowAndShrink() throws Exception {
+		ThreadScopePool pool = new ThreadScopePool(factory, 1, 3, 0);
+		pool.fill();
+		Assert.assertEquals(1, pool.size());
+		Assert.assertEquals(1, createCount.get());
+		// The initial scopes are created on the pool's threads
+		Assert.assertFalse(creatorThreads.contains(Thread.currentThread().getName()));
+
+		Context cx = Context.enter();
+		try {
+			Scriptable scope1 = pool.borrow(cx, 1, TimeUnit.SECONDS);
+			Assert.assertEquals(1, createCount.get());
+			// Additional scopes are created on demand
+			Scriptable scope2 = pool.borrow(cx, 1, TimeUnit.SECONDS);
+			Scriptable scope3 = pool.borrow(cx, 1, TimeUnit.SECONDS);
+			Assert.assertEquals(3, createCount.get());
+			Assert.assertEquals(3, pool.size());
+			Assert.assertEquals(3, pool.getInUse());
+			Assert.assertNotSame(scope1, scope2);
+
+			// The pool doesn't grow past the maximum size
+			try {
+				pool.borrow(cx, 10, TimeUnit.MILLISECONDS);
+				Assert.fail();
+			} catch (TimeoutException expected) {
+			}
+			Assert.assertEquals(1, pool.getWaitCount());
+			Assert.assertEquals(1, pool.getTimeoutCount());
+
+			// Idle scopes are discarded down to the initial size
+			pool.release(scope1);
+			pool.release(scope2);
+			Thread.sleep(10);
+			pool.release(scope3);
+			Assert.assertEquals(1, pool.size());
+			Assert.assertEquals(2, pool.getDiscardedCount());
+			Assert.assertEquals(0, pool.getInUse());
+			Assert.assertEquals(3, pool.getPeakInUse());
+
+			// The most recently used scope is kept
+			Assert.assertSame(scope3, pool.borrow(cx, 1, TimeUnit.SECONDS));
+		} finally {
+			Context.exit();
+		}
+	}
+
+	@Test
+	public void testWaitForRelease() throws Exception {
+		final ThreadScopePool pool = new ThreadScopePool(factory, 1, 1, 60000);
+		pool.fill();
+		Context cx = Context.enter();
+		try {
+			final Scriptable scope = pool.borrow(cx, 1, TimeUnit.SECONDS);
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException ignore) {
+					}
+					pool.release(scope);
+				}
+			}).start();
+			Assert.assertSame(scope, pool.borrow(cx, 10, TimeUnit.SECONDS));
+			Assert.assertEquals(1, pool.getWaitCount());
+			Assert.assertEquals(0, pool.getTimeoutCount());
+			Assert.assertEquals(1, createCount.get());
+		} finally {
+			Context.exit();
+		}
+	}
+
+	@Test
+	public void testParallelFill() throws Exception {
+		ThreadScopePool pool = new ThreadScopePool(factory, 4, 10, 60000);
+		pool.fill();
+		Assert.assertEquals(4, pool.size());
+		Assert.assertEquals(4, createCount.get());
+		Assert.assertEquals(0, pool.getInUse());
+	}
+}
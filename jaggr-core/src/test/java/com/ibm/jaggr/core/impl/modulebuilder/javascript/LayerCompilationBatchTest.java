@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import com.ibm.jaggr.core.util.CompilerUtil;
+
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.jscomp.Result;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class LayerCompilationBatchTest {
+
+	static final String[] mids = new String[]{"a", "b", "c"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	static final String[] code = new String[] {
+		"define([\"b\"], function(b) { var foo = 1 + 2; return foo + b; });", //$NON-NLS-1$
+		"define([], function() { var bar = \"bar\"; return bar; });", //$NON-NLS-1$
+		"define([], function() { if (true) { return 1; } else { return 2; } });" //$NON-NLS-1$
+	};
+
+	@Test
+	public void testCompile() throws Exception {
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < mids.length; i++) {
+			Compiler compiler = new Compiler();
+			Result result = compiler.compile(
+					new ArrayList<JSSourceFile>(),
+					Arrays.asList(new JSSourceFile[]{JSSourceFile.fromCode(mids[i], code[i])}),
+					newOptions());
+			Assert.assertTrue(result.success);
+			expected.add(compiler.toSource());
+		}
+
+		LayerCompilationBatch batch = new LayerCompilationBatch(mids.length);
+		List<String> outputs = compileConcurrently(batch, code);
+		Assert.assertEquals(expected, outputs);
+		Assert.assertEquals(1, batch.getBatchCount());
+		Assert.assertEquals(mids.length, batch.getBatchedModuleCount());
+	}
+
+	@Test
+	public void testCompileErrors() throws Exception {
+		// If a module has errors, then the modules are compiled individually
+		LayerCompilationBatch batch = new LayerCompilationBatch(mids.length);
+		String[] badCode = code.clone();
+		badCode[1] = "define([], function() { var = ; });"; //$NON-NLS-1$
+		List<String> outputs = compileConcurrently(batch, badCode);
+		Assert.assertEquals(Arrays.asList(new String[]{null, null, null}), outputs);
+		Assert.assertEquals(0, batch.getBatchCount());
+
+		// A batch of one is compiled individually
+		batch = new LayerCompilationBatch(mids.length);
+		Assert.assertNull(batch.compile(mids[0], newInputs(mids[0], code[0]), newOptions()));
+		Assert.assertEquals(0, batch.getBatchCount());
+	}
+
+	private List<String> compileConcurrently(final LayerCompilationBatch batch, final String[] code) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(mids.length);
+		try {
+			final CyclicBarrier barrier = new CyclicBarrier(mids.length);
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i = 0; i < mids.length; i++) {
+				final int index = i;
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						barrier.await();
+						return batch.compile(mids[index], newInputs(mids[index], code[index]), newOptions());
+					}
+				}));
+			}
+			List<String> result = new ArrayList<String>();
+			for (Future<String> future : futures) {
+				result.add(future.get());
+			}
+			return result;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<CompilerInput> newInputs(String mid, String code) {
+		return Arrays.asList(new CompilerInput[]{new CompilerInput(JSSourceFile.fromCode(mid, code))});
+	}
+
+	private CompilerOptions newOptions() {
+		CompilerOptions options = CompilerUtil.getDefaultOptions();
+		CompilationLevel.SIMPLE_OPTIMIZATIONS.setOptionsForCompilationLevel(options);
+		return options;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import com.ibm.jaggr.core.util.CompilerUtil;
+
+import com.google.javascript.jscomp.Compiler;
+import com.google.javascript.jscomp.CompilerInput;
+import com.google.javascript.jscomp.JSModule;
+import com.google.javascript.jscomp.JSSourceFile;
+import com.google.javascript.jscomp.Result;
+import com.google.javascript.rhino.Node;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParsedSourceCacheTest {
+
+	@Test
+	public void testGetInput() throws Exception {
+		ParsedSourceCache cache = new ParsedSourceCache(1000);
+		String code = "define([], function() { var foo = 1; return foo; });"; //$NON-NLS-1$
+		Compiler compiler = new Compiler();
+		CompilerInput input1 = cache.getInput("key", JSSourceFile.fromCode("test", code)); //$NON-NLS-1$ //$NON-NLS-2$
+		CompilerInput input2 = cache.getInput("key", JSSourceFile.fromCode("test", code)); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.size());
+
+		// Each input gets its own copy of the AST
+		Node root1 = input1.getAstRoot(compiler);
+		Node root2 = input2.getAstRoot(compiler);
+		Assert.assertNotSame(root1, root2);
+		Assert.assertNull(root1.checkTreeEquals(root2));
+
+		// Changed source is re-parsed
+		cache.getInput("key", JSSourceFile.fromCode("test", code + "\nvar bar;")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(1, cache.size());
+
+		// Source with syntax errors is not cached
+		Assert.assertNull(cache.getInput("key", JSSourceFile.fromCode("test", "var = ;"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testCompile() throws Exception {
+		ParsedSourceCache cache = new ParsedSourceCache(1000);
+		String code = "define([], function() { var foo = 1; return foo; });"; //$NON-NLS-1$
+		String expected = null;
+		for (int i = 0; i < 2; i++) {
+			Compiler compiler = new Compiler();
+			JSModule module = new JSModule("test"); //$NON-NLS-1$
+			module.add(cache.getInput("key", JSSourceFile.fromCode("test", code))); //$NON-NLS-1$ //$NON-NLS-2$
+			Result result = compiler.compile(new JSSourceFile[0], new JSModule[]{module}, CompilerUtil.getDefaultOptions());
+			Assert.assertTrue(result.success);
+			if (expected == null) {
+				expected = compiler.toSource();
+			} else {
+				// Compiling the cached AST produces the same output
+				Assert.assertEquals(expected, compiler.toSource());
+			}
+		}
+		Assert.assertEquals(1, cache.getHits());
+	}
+}
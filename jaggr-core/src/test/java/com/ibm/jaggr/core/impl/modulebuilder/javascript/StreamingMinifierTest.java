@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.impl.modulebuilder.javascript;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingMinifierTest {
+
+	@Test
+	public void testStripWhitespace() {
+		String code = "/* header */\r\ndefine([\"a\", 'b'], function(a, b) {\r\n" + //$NON-NLS-1$
+				"\t// line comment\r\n" + //$NON-NLS-1$
+				"\tvar x = a + +b, y = x - -1, re = /[/]\\/*/g;\r\n" + //$NON-NLS-1$
+				"\treturn /* inline */ x / 2 / y\r\n" + //$NON-NLS-1$
+				"\t\t+ \"//not a comment\";\r\n" + //$NON-NLS-1$
+				"});\r\n"; //$NON-NLS-1$
+		StreamingMinifier minifier = new StreamingMinifier(code, true, null);
+		Assert.assertEquals(
+				"define([\"a\",'b'],function(a,b){" + //$NON-NLS-1$
+				"var x=a+ +b,y=x- -1,re=/[/]\\/*/g;" + //$NON-NLS-1$
+				"return x/2/y\n" + //$NON-NLS-1$
+				"+\"//not a comment\";});", //$NON-NLS-1$
+				minifier.process());
+		Assert.assertFalse(minifier.hasHasCalls());
+		Assert.assertFalse(minifier.hasExpandableRequires());
+
+		// line breaks are kept where semicolon insertion may depend on them
+		minifier = new StreamingMinifier("a = b\n(c)\nx\n++y\nreturn\nz", true, null); //$NON-NLS-1$
+		Assert.assertEquals("a=b\n(c)\nx\n++y\nreturn\nz", minifier.process()); //$NON-NLS-1$
+		minifier = new StreamingMinifier("a = [\n1,\n2\n];", true, null); //$NON-NLS-1$
+		Assert.assertEquals("a=[1,2\n];", minifier.process()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testExportModuleName() {
+		String code = "define( /* deps */ [\"a\"], function(a) {\r\n\treturn a;\r\n});"; //$NON-NLS-1$
+		Assert.assertEquals(
+				"define(\"foo/bar\", /* deps */ [\"a\"], function(a) {\r\n\treturn a;\r\n});", //$NON-NLS-1$
+				new StreamingMinifier(code, false, "foo/bar").process()); //$NON-NLS-1$
+		Assert.assertEquals(
+				"define(\"foo/bar\",[\"a\"],function(a){return a;});", //$NON-NLS-1$
+				new StreamingMinifier(code, true, "foo/bar").process()); //$NON-NLS-1$
+
+		// Named define calls, method calls and empty define calls are left alone
+		code = "define(\"x\", function() {}); obj.define(function(){}); define();"; //$NON-NLS-1$
+		Assert.assertEquals(code, new StreamingMinifier(code, false, "foo/bar").process()); //$NON-NLS-1$
+		// Function declarations and constructor calls named define are left alone
+		code = "function define(a, b) {}"; //$NON-NLS-1$
+		Assert.assertEquals(code, new StreamingMinifier(code, false, "foo/bar").process()); //$NON-NLS-1$
+		Assert.assertEquals("function define(a,b){}", new StreamingMinifier(code, true, "foo/bar").process()); //$NON-NLS-1$ //$NON-NLS-2$
+		code = "var d = new define(a);"; //$NON-NLS-1$
+		Assert.assertEquals(code, new StreamingMinifier(code, false, "foo/bar").process()); //$NON-NLS-1$
+		Assert.assertEquals("var d=new define(a);", new StreamingMinifier(code, true, "foo/bar").process()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testDetection() {
+		StreamingMinifier minifier = new StreamingMinifier("if (has(\"ie\")) {}", false, null); //$NON-NLS-1$
+		minifier.process();
+		Assert.assertTrue(minifier.hasHasCalls());
+		minifier = new StreamingMinifier("if (obj.has(\"ie\")) {}", false, null); //$NON-NLS-1$
+		minifier.process();
+		Assert.assertFalse(minifier.hasHasCalls());
+		minifier = new StreamingMinifier("var s = 'has(\"ie\")';", false, null); //$NON-NLS-1$
+		minifier.process();
+		Assert.assertFalse(minifier.hasHasCalls());
+
+		minifier = new StreamingMinifier("require([\"a\"], function(a) {});", false, null); //$NON-NLS-1$
+		minifier.process();
+		Assert.assertTrue(minifier.hasExpandableRequires());
+		minifier = new StreamingMinifier("require = {deps: [\"a\"]};", false, null); //$NON-NLS-1$
+		minifier.process();
+		Assert.assertTrue(minifier.hasExpandableRequires());
+		minifier = new StreamingMinifier("var a = require(\"a\");", false, null); //$NON-NLS-1$
+		minifier.process();
+		Assert.assertFalse(minifier.hasExpandableRequires());
+	}
+
+	@Test
+	public void testErrors() {
+		String[] badCode = new String[] {
+				"var s = \"unterminated;\n", //$NON-NLS-1$
+				"/* unterminated comment", //$NON-NLS-1$
+				"var re = /unterminated;\n", //$NON-NLS-1$
+				"var s = `template`;" //$NON-NLS-1$
+		};
+		for (String code : badCode) {
+			try {
+				new StreamingMinifier(code, true, null).process();
+				Assert.fail(code);
+			} catch (IllegalStateException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * (C) Copyright 2014, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ibm.jaggr.core.impl.modulebuilder.less;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LessCompileCacheTest {
+
+	static final URI a = URI.create("file:/a.less"); //$NON-NLS-1$
+	static final URI b = URI.create("file:/b.less"); //$NON-NLS-1$
+	static final URI c = URI.create("file:/c.less"); //$NON-NLS-1$
+	static final URI theme = URI.create("file:/theme.less"); //$NON-NLS-1$
+	static final URI mixins = URI.create("file:/mixins.less"); //$NON-NLS-1$
+
+	private static Map<URI, Long> imports(Object... args) {
+		Map<URI, Long> result = new LinkedHashMap<URI, Long>();
+		for (int i = 0; i < args.length; i += 2) {
+			result.put((URI)args[i], ((Number)args[i+1]).longValue());
+		}
+		return result;
+	}
+
+	@Test
+	public void testGet() {
+		LessCompileCache cache = new LessCompileCache(1000);
+		Assert.assertNull(cache.get(a, "1")); //$NON-NLS-1$
+		cache.put(a, "1", imports(a, 1, theme, 1), "a{}"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("a{}", cache.get(a, "1")); //$NON-NLS-1$ //$NON-NLS-2$
+		// Different input is recompiled
+		Assert.assertNull(cache.get(a, "2")); //$NON-NLS-1$
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testInvalidateDependents() {
+		LessCompileCache cache = new LessCompileCache(1000);
+		cache.put(a, "a", imports(a, 1, theme, 1), "a{}"); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.put(b, "b", imports(b, 1, theme, 1, mixins, 1), "b{}"); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.put(c, "c", imports(c, 1, mixins, 1), "c{}"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(3, cache.size());
+		Assert.assertEquals(2, cache.getDependents(theme).size());
+		Assert.assertEquals(2, cache.getDependents(mixins).size());
+		Assert.assertEquals(Collections.singleton(a), cache.getDependents(a));
+
+		// Compiling a module with a modified import discards the other modules that import it
+		Assert.assertEquals(Collections.singleton(b),
+				cache.put(a, "a2", imports(a, 1, theme, 2), "a{color:red}")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNull(cache.get(b, "b")); //$NON-NLS-1$
+		Assert.assertEquals("c{}", cache.get(c, "c")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(1, cache.getInvalidations());
+
+		// The recompiled module doesn't discard the modules that were already compiled with the new import
+		Assert.assertTrue(cache.put(b, "b2", imports(b, 1, theme, 2, mixins, 1), "b{color:red}").isEmpty()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("a{color:red}", cache.get(a, "a2")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// Removed imports are removed from the graph
+		cache.put(b, "b3", imports(b, 2, mixins, 1), "b{}"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(Collections.singleton(a), cache.getDependents(theme));
+	}
+
+	@Test
+	public void testCapacity() {
+		LessCompileCache cache = new LessCompileCache(10);
+		cache.put(a, "a", imports(a, 1, theme, 1), "a{top:0}"); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.put(b, "b", imports(b, 1, mixins, 1), "b{top:0}"); //$NON-NLS-1$ //$NON-NLS-2$
+		// The least recently used entry is evicted and removed from the import graph
+		Assert.assertEquals(1, cache.size());
+		Assert.assertNull(cache.get(a, "a")); //$NON-NLS-1$
+		Assert.assertEquals("b{top:0}", cache.get(b, "b")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertTrue(cache.getDependents(theme).isEmpty());
+		Assert.assertEquals(Collections.singleton(b), cache.getDependents(mixins));
+	}
+}
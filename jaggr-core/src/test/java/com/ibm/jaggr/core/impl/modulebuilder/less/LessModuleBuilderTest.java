@@ -21,6 +21,7 @@ import com.ibm.jaggr.core.cachekeygenerator.ICacheKeyGenerator;
 import com.ibm.jaggr.core.config.IConfig;
 import com.ibm.jaggr.core.impl.config.ConfigImpl;
 import com.ibm.jaggr.core.impl.modulebuilder.css.CSSModuleBuilder;
+import com.ibm.jaggr.core.impl.resource.FileResource;
 import com.ibm.jaggr.core.resource.IResource;
 import com.ibm.jaggr.core.resource.StringResource;
 import com.ibm.jaggr.core.test.TestUtils;
@@ -115,7 +116,44 @@ public class LessModuleBuilderTest extends EasyMock {
 		Assert.assertEquals("body{background:#ff0000}", output);
 	}
 
-	private String buildLess(StringResource less) throws IOException {
+	@Test
+	public void testCompileCache() throws Exception {
+		File theme = new File(testdir, "theme.less");
+		CopyUtil.copy("@textColor: #FF0000;", new FileWriter(theme));
+		File a = new File(testdir, "a.less");
+		CopyUtil.copy("@import \"theme.less\";\nbody{color:@textColor;}", new FileWriter(a));
+		File b = new File(testdir, "b.less");
+		CopyUtil.copy("@import \"theme.less\";\np{color:@textColor;}", new FileWriter(b));
+		// The cache is disabled by default
+		Assert.assertNull(builder.getCompileCache());
+		IConfig cfg = new ConfigImpl(mockAggregator, tmpdir.toURI(), "{lessCompileCacheSize:10}");
+		builder.configLoaded(cfg, seq++);
+		LessCompileCache cache = builder.getCompileCache();
+		Assert.assertEquals(10 * 1024, cache.getCapacity());
+
+		Assert.assertEquals("body{color:#ff0000}", buildLess(new FileResource(a.toURI())));
+		Assert.assertEquals("body{color:#ff0000}", buildLess(new FileResource(a.toURI())));
+		Assert.assertEquals("p{color:#ff0000}", buildLess(new FileResource(b.toURI())));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(2, cache.getDependents(theme.toURI()).size());
+
+		// Changing the shared import discards the modules that import it
+		CopyUtil.copy("@textColor: #0000FF;", new FileWriter(theme));
+		theme.setLastModified(theme.lastModified() + 2000);
+		Assert.assertEquals("body{color:#0000ff}", buildLess(new FileResource(a.toURI())));
+		Assert.assertEquals(1, cache.getInvalidations());
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals("p{color:#0000ff}", buildLess(new FileResource(b.toURI())));
+		Assert.assertEquals(1, cache.getHits());
+
+		// Reloading the config starts with an empty cache
+		builder.configLoaded(cfg, seq++);
+		Assert.assertNotSame(cache, builder.getCompileCache());
+		Assert.assertEquals(0, builder.getCompileCache().size());
+	}
+
+	private String buildLess(IResource less) throws IOException {
 		Reader reader = builder.getContentReader("colors.less", less, mockRequest,
 				keyGens);
 		StringWriter writer = new StringWriter();
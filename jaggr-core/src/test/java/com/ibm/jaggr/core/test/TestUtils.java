@@ -239,7 +239,8 @@ public class TestUtils {
 				new SynchronousExecutor(),
 				null,
 				new SynchronousScheduledExecutor(),
-				new SynchronousScheduledExecutor()));
+				new SynchronousScheduledExecutor(),
+				new SynchronousExecutor()));
 		final File workdir = workingDirectory;
 
 		EasyMock.expect(mockAggregator.getWorkingDirectory()).andReturn(workingDirectory).anyTimes();
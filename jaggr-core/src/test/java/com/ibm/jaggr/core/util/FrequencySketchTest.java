@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+	@Test
+	public void testFrequency() {
+		FrequencySketch sketch = new FrequencySketch(1024);
+		Assert.assertEquals(0, sketch.frequency("a"));
+		for (int i = 1; i <= 5; i++) {
+			sketch.increment("a");
+			Assert.assertEquals(i, sketch.frequency("a"));
+		}
+		sketch.increment("b");
+		Assert.assertEquals(5, sketch.frequency("a"));
+		Assert.assertEquals(1, sketch.frequency("b"));
+
+		// Counters saturate
+		for (int i = 0; i < 20; i++) {
+			sketch.increment("a");
+		}
+		Assert.assertEquals(FrequencySketch.MAX_COUNT, sketch.frequency("a"));
+	}
+
+	@Test
+	public void testReset() {
+		// 16 longs, so counters are halved after 160 increments
+		FrequencySketch sketch = new FrequencySketch(16);
+		for (int i = 0; i < 8; i++) {
+			sketch.increment("a");
+		}
+		Assert.assertEquals(8, sketch.frequency("a"));
+		// Collisions with other keys may raise the estimate until the counters are halved
+		for (int i = 0; i < 160 && sketch.frequency("a") >= 8; i++) {
+			sketch.increment(Integer.toString(i));
+		}
+		Assert.assertTrue(sketch.frequency("a") < 8);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class MappedFileCacheTest {
+
+	private File tmpdir;
+
+	@Before
+	public void setup() {
+		tmpdir = Files.createTempDir();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(tmpdir);
+	}
+
+	private File newFile(String name, int length) throws Exception {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte)(i * 31);
+		}
+		File file = new File(tmpdir, name);
+		Files.write(data, file);
+		return file;
+	}
+
+	@Test
+	public void testGetInputStream() throws Exception {
+		MappedFileCache cache = new MappedFileCache(4 * 1024);
+		File file = newFile("a", 3000);
+		byte[] expected = Files.toByteArray(file);
+
+		InputStream in1 = cache.getInputStream(file);
+		InputStream in2 = cache.getInputStream(file);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(3000, in1.available());
+		// Streams share the mapping but not the read position
+		Assert.assertEquals(expected[0] & 0xff, in1.read());
+		Assert.assertEquals(10, in1.skip(10));
+		Assert.assertTrue(Arrays.equals(expected, IOUtils.toByteArray(in2)));
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 11, 3000), IOUtils.toByteArray(in1)));
+		Assert.assertEquals(-1, in1.read());
+		in1.close();
+		Assert.assertEquals(0, in1.available());
+		try {
+			in1.read();
+			Assert.fail();
+		} catch (Exception expectedException) {}
+
+		// Files larger than the cache aren't mapped
+		Assert.assertNull(cache.getInputStream(newFile("big", 5000)));
+
+		// Least recently used mappings are dropped
+		cache.getInputStream(newFile("b", 2000));
+		Assert.assertEquals(1, cache.size());
+
+		cache.remove(new File(tmpdir, "b"));
+		Assert.assertEquals(0, cache.size());
+		cache.getInputStream(file);
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+	}
+}
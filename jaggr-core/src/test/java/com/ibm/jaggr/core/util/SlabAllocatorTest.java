@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2012, IBM Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ibm.jaggr.core.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class SlabAllocatorTest {
+
+	private static byte[] newData(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte)(i * 31);
+		}
+		return data;
+	}
+
+	@Test
+	public void testAllocate() throws Exception {
+		// two slabs of four 16 byte chunks
+		SlabAllocator allocator = new SlabAllocator(128, 64, 16);
+		Assert.assertEquals(128, allocator.getCapacity());
+
+		byte[] data = newData(40);
+		SlabAllocator.Allocation alloc = allocator.allocate(data);
+		Assert.assertEquals(40, alloc.getLength());
+		Assert.assertEquals(48, allocator.getUsed());
+		InputStream in = alloc.getInputStream();
+		Assert.assertEquals(40, in.available());
+		Assert.assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+		in.close();
+
+		// Single byte reads
+		in = alloc.getInputStream();
+		for (int i = 0; i < data.length; i++) {
+			Assert.assertEquals(data[i] & 0xff, in.read());
+		}
+		Assert.assertEquals(-1, in.read());
+		in.close();
+
+		// Empty data
+		SlabAllocator.Allocation empty = allocator.allocate(new byte[0]);
+		Assert.assertEquals(-1, empty.getInputStream().read());
+		Assert.assertEquals(48, allocator.getUsed());
+
+		// Not enough space
+		Assert.assertNull(allocator.allocate(newData(96)));
+		Assert.assertEquals(48, allocator.getUsed());
+		SlabAllocator.Allocation alloc2 = allocator.allocate(newData(80));
+		Assert.assertNotNull(alloc2);
+		Assert.assertEquals(128, allocator.getUsed());
+		Assert.assertNull(allocator.allocate(newData(1)));
+
+		// Freed chunks are reused
+		alloc.free();
+		Assert.assertEquals(80, allocator.getUsed());
+		Assert.assertNull(alloc.getInputStream());
+		data = newData(48);
+		alloc = allocator.allocate(data);
+		Assert.assertTrue(Arrays.equals(data, IOUtils.toByteArray(alloc.getInputStream())));
+		Assert.assertTrue(Arrays.equals(newData(80), IOUtils.toByteArray(alloc2.getInputStream())));
+	}
+
+	@Test
+	public void testFreeWithOpenStream() throws Exception {
+		SlabAllocator allocator = new SlabAllocator(64, 64, 16);
+		byte[] data = newData(64);
+		SlabAllocator.Allocation alloc = allocator.allocate(data);
+		InputStream in = alloc.getInputStream();
+		Assert.assertEquals(data[0], (byte)in.read());
+		alloc.free();
+		alloc.free();
+		// Storage isn't reclaimed until the stream is closed
+		Assert.assertEquals(64, allocator.getUsed());
+		Assert.assertNull(allocator.allocate(newData(1)));
+		byte[] rest = IOUtils.toByteArray(in);
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1, 64), rest));
+		in.close();
+		in.close();
+		Assert.assertEquals(0, allocator.getUsed());
+		Assert.assertNotNull(allocator.allocate(newData(64)));
+	}
+}
@@ -139,7 +139,13 @@ public class Activator extends Plugin implements BundleActivator {
 	}
 
 	protected IExecutors newExecutors() {
-		return new ExecutorsImpl();
+		return new ExecutorsImpl() {
+			@Override
+			protected String getProperty(String name) {
+				// Framework properties fall back to system properties
+				return context.getProperty(name);
+			}
+		};
 	}
 
 	protected ServiceRegistration registerCommandProvider() throws InvalidSyntaxException {
@@ -77,6 +77,7 @@ public class AggregatorCommandProvider implements CommandProvider {
 	static final String CMD_FORCEERROR = "forceerror"; //$NON-NLS-1$
 	static final String CMD_PROCESSREQUEST = "processrequesturl"; //$NON-NLS-1$
 	static final String CMD_CREATECACHEBUNDLE = "createcachebundle"; //$NON-NLS-1$
+	static final String CMD_GETEXECUTORSTATS = "getexecutorstats"; //$NON-NLS-1$
 	static final String NEWLINE = "\r\n"; //$NON-NLS-1$
 
 	static final String[] COMMANDS = new String[] {
@@ -94,7 +95,8 @@ public class AggregatorCommandProvider implements CommandProvider {
 		CMD_GETDEPSWITHHASBRANCHING,
 		CMD_FORCEERROR,
 		CMD_PROCESSREQUEST,
-		CMD_CREATECACHEBUNDLE
+		CMD_CREATECACHEBUNDLE,
+		CMD_GETEXECUTORSTATS
 	};
 
 	static final String DEPSOURCE_CONSOLE = "console"; //$NON-NLS-1$
@@ -161,7 +163,10 @@ public class AggregatorCommandProvider implements CommandProvider {
 						new Object[]{EYECATCHER, scopeSep, CMD_CREATECACHEBUNDLE})).append(newline)
 				.append(MessageFormat.format(
 						Messages.CommandProvider_25,
-						new Object[]{EYECATCHER, scopeSep, CMD_PROCESSREQUEST})).append(newline);
+						new Object[]{EYECATCHER, scopeSep, CMD_PROCESSREQUEST})).append(newline)
+				.append(MessageFormat.format(
+						Messages.CommandProvider_30,
+						new Object[]{EYECATCHER, scopeSep, CMD_GETEXECUTORSTATS})).append(newline);
 
 
 		return sb.toString();
@@ -210,6 +215,8 @@ public class AggregatorCommandProvider implements CommandProvider {
 				ci.println(createCacheBundle(args));
 			} else if (command.equals(CMD_PROCESSREQUEST)) {
 				ci.println(processRequestUrl(args));
+			} else if (command.equals(CMD_GETEXECUTORSTATS)) {
+				ci.println(getExecutorStats(args));
 			} else {
 				ci.print(getHelp());
 			}
@@ -491,6 +498,20 @@ public class AggregatorCommandProvider implements CommandProvider {
 		return sb.toString();
 	}
 
+	protected String getExecutorStats(String[] args) throws InvalidSyntaxException {
+		StringBuffer sb = new StringBuffer();
+		ServiceReference ref = getServiceRef(args, sb);
+		if (ref != null) {
+			IAggregator aggregator = (IAggregator)getBundleContext().getService(ref);
+			try {
+				sb.append(aggregator.getExecutors().toString());
+			} finally {
+				getBundleContext().ungetService(ref);
+			}
+		}
+		return sb.toString();
+	}
+
 	protected String setForceError(Object[] args) throws InvalidSyntaxException {
 		StringBuffer sb = new StringBuffer();
 		ServiceReference ref = getServiceRef(new String[]{(String)args[0]}, sb);
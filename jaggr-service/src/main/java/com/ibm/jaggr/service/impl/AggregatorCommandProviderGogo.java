@@ -159,6 +159,14 @@ public class AggregatorCommandProviderGogo extends AggregatorCommandProvider {
 		return super.showconfig(new String[]{servlet});
 	}
 
+	@Descriptor("displays queue depth, active count, and task wait and run times for the executors used by the servlet")
+	public String getexecutorstats(CommandSession cs,
+			@Descriptor("<servlet>")String servlet
+			) throws InvalidSyntaxException {
+		new ConsoleService(new CSConsoleWriter(cs));		// Saves the command session so it can be accessed by async thread
+		return super.getExecutorStats(new String[]{servlet});
+	}
+
 	@Descriptor("displays the location of the servlet directory for the specified servlet")
 	public String getservletdir(CommandSession cs,
 			@Descriptor("<servlet>")String servlet
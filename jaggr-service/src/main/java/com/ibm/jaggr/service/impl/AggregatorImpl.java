@@ -798,6 +798,8 @@ public class AggregatorImpl extends AbstractAggregatorImpl implements IExecutabl
 	 */
 	public String processRequestUrl(String requestUrl) throws IOException, ServletException {
 		ConsoleHttpServletRequest req = new ConsoleHttpServletRequest(getServletConfig().getServletContext(), requestUrl);
+		// Let user requests take priority over cache priming
+		req.setAttribute(PRIMING_REQATTRNAME, Boolean.TRUE);
 		OutputStream nulOutputStream = new OutputStream() {
 			@Override public void write(int b) throws IOException {}
 		};